@@ -0,0 +1,69 @@
+package psidev.psi.tools.xxindex.index;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * ByteSkipper implementation based on the (incubating) JDK Vector API.
+ * It compares a full vector of bytes (32 bytes with AVX2, 64 bytes with AVX-512)
+ * against the stop bytes of the current mode at once and counts the line breaks
+ * with a population count of the '\n' mask.
+ * <p>
+ * This class is compiled separately (Java 17+) and is only used if the
+ * jdk.incubator.vector module has been added to the JVM, see ByteSkipper#create(boolean).
+ *
+ * @since 0.25
+ */
+class VectorByteSkipper extends ByteSkipper {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    static {
+        // narrow vectors are emulated and slower than the table lookups
+        if (SPECIES.length() < 16) {
+            throw new UnsupportedOperationException("No hardware support for vectors of at least 16 bytes.");
+        }
+    }
+
+    private static final byte NEWLINE = '\n';
+
+    int skip(byte[] buf, int from, int to, int mode) {
+        final byte[] stops = STOPS[mode];
+        final int step = SPECIES.length();
+        final int bound = from + SPECIES.loopBound(to - from);
+        int lines = 0;
+        int i = from;
+        for (; i < bound; i += step) {
+            ByteVector v = ByteVector.fromArray(SPECIES, buf, i);
+            VectorMask<Byte> stop = v.compare(VectorOperators.EQ, stops[0]);
+            for (int s = 1; s < stops.length; s++) {
+                stop = stop.or(v.compare(VectorOperators.EQ, stops[s]));
+            }
+            VectorMask<Byte> newline = v.compare(VectorOperators.EQ, NEWLINE);
+            if (stop.anyTrue()) {
+                int first = stop.firstTrue();
+                newlines = lines + newline.and(SPECIES.indexInRange(0, first)).trueCount();
+                return i + first;
+            }
+            lines += newline.trueCount();
+        }
+        // the tail is shorter than a vector
+        for (; i < to; i++) {
+            byte b = buf[i];
+            if (b == NEWLINE) {
+                lines++;
+                continue;
+            }
+            for (byte s : stops) {
+                if (b == s) {
+                    newlines = lines;
+                    return i;
+                }
+            }
+        }
+        newlines = lines;
+        return i;
+    }
+}
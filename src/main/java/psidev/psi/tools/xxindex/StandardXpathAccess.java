@@ -13,19 +13,25 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import psidev.psi.tools.xxindex.index.ByteBuffer;
 import psidev.psi.tools.xxindex.index.IndexElement;
+import psidev.psi.tools.xxindex.index.ProgressiveXpathIndex;
+import psidev.psi.tools.xxindex.index.StandardXpathIndex;
 import psidev.psi.tools.xxindex.index.XmlElement;
 import psidev.psi.tools.xxindex.index.XmlXpathIndexer;
 import psidev.psi.tools.xxindex.index.XpathIndex;
+import psidev.psi.tools.xxindex.index.XpathIndexFile;
 
 /**
  * Author: Florian Reisinger
@@ -36,12 +42,14 @@ public class StandardXpathAccess implements XpathAccess {
     Logger logger = LoggerFactory.getLogger(StandardXpathAccess.class);
 
     private File file;
+    private XmlXpathIndexer indexer;
     private XpathIndex index;
     private XmlElementExtractor extractor;
     private boolean ignoreNSPrefix = true;
     private boolean isGzFile;
     private FileInputStream fis = null;
     private AsynchronousFileChannel asynchFileChannel;
+    private File indexFile;
 
     ////////////////////
     // Constructors
@@ -87,6 +95,10 @@ public class StandardXpathAccess implements XpathAccess {
      * @see this#StandardXpathAccess(java.io.File, java.util.Set)
      */
     public StandardXpathAccess(File file, Set<String> aXpathInclusionSet, boolean recordLineNumbers) throws IOException {
+        this(createIndexer(aXpathInclusionSet, recordLineNumbers), null, file, false, null);
+    }
+
+    private StandardXpathAccess(XmlXpathIndexer indexer, XpathIndex index, File file, boolean background, File indexFile) throws IOException {
 
         if (file == null) {
             throw new IllegalArgumentException("The input file must not be null!");
@@ -96,16 +108,23 @@ public class StandardXpathAccess implements XpathAccess {
         }
 
         this.file = file;
-        fis = new FileInputStream(file);
+        this.indexer = indexer;
+        this.indexFile = indexFile;
+        this.isGzFile = file.getName().endsWith(".gz");
+        this.index = index;
+
+        if (index == null && indexFile != null) {
+            this.index = loadIndex();
+        }
+        if (this.index == null && indexer != null) {
+            this.index = createIndex(background);
+            writeIndex();
+        }
 
         // choosing the Extractor to use
-        if (file.getName().endsWith(".gz")) {
-            isGzFile = true;
-            this.index = XmlXpathIndexer.buildIndex(new GZIPInputStream(fis), aXpathInclusionSet, recordLineNumbers);
+        if (isGzFile) {
             this.extractor = new GzXmlElementExtractor();
         } else {
-            isGzFile = false;
-            this.index = XmlXpathIndexer.buildIndex(fis, aXpathInclusionSet, recordLineNumbers);
             this.extractor = new FastXmlElementExtractor(file);
         }
 
@@ -113,7 +132,145 @@ public class StandardXpathAccess implements XpathAccess {
         if (enc != null) {
             extractor.setEncoding(enc);
         }
-        fis.close();
+    }
+
+    /**
+     * Creates an xpath index for the specified XML file with the given indexer.
+     * This allows to use all the settings of the XmlXpathIndexer, like the number of threads
+     * used to index uncompressed files.
+     *
+     * @param file    File with the XML file to index.
+     * @param indexer the XmlXpathIndexer to create the index with.
+     * @return the XpathAccess to the indexed file.
+     * @throws IOException when the file could not be accessed
+     * @see psidev.psi.tools.xxindex.index.XmlXpathIndexer#setParallelism(int)
+     */
+    public static StandardXpathAccess withIndexer(File file, XmlXpathIndexer indexer) throws IOException {
+        if (indexer == null) {
+            throw new IllegalArgumentException("The indexer must not be null!");
+        }
+        return new StandardXpathAccess(indexer, null, file, false, null);
+    }
+
+    /**
+     * Creates an xpath index for the specified XML file with the given indexer on a background thread.
+     * This returns at once and the methods of the XpathAccess wait only until the index covers their
+     * query: the iterators return the elements as they are indexed, queries with a stop position wait
+     * until the index has reached it and all other queries wait until the whole file has been indexed.
+     *
+     * @param file    File with the XML file to index.
+     * @param indexer the XmlXpathIndexer to create the index with.
+     * @return the XpathAccess to the file being indexed.
+     * @throws IOException when the file could not be accessed
+     * @see this#getCompletion()
+     * @see psidev.psi.tools.xxindex.index.ProgressiveXpathIndex
+     */
+    public static StandardXpathAccess inBackground(File file, XmlXpathIndexer indexer) throws IOException {
+        if (indexer == null) {
+            throw new IllegalArgumentException("The indexer must not be null!");
+        }
+        return new StandardXpathAccess(indexer, null, file, true, null);
+    }
+
+    /**
+     * Loads the index of the specified XML file from an index file, if it belongs to the current content
+     * of the XML file and has been created with the same settings as the given indexer
+     * (see XmlXpathIndexer#isCompatible(psidev.psi.tools.xxindex.index.StandardXpathIndex)). Otherwise the file
+     * is indexed with the given indexer and the index is written to the index file, for the next time the file
+     * is accessed. The index file is written again when the index is updated.
+     *
+     * @param file      File with the XML file to index.
+     * @param indexer   the XmlXpathIndexer to create the index with.
+     * @param indexFile the file to load the index from and to write it to, e.g. XpathIndexFile#getSidecar(java.io.File).
+     * @return the XpathAccess to the indexed file.
+     * @throws IOException when the file could not be accessed
+     * @see psidev.psi.tools.xxindex.index.XpathIndexFile
+     */
+    public static StandardXpathAccess withIndexFile(File file, XmlXpathIndexer indexer, File indexFile) throws IOException {
+        if (indexer == null || indexFile == null) {
+            throw new IllegalArgumentException("The indexer and the index file must not be null!");
+        }
+        return new StandardXpathAccess(indexer, null, file, false, indexFile);
+    }
+
+    /**
+     * Uses an existing index of the specified XML file, e.g. a MappedXpathIndex that is shared
+     * by several processes. Such an XpathAccess can not be updated.
+     *
+     * @param file  File with the XML file the index has been created from.
+     * @param index the index of the file.
+     * @return the XpathAccess to the indexed file.
+     * @throws IOException when the file could not be accessed
+     * @see psidev.psi.tools.xxindex.index.MappedXpathIndex
+     */
+    public static StandardXpathAccess withIndex(File file, XpathIndex index) throws IOException {
+        if (index == null) {
+            throw new IllegalArgumentException("The index must not be null!");
+        }
+        return new StandardXpathAccess(null, index, file, false, null);
+    }
+
+    private XpathIndex createIndex(boolean background) throws IOException {
+        if (!isGzFile) {
+            return background ? indexer.indexInBackground(file) : indexer.index(file);
+        }
+        StandardXpathIndex gzIndex;
+        if (background) {
+            // the stream is closed by the background thread
+            gzIndex = indexer.indexInBackground(new GZIPInputStream(new FileInputStream(file)));
+        } else {
+            fis = new FileInputStream(file);
+            gzIndex = indexer.index(new GZIPInputStream(fis));
+            fis.close();
+        }
+        // the elements of sampled xpaths are found in the (decompressed) file
+        gzIndex.setFile(file);
+        if (gzIndex.getLineTable() != null) {
+            // lazy line numbers are looked up in the (decompressed) file
+            gzIndex.getLineTable().setFile(file);
+        }
+        return gzIndex;
+    }
+
+    /**
+     * @return the index read from the index file, null if it is missing, outdated, corrupted or has other settings.
+     */
+    private StandardXpathIndex loadIndex() {
+        try {
+            StandardXpathIndex loaded = XpathIndexFile.read(indexFile, file, true);
+            if (loaded == null) {
+                return null;
+            }
+            if (!indexer.isCompatible(loaded)) {
+                logger.info("The index file has been created with other settings: " + indexFile.getAbsolutePath());
+                return null;
+            }
+            return loaded;
+        } catch (IOException e) {
+            logger.warn("Could not read the index file, indexing the file again: " + indexFile.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index to the index file, if any. A failure only means the file has to be indexed again next time.
+     */
+    private void writeIndex() {
+        if (indexFile == null) {
+            return;
+        }
+        try {
+            XpathIndexFile.write((StandardXpathIndex) index, file, indexFile);
+        } catch (IOException e) {
+            logger.warn("Could not write the index file: " + indexFile.getAbsolutePath(), e);
+        }
+    }
+
+    private static XmlXpathIndexer createIndexer(Set<String> aXpathInclusionSet, boolean recordLineNumbers) {
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setXpathInclusionSet(aXpathInclusionSet);
+        indexer.setRecordLineNumber(recordLineNumbers);
+        return indexer;
     }
 
     ////////////////////
@@ -131,6 +288,18 @@ public class StandardXpathAccess implements XpathAccess {
         return index;
     }
 
+    /**
+     * @return a future completed with the index when the whole file has been indexed,
+     *         an already completed one if the file has not been indexed in the background.
+     * @see this#inBackground(java.io.File, psidev.psi.tools.xxindex.index.XmlXpathIndexer)
+     */
+    public CompletableFuture<XpathIndex> getCompletion() {
+        if (index instanceof ProgressiveXpathIndex) {
+            return ((ProgressiveXpathIndex) index).getCompletion().thenApply(i -> (XpathIndex) i);
+        }
+        return CompletableFuture.completedFuture(index);
+    }
+
     public XmlElementExtractor getExtractor() { return extractor; }
 
     public boolean isIgnoreNSPrefix() {
@@ -144,6 +313,55 @@ public class StandardXpathAccess implements XpathAccess {
     ////////////////////
     // Method
 
+    /**
+     * Updates the index after content has been appended to the file, e.g. while it is still being written.
+     * Only the appended content is indexed, unless the already indexed part of the file has been modified,
+     * in which case the file is indexed again (only its modified blocks, if the index has block fingerprints).
+     * Note: for gz compressed files the indexed part has to be decompressed again, but it is not indexed again.
+     * The index file, if any, is written again when the index has changed.
+     *
+     * @return true if new content has been indexed.
+     * @throws IOException when the file could not be accessed
+     * @see psidev.psi.tools.xxindex.index.XmlXpathIndexer#resume(StandardXpathIndex, java.io.File)
+     * @see psidev.psi.tools.xxindex.index.XmlXpathIndexer#reindex(StandardXpathIndex, java.io.File)
+     */
+    public boolean update() throws IOException {
+        if (index instanceof ProgressiveXpathIndex) {
+            ((ProgressiveXpathIndex) index).awaitCompletion();
+        }
+        if (indexer == null) {
+            throw new IllegalStateException("The index has not been created by this XpathAccess and can not be updated.");
+        }
+        StandardXpathIndex current = (StandardXpathIndex) index;
+        if (current.getIndexState() == null) {
+            // e.g. a loaded index that ended within a tag
+            logger.info("The index can not be resumed, indexing the file again: " + file.getAbsolutePath());
+            this.index = createIndex(false);
+            writeIndex();
+            return true;
+        }
+        long position = current.getIndexState().getPosition();
+        if (isGzFile) {
+            try (InputStream is = new GZIPInputStream(new FileInputStream(file))) {
+                // a modified start of the file is not detected, the appended content has to follow the indexed one
+                IOUtils.skipFully(is, position);
+                indexer.resume(current, is);
+            }
+        } else if (indexer.isResumable(current, file)) {
+            indexer.resume(current, file);
+        } else {
+            logger.info("The indexed part of the file has been modified, indexing the file again: " + file.getAbsolutePath());
+            this.index = indexer.reindex(current, file);
+            writeIndex();
+            return true;
+        }
+        boolean updated = current.getIndexState().getPosition() > position;
+        if (updated) {
+            writeIndex();
+        }
+        return updated;
+    }
+
     /**
      * This method will retrieve XML snippets for the specified xpath. The xpath defines the path from
      * the root element to the XML element to extract.
@@ -177,11 +395,16 @@ public class StandardXpathAccess implements XpathAccess {
      */
     public List<String> getXmlSnippets(String xpath, Long start, Long stop) throws IOException {
         List<String> results = new ArrayList<>();
-        // check xpath
-        // check if xpath in index
-        if (index.containsXpath(xpath)) {
+        if (isIndexingRange(stop)) {
+            // only wait until the index covers the range
+            for (IndexElement range : ((ProgressiveXpathIndex) index).getElements(xpath, start == null ? 0 : start, stop)) {
+                results.add(extractor.readString(range.getStart(), range.getStop(), file));
+            }
+        } else if (index.containsXpath(xpath)) {
+            // check xpath
+            // check if xpath in index
             // retrieve ByteRange from index
-            List<IndexElement> ranges = index.getElements(xpath);
+            List<IndexElement> ranges = elements(xpath, start, stop);
             // get String for ByteRange
             for (IndexElement range : ranges) {
                 if ((start == null || range.getStart() >= start) && (stop == null || range.getStop() <= stop)) {
@@ -220,7 +443,10 @@ public class StandardXpathAccess implements XpathAccess {
      */
     public Iterator<String> getXmlSnippetIterator(String xpath, Long start, Long stop) {
         Iterator<String> iter;
-        if (index.containsXpath(xpath)) {
+        if (index instanceof ProgressiveXpathIndex) {
+            // the elements are returned as they are indexed
+            iter = new XmlSnippetIterator(progressiveElements(xpath, start, stop), extractor, file);
+        } else if (index.containsXpath(xpath)) {
             // retrieve ByteRange from index
             List<IndexElement> ranges = index.getElements(xpath);
 
@@ -308,6 +534,78 @@ public class StandardXpathAccess implements XpathAccess {
         return startTag;
     }
 
+    /**
+     * @return the elements of the xpath, only the ones within the range if the index can look them up.
+     */
+    private List<IndexElement> elements(String xpath, Long start, Long stop) {
+        if ((start != null || stop != null) && index instanceof StandardXpathIndex) {
+            return ((StandardXpathIndex) index).getElements(xpath, start == null ? 0 : start, stop == null ? Long.MAX_VALUE : stop);
+        }
+        return index.getElements(xpath);
+    }
+
+    /**
+     * @return true if the index is still being filled and the query has a stop position to wait for.
+     */
+    private boolean isIndexingRange(Long stop) {
+        return stop != null && index instanceof ProgressiveXpathIndex && !((ProgressiveXpathIndex) index).isComplete();
+    }
+
+    private Iterator<IndexElement> progressiveElements(String xpath, Long start, Long stop) {
+        Iterator<IndexElement> elements = ((ProgressiveXpathIndex) index).getElementIterator(xpath);
+        if (start == null && stop == null) {
+            return elements;
+        }
+        return new RangeIterator(elements, start, stop);
+    }
+
+    /**
+     * Private Iterator implementation that returns the elements between a start and stop position
+     * of the elements of a xpath, which are ordered by their stop position.
+     */
+    private static class RangeIterator implements Iterator<IndexElement> {
+
+        private final Iterator<IndexElement> iterator;
+        private final Long start;
+        private final Long stop;
+        private IndexElement next;
+        private boolean passedStop = false;
+
+        public RangeIterator(Iterator<IndexElement> elements, Long start, Long stop) {
+            this.iterator = elements;
+            this.start = start;
+            this.stop = stop;
+        }
+
+        public boolean hasNext() {
+            while (next == null && !passedStop && iterator.hasNext()) {
+                IndexElement element = iterator.next();
+                if (stop != null && element.getStop() > stop) {
+                    // all the following elements end after the stop position as well
+                    passedStop = true;
+                    break;
+                }
+                if (start == null || element.getStart() >= start) {
+                    next = element;
+                }
+            }
+            return next != null;
+        }
+
+        public IndexElement next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            IndexElement element = next;
+            next = null;
+            return element;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     /**
      * + Private Iterator implementation that allows the iteration over XML snippets as Strings.
      */
@@ -318,7 +616,11 @@ public class StandardXpathAccess implements XpathAccess {
         private File file;
 
         public XmlSnippetIterator(List<IndexElement> ranges, XmlElementExtractor extractor, File file) {
-            this.iterator = ranges.iterator();
+            this(ranges.iterator(), extractor, file);
+        }
+
+        public XmlSnippetIterator(Iterator<IndexElement> ranges, XmlElementExtractor extractor, File file) {
+            this.iterator = ranges;
             this.extractor = extractor;
             this.file = file;
         }
@@ -400,12 +702,18 @@ public class StandardXpathAccess implements XpathAccess {
      */
     public List<XmlElement> getXmlElements(String xpath, Long start, Long stop) throws IOException {
         List<XmlElement> results = new ArrayList<>();
-        // check xpath
-        // check if xpath in index
-        // if yes, transform (range + line number) into (xml snippet + line number)
-        if (index.containsXpath(xpath)) {
+        if (isIndexingRange(stop)) {
+            // only wait until the index covers the range
+            for (IndexElement element : ((ProgressiveXpathIndex) index).getElements(xpath, start == null ? 0 : start, stop)) {
+                String tmp = extractor.readString(element.getStart(), element.getStop(), file);
+                results.add(new XmlElement(tmp, element.getLineNumber()));
+            }
+        } else if (index.containsXpath(xpath)) {
+            // check xpath
+            // check if xpath in index
+            // if yes, transform (range + line number) into (xml snippet + line number)
             // retrieve the xml element (range + line number) from index
-            List<IndexElement> elements = index.getElements(xpath);
+            List<IndexElement> elements = elements(xpath, start, stop);
             // get String for ByteRange and get the line number for the range
             for (IndexElement element : elements) {
                 if ((start == null || element.getStart() >= start) && (stop == null || element.getStop() <= stop)) {
@@ -447,7 +755,10 @@ public class StandardXpathAccess implements XpathAccess {
      */
     public Iterator<XmlElement> getXmlElementIterator(String xpath, Long start, Long stop) {
         Iterator<XmlElement> iter;
-        if (index.containsXpath(xpath)) {
+        if (index instanceof ProgressiveXpathIndex) {
+            // the elements are returned as they are indexed
+            iter = new XmlElementIterator(progressiveElements(xpath, start, stop), extractor, file);
+        } else if (index.containsXpath(xpath)) {
             // retrieve ByteRange from index
             List<IndexElement> elements = index.getElements(xpath);
 
@@ -472,7 +783,11 @@ public class StandardXpathAccess implements XpathAccess {
         private File file;
 
         public XmlElementIterator(List<IndexElement> elements, XmlElementExtractor extractor, File file) {
-            this.iterator = elements.iterator();
+            this(elements.iterator(), extractor, file);
+        }
+
+        public XmlElementIterator(Iterator<IndexElement> elements, XmlElementExtractor extractor, File file) {
+            this.iterator = elements;
             this.extractor = extractor;
             this.file = file;
         }
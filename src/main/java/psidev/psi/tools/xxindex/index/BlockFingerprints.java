@@ -0,0 +1,297 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The hashes of the blocks of an indexed file, to find the unchanged parts of the file after it
+ * has been modified. The block boundaries are content defined: a boundary is placed before a '&lt;'
+ * following a position where a rolling hash of the last 64 bytes has a certain value, so an edit
+ * only changes the blocks around it. At every boundary outside of a tag, the open elements are
+ * recorded as well, so the elements within a run of unchanged blocks can be taken over from the
+ * old index, with shifted positions and line numbers, and the scan can continue after it.
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#setBlockFingerprints(boolean)
+ * @see XmlXpathIndexer#reindex(StandardXpathIndex, java.io.File)
+ */
+public class BlockFingerprints {
+
+    /**
+     * The minimal size of a block.
+     */
+    static final int MIN_BLOCK_SIZE = 1 << 12;
+
+    /**
+     * A boundary follows a position with these bits of the rolling hash set to 0, which results
+     * in blocks of 64 KiB on average (the high bits depend on more of the last bytes than the low ones).
+     */
+    static final long BOUNDARY_MASK = 0xFFFFL << 48;
+
+    // the random values of the bytes for the rolling hash
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6c78a2e1b4f5d3c9L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    // block i starts at starts[i] and ends at starts[i + 1], the block at starts[size] is not complete yet
+    private long[] starts = new long[16];
+    private long[] hashes = new long[16];
+    // the smallest number of open elements within the block
+    private int[] minDepths = new int[16];
+    // the open elements at the start of the block, null if it does not start outside of the tags
+    private Boundary[] boundaries = new Boundary[16];
+    private int size = 0;
+
+    // the block being recorded
+    private final Chunker chunker = new Chunker();
+    private ContentChecksum.XXHash64 hash = new ContentChecksum.XXHash64();
+    // the number of bytes passed to hash(byte[], int)
+    private long hashed = 0;
+
+    public BlockFingerprints() {
+        // the state of a new scanner and builder
+        boundaries[0] = new Boundary(1, (byte) ' ', "", new byte[0][], new long[0], new long[0]);
+    }
+
+    ////////////////////
+    // Getter
+
+    /**
+     * @return the number of complete blocks, the content after the last of them is not part of any block yet.
+     */
+    public int getBlockCount() {
+        return size;
+    }
+
+    /**
+     * @param block the number of a block, 0 &lt;= block &lt;= getBlockCount().
+     * @return the position of the first byte of the block.
+     */
+    public long getBlockStart(int block) {
+        return starts[block];
+    }
+
+    /**
+     * @param block the number of a complete block.
+     * @return the 64 bit xxHash of the content of the block.
+     */
+    public long getBlockHash(int block) {
+        return hashes[block];
+    }
+
+    int getMinDepth(int block) {
+        return minDepths[block];
+    }
+
+    Boundary getBoundary(int block) {
+        return boundaries[block];
+    }
+
+    ////////////////////
+    // Methods
+
+    /**
+     * Splits content into blocks and calculates their hashes, without recording the open elements.
+     *
+     * @param block  the next bytes of the content.
+     * @param length the number of bytes.
+     */
+    void hash(byte[] block, int length) {
+        int offset = 0;
+        while (offset < length) {
+            int boundary = chunker.next(block, offset, length, hashed);
+            int to = boundary < 0 ? length : boundary;
+            hash.update(block, offset, to - offset);
+            offset = to;
+            if (boundary >= 0) {
+                add(hash.digest(), hashed + to, null, 0);
+            }
+        }
+        hashed += length;
+    }
+
+    /**
+     * Scans the next bytes of the content, recording the blocks and the open elements at their boundaries.
+     * Note: the scanner must not be stopped (see StopCondition), all the bytes are scanned.
+     *
+     * @param scanner the scanner to scan the bytes with.
+     * @param builder the builder of the index, which receives the tags of the scanner.
+     * @param block   the next bytes of the content.
+     * @param length  the number of bytes.
+     */
+    void scan(XmlScanner scanner, XmlXpathIndexer.IndexBuilder builder, byte[] block, int length) {
+        int offset = 0;
+        while (offset < length) {
+            int boundary = chunker.next(block, offset, length, scanner.getPosition() - offset);
+            int to = boundary < 0 ? length : boundary;
+            hash.update(block, offset, to - offset);
+            scanner.scan(block, offset, to - offset);
+            offset = to;
+            if (boundary >= 0) {
+                boundary(scanner, builder);
+            }
+        }
+    }
+
+    /**
+     * Ends the current block at the position of the scanner, which has to be a block boundary.
+     */
+    void boundary(XmlScanner scanner, XmlXpathIndexer.IndexBuilder builder) {
+        XmlScanner.State state = scanner.saveState();
+        Boundary boundary = null;
+        if (state.isOutsideOfTags() && state.skipDepth == 0 && builder.getPrunedDepth() == 0) {
+            boundary = builder.getBoundary(state.lineNumber, state.prev);
+        }
+        add(hash.digest(), state.position, boundary, builder.resetMinDepth());
+        chunker.reset(state.position);
+    }
+
+    /**
+     * Takes over unchanged blocks of an earlier recording.
+     *
+     * @param old       the earlier recording.
+     * @param from      the first block to take over.
+     * @param to        the block after the last one to take over, it has to start outside of the tags.
+     * @param delta     the number to add to the positions.
+     * @param lineDelta the number to add to the line numbers.
+     * @param current   the open elements at the start of the blocks, the same as in the earlier recording.
+     */
+    void copy(BlockFingerprints old, int from, int to, long delta, long lineDelta, Boundary current) {
+        // the elements open at the start, which are still open
+        int outer = current.getDepth();
+        for (int i = from; i < to; i++) {
+            outer = Math.min(outer, old.minDepths[i]);
+            Boundary boundary = old.boundaries[i + 1] == null ? null : old.boundaries[i + 1].shift(delta, lineDelta, current, outer);
+            add(old.hashes[i], old.starts[i + 1] + delta, boundary, old.minDepths[i]);
+        }
+        chunker.reset(starts[size]);
+    }
+
+    private void add(long blockHash, long end, Boundary boundary, int minDepth) {
+        if (size + 1 == starts.length) {
+            int capacity = starts.length * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            minDepths = Arrays.copyOf(minDepths, capacity);
+            boundaries = Arrays.copyOf(boundaries, capacity);
+        }
+        hashes[size] = blockHash;
+        minDepths[size] = minDepth;
+        size++;
+        starts[size] = end;
+        boundaries[size] = boundary;
+        hash = new ContentChecksum.XXHash64();
+    }
+
+    public String toString() {
+        return "BlockFingerprints{" +
+                "blocks=" + size +
+                ", end=" + starts[size] +
+                '}';
+    }
+
+    ////////////////////
+    // Inner classes
+
+    /**
+     * Finds the content defined block boundaries.
+     */
+    private static class Chunker {
+
+        // the start of the current block
+        long start = 0;
+        // the rolling hash, which only depends on the last 64 bytes
+        private long gear = 0;
+        // whether the next '<' starts a new block
+        private boolean pending = false;
+
+        /**
+         * @param bytes    the content.
+         * @param offset   the offset of the first byte to look at.
+         * @param end      the offset after the last byte to look at.
+         * @param position the position of bytes[0] in the content.
+         * @return the offset of the first byte of the next block, -1 if the next block starts after the bytes.
+         */
+        int next(byte[] bytes, int offset, int end, long position) {
+            long min = start + MIN_BLOCK_SIZE - position;
+            for (int i = offset; i < end; i++) {
+                byte b = bytes[i];
+                if (pending && b == '<') {
+                    reset(position + i);
+                    return i;
+                }
+                gear = (gear << 1) + GEAR[b & 0xFF];
+                if (i >= min && (gear & BOUNDARY_MASK) == 0) {
+                    pending = true;
+                }
+            }
+            return -1;
+        }
+
+        void reset(long position) {
+            start = position;
+            gear = 0;
+            pending = false;
+        }
+    }
+
+    /**
+     * The state at the start of a block, which starts outside of the tags.
+     */
+    static class Boundary {
+
+        // the line number of the scanner and the byte before the boundary
+        final long lineNumber;
+        final byte prev;
+        // the xpath of the innermost open element, "" if there is none
+        final String xpath;
+        // the open elements
+        final byte[][] names;
+        final long[] starts;
+        final long[] lineNumbers;
+
+        Boundary(long lineNumber, byte prev, String xpath, byte[][] names, long[] starts, long[] lineNumbers) {
+            this.lineNumber = lineNumber;
+            this.prev = prev;
+            this.xpath = xpath;
+            this.names = names;
+            this.starts = starts;
+            this.lineNumbers = lineNumbers;
+        }
+
+        int getDepth() {
+            return names.length;
+        }
+
+        /**
+         * @return the line number, counting a '\r' before the boundary (which the scanner counts with the next byte).
+         */
+        long getCompletedLineNumber() {
+            return prev == '\r' ? lineNumber + 1 : lineNumber;
+        }
+
+        /**
+         * @param delta      the number to add to the positions.
+         * @param lineDelta  the number to add to the line numbers.
+         * @param current    the boundary with the outer elements.
+         * @param outerDepth the number of outer elements, which are taken from the current boundary.
+         * @return this boundary moved by the given distances, with the outer elements replaced by the current ones.
+         */
+        Boundary shift(long delta, long lineDelta, Boundary current, int outerDepth) {
+            int depth = names.length;
+            long[] shiftedStarts = new long[depth];
+            long[] shiftedLineNumbers = new long[depth];
+            for (int i = 0; i < depth; i++) {
+                boolean inner = i >= outerDepth;
+                shiftedStarts[i] = inner ? starts[i] + delta : current.starts[i];
+                shiftedLineNumbers[i] = inner ? lineNumbers[i] + lineDelta : current.lineNumbers[i];
+            }
+            return new Boundary(lineNumber + lineDelta, prev, xpath, names, shiftedStarts, shiftedLineNumbers);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The content to index, read block by block.
+ *
+ * @since 0.25
+ */
+abstract class BlockSource {
+
+    /**
+     * Reads the next bytes into the given block.
+     *
+     * @param block the block to read into.
+     * @return the number of bytes read, -1 at the end of the content.
+     * @throws IOException if the content can not be read.
+     */
+    abstract int read(byte[] block) throws IOException;
+
+    /**
+     * @param is the stream to read from, it is not closed.
+     * @return a source reading from the stream.
+     */
+    static BlockSource of(final InputStream is) {
+        return new BlockSource() {
+            int read(byte[] block) throws IOException {
+                // fill the block, decompressing streams return only a few bytes at a time
+                int length = 0;
+                int read;
+                while (length < block.length && (read = is.read(block, length, block.length - length)) != -1) {
+                    length += read;
+                }
+                return length == 0 && block.length > 0 ? -1 : length;
+            }
+        };
+    }
+
+    /**
+     * @param channel    the channel of the file to read, it is not closed.
+     * @param windowSize the number of bytes to map at once.
+     * @param position   the position to start reading at.
+     * @return a source reading from the file from the position to its current size, through memory mapped windows.
+     * @throws IOException if the size of the file can not be read.
+     */
+    static BlockSource of(FileChannel channel, long windowSize, long position) throws IOException {
+        return new MappedSource(channel, windowSize, position);
+    }
+
+    ////////////////////
+    // Inner classes
+
+    private static class MappedSource extends BlockSource {
+        private final FileChannel channel;
+        private final long windowSize;
+        private final long size;
+        private long position;
+        private MappedByteBuffer window = null;
+
+        MappedSource(FileChannel channel, long windowSize, long position) throws IOException {
+            this.channel = channel;
+            this.windowSize = windowSize;
+            this.size = channel.size();
+            this.position = position;
+        }
+
+        int read(byte[] block) throws IOException {
+            while (window == null || !window.hasRemaining()) {
+                if (position >= size) {
+                    return -1;
+                }
+                long length = Math.min(windowSize, size - position);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                position += length;
+            }
+            // the scanner works on arrays, which are filled with bulk copies out of the mapping
+            int length = Math.min(block.length, window.remaining());
+            window.get(block, 0, length);
+            return length;
+        }
+    }
+}
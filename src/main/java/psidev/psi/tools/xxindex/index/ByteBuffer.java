@@ -1,9 +1,9 @@
 package psidev.psi.tools.xxindex.index;
 
-import java.util.List;
-import java.util.ArrayList;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.io.*;
+import java.util.NoSuchElementException;
 
 /**
  * Author: florian
@@ -12,55 +12,79 @@ import java.io.*;
  */
 public class ByteBuffer implements Iterable<Byte>{
 
-    private List<Byte> buffer;
+    // the bytes are kept in a growing array, instead of a List of boxed Bytes
+    private byte[] buffer;
+    private int size;
 
     public ByteBuffer() {
-        buffer = new ArrayList<>();
+        buffer = new byte[16];
+        size = 0;
     }
 
     public void append(byte b) {
-        buffer.add(b);
+        if (size == buffer.length) {
+            buffer = Arrays.copyOf(buffer, size * 2);
+        }
+        buffer[size++] = b;
     }
 
     public Byte get(int i) {
-        return buffer.get(i);
+        return getByte(i);
+    }
+
+    /**
+     * @param i the index of the byte.
+     * @return the byte at the given index, without boxing it.
+     */
+    public byte getByte(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return buffer[i];
     }
 
     public void remove(int i) {
-        buffer.remove(i);
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        System.arraycopy(buffer, i + 1, buffer, i, size - i - 1);
+        size--;
     }
 
     public int size() {
-        return buffer.size();
+        return size;
     }
 
     public void clear() {
-        buffer.clear();
+        size = 0;
     }
 
     public byte[] toArray() {
-        int liSize = buffer.size();
-        // Dimension the resulting array.
-        byte[] result =  new byte[liSize];
-        for(int i=0;i<liSize;i++) {
-            result[i] = buffer.get(i);
-        }
-        return result;
+        return Arrays.copyOf(buffer, size);
     }
 
     public String toString(String charsetName) {
-        byte[] bArray = new byte[buffer.size()];
-        int i = 0;
-        for (Byte aByte : buffer) {
-            bArray[i] = aByte;
-            i++;
+        return toString(0, size, charsetName);
+    }
+
+    /**
+     * Decodes a part of the buffer.
+     *
+     * @param offset      the index of the first byte to decode.
+     * @param length      the number of bytes to decode.
+     * @param charsetName the name of the charset, if null the default charset is used.
+     * @return the decoded String.
+     */
+    public String toString(int offset, int length, String charsetName) {
+        if (offset < 0 || length < 0 || offset + length > size) {
+            throw new IndexOutOfBoundsException("Offset: " + offset + ", Length: " + length + ", Size: " + size);
         }
         String result;
         if ( charsetName == null ) {
-            result = new String(bArray);
+            result = new String(buffer, offset, length);
         } else {
             try {
-                result =  new String(bArray, charsetName);
+                result =  new String(buffer, offset, length, charsetName);
             } catch (UnsupportedEncodingException e) {
                 result = "Unsupported Charset name: " + charsetName;
             }
@@ -75,9 +99,9 @@ public class ByteBuffer implements Iterable<Byte>{
     // for testing only
     protected String toStringByteByByte() {
         StringBuilder sb = new StringBuilder();
-        for (Byte aByte : buffer) {
+        for (int i = 0; i < size; i++) {
             byte[] b = new byte[1];
-            b[0] = aByte;
+            b[0] = buffer[i];
             sb.append(new String(b));
             sb.append("-");
         }
@@ -85,29 +109,32 @@ public class ByteBuffer implements Iterable<Byte>{
     }
 
     public Iterator<Byte> iterator() {
-        return new ByteBufferIterator(buffer);
+        return new ByteBufferIterator();
     }
 
     private class ByteBufferIterator implements Iterator<Byte> {
 
-        private List<Byte> bBuf;
-        private Iterator<Byte> iterator;
-
-        protected ByteBufferIterator(List<Byte> buf) {
-            this.bBuf = buf;
-            iterator = this.bBuf.iterator();
-        }
+        private int next = 0;
+        private boolean removable = false;
 
         public boolean hasNext() {
-            return iterator.hasNext();
+            return next < size;
         }
 
         public Byte next() {
-            return iterator.next();
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            removable = true;
+            return buffer[next++];
         }
 
         public void remove() {
-            iterator.remove();
+            if (!removable) {
+                throw new IllegalStateException();
+            }
+            removable = false;
+            ByteBuffer.this.remove(--next);
         }
     }
 
@@ -0,0 +1,154 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the next byte the XmlScanner has to look at, skipping over all the bytes
+ * that can not change its state. Only the line breaks ('\n') within the skipped
+ * bytes have to be counted.
+ * <p>
+ * The default implementation uses lookup tables. If requested and available, an
+ * implementation based on the (incubating) JDK Vector API is used, which compares
+ * 32 or 64 bytes at a time.
+ *
+ * @since 0.25
+ */
+abstract class ByteSkipper {
+
+    private static final Logger log = LoggerFactory.getLogger(ByteSkipper.class);
+
+    private static final String VECTOR_SKIPPER = "psidev.psi.tools.xxindex.index.VectorByteSkipper";
+
+    ////////////////////
+    // Modes
+
+    /**
+     * Outside of any tag.
+     */
+    static final int TEXT = 0;
+
+    /**
+     * Within a tag, once its name has been read.
+     */
+    static final int TAG = 1;
+
+    /**
+     * Within a special section ('&lt;!' or '&lt;?').
+     */
+    static final int SPECIAL = 2;
+
+    /**
+     * The bytes that stop a skip in each of the modes. A '\r' always stops,
+     * since its line break depends on the following byte, and a zero byte always
+     * stops, since filling bytes are not part of the scanned content.
+     */
+    static final byte[][] STOPS = {
+            {0, '\r', '<', '>'},
+            {0, '\r', '<', '>', '"'},
+            {0, '\r', '>', '[', 'D', '-'}
+    };
+
+    /**
+     * The number of line breaks ('\n') passed by the last call of skip().
+     */
+    int newlines;
+
+    /**
+     * Skips all the bytes starting at 'from', that are not a stop byte of the given mode.
+     *
+     * @param buf  the buffer to search.
+     * @param from the index of the first byte to check.
+     * @param to   the index following the last byte to check.
+     * @param mode one of TEXT, TAG or SPECIAL.
+     * @return the index of the first stop byte, or 'to' if there is none.
+     *         The number of line breaks skipped is available in the newlines field.
+     */
+    abstract int skip(byte[] buf, int from, int to, int mode);
+
+    ////////////////////
+    // Factory
+
+    /**
+     * @param vectorSearch whether to use the Vector API implementation if it is available.
+     * @return a new ByteSkipper.
+     */
+    static ByteSkipper create(boolean vectorSearch) {
+        if (vectorSearch && VectorSupport.AVAILABLE) {
+            try {
+                return (ByteSkipper) Class.forName(VECTOR_SKIPPER).newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                log.warn("Could not create vector search, falling back to scalar search.", e);
+            }
+        }
+        return new TableByteSkipper();
+    }
+
+    /**
+     * @return true if the Vector API implementation can be used in this JVM.
+     */
+    static boolean isVectorSearchAvailable() {
+        return VectorSupport.AVAILABLE;
+    }
+
+    /**
+     * Lazily checks whether the Vector API implementation has been compiled and
+     * whether the jdk.incubator.vector module is available in this JVM.
+     */
+    private static class VectorSupport {
+
+        private static final boolean AVAILABLE = check();
+
+        private static boolean check() {
+            try {
+                Class.forName(VECTOR_SKIPPER).newInstance();
+                return true;
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                log.info("Vector search not available (requires Java 17+ with '--add-modules jdk.incubator.vector'), using scalar search.");
+                return false;
+            }
+        }
+    }
+
+    ////////////////////
+    // Scalar implementation
+
+    /**
+     * Scalar implementation looking up the class of each byte in a table.
+     */
+    static class TableByteSkipper extends ByteSkipper {
+
+        // byte classes used in the lookup tables
+        private static final byte PLAIN = 0;   // can be skipped
+        private static final byte NEWLINE = 1; // can be skipped, but starts a new line
+        private static final byte STOP = 2;    // has to be handled by the state machine
+
+        private static final byte[][] TABLES = {
+                createTable(STOPS[TEXT]),
+                createTable(STOPS[TAG]),
+                createTable(STOPS[SPECIAL])
+        };
+
+        private static byte[] createTable(byte[] stops) {
+            byte[] table = new byte[256];
+            table['\n'] = NEWLINE;
+            for (byte stop : stops) {
+                table[stop & 0xFF] = STOP;
+            }
+            return table;
+        }
+
+        int skip(byte[] buf, int from, int to, int mode) {
+            final byte[] table = TABLES[mode];
+            int i = from;
+            int lines = 0;
+            byte type;
+            while (i < to && (type = table[buf[i] & 0xFF]) != STOP) {
+                lines += type;
+                i++;
+            }
+            newlines = lines;
+            return i;
+        }
+    }
+}
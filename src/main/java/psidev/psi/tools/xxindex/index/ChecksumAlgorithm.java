@@ -0,0 +1,32 @@
+package psidev.psi.tools.xxindex.index;
+
+/**
+ * The algorithms that can be used to calculate the checksum of the indexed content.
+ * The checksum is reported as hexadecimal String by XpathIndex#getChecksum().
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#setChecksumAlgorithm(ChecksumAlgorithm)
+ */
+public enum ChecksumAlgorithm {
+
+    /**
+     * No checksum is calculated, the checksum of the index is null.
+     */
+    NONE,
+
+    /**
+     * CRC-32C (Castagnoli), 8 hex digits. Uses the hardware supported java.util.zip.CRC32C
+     * if available (Java 9+), otherwise a (slower) table driven implementation.
+     */
+    CRC32C,
+
+    /**
+     * The 64 bit xxHash (XXH64, seed 0), 16 hex digits. A fast non-cryptographic hash.
+     */
+    XXHASH64,
+
+    /**
+     * MD5, 32 hex digits. The default, as it has always been used by the indexer.
+     */
+    MD5
+}
@@ -0,0 +1,192 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * The elements of a xpath, stored in primitive arrays instead of one object per element: the starts,
+ * the lengths (as int, unless an element is longer than 2 GiB), and the line numbers and the fingerprints
+ * if they are recorded. This takes 12 to 28 bytes per element instead of 40 to 56 bytes for an ArrayList
+ * of IndexElements. The IndexElements are created when they are accessed, so changes to them are not
+ * stored in the list.
+ *
+ * @since 0.25
+ * @see ElementStorage#COLUMNAR
+ */
+class ColumnarElementList extends AbstractList<IndexElement> implements RandomAccess {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final StandardXpathIndex index;
+
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private final Column lengths = new Column();
+    // null if the line numbers are not stored with the elements
+    private Column lineNumbers;
+    private long[] fingerprints;
+    private int size = 0;
+
+    /**
+     * @param index the index of the elements, with the settings for the line numbers.
+     */
+    ColumnarElementList(StandardXpathIndex index) {
+        this.index = index;
+    }
+
+    ////////////////////
+    // List
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Stores the values of an element. The first element decides whether the fingerprints are stored.
+     */
+    public boolean add(IndexElement element) {
+        if (size == 0) {
+            // lazy line numbers are looked up in the LineTable of the index
+            if (index.isRecordLineNumber() && (index.getLineTable() == null || element.hasFingerprint())) {
+                lineNumbers = new Column();
+                lineNumbers.ensureCapacity(starts.length);
+            }
+            if (element.hasFingerprint()) {
+                fingerprints = new long[starts.length];
+            }
+        }
+        if (size == starts.length) {
+            ensureCapacity(Math.max(INITIAL_CAPACITY, size + (size >> 1)));
+        }
+        starts[size] = element.getStart();
+        lengths.set(size, element.getStop() - element.getStart());
+        if (lineNumbers != null) {
+            lineNumbers.set(size, element.getLineNumber());
+        }
+        if (fingerprints != null) {
+            fingerprints[size] = element.getFingerprint();
+        }
+        size++;
+        modCount++;
+        return true;
+    }
+
+    public IndexElement get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        long start = starts[i];
+        long stop = start + lengths.get(i);
+        if (fingerprints != null) {
+            return new FingerprintedByteRange(start, stop, lineNumbers == null ? IndexElement.NO_LINE_NUMBER : lineNumbers.get(i), fingerprints[i]);
+        } else if (index.isRecordLineNumber() && index.getLineTable() != null) {
+            return new LazyLineByteRange(start, stop, index.getLineTable());
+        } else if (lineNumbers != null) {
+            return new LineNumberedByteRange(start, stop, lineNumbers.get(i));
+        } else {
+            return new ByteRange(start, stop, IndexElement.NO_LINE_NUMBER);
+        }
+    }
+
+    ////////////////////
+    // Methods
+
+    /**
+     * @param capacity the number of elements to store without growing the arrays again.
+     */
+    void ensureCapacity(int capacity) {
+        if (capacity > starts.length) {
+            starts = Arrays.copyOf(starts, capacity);
+            lengths.ensureCapacity(capacity);
+            if (lineNumbers != null) {
+                lineNumbers.ensureCapacity(capacity);
+            }
+            if (fingerprints != null) {
+                fingerprints = Arrays.copyOf(fingerprints, capacity);
+            }
+        }
+    }
+
+    /**
+     * Shrinks the arrays to the number of elements.
+     */
+    void trimToSize() {
+        if (size < starts.length) {
+            starts = Arrays.copyOf(starts, size);
+            lengths.trimToSize(size);
+            if (lineNumbers != null) {
+                lineNumbers.trimToSize(size);
+            }
+            if (fingerprints != null) {
+                fingerprints = Arrays.copyOf(fingerprints, size);
+            }
+        }
+    }
+
+    /**
+     * @return the bytes taken by the arrays of the list, without the object headers.
+     */
+    long retainedBytes() {
+        return 8L * starts.length + lengths.retainedBytes() + (lineNumbers == null ? 0 : lineNumbers.retainedBytes())
+                + (fingerprints == null ? 0 : 8L * fingerprints.length);
+    }
+
+    public String toString() {
+        return "ColumnarElementList{" +
+                "size=" + size +
+                ", lineNumbers=" + (lineNumbers != null) +
+                ", fingerprints=" + (fingerprints != null) +
+                '}';
+    }
+
+    ////////////////////
+    // Inner classes
+
+    /**
+     * A column of numbers that are stored as int, until a number does not fit any more.
+     */
+    private static class Column {
+
+        private int[] ints = new int[INITIAL_CAPACITY];
+        private long[] longs;
+
+        long get(int i) {
+            return longs != null ? longs[i] : ints[i];
+        }
+
+        void set(int i, long value) {
+            if (longs == null && value != (int) value) {
+                longs = new long[ints.length];
+                for (int j = 0; j < i; j++) {
+                    longs[j] = ints[j];
+                }
+                ints = null;
+            }
+            if (longs != null) {
+                longs[i] = value;
+            } else {
+                ints[i] = (int) value;
+            }
+        }
+
+        void ensureCapacity(int capacity) {
+            if (longs != null && capacity > longs.length) {
+                longs = Arrays.copyOf(longs, capacity);
+            } else if (longs == null && capacity > ints.length) {
+                ints = Arrays.copyOf(ints, capacity);
+            }
+        }
+
+        long retainedBytes() {
+            return longs != null ? 8L * longs.length : 4L * ints.length;
+        }
+
+        void trimToSize(int size) {
+            if (longs != null) {
+                longs = Arrays.copyOf(longs, size);
+            } else {
+                ints = Arrays.copyOf(ints, size);
+            }
+        }
+    }
+}
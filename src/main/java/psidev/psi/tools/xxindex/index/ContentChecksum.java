@@ -0,0 +1,532 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Checksum;
+
+/**
+ * Calculates the checksum of the indexed content, while it is read block by block.
+ * The blocks to read into are provided by this class: either the same block is used
+ * again and hashed synchronously, or the checksum is calculated on its own thread,
+ * which hashes the blocks while they are scanned and hands them back afterwards.
+ * <p>
+ * Usage: get a block with nextBlock(), fill it, call update(block, length),
+ * scan the block, get the next block, ... and finally call getValue().
+ *
+ * @since 0.25
+ */
+class ContentChecksum {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentChecksum.class);
+
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The number of blocks the background thread can fall behind the reading thread.
+     */
+    static final int BACKGROUND_BLOCKS = 4;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final ChecksumAlgorithm algorithm;
+    private final Hash hash;
+    private final byte[] block;
+    private final Background background;
+    private boolean finished = false;
+    private String value;
+
+    ////////////////////
+    // Constructor
+
+    private ContentChecksum(ChecksumAlgorithm algorithm, Hash hash, int blockSize, boolean background) {
+        this.algorithm = algorithm;
+        this.hash = hash;
+        if (background && hash != null) {
+            this.block = null;
+            this.background = new Background(hash, blockSize);
+        } else {
+            this.block = new byte[blockSize];
+            this.background = null;
+        }
+    }
+
+    /**
+     * @param algorithm  the checksum algorithm.
+     * @param blockSize  the size of the blocks to read.
+     * @param background if true the checksum is calculated on its own thread.
+     * @return a new ContentChecksum, if the algorithm is not available it does not calculate a checksum.
+     */
+    static ContentChecksum create(ChecksumAlgorithm algorithm, int blockSize, boolean background) {
+        Hash hash = createHash(algorithm);
+        return new ContentChecksum(hash == null ? ChecksumAlgorithm.NONE : algorithm, hash, blockSize, background);
+    }
+
+    /**
+     * Continues the checksum calculation of an earlier indexing.
+     *
+     * @param state      the state at the end of the earlier indexing.
+     * @param blockSize  the size of the blocks to read.
+     * @param background if true the checksum is calculated on its own thread.
+     * @return a new ContentChecksum, it does not calculate a checksum if the earlier calculation can not be continued.
+     */
+    static ContentChecksum resume(IndexState state, int blockSize, boolean background) {
+        Hash hash = state.hash == null ? null : state.hash.copy();
+        return new ContentChecksum(hash == null ? ChecksumAlgorithm.NONE : state.checksumAlgorithm, hash, blockSize, background);
+    }
+
+    ////////////////////
+    // Methods
+
+    /**
+     * @return the algorithm of the calculated checksum, NONE if no checksum is calculated.
+     */
+    ChecksumAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return the block to read the next bytes into. It must not be modified after update() has been called.
+     * @throws IOException if interrupted while waiting for a free block.
+     */
+    byte[] nextBlock() throws IOException {
+        return background == null ? block : background.nextBlock();
+    }
+
+    /**
+     * @param block  the block returned by nextBlock().
+     * @param length the number of bytes read into the block.
+     * @throws IOException if interrupted while waiting for the background thread.
+     */
+    void update(byte[] block, int length) throws IOException {
+        if (background != null) {
+            background.update(block, length);
+        } else if (hash != null) {
+            hash.update(block, 0, length);
+        }
+    }
+
+    /**
+     * Waits for the background thread, if any. No more bytes can be added afterwards.
+     *
+     * @return the hexadecimal checksum of all the bytes passed to update(), null if no checksum is calculated.
+     * @throws IOException if interrupted while waiting for the background thread.
+     */
+    String getValue() throws IOException {
+        if (!finished) {
+            if (background != null) {
+                background.finish();
+            }
+            value = hash == null ? null : hash.getValue();
+            finished = true;
+        }
+        return value;
+    }
+
+    /**
+     * Waits for the background thread, if any, and copies the state of the calculation.
+     * Must be called before getValue().
+     *
+     * @return a copy of the state of the calculation, to continue it later, null if not possible.
+     * @throws IOException if interrupted while waiting for the background thread.
+     */
+    Hash copyHash() throws IOException {
+        if (finished) {
+            throw new IllegalStateException("The checksum has already been calculated!");
+        }
+        if (background != null) {
+            background.finish();
+        }
+        return hash == null ? null : hash.copy();
+    }
+
+    /**
+     * Stops the background thread, if any, without waiting for the checksum.
+     */
+    void cancel() {
+        if (background != null) {
+            background.thread.interrupt();
+        }
+    }
+
+    /**
+     * Creates a hexadecimal String from a byte array of a File hash.
+     *
+     * @param buf the byte[] to turn into a hex string.
+     * @return the hex encoded String representation of the byte array.
+     * @see java.security.MessageDigest#digest()
+     */
+    static String asHex(byte[] buf) {
+        // from: http://forums.xkcd.com/viewtopic.php?f=11&t=16666&p=553936
+        char[] chars = new char[2 * buf.length];
+        for (int i = 0; i < buf.length; ++i) {
+            chars[2 * i] = HEX_CHARS[(buf[i] & 0xF0) >>> 4];
+            chars[2 * i + 1] = HEX_CHARS[buf[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    private static Hash createHash(ChecksumAlgorithm algorithm) {
+        switch (algorithm) {
+            case NONE:
+                return null;
+            case CRC32C:
+                return new ChecksumHash(createCRC32C(), 8);
+            case XXHASH64:
+                return new XXHash64();
+            case MD5:
+                try {
+                    return new DigestHash(MessageDigest.getInstance("MD5"));
+                } catch (NoSuchAlgorithmException e) {
+                    log.error("Failed to calculate checksum!", e);
+                    return null;
+                }
+            default:
+                throw new IllegalArgumentException("Unknown checksum algorithm: " + algorithm);
+        }
+    }
+
+    /**
+     * @return the CRC32C of the JDK (Java 9+) if available, otherwise our own implementation.
+     */
+    static Checksum createCRC32C() {
+        try {
+            return (Checksum) Class.forName("java.util.zip.CRC32C").newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            return new TableCRC32C();
+        }
+    }
+
+    ////////////////////
+    // Inner classes
+
+    /**
+     * An incremental hash function.
+     */
+    abstract static class Hash {
+        abstract void update(byte[] buf, int offset, int length);
+
+        /**
+         * @return the hexadecimal value of the hash.
+         */
+        abstract String getValue();
+
+        /**
+         * @return an independent copy of this hash, null if it can not be copied.
+         */
+        abstract Hash copy();
+    }
+
+    private static class DigestHash extends Hash {
+        private final MessageDigest digest;
+
+        DigestHash(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        void update(byte[] buf, int offset, int length) {
+            digest.update(buf, offset, length);
+        }
+
+        String getValue() {
+            return asHex(digest.digest());
+        }
+
+        Hash copy() {
+            try {
+                return new DigestHash((MessageDigest) digest.clone());
+            } catch (CloneNotSupportedException e) {
+                log.warn("The checksum calculation can not be continued, " + digest.getAlgorithm() + " can not be cloned.");
+                return null;
+            }
+        }
+    }
+
+    private static class ChecksumHash extends Hash {
+        private final Checksum checksum;
+        private final int digits;
+
+        ChecksumHash(Checksum checksum, int digits) {
+            this.checksum = checksum;
+            this.digits = digits;
+        }
+
+        void update(byte[] buf, int offset, int length) {
+            checksum.update(buf, offset, length);
+        }
+
+        String getValue() {
+            String hex = Long.toHexString(checksum.getValue());
+            StringBuilder sb = new StringBuilder(digits);
+            for (int i = hex.length(); i < digits; i++) {
+                sb.append('0');
+            }
+            return sb.append(hex).toString();
+        }
+
+        Hash copy() {
+            // the CRC32C of the JDK can not be copied, but the calculation can be continued from its value
+            return new ChecksumHash(new TableCRC32C(checksum.getValue()), digits);
+        }
+    }
+
+    /**
+     * CRC-32C (Castagnoli polynomial), for Java versions without java.util.zip.CRC32C.
+     */
+    static class TableCRC32C implements Checksum {
+        private static final int[] TABLE = new int[256];
+
+        static {
+            for (int i = 0; i < 256; i++) {
+                int crc = i;
+                for (int j = 0; j < 8; j++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+                }
+                TABLE[i] = crc;
+            }
+        }
+
+        private int crc = 0xFFFFFFFF;
+
+        TableCRC32C() {
+        }
+
+        /**
+         * @param value the value of a CRC32C, to continue its calculation.
+         */
+        TableCRC32C(long value) {
+            crc = ~(int) value;
+        }
+
+        public void update(int b) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+        }
+
+        public void update(byte[] b, int off, int len) {
+            int c = crc;
+            for (int i = off; i < off + len; i++) {
+                c = (c >>> 8) ^ TABLE[(c ^ b[i]) & 0xFF];
+            }
+            crc = c;
+        }
+
+        public long getValue() {
+            return ~crc & 0xFFFFFFFFL;
+        }
+
+        public void reset() {
+            crc = 0xFFFFFFFF;
+        }
+    }
+
+    /**
+     * The 64 bit xxHash (XXH64) with seed 0.
+     */
+    static class XXHash64 extends Hash {
+        private static final long P1 = 0x9E3779B185EBCA87L;
+        private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long P3 = 0x165667B19E3779F9L;
+        private static final long P4 = 0x85EBCA77C2B2AE63L;
+        private static final long P5 = 0x27D4EB2F165667C5L;
+
+        private long v1 = P1 + P2;
+        private long v2 = P2;
+        private long v3 = 0;
+        private long v4 = -P1;
+        private long total = 0;
+        // the bytes not yet processed, less than a stripe of 32 bytes
+        private final byte[] pending = new byte[32];
+        private int pendingLength = 0;
+
+        void update(byte[] buf, int offset, int length) {
+            total += length;
+            int end = offset + length;
+            int i = offset;
+            if (pendingLength > 0) {
+                int n = Math.min(32 - pendingLength, length);
+                System.arraycopy(buf, i, pending, pendingLength, n);
+                pendingLength += n;
+                i += n;
+                if (pendingLength < 32) {
+                    return;
+                }
+                stripe(pending, 0);
+                pendingLength = 0;
+            }
+            for (; i + 32 <= end; i += 32) {
+                stripe(buf, i);
+            }
+            System.arraycopy(buf, i, pending, 0, end - i);
+            pendingLength = end - i;
+        }
+
+        private void stripe(byte[] buf, int i) {
+            v1 = round(v1, getLong(buf, i));
+            v2 = round(v2, getLong(buf, i + 8));
+            v3 = round(v3, getLong(buf, i + 16));
+            v4 = round(v4, getLong(buf, i + 24));
+        }
+
+        String getValue() {
+            String hex = Long.toHexString(digest());
+            return "0000000000000000".substring(hex.length()) + hex;
+        }
+
+        /**
+         * @return the hash of the content, without changing the state.
+         */
+        long digest() {
+            long h;
+            if (total >= 32) {
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = merge(h, v1);
+                h = merge(h, v2);
+                h = merge(h, v3);
+                h = merge(h, v4);
+            } else {
+                h = P5;
+            }
+            h += total;
+            int i = 0;
+            for (; i + 8 <= pendingLength; i += 8) {
+                h ^= round(0, getLong(pending, i));
+                h = Long.rotateLeft(h, 27) * P1 + P4;
+            }
+            if (i + 4 <= pendingLength) {
+                h ^= (getInt(pending, i) & 0xFFFFFFFFL) * P1;
+                h = Long.rotateLeft(h, 23) * P2 + P3;
+                i += 4;
+            }
+            for (; i < pendingLength; i++) {
+                h ^= (pending[i] & 0xFF) * P5;
+                h = Long.rotateLeft(h, 11) * P1;
+            }
+            h ^= h >>> 33;
+            h *= P2;
+            h ^= h >>> 29;
+            h *= P3;
+            h ^= h >>> 32;
+            return h;
+        }
+
+        Hash copy() {
+            XXHash64 copy = new XXHash64();
+            copy.v1 = v1;
+            copy.v2 = v2;
+            copy.v3 = v3;
+            copy.v4 = v4;
+            copy.total = total;
+            System.arraycopy(pending, 0, copy.pending, 0, pendingLength);
+            copy.pendingLength = pendingLength;
+            return copy;
+        }
+
+        private static long round(long acc, long input) {
+            return Long.rotateLeft(acc + input * P2, 31) * P1;
+        }
+
+        private static long merge(long acc, long v) {
+            return (acc ^ round(0, v)) * P1 + P4;
+        }
+
+        private static long getLong(byte[] b, int i) {
+            return (b[i] & 0xFFL) | (b[i + 1] & 0xFFL) << 8 | (b[i + 2] & 0xFFL) << 16 | (b[i + 3] & 0xFFL) << 24
+                    | (b[i + 4] & 0xFFL) << 32 | (b[i + 5] & 0xFFL) << 40 | (b[i + 6] & 0xFFL) << 48 | (b[i + 7] & 0xFFL) << 56;
+        }
+
+        private static int getInt(byte[] b, int i) {
+            return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+        }
+    }
+
+    /**
+     * The thread that calculates the checksum. The blocks circulate between the reading
+     * thread and this thread, so neither of them has to copy the data.
+     */
+    private static class Background implements Runnable {
+        private static final byte[] END = new byte[0];
+
+        private final Hash hash;
+        private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(BACKGROUND_BLOCKS);
+        private final BlockingQueue<byte[]> filled = new ArrayBlockingQueue<>(BACKGROUND_BLOCKS + 1);
+        private final BlockingQueue<Integer> lengths = new ArrayBlockingQueue<>(BACKGROUND_BLOCKS + 1);
+        private final Thread thread;
+        private volatile Throwable failure;
+        private boolean finished = false;
+
+        Background(Hash hash, int blockSize) {
+            this.hash = hash;
+            for (int i = 0; i < BACKGROUND_BLOCKS; i++) {
+                free.add(new byte[blockSize]);
+            }
+            thread = new Thread(this, "xxindex-checksum-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public void run() {
+            try {
+                byte[] block;
+                while ((block = filled.take()) != END) {
+                    hash.update(block, 0, lengths.take());
+                    free.put(block);
+                }
+            } catch (InterruptedException e) {
+                // cancelled
+            } catch (Throwable t) {
+                failure = t;
+                // let the reading thread continue, it will report the failure at the end
+                free.clear();
+                for (int i = 0; i < BACKGROUND_BLOCKS; i++) {
+                    free.offer(new byte[0]);
+                }
+            }
+        }
+
+        byte[] nextBlock() throws IOException {
+            try {
+                byte[] block = free.take();
+                if (failure != null) {
+                    throw new IOException("Failed to calculate checksum!", failure);
+                }
+                return block;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while indexing!", e);
+            }
+        }
+
+        void update(byte[] block, int length) throws IOException {
+            try {
+                lengths.put(length);
+                filled.put(block);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while indexing!", e);
+            }
+        }
+
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            try {
+                filled.put(END);
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while indexing!", e);
+            }
+            if (failure != null) {
+                throw new IOException("Failed to calculate checksum!", failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands the bytes of the elements of chosen xpaths to XpathContentListeners. The elements are
+ * taken from the block that is currently scanned. Only if an element (or a start tag) spans more
+ * than one block, its bytes are kept in a carry buffer, to which the following blocks are added
+ * until the element is closed.
+ */
+final class ElementCapture implements XpathIndexListener {
+
+    private final Map<String, XpathContentListener[]> listeners = new HashMap<>();
+
+    // the block that is currently scanned
+    private byte[] block;
+    private int blockLength;
+    private long blockStart;
+
+    // the kept bytes of the previous blocks, followed by the current block
+    private byte[] carry = new byte[1024];
+    private int carryLength = 0;
+    private long carryStart;
+
+    ElementCapture(Map<String, List<XpathContentListener>> listeners) {
+        for (Map.Entry<String, List<XpathContentListener>> entry : listeners.entrySet()) {
+            List<XpathContentListener> list = entry.getValue();
+            this.listeners.put(entry.getKey(), list.toArray(new XpathContentListener[list.size()]));
+        }
+    }
+
+    /**
+     * Sets the block that is scanned next.
+     *
+     * @param block    the buffer holding the bytes.
+     * @param length   the number of bytes in the buffer.
+     * @param position the position of the first byte.
+     */
+    void block(byte[] block, int length, long position) {
+        this.block = block;
+        this.blockLength = length;
+        this.blockStart = position;
+        if (carryLength > 0) {
+            append(block, 0, length);
+        }
+    }
+
+    /**
+     * Called after the block has been scanned, to keep the bytes needed for elements that are not closed yet.
+     *
+     * @param keepFrom the position of the first byte to keep, -1 to keep nothing.
+     */
+    void endOfBlock(long keepFrom) {
+        long blockEnd = blockStart + blockLength;
+        if (keepFrom < 0 || keepFrom >= blockEnd) {
+            carryLength = 0;
+        } else if (carryLength > 0) {
+            // the current block has already been added
+            int drop = (int) (Math.max(keepFrom, carryStart) - carryStart);
+            System.arraycopy(carry, drop, carry, 0, carryLength - drop);
+            carryLength -= drop;
+            carryStart += drop;
+        } else {
+            int from = (int) (Math.max(keepFrom, blockStart) - blockStart);
+            carryStart = blockStart + from;
+            append(block, from, blockLength - from);
+        }
+        block = null;
+    }
+
+    public void element(String xpath, long start, long stop, long lineNumber, int depth) {
+        XpathContentListener[] forXpath = listeners.get(xpath);
+        if (forXpath == null) {
+            return;
+        }
+        byte[] buffer;
+        int offset;
+        if (carryLength > 0 && start >= carryStart) {
+            buffer = carry;
+            offset = (int) (start - carryStart);
+        } else if (start >= blockStart) {
+            buffer = block;
+            offset = (int) (start - blockStart);
+        } else {
+            // the element started before the scanned content, e.g. of an index that has been resumed
+            return;
+        }
+        for (XpathContentListener listener : forXpath) {
+            listener.element(xpath, buffer, offset, (int) (stop - start), start, lineNumber);
+        }
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        if (carryLength + length > carry.length) {
+            long capacity = Math.max(carry.length * 2L, (long) carryLength + length);
+            if (capacity > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("The element to capture is too big: " + capacity + " bytes.");
+            }
+            byte[] tmp = new byte[(int) capacity];
+            System.arraycopy(carry, 0, tmp, 0, carryLength);
+            carry = tmp;
+        }
+        System.arraycopy(bytes, offset, carry, carryLength, length);
+        carryLength += length;
+    }
+}
@@ -0,0 +1,159 @@
+package psidev.psi.tools.xxindex.index;
+
+/**
+ * Calculates the fingerprints of the elements while the content is scanned. A polynomial hash of
+ * all the bytes before the current position (the prefix hash) is kept up to date, and the hash of
+ * the bytes of an element follows from the prefix hashes at its start and its stop. So every byte
+ * is only hashed once, however deep the elements are nested, and the fingerprint of an element only
+ * depends on its bytes, not on its position in the content.
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#setElementFingerprints(boolean)
+ */
+class ElementHasher {
+
+    // an odd multiplier, whose powers never become 0
+    private static final long BASE = 0x9E3779B97F4A7C15L;
+
+    // the block being scanned, block[i] is at position blockPosition + i
+    private byte[] block;
+    private long blockPosition;
+    private long blockEnd;
+
+    // the hash of the bytes before the position
+    private long position;
+    private long prefix;
+    // the prefix hash at the start of the tag that was open at the end of a block
+    private long tagStart = -1;
+    private long tagPrefix;
+
+    ElementHasher() {
+    }
+
+    /**
+     * @param position the position of the first byte to hash, the content before is not part of any fingerprint.
+     */
+    ElementHasher(long position) {
+        this.position = position;
+        this.blockPosition = position;
+        this.blockEnd = position;
+    }
+
+    private ElementHasher(ElementHasher other) {
+        this.position = other.position;
+        this.prefix = other.prefix;
+        this.tagStart = other.tagStart;
+        this.tagPrefix = other.tagPrefix;
+        this.blockPosition = other.position;
+        this.blockEnd = other.position;
+    }
+
+    /**
+     * @return a copy of the state of this hasher, without the current block.
+     */
+    ElementHasher copy() {
+        return new ElementHasher(this);
+    }
+
+    /**
+     * Sets the block the scanner is going to scan, which has to follow the hashed content.
+     *
+     * @param block    the bytes of the block.
+     * @param offset   the offset of the first byte.
+     * @param length   the number of bytes.
+     * @param position the position of the first byte in the content.
+     */
+    void block(byte[] block, int offset, int length, long position) {
+        if (position != this.position) {
+            throw new IllegalStateException("The block at " + position + " does not follow the hashed content, which ends at " + this.position);
+        }
+        this.block = block;
+        this.blockPosition = position - offset;
+        this.blockEnd = position + length;
+    }
+
+    /**
+     * Hashes the rest of the scanned bytes of the current block, keeping the prefix hash at the start
+     * of the open tag, whose start tag is reported in a later block.
+     *
+     * @param position the position of the scanner.
+     * @param tagStart the position of the '&lt;' of the start tag the scanner is in, -1 if none.
+     */
+    void endOfBlock(long position, long tagStart) {
+        if (tagStart >= this.position) {
+            update(tagStart);
+            this.tagStart = tagStart;
+            this.tagPrefix = prefix;
+        }
+        update(position);
+    }
+
+    /**
+     * Hashes the bytes of the current block up to the position.
+     */
+    private void update(long position) {
+        if (position > blockEnd) {
+            throw new IllegalStateException("The position " + position + " is after the current block, which ends at " + blockEnd);
+        }
+        long hash = prefix;
+        for (int i = (int) (this.position - blockPosition); i < position - blockPosition; i++) {
+            hash = hash * BASE + (block[i] & 0xFF) + 1;
+        }
+        prefix = hash;
+        this.position = Math.max(this.position, position);
+    }
+
+    /**
+     * @param position the position after the last hashed byte, or the start of the current tag.
+     * @return the hash of all the bytes before the position.
+     */
+    long prefix(long position) {
+        if (position >= this.position) {
+            update(position);
+            return prefix;
+        }
+        if (position == tagStart) {
+            return tagPrefix;
+        }
+        throw new IllegalStateException("The prefix hash at " + position + " is not known any more, the content is hashed up to " + this.position);
+    }
+
+    /**
+     * @param startPrefix the prefix hash at the start of the element.
+     * @param start       the position of the '&lt;' of the start tag.
+     * @param stop        the position after the '&gt;' of the end tag, in the current block.
+     * @return the fingerprint of the bytes of the element.
+     */
+    long fingerprint(long startPrefix, long start, long stop) {
+        long length = stop - start;
+        return mix(prefix(stop) - startPrefix * power(length) + length);
+    }
+
+    /**
+     * @return BASE to the power of n.
+     */
+    private static long power(long n) {
+        long result = 1;
+        long base = BASE;
+        while (n > 0) {
+            if ((n & 1) != 0) {
+                result *= base;
+            }
+            base *= base;
+            n >>>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * The final mix of MurmurHash3, so that all the bits depend on all the hashed bytes.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,37 @@
+package psidev.psi.tools.xxindex.index;
+
+/**
+ * The ways the elements of the xpaths can be stored in a StandardXpathIndex. The lists of elements of
+ * the compact storages create the IndexElements when they are accessed, so changing the returned elements
+ * does not change the index.
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#setElementStorage(ElementStorage)
+ */
+public enum ElementStorage {
+
+    /**
+     * An IndexElement object per element, in an ArrayList. The default.
+     */
+    OBJECTS,
+
+    /**
+     * The positions, the lengths and the line numbers of the elements in primitive arrays,
+     * which takes less than half of the memory of the objects.
+     */
+    COLUMNAR,
+
+    /**
+     * The positions and the line numbers of the elements compressed with the (partitioned) Elias-Fano
+     * encoding, which takes a few bits per element plus the logarithm of the distances between them.
+     * The elements are decoded when they are accessed, which is slower than with the other storages.
+     */
+    ELIAS_FANO,
+
+    /**
+     * The positions and the line numbers of the elements in direct buffers outside of the Java heap, so the
+     * garbage collector does not have to go through the elements. The memory is released when the index is
+     * closed (see StandardXpathIndex#close()), or when the index is garbage collected.
+     */
+    OFF_HEAP
+}
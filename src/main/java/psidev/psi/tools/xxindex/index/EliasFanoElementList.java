@@ -0,0 +1,164 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * The elements of a xpath, compressed with the partitioned Elias-Fano encoding: the elements of a xpath
+ * do not overlap, so their starts and stops form one non-decreasing sequence, and so do their line numbers.
+ * This takes a few bits per element plus the logarithm of the lengths of and the distances between the
+ * elements, instead of 12 to 28 bytes in primitive arrays. The fingerprints are stored as they are.
+ * The IndexElements are decoded when they are accessed, the first element at or after a position is found
+ * by a binary search over the partitions. The elements have to be added in the order of their positions,
+ * as the XmlXpathIndexer does.
+ *
+ * @since 0.25
+ * @see ElementStorage#ELIAS_FANO
+ */
+class EliasFanoElementList extends AbstractList<IndexElement> implements RandomAccess {
+
+    // the number of elements per partition
+    private static final int PARTITION_SIZE = 128;
+
+    private final StandardXpathIndex index;
+
+    // the start and the stop of every element
+    private final EliasFanoSequence positions = new EliasFanoSequence(2 * PARTITION_SIZE);
+    // null if the line numbers are not stored with the elements
+    private EliasFanoSequence lineNumbers;
+    private long[] fingerprints;
+    private int size = 0;
+
+    /**
+     * @param index the index of the elements, with the settings for the line numbers.
+     */
+    EliasFanoElementList(StandardXpathIndex index) {
+        this.index = index;
+    }
+
+    ////////////////////
+    // List
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Stores the values of an element. The first element decides whether the fingerprints are stored.
+     *
+     * @throws IllegalArgumentException if the element starts before the end of the last element.
+     */
+    public boolean add(IndexElement element) {
+        if (size == 0) {
+            // lazy line numbers are looked up in the LineTable of the index
+            if (index.isRecordLineNumber() && (index.getLineTable() == null || element.hasFingerprint())) {
+                lineNumbers = new EliasFanoSequence(PARTITION_SIZE);
+            }
+            if (element.hasFingerprint()) {
+                fingerprints = new long[16];
+            }
+        } else if (element.getStart() < positions.last() || (lineNumbers != null && element.getLineNumber() < lineNumbers.last())) {
+            throw new IllegalArgumentException("The elements have to be added in the order of their positions: " + element
+                    + " is before the last element, which ends at " + positions.last());
+        }
+        if (element.getStop() < element.getStart()) {
+            throw new IllegalArgumentException("The element ends before it starts: " + element);
+        }
+        positions.add(element.getStart());
+        positions.add(element.getStop());
+        if (lineNumbers != null) {
+            lineNumbers.add(element.getLineNumber());
+        }
+        if (fingerprints != null) {
+            if (size == fingerprints.length) {
+                fingerprints = Arrays.copyOf(fingerprints, size + (size >> 1));
+            }
+            fingerprints[size] = element.getFingerprint();
+        }
+        size++;
+        modCount++;
+        return true;
+    }
+
+    public IndexElement get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        long[] range = new long[2];
+        positions.get(2 * i, range);
+        if (fingerprints != null) {
+            return new FingerprintedByteRange(range[0], range[1], lineNumbers == null ? IndexElement.NO_LINE_NUMBER : lineNumbers.get(i), fingerprints[i]);
+        } else if (index.isRecordLineNumber() && index.getLineTable() != null) {
+            return new LazyLineByteRange(range[0], range[1], index.getLineTable());
+        } else if (lineNumbers != null) {
+            return new LineNumberedByteRange(range[0], range[1], lineNumbers.get(i));
+        } else {
+            return new ByteRange(range[0], range[1], IndexElement.NO_LINE_NUMBER);
+        }
+    }
+
+    ////////////////////
+    // Methods
+
+    /**
+     * @param position the byte position.
+     * @return the index of the first element that starts at or after the position, the size if there is none.
+     */
+    int firstStartingFrom(long position) {
+        // the partitions start with the start of an element, the element is in the last partition starting before the position
+        int low = 0;
+        int high = positions.getPartitions();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (positions.getBase(mid) < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int from = Math.max(0, low - 1) * PARTITION_SIZE;
+        int to = Math.min(size, low * PARTITION_SIZE);
+        if (low == positions.getPartitions()) {
+            to = size;
+        }
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (positions.get(2 * mid) < position) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Shrinks the arrays to the number of elements.
+     */
+    void trimToSize() {
+        positions.trimToSize();
+        if (lineNumbers != null) {
+            lineNumbers.trimToSize();
+        }
+        if (fingerprints != null) {
+            fingerprints = Arrays.copyOf(fingerprints, Math.max(size, 16));
+        }
+    }
+
+    /**
+     * @return the bytes taken by the arrays of the list, without the object headers.
+     */
+    long retainedBytes() {
+        return positions.retainedBytes() + (lineNumbers == null ? 0 : lineNumbers.retainedBytes())
+                + (fingerprints == null ? 0 : 8L * fingerprints.length);
+    }
+
+    public String toString() {
+        return "EliasFanoElementList{" +
+                "size=" + size +
+                ", lineNumbers=" + (lineNumbers != null) +
+                ", fingerprints=" + (fingerprints != null) +
+                '}';
+    }
+}
@@ -0,0 +1,228 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.util.Arrays;
+
+/**
+ * A non-decreasing sequence of numbers, compressed with the partitioned Elias-Fano encoding. Every full
+ * partition of numbers is encoded relative to its first number: the lower bits of the differences are
+ * stored as they are, the upper bits in unary, as a bit vector with a bit set for every number. This takes
+ * about 2 + log(average distance) bits per number. A number is decoded by looking for its bit in the upper
+ * bits of its partition, which takes a few words for the small partitions. The numbers of the last partition
+ * are kept as they are until the partition is full.
+ *
+ * @since 0.25
+ * @see EliasFanoElementList
+ */
+class EliasFanoSequence {
+
+    private final int partitionSize;
+
+    // the encoded partitions, the partition p starts at words[offsets[p]] with its lower bits
+    private long[] words = new long[0];
+    private int wordCount = 0;
+    private long[] bases = new long[0];
+    private int[] offsets = new int[0];
+    private byte[] widths = new byte[0];
+    private int partitions = 0;
+
+    // the numbers of the partition that is not full yet
+    private long[] pending = new long[4];
+    private int pendingCount = 0;
+
+    /**
+     * @param partitionSize the number of numbers per partition.
+     */
+    EliasFanoSequence(int partitionSize) {
+        this.partitionSize = partitionSize;
+    }
+
+    int size() {
+        return partitions * partitionSize + pendingCount;
+    }
+
+    /**
+     * @param value the number to append, which must not be smaller than the last one.
+     * @throws IllegalArgumentException if the number is smaller than the last one.
+     */
+    void add(long value) {
+        if (size() > 0 && value < last()) {
+            throw new IllegalArgumentException("The number " + value + " is smaller than the last one " + last());
+        }
+        if (pendingCount == pending.length) {
+            pending = Arrays.copyOf(pending, Math.min(pending.length * 2, partitionSize));
+        }
+        pending[pendingCount++] = value;
+        if (pendingCount == partitionSize) {
+            encode();
+            pendingCount = 0;
+        }
+    }
+
+    long last() {
+        return pendingCount > 0 ? pending[pendingCount - 1] : get(size() - 1);
+    }
+
+    /**
+     * @return the number of encoded partitions, the numbers after them are not encoded yet.
+     */
+    int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @return the first number of an encoded partition.
+     */
+    long getBase(int partition) {
+        return bases[partition];
+    }
+
+    long get(int i) {
+        int partition = i / partitionSize;
+        if (partition == partitions) {
+            return pending[i - partition * partitionSize];
+        }
+        int offset = offsets[partition];
+        int width = widths[partition];
+        int index = i - partition * partitionSize;
+        long high = select(offset + lowWords(width), index) - index;
+        return bases[partition] + (high << width | readBits(offset, (long) index * width, width));
+    }
+
+    /**
+     * Decodes consecutive numbers of the same partition.
+     *
+     * @param i      the index of the first number.
+     * @param values the array to fill with the numbers from the index on.
+     */
+    void get(int i, long[] values) {
+        int partition = i / partitionSize;
+        if (partition == partitions) {
+            System.arraycopy(pending, i - partition * partitionSize, values, 0, values.length);
+            return;
+        }
+        int offset = offsets[partition];
+        int width = widths[partition];
+        int index = i - partition * partitionSize;
+        int highStart = offset + lowWords(width);
+        long position = select(highStart, index);
+        for (int j = 0; j < values.length; j++) {
+            if (j > 0) {
+                position = nextSetBit(highStart, position + 1);
+            }
+            long high = position - index - j;
+            values[j] = bases[partition] + (high << width | readBits(offset, (long) (index + j) * width, width));
+        }
+    }
+
+    /**
+     * Shrinks the arrays to the encoded partitions.
+     */
+    void trimToSize() {
+        words = Arrays.copyOf(words, wordCount);
+        bases = Arrays.copyOf(bases, partitions);
+        offsets = Arrays.copyOf(offsets, partitions);
+        widths = Arrays.copyOf(widths, partitions);
+        pending = Arrays.copyOf(pending, Math.max(pendingCount, 1));
+    }
+
+    /**
+     * @return the bytes taken by the arrays of the sequence, without the object headers.
+     */
+    long retainedBytes() {
+        return 8L * words.length + 8L * bases.length + 4L * offsets.length + widths.length + 8L * pending.length;
+    }
+
+    ////////////////////
+    // Encoding
+
+    private void encode() {
+        long base = pending[0];
+        long universe = pending[partitionSize - 1] - base;
+        long average = universe / partitionSize;
+        int width = average == 0 ? 0 : 63 - Long.numberOfLeadingZeros(average);
+        int highWords = (int) ((partitionSize + (universe >>> width) + 64) / 64);
+        int size = lowWords(width) + highWords;
+        if (wordCount + size > words.length) {
+            words = Arrays.copyOf(words, Math.max(wordCount + size, words.length + (words.length >> 1)));
+        }
+        if (partitions == bases.length) {
+            int capacity = Math.max(4, partitions + (partitions >> 1));
+            bases = Arrays.copyOf(bases, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            widths = Arrays.copyOf(widths, capacity);
+        }
+
+        int offset = wordCount;
+        int highStart = offset + lowWords(width);
+        for (int i = 0; i < partitionSize; i++) {
+            long delta = pending[i] - base;
+            writeBits(offset, (long) i * width, width, delta);
+            long bit = (delta >>> width) + i;
+            words[highStart + (int) (bit >>> 6)] |= 1L << bit;
+        }
+        bases[partitions] = base;
+        offsets[partitions] = offset;
+        widths[partitions] = (byte) width;
+        partitions++;
+        wordCount += size;
+    }
+
+    private int lowWords(int width) {
+        return (int) (((long) partitionSize * width + 63) / 64);
+    }
+
+    private void writeBits(int offset, long bit, int width, long value) {
+        if (width == 0) {
+            return;
+        }
+        value &= -1L >>> (64 - width);
+        int word = offset + (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        words[word] |= value << shift;
+        if (shift + width > 64) {
+            words[word + 1] |= value >>> (64 - shift);
+        }
+    }
+
+    private long readBits(int offset, long bit, int width) {
+        if (width == 0) {
+            return 0;
+        }
+        int word = offset + (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        long value = words[word] >>> shift;
+        if (shift + width > 64) {
+            value |= words[word + 1] << (64 - shift);
+        }
+        return value & (-1L >>> (64 - width));
+    }
+
+    /**
+     * @return the position of the set bit with the given rank, relative to the start of the upper bits.
+     */
+    private long select(int highStart, int rank) {
+        int word = highStart;
+        int count;
+        while (rank >= (count = Long.bitCount(words[word]))) {
+            rank -= count;
+            word++;
+        }
+        long bits = words[word];
+        for (int i = 0; i < rank; i++) {
+            bits &= bits - 1;
+        }
+        return (long) (word - highStart) * 64 + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * @return the position of the first set bit from the given position on, relative to the start of the upper bits.
+     */
+    private long nextSetBit(int highStart, long position) {
+        int word = highStart + (int) (position >>> 6);
+        long bits = words[word] & (-1L << position);
+        while (bits == 0) {
+            bits = words[++word];
+        }
+        return (long) (word - highStart) * 64 + Long.numberOfTrailingZeros(bits);
+    }
+}
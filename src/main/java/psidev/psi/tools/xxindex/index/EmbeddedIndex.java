@@ -0,0 +1,269 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The offset index at the end of indexedmzML and mzXML files, which lists the start positions of the
+ * spectra, chromatograms or scans. The listed elements are reported without scanning their content:
+ * only the content between them (e.g. the head of the file up to the first spectrum) is scanned, the end
+ * of an element is found by looking for its closing tag before the start of the next element. A sample
+ * of the elements is scanned to verify the offsets; if anything does not match, an IllegalStateException
+ * is thrown and the file has to be indexed as usual.
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#setEmbeddedIndex(boolean)
+ */
+class EmbeddedIndex {
+
+    /**
+     * The number of bytes at the end of the file, in which the offset of the index is looked for.
+     */
+    static final int TRAILER_LENGTH = 4096;
+
+    /**
+     * The number of elements whose content is scanned to verify the offsets.
+     */
+    static final int SAMPLE_COUNT = 16;
+
+    // the number of bytes before the start of an element, in which the closing tag of the previous element is looked for
+    private static final int WINDOW = 4096;
+    // the number of bytes read after the start of an element, to check its start tag
+    private static final int TAG_LENGTH = 256;
+
+    // <indexListOffset> of indexedmzML, <indexOffset> of mzXML
+    private static final Pattern INDEX_OFFSET = Pattern.compile("<(?:[\\w.-]+:)?index(?:List)?Offset>\\s*(\\d+)\\s*<");
+    private static final Pattern INDEX = Pattern.compile("<(?:[\\w.-]+:)?index\\s[^>]*name=\"([^\"]+)\"");
+    private static final Pattern OFFSET = Pattern.compile("<(?:[\\w.-]+:)?offset[\\s>][^>]*>?\\s*(\\d+)\\s*<");
+
+    // the listed elements, in file order
+    private final long[] starts;
+    private final String[] names;
+    // the start of the offset index, after the last listed element
+    private final long end;
+
+    private EmbeddedIndex(long[] starts, String[] names, long end) {
+        this.starts = starts;
+        this.names = names;
+        this.end = end;
+    }
+
+    /**
+     * @return the number of listed elements.
+     */
+    int size() {
+        return starts.length;
+    }
+
+    /**
+     * Reads the offset index at the end of a file.
+     *
+     * @param channel the channel of the file.
+     * @return the offset index, null if the file does not end with one.
+     * @throws IOException when the file can not be read.
+     */
+    static EmbeddedIndex read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long trailerStart = Math.max(0, size - TRAILER_LENGTH);
+        Matcher matcher = INDEX_OFFSET.matcher(read(channel, trailerStart, size));
+        if (!matcher.find()) {
+            return null;
+        }
+        long end = Long.parseLong(matcher.group(1));
+        if (end <= 0 || end >= size || size - end > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        // the offsets of all the indexes
+        String index = read(channel, end, size);
+        List<String> names = new ArrayList<>();
+        List<Long> starts = new ArrayList<>();
+        Matcher indexes = INDEX.matcher(index);
+        Matcher offsets = OFFSET.matcher(index);
+        boolean more = indexes.find();
+        while (more) {
+            String name = indexes.group(1);
+            int from = indexes.end();
+            more = indexes.find();
+            int to = more ? indexes.start() : index.length();
+            offsets.region(from, to);
+            while (offsets.find()) {
+                long start = Long.parseLong(offsets.group(1));
+                if (start >= end) {
+                    return null;
+                }
+                names.add(name);
+                starts.add(start);
+            }
+        }
+        if (starts.isEmpty()) {
+            return null;
+        }
+
+        // the elements of several indexes in file order
+        Integer[] order = new Integer[starts.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(starts::get));
+        long[] sortedStarts = new long[order.length];
+        String[] sortedNames = new String[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedStarts[i] = starts.get(order[i]);
+            sortedNames[i] = names.get(order[i]);
+        }
+        return new EmbeddedIndex(sortedStarts, sortedNames, end);
+    }
+
+    /**
+     * Reports the listed elements to the builder and scans the content between them.
+     *
+     * @param channel        the channel of the file.
+     * @param scanner        the scanner, which reports the tags it finds to the builder.
+     * @param builder        the builder of the index.
+     * @param lines          the table to record the line numbers of the head of the file in, can be null.
+     * @param buffer         the buffer to read the scanned content into.
+     * @param ignoreNSPrefix whether namespace prefixes are ignored.
+     * @return the state of the scanner at the end of the file.
+     * @throws IOException           when the file can not be read.
+     * @throws IllegalStateException when the offsets do not match the content of the file.
+     */
+    XmlScanner.State index(FileChannel channel, XmlScanner scanner, XmlXpathIndexer.IndexBuilder builder, LineTable lines,
+                           byte[] buffer, boolean ignoreNSPrefix) throws IOException {
+        int step = Math.max(1, starts.length / SAMPLE_COUNT);
+        long position = 0;
+        for (int i = 0; i < starts.length; i++) {
+            // the line numbers are only known up to the first skipped element
+            XmlXpathIndexer.scan(channel, position, starts[i], buffer, scanner, builder, null, i == 0 ? lines : null);
+            XmlScanner.State state = scanner.saveState();
+            if (!state.isOutsideOfTags()) {
+                throw new IllegalStateException("The listed " + names[i] + " at " + starts[i] + " is not the start of a tag.");
+            }
+            byte[] name = startTagName(channel, starts[i], names[i], ignoreNSPrefix);
+            long stop = stop(channel, starts[i], i + 1 < starts.length ? starts[i + 1] : end, name);
+            if (i % step == 0 || i == starts.length - 1) {
+                verify(channel, starts[i], stop, buffer, ignoreNSPrefix);
+            }
+            builder.startTag(name, 0, name.length, starts[i], IndexElement.NO_LINE_NUMBER);
+            builder.endTag(name, 0, name.length, stop);
+
+            // continue after the element, which does not change the state of the scanner
+            state.position = stop;
+            state.prev = '>';
+            scanner.restoreState(state);
+            position = stop;
+        }
+        XmlXpathIndexer.scan(channel, position, channel.size(), buffer, scanner, builder, null, null);
+        return scanner.saveState();
+    }
+
+    /**
+     * @return the name of the start tag at the position, which has to be the expected one (without prefix).
+     */
+    private static byte[] startTagName(FileChannel channel, long start, String expected, boolean ignoreNSPrefix) throws IOException {
+        byte[] tag = bytes(channel, start, Math.min(channel.size(), start + TAG_LENGTH));
+        int end = 1;
+        while (end < tag.length && tag[end] != ' ' && tag[end] != '\t' && tag[end] != '\n' && tag[end] != '\r'
+                && tag[end] != '>' && tag[end] != '/') {
+            end++;
+        }
+        String name = new String(tag, 1, Math.max(0, end - 1), "ISO-8859-1");
+        String localName = name.substring(name.indexOf(':') + 1);
+        if (tag.length == 0 || tag[0] != '<' || end == tag.length || tag[end] == '/' || !localName.equals(expected)) {
+            throw new IllegalStateException("The listed " + expected + " at " + start + " does not start with its start tag.");
+        }
+        return (ignoreNSPrefix ? localName : name).getBytes("ISO-8859-1");
+    }
+
+    /**
+     * @return the position after the closing tag of the element, the last closing tag before the next element.
+     */
+    private static long stop(FileChannel channel, long start, long next, byte[] name) throws IOException {
+        long from = Math.max(start, next - WINDOW);
+        byte[] bytes = bytes(channel, from, next);
+        for (int i = bytes.length - 1; i > 0; i--) {
+            if (bytes[i] != '>') {
+                continue;
+            }
+            // the tag ending here
+            int tagStart = i - 1;
+            while (tagStart >= 0 && bytes[tagStart] != '<') {
+                tagStart--;
+            }
+            if (tagStart < 0 || bytes[tagStart + 1] != '/') {
+                continue;
+            }
+            int nameEnd = tagStart + 2;
+            while (nameEnd < i && bytes[nameEnd] != ' ' && bytes[nameEnd] != '\t' && bytes[nameEnd] != '\n' && bytes[nameEnd] != '\r') {
+                nameEnd++;
+            }
+            int nameStart = nameEnd;
+            while (nameStart > tagStart + 2 && bytes[nameStart - 1] != ':') {
+                nameStart--;
+            }
+            if (TagEvents.equals(name, bytes, nameStart, nameEnd - nameStart)) {
+                return from + i + 1;
+            }
+        }
+        throw new IllegalStateException("The closing tag of the element at " + start + " has not been found before " + next + ".");
+    }
+
+    /**
+     * Scans the content of an element, which has to end at the given position.
+     */
+    private static void verify(FileChannel channel, long start, long stop, byte[] buffer, boolean ignoreNSPrefix) throws IOException {
+        Depth depth = new Depth();
+        XmlScanner scanner = new XmlScanner(depth, ByteSkipper.create(false), ignoreNSPrefix);
+        scanner.restoreState(XmlScanner.State.outsideOfTags(start, 1, (byte) ' '));
+        XmlXpathIndexer.scan(channel, start, stop, buffer, scanner, null, null, null);
+        if (depth.stop != stop) {
+            throw new IllegalStateException("The element at " + start + " does not end at " + stop + ".");
+        }
+    }
+
+    private static String read(FileChannel channel, long from, long to) throws IOException {
+        return new String(bytes(channel, from, to), "ISO-8859-1");
+    }
+
+    private static byte[] bytes(FileChannel channel, long from, long to) throws IOException {
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate((int) (to - from));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, from + buffer.position()) == -1) {
+                break;
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Finds the end of the first element.
+     */
+    private static class Depth implements XmlScanner.TagHandler {
+
+        private int depth = 0;
+        // the end of the first element, -1 while it is open
+        long stop = -1;
+
+        public boolean startTag(byte[] name, int offset, int length, long start, long lineNumber) {
+            if (stop < 0) {
+                depth++;
+            }
+            return true;
+        }
+
+        public void emptyTag(byte[] name, int offset, int length, long start, long stop, long lineNumber) {
+        }
+
+        public void endTag(byte[] name, int offset, int length, long stop) {
+            if (this.stop < 0 && --depth == 0) {
+                this.stop = stop;
+            }
+        }
+    }
+}
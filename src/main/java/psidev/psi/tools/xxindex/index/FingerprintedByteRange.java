@@ -0,0 +1,35 @@
+package psidev.psi.tools.xxindex.index;
+
+/**
+ * A ByteRange with the fingerprint of the bytes of the element, which is recorded while
+ * the content is indexed. The line number is stored as well (if it is recorded at all).
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#setElementFingerprints(boolean)
+ */
+public class FingerprintedByteRange extends LineNumberedByteRange implements IndexElement {
+
+    private final long fingerprint;
+
+    public FingerprintedByteRange(long start, long stop, long lineNumber, long fingerprint) {
+        super(start, stop, lineNumber);
+        this.fingerprint = fingerprint;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public boolean hasFingerprint() {
+        return true;
+    }
+
+    public String toString() {
+        return "ByteRange{" +
+                "start=" + getStart() +
+                ", stop=" + getStop() +
+                ", lineNumber=" + getLineNumber() +
+                ", fingerprint=" + Long.toHexString(fingerprint) +
+                '}';
+    }
+}
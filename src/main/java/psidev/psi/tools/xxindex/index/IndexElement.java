@@ -9,6 +9,8 @@ public interface IndexElement {
 
     long NO_LINE_NUMBER = -1;
 
+    long NO_FINGERPRINT = 0;
+
     void setValues(long start, long stop, long lineNumber);
 
     long getStart();
@@ -22,4 +24,16 @@ public interface IndexElement {
 
     boolean hasLineNumber();
 
+    /**
+     * @return the fingerprint of the bytes of the element, NO_FINGERPRINT if it has not been recorded.
+     * @see XmlXpathIndexer#setElementFingerprints(boolean)
+     */
+    default long getFingerprint() {
+        return NO_FINGERPRINT;
+    }
+
+    default boolean hasFingerprint() {
+        return false;
+    }
+
 }
@@ -0,0 +1,132 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.util.Arrays;
+
+/**
+ * The state of the indexer at the end of the indexed content: the position, the line number,
+ * the state of the scanner (e.g. within a tag, a quote or a comment), the open elements and the
+ * state of the checksum calculation. It allows to extend an index with content appended to the
+ * indexed file, without indexing the whole file again.
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#resume(StandardXpathIndex, java.io.File)
+ */
+public final class IndexState {
+
+    /**
+     * The number of bytes before the end of the indexed content, which are kept
+     * to detect a modified file when the index is resumed.
+     */
+    static final int TAIL_LENGTH = 16;
+
+    final XmlScanner.State scanner;
+
+    // the open elements
+    final byte[][] names;
+    final long[] starts;
+    final long[] lineNumbers;
+    // the depth within a skipped subtree, whose root is the last open element
+    final int prunedDepth;
+
+    final ChecksumAlgorithm checksumAlgorithm;
+    final String checksum;
+    // the state of the checksum calculation, to continue it, null if it can not be continued
+    final ContentChecksum.Hash hash;
+
+    // the last bytes of the indexed content
+    final byte[] tail;
+
+    // whether the indexing has been stopped by a StopCondition
+    final boolean stopped;
+
+    // the state of the element fingerprints and the prefix hashes at the starts of the open elements,
+    // null if the fingerprints have not been recorded
+    final ElementHasher hasher;
+    final long[] startPrefixes;
+
+    IndexState(XmlScanner.State scanner, byte[][] names, long[] starts, long[] lineNumbers, int prunedDepth,
+               ChecksumAlgorithm checksumAlgorithm, String checksum, ContentChecksum.Hash hash, byte[] tail, boolean stopped,
+               ElementHasher hasher, long[] startPrefixes) {
+        this.scanner = scanner;
+        this.names = names;
+        this.starts = starts;
+        this.lineNumbers = lineNumbers;
+        this.prunedDepth = prunedDepth;
+        this.checksumAlgorithm = checksumAlgorithm;
+        this.checksum = checksum;
+        this.hash = hash;
+        this.tail = tail;
+        this.stopped = stopped;
+        this.hasher = hasher;
+        this.startPrefixes = startPrefixes;
+    }
+
+    ////////////////////
+    // Getter
+
+    /**
+     * @return the number of bytes that have been indexed.
+     */
+    public long getPosition() {
+        return scanner.position;
+    }
+
+    /**
+     * @return the line number at the end of the indexed content.
+     */
+    public long getLineNumber() {
+        return scanner.lineNumber;
+    }
+
+    /**
+     * @return the number of elements that have not been closed yet.
+     */
+    public int getOpenElementCount() {
+        return names.length;
+    }
+
+    /**
+     * @return true if the indexed content ends outside of any element (e.g. a complete document).
+     */
+    public boolean isComplete() {
+        return names.length == 0 && scanner.isOutsideOfTags();
+    }
+
+    /**
+     * @return true if the indexing has been stopped by a StopCondition, the rest of the content can
+     *         be indexed with XmlXpathIndexer#resume(StandardXpathIndex, java.io.File).
+     * @see XmlXpathIndexer#setStopCondition(StopCondition)
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    /**
+     * @return the checksum of the indexed content.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @param content the bytes before the end of the indexed content.
+     * @return true if they are the same as the bytes that have been indexed.
+     */
+    boolean matchesTail(byte[] content) {
+        return Arrays.equals(tail, content);
+    }
+
+    public String toString() {
+        return "IndexState{" +
+                "position=" + getPosition() +
+                ", lineNumber=" + getLineNumber() +
+                ", openElements=" + getOpenElementCount() +
+                ", stopped=" + stopped +
+                ", checksum=" + checksum +
+                '}';
+    }
+}
@@ -0,0 +1,45 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.io.IOException;
+
+/**
+ * A ByteRange that does not store its line number, but looks it up in the
+ * LineTable of the index when it is needed.
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#setLazyLineNumber(boolean)
+ */
+public class LazyLineByteRange extends ByteRange implements IndexElement {
+
+    private final LineTable lineTable;
+
+    public LazyLineByteRange(long start, long stop, LineTable lineTable) {
+        super(start, stop, NO_LINE_NUMBER);
+        this.lineTable = lineTable;
+    }
+
+    /**
+     * This will throw a runtime exception if an IOException occurs during reading from the file.
+     *
+     * @return the line number, resolved from the LineTable.
+     */
+    public long getLineNumber() {
+        try {
+            return lineTable.getElementLineNumber(getStart());
+        } catch (IOException e) {
+            throw new IllegalStateException("Caught IOException while reading from file: " + lineTable.getFile(), e);
+        }
+    }
+
+    public boolean hasLineNumber() {
+        return lineTable.getFile() != null;
+    }
+
+    public String toString() {
+        return "ByteRange{" +
+                "start=" + getStart() +
+                ", stop=" + getStop() +
+                ", lineTable=" + lineTable +
+                '}';
+    }
+}
@@ -0,0 +1,345 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A sparse table of line numbers, recorded by the XmlXpathIndexer every few KiB of content.
+ * The line number of any position is found by a binary search for the preceding checkpoint
+ * and a short scan of the file from there. This allows elements without a line number field
+ * (see LazyLineByteRange) and the lookup of the byte offset of a line.
+ * Note: the file has to be set to resolve line numbers (the XmlXpathIndexer sets it when it
+ * indexes a file). Files with a name ending in '.gz' are decompressed, which is only fast if the
+ * line numbers are looked up in ascending order. The file is kept open until close() is called.
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#setLazyLineNumber(boolean)
+ */
+public class LineTable implements Closeable, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The minimal distance between two checkpoints.
+     */
+    static final long CHECKPOINT_INTERVAL = 1 << 16;
+
+    // the checkpoints: the line number at a position (a '\r' before the position is counted as line break)
+    private long[] positions = new long[16];
+    private long[] lineNumbers = new long[16];
+    private int size = 0;
+
+    private volatile File file;
+
+    // the reader of the last look up, to look up positions in ascending order quickly
+    private transient Reader reader;
+
+    public LineTable() {
+        checkpoint(0, 1); // we start in the first line
+    }
+
+    ////////////////////
+    // Getter + Setter
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @param file the indexed file, needed to resolve the line numbers.
+     */
+    public synchronized void setFile(File file) throws IOException {
+        close();
+        this.file = file;
+    }
+
+    /**
+     * @return the number of recorded checkpoints.
+     */
+    public synchronized int getCheckpointCount() {
+        return size;
+    }
+
+    ////////////////////
+    // Methods
+
+    /**
+     * Records the line number at a position, if the previous checkpoint is far enough away.
+     *
+     * @param position   the position, checkpoints have to be recorded in ascending order.
+     * @param lineNumber the line number at the position.
+     */
+    synchronized void checkpoint(long position, long lineNumber) {
+        if (size > 0 && position - positions[size - 1] < CHECKPOINT_INTERVAL) {
+            return;
+        }
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size * 2);
+            lineNumbers = Arrays.copyOf(lineNumbers, size * 2);
+        }
+        positions[size] = position;
+        lineNumbers[size] = lineNumber;
+        size++;
+    }
+
+    /**
+     * Writes the checkpoints, delta encoded.
+     *
+     * @see XpathIndexFile
+     */
+    synchronized void write(DataOutputStream out) throws IOException {
+        XpathIndexFile.writeVarLong(out, size);
+        for (int i = 1; i < size; i++) {
+            XpathIndexFile.writeVarLong(out, positions[i] - positions[i - 1]);
+            XpathIndexFile.writeVarLong(out, lineNumbers[i] - lineNumbers[i - 1]);
+        }
+    }
+
+    /**
+     * @return the table with the checkpoints written by this#write(java.io.DataOutputStream).
+     */
+    static LineTable read(DataInputStream in) throws IOException {
+        LineTable table = new LineTable();
+        int size = (int) XpathIndexFile.readVarLong(in);
+        table.positions = Arrays.copyOf(table.positions, Math.max(size, 1));
+        table.lineNumbers = Arrays.copyOf(table.lineNumbers, Math.max(size, 1));
+        for (int i = 1; i < size; i++) {
+            table.positions[i] = table.positions[i - 1] + XpathIndexFile.readVarLong(in);
+            table.lineNumbers[i] = table.lineNumbers[i - 1] + XpathIndexFile.readVarLong(in);
+        }
+        table.size = Math.max(size, 1);
+        return table;
+    }
+
+    /**
+     * Records the checkpoints of another table, e.g. of a chunk of the file.
+     *
+     * @param other      the table with the checkpoints to add.
+     * @param lineOffset the number to add to the line numbers of the other table.
+     */
+    synchronized void append(LineTable other, long lineOffset) {
+        // the first checkpoint of the other table is the start of the file
+        for (int i = 1; i < other.size; i++) {
+            checkpoint(other.positions[i], other.lineNumbers[i] + lineOffset);
+        }
+    }
+
+    /**
+     * Records the checkpoints of a part of another table, e.g. of an unchanged part of a modified file.
+     *
+     * @param other      the table with the checkpoints to add.
+     * @param from       the start of the part (exclusive).
+     * @param to         the end of the part (inclusive).
+     * @param offset     the number to add to the positions of the other table.
+     * @param lineOffset the number to add to the line numbers of the other table.
+     */
+    synchronized void append(LineTable other, long from, long to, long offset, long lineOffset) {
+        synchronized (other) {
+            for (int i = other.search(other.positions, from) + 1; i < other.size && other.positions[i] <= to; i++) {
+                checkpoint(other.positions[i] + offset, other.lineNumbers[i] + lineOffset);
+            }
+        }
+    }
+
+    /**
+     * @param position a position in the file.
+     * @return the line number at the position, or IndexElement.NO_LINE_NUMBER if no file is set.
+     * @throws IOException if the file can not be read.
+     */
+    public synchronized long getLineNumber(long position) throws IOException {
+        if (file == null) {
+            return IndexElement.NO_LINE_NUMBER;
+        }
+        return open(position).line;
+    }
+
+    /**
+     * Finds the line number of an element, which is the line in which its start tag ends.
+     *
+     * @param start the position of the '&lt;' of the start tag.
+     * @return the line number of the element, or IndexElement.NO_LINE_NUMBER if no file is set.
+     * @throws IOException if the file can not be read.
+     */
+    public synchronized long getElementLineNumber(long start) throws IOException {
+        if (file == null) {
+            return IndexElement.NO_LINE_NUMBER;
+        }
+        Reader reader = open(start);
+        // find the end of the start tag, a '>' outside of an attribute value
+        boolean inQuote = false;
+        int b;
+        while ((b = reader.read()) != -1) {
+            if (b == '"') {
+                inQuote = !inQuote;
+            } else if (b == '>' && !inQuote) {
+                // a line break just before the '>' is counted
+                break;
+            }
+        }
+        return reader.line;
+    }
+
+    /**
+     * @param lineNumber the number of a line, starting with 1.
+     * @return the position of the first byte of the line, or -1 if the file does not have this line
+     *         (or no file is set).
+     * @throws IOException if the file can not be read.
+     */
+    public synchronized long getLineOffset(long lineNumber) throws IOException {
+        if (file == null || lineNumber < 1) {
+            return -1;
+        }
+        // the line starts after the last checkpoint in the previous line
+        int i = search(lineNumbers, lineNumber - 1);
+        try (Reader reader = open(positions[i], lineNumbers[i])) {
+            while (reader.line < lineNumber) {
+                if (reader.read() == -1) {
+                    return -1;
+                }
+            }
+            // a '\n' following a '\r' is part of the same line break
+            if (reader.prev == '\r' && reader.peek() == '\n') {
+                reader.read();
+            }
+            return reader.position;
+        }
+    }
+
+    /**
+     * Releases the file, it is opened again by the next look up.
+     */
+    public synchronized void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    /**
+     * @return the reader of this table at the position, with the line number already counted.
+     */
+    private Reader open(long position) throws IOException {
+        int i = search(positions, position);
+        // continue with the last reader, unless it has passed the position or there is a closer checkpoint
+        // (the checkpoint would not help with a compressed file, it is read from its start anyway)
+        boolean gz = file.getName().endsWith(".gz");
+        if (reader == null || reader.position > position || (!gz && reader.position < positions[i])) {
+            close();
+            reader = open(positions[i], lineNumbers[i]);
+        }
+        while (reader.position < position && reader.read() != -1) {
+            // count the line breaks up to the position
+        }
+        return reader;
+    }
+
+    private Reader open(long position, long lineNumber) throws IOException {
+        if (position == 0) {
+            return new Reader(file, 0, lineNumber, (byte) 0);
+        }
+        // we need the byte before the position, to detect a '\r\n' line break
+        Reader reader = new Reader(file, position - 1, lineNumber, (byte) 0);
+        reader.prev = (byte) reader.in.read();
+        reader.position++;
+        return reader;
+    }
+
+    /**
+     * @return the index of the last checkpoint with a value not greater than the given one.
+     */
+    private int search(long[] values, long value) {
+        int low = 0; // the first checkpoint is always at position 0 in line 1
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (values[mid] <= value) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public String toString() {
+        return "LineTable{" +
+                "checkpoints=" + size +
+                ", file=" + file +
+                '}';
+    }
+
+    ////////////////////
+    // Inner classes
+
+    /**
+     * Reads the file from a position, counting the line breaks like the XmlScanner does.
+     */
+    private static class Reader implements AutoCloseable {
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[8192];
+        private int offset = 0;
+        private int length = 0;
+
+        long position;
+        long line;
+        byte prev;
+
+        Reader(File file, long position, long line, byte prev) throws IOException {
+            InputStream is = new FileInputStream(file);
+            if (file.getName().endsWith(".gz")) {
+                is = new GZIPInputStream(is);
+                IOUtils.skipFully(is, position);
+            } else {
+                ((FileInputStream) is).getChannel().position(position);
+            }
+            this.in = is;
+            this.position = position;
+            this.line = line;
+            this.prev = prev;
+        }
+
+        int peek() throws IOException {
+            if (offset == length) {
+                length = in.read(buffer);
+                offset = 0;
+                if (length == -1) {
+                    length = 0;
+                    return -1;
+                }
+            }
+            return buffer[offset];
+        }
+
+        int read() throws IOException {
+            int b = peek();
+            if (b == -1) {
+                return -1;
+            }
+            offset++;
+            position++;
+            if (b == 0) { // filling bytes are ignored
+                return b;
+            }
+            if (b == '\r' || (b == '\n' && prev != '\r')) {
+                line++;
+            }
+            prev = (byte) b;
+            return b;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
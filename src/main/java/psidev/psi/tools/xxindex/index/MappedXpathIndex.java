@@ -0,0 +1,322 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * A read-only XpathIndex backed by a memory-mapped index file. The elements of every xpath are stored
+ * in their own section of fixed size records, so the elements are read directly from the mapped file
+ * when they are accessed: opening the index only reads the directory of the xpaths, only the pages of the
+ * accessed elements are loaded and the processes that map the same index file share the loaded pages.
+ * The index file records the indexed file like a XpathIndexFile, so an outdated index is not opened.
+ * The line numbers are stored with the elements, also for an index with lazy line numbers.
+ *
+ * @since 0.25
+ * @see XpathIndexFile
+ */
+public final class MappedXpathIndex implements XpathIndex {
+
+    /**
+     * The version of the format, files of other versions are not opened.
+     */
+    public static final int VERSION = 1;
+
+    // "XXIM"
+    private static final int MAGIC = 0x5858494D;
+    // the size of the header written by XpathIndexFile#writeHeader
+    private static final int HEADER_SIZE = 32;
+    // the offset of the directory and the magic number at the end of the file
+    private static final int TRAILER_SIZE = 12;
+
+    private static final int RECORD_LINE_NUMBER = 1;
+
+    private final Map<String, Section> sections;
+    private final boolean recordLineNumber;
+    private final ChecksumAlgorithm checksumAlgorithm;
+    private final String checksum;
+
+    private MappedXpathIndex(Map<String, Section> sections, boolean recordLineNumber, ChecksumAlgorithm checksumAlgorithm, String checksum) {
+        this.sections = sections;
+        this.recordLineNumber = recordLineNumber;
+        this.checksumAlgorithm = checksumAlgorithm;
+        this.checksum = checksum;
+    }
+
+    ////////////////////
+    // Writing
+
+    /**
+     * Writes an index of a file to an index file that can be mapped. The index file is written next to it first
+     * and then renamed, so processes that map it never see a partial index.
+     *
+     * @param index     the complete index of the file.
+     * @param source    the indexed file.
+     * @param indexFile the file to write the index to.
+     * @throws IOException when a file can not be read or written.
+     */
+    public static void write(XpathIndex index, File source, File indexFile) throws IOException {
+        File temporary = new File(indexFile.getPath() + ".tmp");
+        Map<String, Section> sections = new LinkedHashMap<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+            XpathIndexFile.writeHeader(out, MAGIC, VERSION, source);
+            long position = HEADER_SIZE;
+            for (String xpath : index.getKeys()) {
+                List<IndexElement> elements = index.getElements(xpath);
+                boolean fingerprints = !elements.isEmpty() && elements.get(0).hasFingerprint();
+                Section section = new Section(position, elements.size(),
+                        (index.isRecordLineNumber() ? XpathIndexFile.LINE_NUMBERS : 0) | (fingerprints ? XpathIndexFile.FINGERPRINTS : 0));
+                for (IndexElement element : elements) {
+                    out.writeLong(element.getStart());
+                    out.writeLong(element.getStop());
+                    if (section.lineNumbers()) {
+                        out.writeLong(element.getLineNumber());
+                    }
+                    if (section.fingerprints()) {
+                        out.writeLong(element.getFingerprint());
+                    }
+                }
+                position += (long) section.count * section.recordSize;
+                sections.put(xpath, section);
+            }
+
+            // the directory follows the sections
+            out.writeByte(index.isRecordLineNumber() ? RECORD_LINE_NUMBER : 0);
+            out.writeUTF(index.getChecksumAlgorithm().name());
+            XpathIndexFile.writeString(out, index.getChecksum());
+            out.writeInt(sections.size());
+            for (Map.Entry<String, Section> entry : sections.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeByte(entry.getValue().fields);
+                out.writeInt(entry.getValue().count);
+                out.writeLong(entry.getValue().offset);
+            }
+            out.writeLong(position);
+            out.writeInt(MAGIC);
+        }
+        XpathIndexFile.replace(temporary, indexFile);
+    }
+
+    ////////////////////
+    // Opening
+
+    /**
+     * Maps an index file. Only the directory of the xpaths is read, the elements are read when they are accessed.
+     *
+     * @param indexFile     the index file.
+     * @param source        the indexed file.
+     * @param verifyContent whether to compare a hash of some samples of the content of the indexed file as well.
+     * @return the index, null if the index file does not exist or it does not belong to the current content of the file.
+     * @throws IOException when the files can not be read, or the index file is not a valid index file.
+     * @see XpathIndexFile#isValid(java.io.File, java.io.File, boolean)
+     */
+    public static MappedXpathIndex open(File indexFile, File source, boolean verifyContent) throws IOException {
+        if (!indexFile.isFile() || !source.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+            long length = raf.length();
+            if (length < HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException("The index file is truncated: " + indexFile.getAbsolutePath());
+            }
+            if (!XpathIndexFile.readHeader(raf, MAGIC, VERSION, indexFile, source, verifyContent)) {
+                return null;
+            }
+            raf.seek(length - TRAILER_SIZE);
+            long directory = raf.readLong();
+            if (raf.readInt() != MAGIC || directory < HEADER_SIZE || directory > length - TRAILER_SIZE) {
+                throw new IOException("The index file is corrupted: " + indexFile.getAbsolutePath());
+            }
+            byte[] bytes = new byte[(int) (length - TRAILER_SIZE - directory)];
+            raf.seek(directory);
+            raf.readFully(bytes);
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            int flags = in.readByte();
+            ChecksumAlgorithm algorithm = ChecksumAlgorithm.valueOf(in.readUTF());
+            String checksum = XpathIndexFile.readString(in);
+            int count = in.readInt();
+            Map<String, Section> sections = new LinkedHashMap<>();
+            FileChannel channel = raf.getChannel();
+            for (int i = 0; i < count; i++) {
+                String xpath = in.readUTF();
+                int fields = in.readByte();
+                int elements = in.readInt();
+                Section section = new Section(in.readLong(), elements, fields);
+                if (section.offset < HEADER_SIZE || section.offset + (long) elements * section.recordSize > directory) {
+                    throw new IOException("The index file is corrupted: " + indexFile.getAbsolutePath());
+                }
+                // the mapping stays valid when the file is closed
+                section.map(channel);
+                sections.put(xpath, section);
+            }
+            return new MappedXpathIndex(sections, (flags & RECORD_LINE_NUMBER) != 0, algorithm, checksum);
+        }
+    }
+
+    ////////////////////
+    // XpathIndex
+
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(sections.keySet());
+    }
+
+    /**
+     * @return the elements, which are read from the mapped file when they are accessed.
+     */
+    public List<IndexElement> getElements(String xpath) {
+        Section section = sections.get(xpath);
+        return section == null ? Collections.<IndexElement>emptyList() : new Elements(section);
+    }
+
+    /**
+     * A MappedXpathIndex can not be modified.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    public void put(String path, long start, long stop, long lineNumber) {
+        throw new UnsupportedOperationException("A MappedXpathIndex can not be modified.");
+    }
+
+    public int getElementCount(String xpath) {
+        Section section = sections.get(xpath);
+        return section == null ? 0 : section.count;
+    }
+
+    public boolean containsXpath(String xpath) {
+        return sections.containsKey(xpath);
+    }
+
+    public boolean isRecordLineNumber() {
+        return recordLineNumber;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    public String print() {
+        StringBuilder sb = new StringBuilder();
+        for (String key : sections.keySet()) {
+            sb.append("xPath: ");
+            sb.append(key);
+            sb.append("\n");
+            for (IndexElement element : getElements(key)) {
+                sb.append("\tLocation : ");
+                sb.append(element.getStart());
+                sb.append("-");
+                sb.append(element.getStop());
+                sb.append(" in line: ");
+                sb.append(element.getLineNumber());
+                sb.append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    public String toString() {
+        return "MappedXpathIndex{" +
+                "xpaths=" + sections.size() +
+                ", checksum=" + checksum +
+                '}';
+    }
+
+    ////////////////////
+    // Inner classes
+
+    /**
+     * The records of the elements of a xpath, in one or more mapped buffers of at most 2 GiB.
+     */
+    private static class Section {
+
+        private final long offset;
+        private final int count;
+        private final int fields;
+        private final int recordSize;
+        private final int recordsPerBuffer;
+        private MappedByteBuffer[] buffers;
+
+        Section(long offset, int count, int fields) {
+            this.offset = offset;
+            this.count = count;
+            this.fields = fields;
+            this.recordSize = 16 + (lineNumbers() ? 8 : 0) + (fingerprints() ? 8 : 0);
+            this.recordsPerBuffer = Integer.MAX_VALUE / recordSize;
+        }
+
+        boolean lineNumbers() {
+            return (fields & XpathIndexFile.LINE_NUMBERS) != 0;
+        }
+
+        boolean fingerprints() {
+            return (fields & XpathIndexFile.FINGERPRINTS) != 0;
+        }
+
+        /**
+         * Maps the section, which does not load any of its pages.
+         */
+        void map(FileChannel channel) throws IOException {
+            buffers = new MappedByteBuffer[(count + recordsPerBuffer - 1) / recordsPerBuffer];
+            for (int i = 0; i < buffers.length; i++) {
+                long records = Math.min(recordsPerBuffer, count - (long) i * recordsPerBuffer);
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + (long) i * recordsPerBuffer * recordSize, records * recordSize);
+            }
+        }
+
+        /**
+         * Reads an element with absolute gets, which can be done by several threads at the same time.
+         */
+        IndexElement get(int i) {
+            MappedByteBuffer buffer = buffers[i / recordsPerBuffer];
+            int position = (i % recordsPerBuffer) * recordSize;
+            long start = buffer.getLong(position);
+            long stop = buffer.getLong(position + 8);
+            long lineNumber = lineNumbers() ? buffer.getLong(position + 16) : IndexElement.NO_LINE_NUMBER;
+            if (fingerprints()) {
+                return new FingerprintedByteRange(start, stop, lineNumber, buffer.getLong(position + recordSize - 8));
+            } else if (lineNumbers()) {
+                return new LineNumberedByteRange(start, stop, lineNumber);
+            } else {
+                return new ByteRange(start, stop, lineNumber);
+            }
+        }
+    }
+
+    private static class Elements extends AbstractList<IndexElement> implements RandomAccess {
+
+        private final Section section;
+
+        Elements(Section section) {
+            this.section = section;
+        }
+
+        public IndexElement get(int index) {
+            if (index < 0 || index >= section.count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + section.count);
+            }
+            return section.get(index);
+        }
+
+        public int size() {
+            return section.count;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * The elements of a xpath, stored as fixed size records in direct ByteBuffers outside of the Java heap:
+ * the start and the stop, and the line number and the fingerprint if they are recorded. The heap only holds
+ * a ByteBuffer per chunk of records, so the garbage collector does not have to go through the elements.
+ * The IndexElements are created when they are accessed. The memory is released by this#release(), or when
+ * the list is garbage collected.
+ *
+ * @since 0.25
+ * @see ElementStorage#OFF_HEAP
+ */
+class OffHeapElementList extends AbstractList<IndexElement> implements RandomAccess {
+
+    // the number of records per chunk, the first chunk grows up to it
+    private static final int CHUNK_RECORDS = 1 << 16;
+    private static final int INITIAL_RECORDS = 16;
+
+    // the method to release the memory of a direct buffer at once, null if it is not available
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final StandardXpathIndex index;
+
+    private ByteBuffer[] chunks = new ByteBuffer[1];
+    private int recordSize;
+    private boolean lineNumbers;
+    private boolean fingerprints;
+    private int size = 0;
+    private boolean released = false;
+
+    /**
+     * @param index the index of the elements, with the settings for the line numbers.
+     */
+    OffHeapElementList(StandardXpathIndex index) {
+        this.index = index;
+    }
+
+    ////////////////////
+    // List
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Stores the values of an element. The first element decides whether the fingerprints are stored.
+     */
+    public synchronized boolean add(IndexElement element) {
+        checkReleased();
+        if (size == 0) {
+            // lazy line numbers are looked up in the LineTable of the index
+            lineNumbers = index.isRecordLineNumber() && (index.getLineTable() == null || element.hasFingerprint());
+            fingerprints = element.hasFingerprint();
+            recordSize = 16 + (lineNumbers ? 8 : 0) + (fingerprints ? 8 : 0);
+        }
+        int chunk = size / CHUNK_RECORDS;
+        int record = size % CHUNK_RECORDS;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = ByteBuffer.allocateDirect((chunk == 0 ? INITIAL_RECORDS : CHUNK_RECORDS) * recordSize).order(ByteOrder.nativeOrder());
+        } else if (record * recordSize == chunks[chunk].capacity()) {
+            // only the first chunk grows
+            ByteBuffer grown = ByteBuffer.allocateDirect(Math.min(record * 2, CHUNK_RECORDS) * recordSize).order(ByteOrder.nativeOrder());
+            grown.put((ByteBuffer) chunks[chunk].duplicate().clear());
+            free(chunks[chunk]);
+            chunks[chunk] = grown;
+        }
+        ByteBuffer buffer = chunks[chunk];
+        int position = record * recordSize;
+        buffer.putLong(position, element.getStart());
+        buffer.putLong(position + 8, element.getStop());
+        if (lineNumbers) {
+            buffer.putLong(position + 16, element.getLineNumber());
+        }
+        if (fingerprints) {
+            buffer.putLong(position + recordSize - 8, element.getFingerprint());
+        }
+        size++;
+        modCount++;
+        return true;
+    }
+
+    public synchronized IndexElement get(int i) {
+        checkReleased();
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        ByteBuffer buffer = chunks[i / CHUNK_RECORDS];
+        int position = (i % CHUNK_RECORDS) * recordSize;
+        long start = buffer.getLong(position);
+        long stop = buffer.getLong(position + 8);
+        if (fingerprints) {
+            return new FingerprintedByteRange(start, stop, lineNumbers ? buffer.getLong(position + 16) : IndexElement.NO_LINE_NUMBER,
+                    buffer.getLong(position + recordSize - 8));
+        } else if (index.isRecordLineNumber() && index.getLineTable() != null) {
+            return new LazyLineByteRange(start, stop, index.getLineTable());
+        } else if (lineNumbers) {
+            return new LineNumberedByteRange(start, stop, buffer.getLong(position + 16));
+        } else {
+            return new ByteRange(start, stop, IndexElement.NO_LINE_NUMBER);
+        }
+    }
+
+    ////////////////////
+    // Methods
+
+    /**
+     * Releases the memory of the elements, the list can not be used any more afterwards.
+     */
+    synchronized void release() {
+        for (ByteBuffer chunk : chunks) {
+            if (chunk != null) {
+                free(chunk);
+            }
+        }
+        chunks = new ByteBuffer[0];
+        released = true;
+    }
+
+    /**
+     * @return the number of bytes allocated outside of the heap.
+     */
+    synchronized long getAllocatedMemory() {
+        long allocated = 0;
+        for (ByteBuffer chunk : chunks) {
+            allocated += chunk == null ? 0 : chunk.capacity();
+        }
+        return allocated;
+    }
+
+    /**
+     * @return the bytes taken by the array of the chunks on the heap, without the object headers and the buffer objects.
+     */
+    synchronized long retainedBytes() {
+        return 4L * chunks.length;
+    }
+
+    private void checkReleased() {
+        if (released) {
+            throw new IllegalStateException("The index has been closed.");
+        }
+    }
+
+    private static void free(ByteBuffer buffer) {
+        if (CLEANER != null) {
+            CLEANER.free(buffer);
+        }
+    }
+
+    public String toString() {
+        return "OffHeapElementList{" +
+                "size=" + size +
+                ", lineNumbers=" + lineNumbers +
+                ", fingerprints=" + fingerprints +
+                ", released=" + released +
+                '}';
+    }
+
+    ////////////////////
+    // Inner classes
+
+    /**
+     * Releases the memory of direct buffers at once: with Unsafe#invokeCleaner on Java 9+,
+     * with the cleaner of the buffer on Java 8. Otherwise the memory is released when the
+     * buffers are garbage collected.
+     */
+    private static abstract class Cleaner {
+
+        abstract void free(ByteBuffer buffer);
+
+        static Cleaner create() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                final Object unsafe = field.get(null);
+                return new Cleaner() {
+                    void free(ByteBuffer buffer) {
+                        try {
+                            invokeCleaner.invoke(unsafe, buffer);
+                        } catch (Exception e) {
+                            // the memory is released by the garbage collector
+                        }
+                    }
+                };
+            } catch (Exception e) {
+                // Java 8
+            }
+            try {
+                final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                return new Cleaner() {
+                    void free(ByteBuffer buffer) {
+                        try {
+                            Object c = cleaner.invoke(buffer);
+                            if (c != null) {
+                                clean.invoke(c);
+                            }
+                        } catch (Exception e) {
+                            // the memory is released by the garbage collector
+                        }
+                    }
+                };
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+}
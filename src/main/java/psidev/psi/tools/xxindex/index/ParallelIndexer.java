@@ -0,0 +1,411 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Indexes an uncompressed file on several threads.
+ * <p>
+ * The file is split into chunks, each starting at a '&lt;'. All chunks are scanned in
+ * parallel, assuming that the scanner is outside of any tag, quote or special section
+ * at their start. The found tags are recorded (TagEvents) and replayed in file order
+ * to the handler building the index, which knows the open elements and the line number
+ * offsets of each chunk. If the state of the scanner at the end of a chunk shows that
+ * the assumption for the next chunk was wrong (e.g. a '&lt;' within a comment or a
+ * CDATA section), the next chunk is scanned again, starting with the correct state.
+ * The result is therefore exactly the same as the one of a sequential scan.
+ *
+ * @since 0.25
+ */
+class ParallelIndexer {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelIndexer.class);
+
+    /**
+     * Files are not split into chunks smaller than this.
+     */
+    static final long MIN_CHUNK_SIZE = 1L << 20;
+
+    /**
+     * Chunks are not bigger than this, to limit the memory needed for the recorded tags.
+     */
+    static final long MAX_CHUNK_SIZE = 64L << 20;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final File file;
+    private final int parallelism;
+    private final int blockSize;
+    private final boolean ignoreNSPrefix;
+    private final boolean vectorSearch;
+
+    private long minChunkSize = MIN_CHUNK_SIZE;
+    private LineTable lineTable = null;
+
+    ////////////////////
+    // Constructor
+
+    ParallelIndexer(File file, int parallelism, int blockSize, boolean ignoreNSPrefix, boolean vectorSearch) {
+        this.file = file;
+        this.parallelism = parallelism;
+        this.blockSize = blockSize;
+        this.ignoreNSPrefix = ignoreNSPrefix;
+        this.vectorSearch = vectorSearch;
+    }
+
+    /**
+     * Only for testing, to split small files into several chunks.
+     *
+     * @param minChunkSize the minimal size of a chunk.
+     */
+    void setMinChunkSize(long minChunkSize) {
+        this.minChunkSize = minChunkSize;
+    }
+
+    /**
+     * @param lineTable the table to record the line numbers in, can be null.
+     */
+    void setLineTable(LineTable lineTable) {
+        this.lineTable = lineTable;
+    }
+
+    ////////////////////
+    // Methods
+
+    /**
+     * Scans the file and reports all tags, in file order, to the given handler.
+     *
+     * @param handler  the handler to report the tags to.
+     * @param checksum the checksum to update with the content of the file.
+     * @return the state of the scanner at the end of the file.
+     * @throws IOException if the file can not be read.
+     */
+    XmlScanner.State index(XmlScanner.TagHandler handler, final ContentChecksum checksum) throws IOException {
+        final boolean calculateChecksum = checksum.getAlgorithm() != ChecksumAlgorithm.NONE;
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism + (calculateChecksum ? 1 : 0), new DaemonThreadFactory());
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long[] starts = split(channel);
+            log.debug("Indexing " + file.getName() + " in " + starts.length + " chunks on " + parallelism + " threads.");
+
+            Future<?> checksumResult = null;
+            if (calculateChecksum) {
+                // the checksum needs the bytes in sequence, it is calculated on its own thread
+                checksumResult = executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        long pos = 0;
+                        int read;
+                        byte[] block = checksum.nextBlock();
+                        while ((read = channel.read(ByteBuffer.wrap(block), pos)) != -1) {
+                            checksum.update(block, read);
+                            pos += read;
+                            block = checksum.nextBlock();
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            // only a limited number of chunks is scanned ahead, to limit the memory needed for the recorded tags
+            List<Future<PartialXpathIndex>> chunks = new ArrayList<>(starts.length);
+            int window = Math.min(starts.length, 2 * parallelism);
+            for (int i = 0; i < window; i++) {
+                chunks.add(executor.submit(chunkTask(channel, starts, i)));
+            }
+
+            Merger merger = new Merger(handler, channel);
+            for (int i = 0; i < starts.length; i++) {
+                merger.add(get(chunks.get(i)));
+                chunks.set(i, null);
+                if (i + window < starts.length) {
+                    chunks.add(executor.submit(chunkTask(channel, starts, i + window)));
+                }
+            }
+
+            if (checksumResult != null) {
+                get(checksumResult);
+            }
+            return merger.getState();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Scans a part of the file, which is extended to start and end at a '&lt;' (or the start and end of the file).
+     * The parts of adjacent ranges, e.g. [0, 100) and [100, 200), are therefore adjacent as well.
+     *
+     * @param from the position to start at.
+     * @param to   the position to end at.
+     * @return the partial index of the part.
+     * @throws IOException if the file can not be read.
+     */
+    PartialXpathIndex index(long from, long to) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return scan(channel, startOfPart(channel, from), startOfPart(channel, to), null);
+        }
+    }
+
+    /**
+     * @return the start of the part at the given position: the next '&lt;', 0 or the size of the file.
+     */
+    private long startOfPart(FileChannel channel, long position) throws IOException {
+        if (position <= 0) {
+            return 0;
+        }
+        if (position >= channel.size()) {
+            return channel.size();
+        }
+        long start = nextStartOfTag(channel, position);
+        return start < 0 ? channel.size() : start;
+    }
+
+    /**
+     * Creates the task to scan one chunk of the file, assuming it starts outside of any tag.
+     *
+     * @param channel the channel to read from.
+     * @param starts  the start positions of all the chunks.
+     * @param i       the number of the chunk to scan.
+     * @return the task.
+     */
+    private Callable<PartialXpathIndex> chunkTask(final FileChannel channel, final long[] starts, final int i) {
+        return new Callable<PartialXpathIndex>() {
+            public PartialXpathIndex call() throws IOException {
+                return scan(channel, starts[i], i + 1 < starts.length ? starts[i + 1] : channel.size(), null);
+            }
+        };
+    }
+
+    /**
+     * Scans one chunk of the file.
+     *
+     * @param channel the channel to read from.
+     * @param from    the start of the chunk.
+     * @param to      the end of the chunk.
+     * @param state   the state to start with, if null a state outside of any tag is assumed.
+     * @return the recorded tags and the states at the start and the end of the chunk.
+     * @throws IOException if the file can not be read.
+     */
+    private PartialXpathIndex scan(FileChannel channel, long from, long to, XmlScanner.State state) throws IOException {
+        PartialXpathIndex chunk = new PartialXpathIndex();
+        chunk.to = to;
+        if (state == null) {
+            chunk.start = XmlScanner.State.outsideOfTags(from, 0, previousByte(channel, from));
+        } else {
+            chunk.start = state.copy();
+            chunk.start.lineNumber = 0; // we count the lines relative to the chunk start
+        }
+        chunk.events = new TagEvents();
+        chunk.lines = lineTable == null ? null : new LineTable();
+        XmlScanner scanner = new XmlScanner(chunk.events, ByteSkipper.create(vectorSearch), ignoreNSPrefix);
+        scanner.restoreState(chunk.start);
+        try {
+            byte[] block = new byte[blockSize];
+            // a chunk is only bigger than MAX_CHUNK_SIZE if there is no '<' for a long time
+            for (long position = from; position < to; position += MAX_CHUNK_SIZE) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_CHUNK_SIZE, to - position));
+                while (window.hasRemaining()) {
+                    int length = Math.min(block.length, window.remaining());
+                    window.get(block, 0, length);
+                    scanner.scan(block, 0, length);
+                    if (chunk.lines != null) {
+                        chunk.lines.checkpoint(scanner.getPosition(), scanner.getCompletedLineNumber());
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // the scanner may fail if the chunk does not really start outside of a tag
+            chunk.failure = e;
+        }
+        chunk.end = scanner.saveState();
+        chunk.tail = XmlXpathIndexer.readTail(channel, to);
+        return chunk;
+    }
+
+    /**
+     * Splits the file into chunks that start with a '&lt;'.
+     *
+     * @param channel the channel to read from.
+     * @return the start positions of the chunks.
+     * @throws IOException if the file can not be read.
+     */
+    private long[] split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.max(minChunkSize, Math.min(MAX_CHUNK_SIZE, size / (4L * parallelism)));
+        List<Long> starts = new ArrayList<>();
+        starts.add(0L);
+        long last = 0;
+        for (long nominal = chunkSize; nominal < size; nominal += chunkSize) {
+            long start = nextStartOfTag(channel, Math.max(nominal, last + 1));
+            if (start < 0) {
+                break;
+            }
+            starts.add(start);
+            last = start;
+            nominal = Math.max(nominal, start);
+        }
+        long[] result = new long[starts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = starts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return the position of the next '&lt;' at or after the given position, or -1 if there is none.
+     */
+    private long nextStartOfTag(FileChannel channel, long from) throws IOException {
+        byte[] block = new byte[4096];
+        long pos = from;
+        int read;
+        while ((read = channel.read(ByteBuffer.wrap(block), pos)) != -1) {
+            for (int i = 0; i < read; i++) {
+                if (block[i] == '<') {
+                    return pos + i;
+                }
+            }
+            pos += read;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the last non zero byte before the given position, or ' ' if there is none.
+     */
+    private byte previousByte(FileChannel channel, long position) throws IOException {
+        byte[] block = new byte[256];
+        long end = position;
+        while (end > 0) {
+            long start = Math.max(0, end - block.length);
+            int length = (int) (end - start);
+            int read = 0;
+            while (read < length) {
+                int r = channel.read(ByteBuffer.wrap(block, read, length - read), start + read);
+                if (r == -1) {
+                    throw new IOException("Unexpected end of file at position " + (start + read) + " of " + file.getName());
+                }
+                read += r;
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                if (block[i] != 0) {
+                    return block[i];
+                }
+            }
+            end = start;
+        }
+        return ' ';
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing!", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Indexing failed!", cause);
+        }
+    }
+
+    ////////////////////
+    // Inner classes
+
+    /**
+     * Reports the tags of adjacent chunks (or partial indexes) in file order to a handler.
+     */
+    class Merger {
+
+        private final XmlScanner.TagHandler handler;
+        private final FileChannel channel;
+        private long lineNumber = 1; // we start in the first line
+        private XmlScanner.State end = null; // the real state at the end of the previous chunk
+        private byte[] tail = new byte[0];
+
+        /**
+         * @param handler the handler to report the tags to.
+         * @param channel the channel to scan chunks again, which did not start outside of a tag.
+         *                Can be null, if the chunks have been scanned elsewhere.
+         */
+        Merger(XmlScanner.TagHandler handler, FileChannel channel) {
+            this.handler = handler;
+            this.channel = channel;
+        }
+
+        void add(PartialXpathIndex chunk) throws IOException {
+            if (end == null && chunk.getFrom() != 0) {
+                throw new IllegalArgumentException("The first part has to start at the beginning of the file, not at " + chunk.getFrom());
+            }
+            if (end != null && chunk.getFrom() != end.position) {
+                throw new IllegalArgumentException("The parts are not adjacent, expected a part starting at " + end.position + ", not at " + chunk.getFrom());
+            }
+            if (end != null && (chunk.failure != null || !chunk.start.isEquivalent(end))) {
+                // the chunk did not start outside of a tag, scan it again with the correct state
+                if (channel == null) {
+                    throw new IllegalArgumentException("The part at position " + chunk.getFrom() + " does not start outside of a tag, the file is needed to index it again.");
+                }
+                log.debug("Rescanning chunk at position " + chunk.getFrom());
+                chunk = scan(channel, chunk.getFrom(), chunk.getTo(), end);
+            }
+            if (chunk.failure != null) {
+                throw chunk.failure;
+            }
+            chunk.events.replay(handler, lineNumber);
+            if (lineTable != null && chunk.lines != null) {
+                lineTable.append(chunk.lines, lineNumber);
+            }
+            lineNumber += chunk.end.lineNumber;
+            end = chunk.end;
+            tail = chunk.tail;
+        }
+
+        /**
+         * @return the state of the scanner at the end of the last chunk.
+         */
+        XmlScanner.State getState() {
+            // the line number of the end state is relative to the start of the last chunk
+            XmlScanner.State state = end.copy();
+            state.lineNumber = lineNumber;
+            return state;
+        }
+
+        /**
+         * @return the last bytes of the last chunk.
+         */
+        byte[] getTail() {
+            return tail;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "xxindex-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The index of a byte range of a file, created by XmlXpathIndexer#index(java.io.File, long, long).
+ * The range is scanned without knowing the elements that are open at its start, so the found tags
+ * are only recorded, with line numbers relative to the start of the range. The partial indexes of
+ * all the ranges of a file, e.g. created on different machines (they are Serializable), are combined
+ * with XmlXpathIndexer#merge(java.util.List, java.io.File) into the index of the whole file.
+ * <p>
+ * Like the chunks of the parallel indexing, a range is assumed to start outside of any tag, comment or
+ * CDATA section. If this turns out to be wrong while merging, the range has to be scanned again.
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#index(java.io.File, long, long)
+ */
+public class PartialXpathIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // the assumed state of the scanner at the start, the state at the end (with the line number relative to the start)
+    XmlScanner.State start;
+    XmlScanner.State end;
+    // the end of the range, the end state stops before it if the scanner failed
+    long to;
+    TagEvents events;
+    // the line numbers, relative to the start of the range
+    LineTable lines;
+    // the scanner may fail if the range does not really start outside of a tag
+    RuntimeException failure;
+    // the last bytes of the range
+    byte[] tail;
+
+    PartialXpathIndex() {
+    }
+
+    ////////////////////
+    // Getter
+
+    /**
+     * @return the position of the first indexed byte, the '&lt;' of a tag or 0.
+     */
+    public long getFrom() {
+        return start.position;
+    }
+
+    /**
+     * @return the position after the last indexed byte, the start of the next range.
+     */
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * @return the number of line breaks within the range.
+     */
+    public long getLineCount() {
+        return end.lineNumber;
+    }
+
+    /**
+     * @return the number of start, end and empty tags found in the range.
+     */
+    public int getTagCount() {
+        return events.size();
+    }
+
+    /**
+     * @return the names of the end tags at the leading edge, which close the elements opened
+     *         before the range (innermost first).
+     */
+    public List<String> getUnresolvedEndTags() {
+        List<byte[]> ends = new ArrayList<>();
+        events.unmatched(ends, new ArrayList<byte[]>());
+        return toStrings(ends);
+    }
+
+    /**
+     * @return the names of the elements at the trailing edge, which are still open at the end
+     *         of the range (outermost first).
+     */
+    public List<String> getUnresolvedStartTags() {
+        List<byte[]> starts = new ArrayList<>();
+        events.unmatched(new ArrayList<byte[]>(), starts);
+        return toStrings(starts);
+    }
+
+    /**
+     * @return true if the scanner failed, because the range did not start outside of a tag.
+     *         The range is scanned again when the partial indexes are merged.
+     */
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    private static List<String> toStrings(List<byte[]> names) {
+        List<String> strings = new ArrayList<>(names.size());
+        for (byte[] name : names) {
+            strings.add(new String(name));
+        }
+        return strings;
+    }
+
+    public String toString() {
+        return "PartialXpathIndex{" +
+                "from=" + getFrom() +
+                ", to=" + getTo() +
+                ", tags=" + getTagCount() +
+                ", lines=" + getLineCount() +
+                ", failed=" + isFailed() +
+                '}';
+    }
+}
@@ -0,0 +1,144 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the content on its own thread into a ring of blocks, while the blocks
+ * already read are scanned by the indexing thread. This way reading the disk
+ * (or network), decompressing and scanning overlap. The checksum of the content
+ * is calculated by the reading thread as well.
+ * <p>
+ * Usage: take() a block, scan it, release() it, ... until take() returns null.
+ *
+ * @since 0.25
+ */
+class PipelinedReader implements Closeable {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static final Block END = new Block(new byte[0]);
+
+    private final BlockSource source;
+    private final ContentChecksum checksum;
+    private final BlockingQueue<Block> free;
+    private final BlockingQueue<Block> filled;
+    private final Thread thread;
+    private volatile boolean closed = false;
+    private volatile Throwable failure;
+
+    ////////////////////
+    // Constructor
+
+    /**
+     * Creates the reader and starts reading.
+     *
+     * @param source    the content to read.
+     * @param checksum  the checksum to update with the content, must not use a background thread.
+     * @param depth     the number of blocks that can be read ahead.
+     * @param blockSize the size of the blocks.
+     */
+    PipelinedReader(BlockSource source, ContentChecksum checksum, int depth, int blockSize) {
+        this.source = source;
+        this.checksum = checksum;
+        this.free = new ArrayBlockingQueue<>(depth);
+        this.filled = new ArrayBlockingQueue<>(depth + 1);
+        for (int i = 0; i < depth; i++) {
+            free.add(new Block(new byte[blockSize]));
+        }
+        thread = new Thread(new Runnable() {
+            public void run() {
+                read();
+            }
+        }, "xxindex-reader-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    ////////////////////
+    // Methods
+
+    /**
+     * Waits for the next block.
+     *
+     * @return the next block read, or null at the end of the content.
+     * @throws IOException if the content could not be read.
+     */
+    Block take() throws IOException {
+        Block block;
+        try {
+            block = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing!", e);
+        }
+        if (block == END) {
+            // put it back, in case take() is called again
+            filled.add(END);
+            if (failure instanceof IOException) {
+                throw new IOException(failure.getMessage(), failure);
+            }
+            if (failure != null) {
+                throw new IOException("Failed to read the content!", failure);
+            }
+            return null;
+        }
+        return block;
+    }
+
+    /**
+     * @param block a block returned by take(), which can now be read into again.
+     */
+    void release(Block block) {
+        free.add(block);
+    }
+
+    /**
+     * Stops the reading thread, if it has not yet reached the end of the content.
+     */
+    public void close() {
+        closed = true;
+        // wake up the reading thread, if it waits for a free block
+        free.offer(END);
+    }
+
+    private void read() {
+        try {
+            while (true) {
+                Block block = free.take();
+                if (closed) {
+                    return;
+                }
+                block.length = source.read(block.data);
+                if (block.length == -1) {
+                    break;
+                }
+                checksum.update(block.data, block.length);
+                filled.put(block);
+            }
+        } catch (InterruptedException e) {
+            failure = e;
+        } catch (Throwable t) {
+            failure = t;
+        }
+        filled.add(END);
+    }
+
+    ////////////////////
+    // Inner classes
+
+    /**
+     * A block of content, filled with length bytes.
+     */
+    static class Block {
+        final byte[] data;
+        int length;
+
+        Block(byte[] data) {
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A StandardXpathIndex that is filled by a background thread and can be used while it is filled.
+ * Queries block only until the index covers them: a byte range is covered as soon as an element
+ * ending at or after its end has been indexed, the elements of an xpath are only complete when the
+ * whole content has been indexed. The element iterators return the elements as they are indexed.
+ * Note: the elements of a xpath are indexed in the order of their end positions.
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#indexInBackground(java.io.File)
+ */
+public class ProgressiveXpathIndex extends StandardXpathIndex {
+
+    private final CompletableFuture<StandardXpathIndex> completion = new CompletableFuture<>();
+
+    // the end of the last indexed element, all elements ending before have been indexed
+    private long position = 0;
+    private boolean complete = false;
+    private Throwable failure;
+
+    ////////////////////
+    // Constructors
+
+    /**
+     * @param aXpathInclusionSet the xpaths to include in the index, null to include all xpaths.
+     * @see StandardXpathIndex#StandardXpathIndex(java.util.Set)
+     */
+    public ProgressiveXpathIndex(Set<String> aXpathInclusionSet) {
+        super(aXpathInclusionSet);
+    }
+
+    ////////////////////
+    // Getter + Setter
+
+    /**
+     * @return a future completed with this index when all the content has been indexed,
+     *         or completed exceptionally if the indexing failed.
+     */
+    public CompletableFuture<StandardXpathIndex> getCompletion() {
+        return completion;
+    }
+
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the position up to which all elements have been indexed.
+     */
+    public synchronized long getIndexedPosition() {
+        return position;
+    }
+
+    ////////////////////
+    // Methods
+
+    /**
+     * Adds an element reported by the indexing thread and wakes up the waiting queries.
+     */
+    public synchronized void element(String xpath, long start, long stop, long lineNumber, int depth) {
+        super.element(xpath, start, stop, lineNumber, depth);
+        position = stop;
+        notifyAll();
+    }
+
+    public synchronized void element(String xpath, long start, long stop, long lineNumber, int depth, long fingerprint) {
+        super.element(xpath, start, stop, lineNumber, depth, fingerprint);
+        position = stop;
+        notifyAll();
+    }
+
+    public synchronized void put(String xpath, long start, long stop, long lineNumber) {
+        super.put(xpath, start, stop, lineNumber);
+    }
+
+    public synchronized void put(String xpath, long start, long stop, long lineNumber, long fingerprint) {
+        super.put(xpath, start, stop, lineNumber, fingerprint);
+    }
+
+    synchronized void trimToSize() {
+        super.trimToSize();
+    }
+
+    /**
+     * Waits until all the content has been indexed, and releases the memory of the elements stored outside of the heap.
+     */
+    public void close() {
+        awaitCompletion();
+        synchronized (this) {
+            super.close();
+        }
+    }
+
+    /**
+     * Called by the indexing thread when it is done.
+     *
+     * @param failure the reason the indexing failed, null if all the content has been indexed.
+     */
+    synchronized void complete(Throwable failure) {
+        this.failure = failure;
+        complete = true;
+        notifyAll();
+        if (failure == null) {
+            completion.complete(this);
+        } else {
+            completion.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Waits until all the content has been indexed.
+     *
+     * @throws IllegalStateException if the indexing failed or the thread has been interrupted.
+     */
+    public synchronized void awaitCompletion() {
+        while (!complete) {
+            await();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Waits until all the elements ending before or at the given position have been indexed.
+     *
+     * @param stop the position to wait for.
+     * @throws IllegalStateException if the indexing failed or the thread has been interrupted.
+     */
+    public synchronized void awaitPosition(long stop) {
+        while (!complete && position < stop) {
+            await();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Returns the elements of the xpath within a byte range, as soon as the range has been indexed.
+     *
+     * @param xpath the xpath of the elements.
+     * @param start the start byte position, before which no elements will be returned.
+     * @param stop  the stop byte position, after which no elements will be returned.
+     * @return the elements with element.getStart() >= start && element.getStop() <= stop.
+     */
+    public List<IndexElement> getElements(String xpath, long start, long stop) {
+        awaitPosition(stop);
+        synchronized (this) {
+            return super.getElements(xpath, start, stop);
+        }
+    }
+
+    /**
+     * @param xpath the xpath of the elements.
+     * @return an iterator over the elements of the xpath, which waits for the elements that have not
+     *         been indexed yet. It throws an IllegalStateException if the indexing failed.
+     */
+    public Iterator<IndexElement> getElementIterator(final String xpath) {
+        return new Iterator<IndexElement>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                synchronized (ProgressiveXpathIndex.this) {
+                    while (next >= elements().size() && !complete) {
+                        await();
+                    }
+                    checkFailure();
+                    return next < elements().size();
+                }
+            }
+
+            public IndexElement next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                synchronized (ProgressiveXpathIndex.this) {
+                    return elements().get(next++);
+                }
+            }
+
+            private List<IndexElement> elements() {
+                return ProgressiveXpathIndex.this.elements(xpath);
+            }
+        };
+    }
+
+    ////////////////////
+    // XpathIndex (waiting for all the content)
+
+    public Set<String> getKeys() {
+        awaitCompletion();
+        return super.getKeys();
+    }
+
+    public List<IndexElement> getElements(String xpath) {
+        awaitCompletion();
+        return elements(xpath);
+    }
+
+    public int getElementCount(String xpath) {
+        awaitCompletion();
+        return super.getElementCount(xpath);
+    }
+
+    public boolean containsXpath(String xpath) {
+        awaitCompletion();
+        return super.containsXpath(xpath);
+    }
+
+    public String getChecksum() {
+        awaitCompletion();
+        return super.getChecksum();
+    }
+
+    public String toString() {
+        awaitCompletion();
+        return super.toString();
+    }
+
+    public String print() {
+        awaitCompletion();
+        return super.print();
+    }
+
+    private void await() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the index!", e);
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Failed to index the content!", failure);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The elements of a sampled xpath: only the start (and line number) of every n-th element is stored,
+ * the other elements are found when they are needed, by scanning the file from the preceding stored
+ * element up to the next one. The number of elements is exact. The elements of the last scanned interval
+ * are kept, so the elements can be iterated in order with a single scan of the file.
+ * Note: the file has to be set to resolve the elements (see StandardXpathIndex#setFile(java.io.File)).
+ * Files with a name ending in '.gz' are decompressed, which reads the file from its start for every interval.
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#setSamplingInterval(String, int)
+ */
+class SampledElementList extends AbstractList<IndexElement> {
+
+    private final StandardXpathIndex index;
+    private final String xpath;
+    private final int interval;
+
+    // the start and line number of every interval-th element
+    private long[] starts = new long[16];
+    private long[] lineNumbers = null;
+    private int size = 0;
+    // the end of the last element
+    private long lastStop = -1;
+    private boolean fingerprints = false;
+
+    // the elements of the last scanned interval
+    private int cachedInterval = -1;
+    private IndexElement[] cached = new IndexElement[0];
+
+    /**
+     * @param index    the index of the elements, with the file to scan.
+     * @param xpath    the xpath of the elements.
+     * @param interval the number of elements per stored element.
+     */
+    SampledElementList(StandardXpathIndex index, String xpath, int interval) {
+        this.index = index;
+        this.xpath = xpath;
+        this.interval = interval;
+    }
+
+    ////////////////////
+    // List
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Records an element, which has to follow the recorded ones in the file.
+     */
+    public synchronized boolean add(IndexElement element) {
+        if (size % interval == 0) {
+            int sample = size / interval;
+            if (sample == starts.length) {
+                starts = Arrays.copyOf(starts, sample * 2);
+            }
+            starts[sample] = element.getStart();
+            // lazy line numbers are looked up in the LineTable of the index
+            if (index.isRecordLineNumber() && (index.getLineTable() == null || element.hasFingerprint())) {
+                if (lineNumbers == null) {
+                    lineNumbers = new long[starts.length];
+                } else if (sample >= lineNumbers.length) {
+                    lineNumbers = Arrays.copyOf(lineNumbers, starts.length);
+                }
+                lineNumbers[sample] = element.getLineNumber();
+            }
+        }
+        fingerprints |= element.hasFingerprint();
+        lastStop = element.getStop();
+        size++;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * This will throw a runtime exception if an IOException occurs during reading from the file.
+     *
+     * @return the element, found by scanning the file from the preceding stored element.
+     */
+    public synchronized IndexElement get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        int sample = i / interval;
+        int count = Math.min(interval, size - sample * interval);
+        if (sample != cachedInterval || cached.length != count) {
+            try {
+                cached = scan(sample, count);
+            } catch (IOException e) {
+                throw new IllegalStateException("Caught IOException while reading from file: " + index.getFile(), e);
+            }
+            cachedInterval = sample;
+        }
+        return cached[i % interval];
+    }
+
+    ////////////////////
+    // Methods
+
+    /**
+     * Scans the file from a stored element, up to the next stored element.
+     *
+     * @param sample the number of the stored element.
+     * @param count  the number of elements from there on.
+     * @return the elements.
+     */
+    private IndexElement[] scan(int sample, int count) throws IOException {
+        File file = index.getFile();
+        if (file == null) {
+            throw new IllegalStateException("The elements of the sampled xpath " + xpath + " can only be found in the indexed file, which has not been set.");
+        }
+        long from = starts[sample];
+        long to = (sample + 1) * interval < size ? starts[sample + 1] : lastStop;
+
+        Collector collector = new Collector(xpath, count);
+        XmlXpathIndexer.IndexBuilder builder = new XmlXpathIndexer.IndexBuilder(collector, Collections.singleton(xpath));
+        builder.restore(ancestors(), 0);
+        ElementHasher hasher = null;
+        if (fingerprints) {
+            hasher = new ElementHasher(from);
+            builder.setHasher(hasher);
+        }
+        XmlScanner scanner = new XmlScanner(builder, ByteSkipper.create(false), index.isIgnoreNSPrefix());
+        scanner.restoreState(XmlScanner.State.outsideOfTags(from, 1, (byte) ' '));
+        collector.scanner = scanner;
+
+        byte[] block = new byte[XmlScanner.DEFAULT_BLOCK_SIZE];
+        try (InputStream in = open(file, from)) {
+            int read;
+            while (!scanner.isStopped() && scanner.getPosition() < to
+                    && (read = in.read(block, 0, (int) Math.min(block.length, to - scanner.getPosition()))) != -1) {
+                if (hasher != null) {
+                    hasher.block(block, 0, read, scanner.getPosition());
+                }
+                scanner.scan(block, 0, read);
+                if (hasher != null) {
+                    hasher.endOfBlock(scanner.getPosition(), scanner.getTagStart());
+                }
+            }
+        }
+        if (collector.count < count) {
+            throw new IllegalStateException("Found " + collector.count + " of " + count + " elements of " + xpath
+                    + " between " + from + " and " + to + ", the file has been modified: " + file.getAbsolutePath());
+        }
+
+        // the line numbers of the scan start at 1, the first element has the stored line number
+        IndexElement[] elements = collector.elements;
+        long lineDelta = lineNumbers == null ? 0 : lineNumbers[sample] - elements[0].getLineNumber();
+        for (int i = 0; i < count; i++) {
+            IndexElement element = elements[i];
+            long lineNumber = element.getLineNumber() + lineDelta;
+            if (element.hasFingerprint()) {
+                elements[i] = new FingerprintedByteRange(element.getStart(), element.getStop(),
+                        lineNumbers == null ? IndexElement.NO_LINE_NUMBER : lineNumber, element.getFingerprint());
+            } else if (index.isRecordLineNumber() && index.getLineTable() != null) {
+                elements[i] = new LazyLineByteRange(element.getStart(), element.getStop(), index.getLineTable());
+            } else if (index.isRecordLineNumber()) {
+                elements[i] = new LineNumberedByteRange(element.getStart(), element.getStop(), lineNumber);
+            } else {
+                elements[i] = new ByteRange(element.getStart(), element.getStop(), lineNumber);
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Writes the stored elements, delta encoded.
+     *
+     * @see XpathIndexFile
+     */
+    synchronized void write(DataOutputStream out) throws IOException {
+        out.writeByte((lineNumbers != null ? XpathIndexFile.LINE_NUMBERS : 0) | (fingerprints ? XpathIndexFile.FINGERPRINTS : 0));
+        XpathIndexFile.writeVarLong(out, size);
+        XpathIndexFile.writeVarLong(out, lastStop + 1);
+        int samples = (size + interval - 1) / interval;
+        for (int i = 0; i < samples; i++) {
+            XpathIndexFile.writeVarLong(out, starts[i] - (i == 0 ? 0 : starts[i - 1]));
+            if (lineNumbers != null) {
+                XpathIndexFile.writeSignedVarLong(out, lineNumbers[i] - (i == 0 ? 0 : lineNumbers[i - 1]));
+            }
+        }
+    }
+
+    /**
+     * Reads the stored elements written by this#write(java.io.DataOutputStream) into this empty list.
+     */
+    synchronized void read(DataInputStream in) throws IOException {
+        int fields = in.readByte();
+        size = (int) XpathIndexFile.readVarLong(in);
+        lastStop = XpathIndexFile.readVarLong(in) - 1;
+        fingerprints = (fields & XpathIndexFile.FINGERPRINTS) != 0;
+        int samples = (size + interval - 1) / interval;
+        starts = new long[Math.max(samples, 16)];
+        lineNumbers = (fields & XpathIndexFile.LINE_NUMBERS) != 0 ? new long[starts.length] : null;
+        for (int i = 0; i < samples; i++) {
+            starts[i] = XpathIndexFile.readVarLong(in) + (i == 0 ? 0 : starts[i - 1]);
+            if (lineNumbers != null) {
+                lineNumbers[i] = XpathIndexFile.readSignedVarLong(in) + (i == 0 ? 0 : lineNumbers[i - 1]);
+            }
+        }
+        modCount++;
+    }
+
+    /**
+     * @return the open elements at the start of an element of the xpath: its ancestors.
+     */
+    private BlockFingerprints.Boundary ancestors() {
+        String[] names = xpath.substring(1, xpath.lastIndexOf('/') + 1).split("/");
+        int depth = xpath.lastIndexOf('/') == 0 ? 0 : names.length;
+        byte[][] bytes = new byte[depth][];
+        for (int i = 0; i < depth; i++) {
+            bytes[i] = names[i].getBytes();
+        }
+        return new BlockFingerprints.Boundary(1, (byte) ' ', xpath.substring(0, xpath.lastIndexOf('/')), bytes,
+                new long[depth], new long[depth]);
+    }
+
+    private static InputStream open(File file, long position) throws IOException {
+        InputStream is = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            is = new GZIPInputStream(is);
+            IOUtils.skipFully(is, position);
+        } else {
+            ((FileInputStream) is).getChannel().position(position);
+        }
+        return is;
+    }
+
+    public String toString() {
+        return "SampledElementList{" +
+                "xpath=" + xpath +
+                ", interval=" + interval +
+                ", size=" + size +
+                '}';
+    }
+
+    ////////////////////
+    // Inner classes
+
+    /**
+     * Collects the elements of the xpath, and stops the scanner when it has all of them.
+     */
+    private static class Collector implements XpathIndexListener {
+
+        private final String xpath;
+        private final IndexElement[] elements;
+        private int count = 0;
+        private XmlScanner scanner;
+
+        Collector(String xpath, int count) {
+            this.xpath = xpath;
+            this.elements = new IndexElement[count];
+        }
+
+        public void element(String xpath, long start, long stop, long lineNumber, int depth) {
+            if (add(xpath)) {
+                elements[count++] = new LineNumberedByteRange(start, stop, lineNumber);
+            }
+        }
+
+        public void element(String xpath, long start, long stop, long lineNumber, int depth, long fingerprint) {
+            if (add(xpath)) {
+                elements[count++] = new FingerprintedByteRange(start, stop, lineNumber, fingerprint);
+            }
+        }
+
+        private boolean add(String xpath) {
+            if (count == elements.length || !this.xpath.equals(xpath)) {
+                return false;
+            }
+            if (count + 1 == elements.length) {
+                scanner.stop();
+            }
+            return true;
+        }
+    }
+}
@@ -1,12 +1,14 @@
 package psidev.psi.tools.xxindex.index;
 
+import java.io.Closeable;
+import java.io.File;
 import java.util.*;
 
 /**
  * Author: Florian Reisinger
  * Date: 11-Jan-2008
  */
-public class StandardXpathIndex implements XpathIndex {
+public class StandardXpathIndex implements XpathIndex, XpathIndexListener, Closeable {
 
     private Map<String, List<IndexElement>> index;
 
@@ -16,6 +18,25 @@ public class StandardXpathIndex implements XpathIndex {
 
     private String checksum;
 
+    private ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.MD5;
+
+    private IndexState indexState;
+
+    private LineTable lineTable;
+
+    private BlockFingerprints blockFingerprints;
+
+    // the number of elements per stored element of the sampled xpaths, null if there are none
+    private Map<String, Integer> samplingIntervals;
+
+    private boolean ignoreNSPrefix = true;
+
+    private boolean subtreePruning;
+
+    private File file;
+
+    private ElementStorage elementStorage = ElementStorage.OBJECTS;
+
     ////////////////////
     // Constructors
 
@@ -77,11 +98,97 @@ public class StandardXpathIndex implements XpathIndex {
         return index.keySet();
     }
 
+    /**
+     * @return the xpaths included in the index, null if all xpaths are included.
+     */
+    public Set<String> getXpathInclusionSet() {
+        return xpathInclusionSet;
+    }
+
     public List<IndexElement> getElements(String xpath) {
+        return elements(xpath);
+    }
+
+    /**
+     * Returns the elements of the xpath within a byte range. The first element is found by a binary search,
+     * as the elements are ordered by their position.
+     *
+     * @param xpath the xpath of the elements.
+     * @param start the start byte position, before which no elements will be returned.
+     * @param stop  the stop byte position, after which no elements will be returned.
+     * @return the elements with element.getStart() >= start && element.getStop() <= stop.
+     */
+    public List<IndexElement> getElements(String xpath, long start, long stop) {
+        if (xpath.endsWith("/")) {
+            xpath = xpath.substring(0, xpath.length() - 1);
+        }
+        List<IndexElement> elements = index.get(xpath);
+        List<IndexElement> result = new ArrayList<>();
+        if (elements == null) {
+            return result;
+        }
+        int first = elements instanceof EliasFanoElementList ? ((EliasFanoElementList) elements).firstStartingFrom(start)
+                : firstStartingFrom(elements, start);
+        for (int i = first; i < elements.size(); i++) {
+            IndexElement element = elements.get(i);
+            if (element.getStop() > stop) {
+                break; // the elements are ordered by their stop position
+            }
+            result.add(element);
+        }
+        return result;
+    }
+
+    private static int firstStartingFrom(List<IndexElement> elements, long position) {
+        int low = 0;
+        int high = elements.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (elements.get(mid).getStart() < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the elements without changing the index, so the keys can be iterated meanwhile.
+     * Also used by subclasses that wait for the elements.
+     *
+     * @return the elements of the xpath, an empty list if there are none.
+     */
+    List<IndexElement> elements(String xpath) {
         if(xpath.endsWith("/")) {
             xpath = xpath.substring(0, xpath.length()-1);
         }
-        return index.computeIfAbsent(xpath, k -> new ArrayList<>());
+        List<IndexElement> elements = index.get(xpath);
+        return elements == null ? Collections.<IndexElement>emptyList() : elements;
+    }
+
+    /**
+     * @return the list to add the elements of the xpath to, created if the xpath has no elements yet.
+     */
+    List<IndexElement> elementList(String xpath) {
+        return index.computeIfAbsent(xpath, this::createElements);
+    }
+
+    private List<IndexElement> createElements(String xpath) {
+        Integer interval = samplingIntervals == null ? null : samplingIntervals.get(xpath);
+        if (interval != null) {
+            return new SampledElementList(this, xpath, interval);
+        }
+        switch (elementStorage) {
+            case COLUMNAR:
+                return new ColumnarElementList(this);
+            case ELIAS_FANO:
+                return new EliasFanoElementList(this);
+            case OFF_HEAP:
+                return new OffHeapElementList(this);
+            default:
+                return new ArrayList<>();
+        }
     }
 
     public void put(String path, long start, long stop) {
@@ -96,13 +203,53 @@ public class StandardXpathIndex implements XpathIndex {
         //ToDo: ? check wheather that range already exists (should never be the case, since we scan over the file only once)
         
         IndexElement element;
-        if (recordLineNumber) {
+        if (recordLineNumber && lineTable != null) {
+            element = new LazyLineByteRange(start, stop, lineTable);
+        } else if (recordLineNumber) {
             element = new LineNumberedByteRange(start, stop, lineNumber);
         } else {
             element = new ByteRange(start, stop, lineNumber);
         }
 
-        this.getElements(xpath).add(element);
+        add(xpath, element);
+    }
+
+    /**
+     * Adds an element with the fingerprint of its bytes. The line number is stored with
+     * the element, also if the line numbers are looked up in the LineTable otherwise.
+     *
+     * @see XmlXpathIndexer#setElementFingerprints(boolean)
+     */
+    public void put(String xpath, long start, long stop, long lineNumber, long fingerprint) {
+        if (xpathInclusionSet != null && !xpathInclusionSet.contains(xpath)) {
+            return;
+        }
+        add(xpath, new FingerprintedByteRange(start, stop, recordLineNumber ? lineNumber : IndexElement.NO_LINE_NUMBER, fingerprint));
+    }
+
+    private void add(String xpath, IndexElement element) {
+        if(xpath.endsWith("/")) {
+            xpath = xpath.substring(0, xpath.length()-1);
+        }
+        elementList(xpath).add(element);
+    }
+
+    /**
+     * Adds the elements reported by the XmlXpathIndexer to this index.
+     *
+     * @see this#put(String, long, long, long)
+     */
+    public void element(String xpath, long start, long stop, long lineNumber, int depth) {
+        put(xpath, start, stop, lineNumber);
+    }
+
+    /**
+     * Adds the elements reported by the XmlXpathIndexer to this index, with their fingerprints.
+     *
+     * @see this#put(String, long, long, long, long)
+     */
+    public void element(String xpath, long start, long stop, long lineNumber, int depth, long fingerprint) {
+        put(xpath, start, stop, lineNumber, fingerprint);
     }
 
     public String getChecksum() {
@@ -113,9 +260,164 @@ public class StandardXpathIndex implements XpathIndex {
         this.checksum = checksum;
     }
 
+    /**
+     * @return the algorithm of the checksum, NONE if there is no checksum.
+     */
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        return checksum == null ? ChecksumAlgorithm.NONE : checksumAlgorithm;
+    }
+
+    /**
+     * @param checksumAlgorithm the algorithm the checksum has been calculated with.
+     * @param checksum          the hexadecimal checksum, can be null if no checksum has been calculated.
+     */
+    public void setChecksum(ChecksumAlgorithm checksumAlgorithm, String checksum) {
+        this.checksumAlgorithm = checksumAlgorithm;
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return the state of the indexer at the end of the indexed content, null if the
+     *         index has not been created by a XmlXpathIndexer.
+     * @see XmlXpathIndexer#resume(StandardXpathIndex, java.io.File)
+     */
+    public IndexState getIndexState() {
+        return indexState;
+    }
+
+    void setIndexState(IndexState indexState) {
+        this.indexState = indexState;
+    }
+
+    /**
+     * @return the table to look up line numbers, null if the line numbers are stored with the elements.
+     * @see XmlXpathIndexer#setLazyLineNumber(boolean)
+     */
+    public LineTable getLineTable() {
+        return lineTable;
+    }
+
+    void setLineTable(LineTable lineTable) {
+        this.lineTable = lineTable;
+    }
+
+    /**
+     * @return the hashes of the blocks of the indexed content, null if they have not been recorded.
+     * @see XmlXpathIndexer#setBlockFingerprints(boolean)
+     */
+    public BlockFingerprints getBlockFingerprints() {
+        return blockFingerprints;
+    }
+
+    void setBlockFingerprints(BlockFingerprints blockFingerprints) {
+        this.blockFingerprints = blockFingerprints;
+    }
+
+    /**
+     * @param xpath the xpath of the elements.
+     * @return the number of elements per element whose position is stored, 1 if all of them are stored.
+     * @see XmlXpathIndexer#setSamplingInterval(String, int)
+     */
+    public int getSamplingInterval(String xpath) {
+        if (xpath.endsWith("/")) {
+            xpath = xpath.substring(0, xpath.length() - 1);
+        }
+        Integer interval = samplingIntervals == null ? null : samplingIntervals.get(xpath);
+        return interval == null ? 1 : interval;
+    }
+
+    Map<String, Integer> getSamplingIntervals() {
+        return samplingIntervals;
+    }
+
+    boolean hasSampledXpaths() {
+        return samplingIntervals != null;
+    }
+
+    /**
+     * @param samplingIntervals the number of elements per stored element of the sampled xpaths.
+     */
+    void setSamplingIntervals(Map<String, Integer> samplingIntervals) {
+        this.samplingIntervals = samplingIntervals;
+    }
+
+    boolean isIgnoreNSPrefix() {
+        return ignoreNSPrefix;
+    }
+
+    /**
+     * @param ignoreNSPrefix whether namespace prefixes have been ignored by the indexer, to scan the sampled elements alike.
+     */
+    void setIgnoreNSPrefix(boolean ignoreNSPrefix) {
+        this.ignoreNSPrefix = ignoreNSPrefix;
+    }
+
+    boolean isSubtreePruning() {
+        return subtreePruning;
+    }
+
+    /**
+     * @param subtreePruning whether the indexer has skipped the subtrees without included xpaths.
+     */
+    void setSubtreePruning(boolean subtreePruning) {
+        this.subtreePruning = subtreePruning;
+    }
+
+    public ElementStorage getElementStorage() {
+        return elementStorage;
+    }
+
+    /**
+     * @param elementStorage the storage of the elements of the xpaths added from now on.
+     * @see XmlXpathIndexer#setElementStorage(ElementStorage)
+     */
+    public void setElementStorage(ElementStorage elementStorage) {
+        this.elementStorage = elementStorage;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @param file the indexed file, needed to find the elements of the sampled xpaths
+     *             (the XmlXpathIndexer sets it when it indexes a file).
+     */
+    public void setFile(File file) {
+        this.file = file;
+    }
+
     ////////////////////
     // Utilities
 
+    /**
+     * Releases the memory of the elements stored outside of the heap at once, instead of when the index
+     * is garbage collected. The elements can not be accessed any more afterwards. Does nothing for the
+     * other element storages.
+     *
+     * @see ElementStorage#OFF_HEAP
+     */
+    public void close() {
+        for (List<IndexElement> elements : index.values()) {
+            if (elements instanceof OffHeapElementList) {
+                ((OffHeapElementList) elements).release();
+            }
+        }
+    }
+
+    /**
+     * Releases the unused capacity of the element lists stored in primitive arrays.
+     */
+    void trimToSize() {
+        for (List<IndexElement> elements : index.values()) {
+            if (elements instanceof ColumnarElementList) {
+                ((ColumnarElementList) elements).trimToSize();
+            } else if (elements instanceof EliasFanoElementList) {
+                ((EliasFanoElementList) elements).trimToSize();
+            }
+        }
+    }
+
     /**
      * Thid method will return the number of elements (ByteRange) stored for the specified xpath expression.
      * The number of ByteRangeS represets the number of XML elements in the document the index was created on.
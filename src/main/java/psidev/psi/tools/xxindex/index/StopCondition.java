@@ -0,0 +1,73 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Conditions to stop the indexing before the end of the content, e.g. if only the header of a
+ * file and its first spectra are needed. The indexing stops as soon as any of the conditions is
+ * reached. The IndexState of the index records how far the content has been indexed, so the index
+ * can be extended later with XmlXpathIndexer#resume(StandardXpathIndex, java.io.File).
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#setStopCondition(StopCondition)
+ */
+public class StopCondition {
+
+    private final Map<String, Integer> maxElementCounts = new LinkedHashMap<>();
+    private long maxPosition = Long.MAX_VALUE;
+
+    ////////////////////
+    // Getter + Setter
+
+    /**
+     * Stops the indexing when the given number of elements of the xpath have been closed.
+     * A count of 1 stops the indexing right after the first element of the xpath.
+     *
+     * @param xpath the xpath of the elements to count.
+     * @param count the number of elements after which to stop.
+     */
+    public void setMaxElementCount(String xpath, int count) {
+        if (xpath == null) {
+            throw new IllegalArgumentException("The xpath must not be null!");
+        }
+        if (count < 1) {
+            throw new IllegalArgumentException("The number of elements has to be positive: " + count);
+        }
+        if (xpath.endsWith("/")) {
+            xpath = xpath.substring(0, xpath.length() - 1);
+        }
+        maxElementCounts.put(xpath, count);
+    }
+
+    /**
+     * @return the maximal number of elements per xpath.
+     */
+    public Map<String, Integer> getMaxElementCounts() {
+        return Collections.unmodifiableMap(maxElementCounts);
+    }
+
+    public long getMaxPosition() {
+        return maxPosition;
+    }
+
+    /**
+     * Stops the indexing at the given byte offset, even within a tag.
+     *
+     * @param maxPosition the number of bytes to index at most.
+     */
+    public void setMaxPosition(long maxPosition) {
+        if (maxPosition < 0) {
+            throw new IllegalArgumentException("The position must not be negative: " + maxPosition);
+        }
+        this.maxPosition = maxPosition;
+    }
+
+    public String toString() {
+        return "StopCondition{" +
+                "maxElementCounts=" + maxElementCounts +
+                ", maxPosition=" + maxPosition +
+                '}';
+    }
+}
@@ -0,0 +1,195 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records the tags found by a XmlScanner in primitive arrays, so they can be
+ * replayed later to another XmlScanner.TagHandler. This allows a part of a file
+ * to be scanned before the elements that are open at its beginning are known.
+ * Tag names are interned, each distinct name is only stored once.
+ *
+ * @since 0.25
+ */
+class TagEvents implements XmlScanner.TagHandler, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final byte START = 0;
+    private static final byte END = 1;
+    private static final byte EMPTY = 2;
+
+    private byte[] types = new byte[256];
+    private int[] nameIds = new int[256];
+    private long[] starts = new long[256];
+    private long[] stops = new long[256];
+    private long[] lineNumbers = new long[256];
+    private int size = 0;
+
+    // the interned tag names, with an open addressing hash table of their ids
+    private byte[][] names = new byte[16][];
+    private int nameCount = 0;
+    private int[] nameTable = newNameTable(64);
+
+    ////////////////////
+    // Getter
+
+    /**
+     * @return the number of recorded tags.
+     */
+    int size() {
+        return size;
+    }
+
+    ////////////////////
+    // TagHandler
+
+    public boolean startTag(byte[] name, int offset, int length, long start, long lineNumber) {
+        add(START, name, offset, length, start, -1, lineNumber);
+        return true;
+    }
+
+    public void endTag(byte[] name, int offset, int length, long stop) {
+        add(END, name, offset, length, -1, stop, -1);
+    }
+
+    public void emptyTag(byte[] name, int offset, int length, long start, long stop, long lineNumber) {
+        add(EMPTY, name, offset, length, start, stop, lineNumber);
+    }
+
+    ////////////////////
+    // Methods
+
+    /**
+     * Reports all the recorded tags, in the order they have been found, to the given handler.
+     *
+     * @param handler          the handler to report the tags to.
+     * @param lineNumberOffset the number to add to the recorded line numbers.
+     */
+    void replay(XmlScanner.TagHandler handler, long lineNumberOffset) {
+        for (int i = 0; i < size; i++) {
+            byte[] name = names[nameIds[i]];
+            switch (types[i]) {
+                case START:
+                    handler.startTag(name, 0, name.length, starts[i], lineNumbers[i] + lineNumberOffset);
+                    break;
+                case END:
+                    handler.endTag(name, 0, name.length, stops[i]);
+                    break;
+                default:
+                    handler.emptyTag(name, 0, name.length, starts[i], stops[i], lineNumbers[i] + lineNumberOffset);
+            }
+        }
+    }
+
+    /**
+     * Finds the tags that are not matched within the recorded tags.
+     *
+     * @param ends   receives the names of the end tags of the elements started before the first recorded tag.
+     * @param starts receives the names of the elements still open after the last recorded tag, outermost first.
+     */
+    void unmatched(List<byte[]> ends, List<byte[]> starts) {
+        int[] stack = new int[16];
+        int depth = 0;
+        for (int i = 0; i < size; i++) {
+            if (types[i] == START) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = nameIds[i];
+            } else if (types[i] == END) {
+                if (depth > 0) {
+                    depth--;
+                } else {
+                    ends.add(names[nameIds[i]]);
+                }
+            }
+        }
+        for (int i = 0; i < depth; i++) {
+            starts.add(names[stack[i]]);
+        }
+    }
+
+    private void add(byte type, byte[] name, int offset, int length, long start, long stop, long lineNumber) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            nameIds = Arrays.copyOf(nameIds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            stops = Arrays.copyOf(stops, capacity);
+            lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+        }
+        types[size] = type;
+        nameIds[size] = intern(name, offset, length);
+        starts[size] = start;
+        stops[size] = stop;
+        lineNumbers[size] = lineNumber;
+        size++;
+    }
+
+    ////////////////////
+    // Name table
+
+    private int intern(byte[] name, int offset, int length) {
+        int mask = nameTable.length - 1;
+        int slot = hash(name, offset, length) & mask;
+        int id;
+        while ((id = nameTable[slot]) != -1) {
+            byte[] candidate = names[id];
+            if (equals(candidate, name, offset, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // new name
+        if (nameCount == names.length) {
+            names = Arrays.copyOf(names, nameCount * 2);
+        }
+        id = nameCount++;
+        names[id] = Arrays.copyOfRange(name, offset, offset + length);
+        nameTable[slot] = id;
+        if (nameCount * 2 > nameTable.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        nameTable = newNameTable(nameTable.length * 2);
+        int mask = nameTable.length - 1;
+        for (int id = 0; id < nameCount; id++) {
+            int slot = hash(names[id], 0, names[id].length) & mask;
+            while (nameTable[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            nameTable[slot] = id;
+        }
+    }
+
+    private static int[] newNameTable(int size) {
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    static int hash(byte[] bytes, int offset, int length) {
+        int h = 1;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    static boolean equals(byte[] a, byte[] b, int offset, int length) {
+        if (a.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,623 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Block driven scanner that finds the XML start, end and empty element tags
+ * in a sequence of bytes and keeps track of their byte positions and line numbers.
+ * <p>
+ * The scanner is fed with blocks of bytes of arbitrary size. All of its state
+ * (open tag, quotes, comments, CDATA sections, pending carriage returns, ...) is
+ * kept in between calls, so a block boundary can fall anywhere in the document.
+ * Runs of bytes that can not change the state of the scanner (e.g. element
+ * content or attribute values) are skipped with the help of a ByteSkipper.
+ * <p>
+ * The rules are exactly the ones the XmlXpathIndexer has always used:
+ * <pre>
+ *  - zero bytes (Mac filling bytes) are ignored, but counted for the byte positions
+ *  - '\n', as well as any '\r' not followed by a '\n', starts a new line
+ *  - '&lt;!' and '&lt;?' start a special section (declaration, comment, CDATA, processing
+ *    instruction) that ends with '&gt;', or '--&gt;' and ']]&gt;' for comments and CDATA
+ *  - '&gt;' and '&lt;' inside double quoted attribute values are ignored
+ *  - the tag name is everything up to the first white space, a namespace prefix
+ *    (up to and including ':') can be ignored
+ * </pre>
+ *
+ * @since 0.25
+ */
+class XmlScanner {
+
+    /**
+     * Size of the blocks read from the underlying stream if nothing else is specified.
+     */
+    static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+    ////////////////////
+    // States
+
+    private static final int CONTENT = 0;  // regular content or tags
+    private static final int AFTER_LT = 1; // a '<' has been read, the next byte tells what follows
+    private static final int SPECIAL = 2;  // within a '<!' or '<?' section
+
+    ////////////////////
+    // Instance variables
+
+    private final TagHandler handler;
+    private final ByteSkipper skipper;
+    private final boolean ignoreNSPrefix;
+
+    private long position = 0; // the absolute position of the next byte to scan
+    private long lineNumber = 1; // we start in the first line
+    private int state = CONTENT;
+    private byte prev = ' '; // the last (non zero) byte of regular content
+
+    private boolean recording = false;
+    private boolean startTag = false;
+    private boolean closingTag = false;
+    private boolean inQuote = false;
+    private long startPos = 0;
+    // the depth within a subtree that is skipped (see TagHandler#startTag), 0 if not within one
+    private int skipDepth = 0;
+    private boolean stopped = false;
+
+    // special sections: the byte that opened it ('!' or '?') and the last two bytes read
+    private byte specialChar;
+    private byte spOld;
+    private byte spRead;
+    private boolean possibleCDATA;
+    private boolean cDATA;
+    private boolean possibleComment;
+    private boolean comment;
+
+    // the name of the tag currently read
+    private byte[] name = new byte[64];
+    private int nameLength = 0;
+    private boolean nameComplete = false;
+
+    ////////////////////
+    // Constructor
+
+    /**
+     * @param handler        the handler to report the tags to.
+     * @param ignoreNSPrefix if true namespace prefixes (ending in ':') will be removed from the tag names.
+     */
+    XmlScanner(TagHandler handler, boolean ignoreNSPrefix) {
+        this(handler, new ByteSkipper.TableByteSkipper(), ignoreNSPrefix);
+    }
+
+    /**
+     * @param handler        the handler to report the tags to.
+     * @param skipper        the ByteSkipper used to find the bytes of interest.
+     * @param ignoreNSPrefix if true namespace prefixes (ending in ':') will be removed from the tag names.
+     */
+    XmlScanner(TagHandler handler, ByteSkipper skipper, boolean ignoreNSPrefix) {
+        this.handler = handler;
+        this.skipper = skipper;
+        this.ignoreNSPrefix = ignoreNSPrefix;
+    }
+
+    ////////////////////
+    // Getter
+
+    /**
+     * @return the number of bytes scanned so far.
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the line number of the current scan position.
+     */
+    long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return the position of the '&lt;' of the start tag currently read, -1 if not within a start tag.
+     */
+    long getTagStart() {
+        return state == AFTER_LT || (recording && startTag) ? startPos : -1;
+    }
+
+    /**
+     * @return the line number of the current scan position, counting a '\r' as last scanned byte
+     *         as line break (which the scanner only counts with the next byte, as it might be a '\n').
+     */
+    long getCompletedLineNumber() {
+        byte last = state == SPECIAL ? spRead : prev;
+        return last == '\r' ? lineNumber + 1 : lineNumber;
+    }
+
+    ////////////////////
+    // State
+
+    /**
+     * @return a snapshot of the current state of this scanner.
+     */
+    State saveState() {
+        State s = new State();
+        s.position = position;
+        s.lineNumber = lineNumber;
+        s.state = state;
+        s.prev = prev;
+        s.recording = recording;
+        s.startTag = startTag;
+        s.closingTag = closingTag;
+        s.inQuote = inQuote;
+        s.startPos = startPos;
+        s.skipDepth = skipDepth;
+        s.specialChar = specialChar;
+        s.spOld = spOld;
+        s.spRead = spRead;
+        s.possibleCDATA = possibleCDATA;
+        s.cDATA = cDATA;
+        s.possibleComment = possibleComment;
+        s.comment = comment;
+        s.name = new byte[nameLength];
+        System.arraycopy(name, 0, s.name, 0, nameLength);
+        s.nameComplete = nameComplete;
+        return s;
+    }
+
+    /**
+     * Continues scanning from a previously saved state. The next byte to scan is expected to be
+     * the one at the position of the state.
+     *
+     * @param s the state to restore.
+     */
+    void restoreState(State s) {
+        position = s.position;
+        lineNumber = s.lineNumber;
+        state = s.state;
+        prev = s.prev;
+        recording = s.recording;
+        startTag = s.startTag;
+        closingTag = s.closingTag;
+        inQuote = s.inQuote;
+        startPos = s.startPos;
+        skipDepth = s.skipDepth;
+        specialChar = s.specialChar;
+        spOld = s.spOld;
+        spRead = s.spRead;
+        possibleCDATA = s.possibleCDATA;
+        cDATA = s.cDATA;
+        possibleComment = s.possibleComment;
+        comment = s.comment;
+        if (name.length < s.name.length) {
+            name = new byte[s.name.length];
+        }
+        System.arraycopy(s.name, 0, name, 0, s.name.length);
+        nameLength = s.name.length;
+        nameComplete = s.nameComplete;
+    }
+
+    ////////////////////
+    // Methods
+
+    /**
+     * Scans the next block of bytes of the document.
+     *
+     * @param buf the buffer holding the bytes.
+     * @param off the offset of the first byte to scan.
+     * @param len the number of bytes to scan.
+     * @return the number of bytes scanned, less than len if the scan has been stopped.
+     * @see this#stop()
+     */
+    int scan(byte[] buf, int off, int len) {
+        final int end = off + len;
+        final long base = position - off; // absolute position of buf[0]
+        int i = off;
+        while (i < end && !stopped) {
+            // first try to skip over all the bytes that can not change the state
+            // (only possible if the last byte was not a '\r', since its line break depends on the next byte)
+            if (state == CONTENT && prev != '\r' && (!recording || nameComplete)) {
+                final int j = skipper.skip(buf, i, end, recording ? ByteSkipper.TAG : ByteSkipper.TEXT);
+                if (j > i) {
+                    lineNumber += skipper.newlines;
+                    prev = buf[j - 1];
+                    i = j;
+                    continue;
+                }
+            } else if (state == SPECIAL && spRead != '\r') {
+                final int j = skipper.skip(buf, i, end, ByteSkipper.SPECIAL);
+                if (j > i) {
+                    lineNumber += skipper.newlines;
+                    spOld = j - i > 1 ? buf[j - 2] : spRead;
+                    spRead = buf[j - 1];
+                    i = j;
+                    continue;
+                }
+            }
+            // then handle the byte the hard way
+            final byte b = buf[i];
+            if (b != 0) { // we ignore filling bytes
+                step(b, base + i);
+            }
+            i++;
+        }
+        position = base + i;
+        return i - off;
+    }
+
+    /**
+     * Stops the scan after the current byte, e.g. when called by the TagHandler. All following
+     * calls of scan() return without scanning anything.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return true if the scan has been stopped.
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Runs one (non zero) byte through the state machine.
+     *
+     * @param b   the byte.
+     * @param pos the absolute position of the byte.
+     */
+    private void step(byte b, long pos) {
+        if (state == SPECIAL) {
+            special(b);
+            return;
+        }
+        if (state == AFTER_LT) {
+            // the byte following a '<' is not checked for line breaks
+            state = CONTENT;
+            afterStartOfTag(b, pos);
+            return;
+        }
+        // keep track of all the line breaks, so we can count the line numbers
+        if (b == '\n') { // normal 'new line'
+            lineNumber++;
+        }
+        if (prev == '\r' && b != '\n') { // carriage return that is not covered by the previous 'new line'
+            lineNumber++;
+        }
+        if (b == '<' && !inQuote) { // possible start tag
+            startPos = pos; // we want the '<' included
+            prev = b;
+            state = AFTER_LT;
+            return;
+        }
+        content(b, pos);
+    }
+
+    /**
+     * Handles the byte directly following a '&lt;'.
+     */
+    private void afterStartOfTag(byte b, long pos) {
+        if (b == '!' || b == '?') {
+            // we don't bother with header and comments, skip until the end of the section
+            specialChar = b;
+            spOld = '<';
+            spRead = '!';
+            possibleCDATA = false;
+            cDATA = false;
+            possibleComment = false;
+            comment = false;
+            state = SPECIAL;
+            return;
+        }
+        if (b == '/') { // we have the start of a closing tag
+            closingTag = true;
+        } else { // we have the start of a start tag
+            startTag = true;
+        }
+        recording = true;
+        // within a skipped subtree only the name of its closing tag is needed
+        nameComplete = skipDepth > 1 || (skipDepth == 1 && startTag);
+        content(b, pos);
+    }
+
+    /**
+     * Handles a byte within a special section. The end of the section is a simple '&gt;'
+     * or in case of a CDATA section a ']]&gt;' and in case of a comment a '--&gt;'.
+     */
+    private void special(byte b) {
+        final byte veryOld = spOld;
+        spOld = spRead;
+        spRead = b;
+        // check for line breaks that we pass
+        if (b == '\n') {
+            lineNumber++;
+        }
+        if (spOld == '\r' && b != '\n') {
+            lineNumber++;
+        }
+        // check if we have a CDATA section or a comment
+        if (b == '[' && spOld == '!' && veryOld == '<') {
+            possibleCDATA = true;
+        }
+        if (b == 'D' && spOld == 'C' && veryOld == '[' && possibleCDATA) {
+            cDATA = true;
+        }
+        if (b == '-' && spOld == '!' && veryOld == '<') {
+            possibleComment = true;
+        }
+        if (b == '-' && spOld == '-' && possibleComment) {
+            comment = true;
+        }
+        // find the appropriate end of section signal
+        boolean end;
+        if (cDATA) {
+            end = b == '>' && spOld == ']' && veryOld == ']';
+        } else if (comment) {
+            end = b == '>' && spOld == '-' && veryOld == '-';
+        } else {
+            end = b == '>';
+        }
+        if (end) {
+            state = CONTENT;
+            startPos = -1; // reset position
+            if (recording) {
+                appendToName(specialChar);
+            }
+            prev = specialChar;
+        }
+    }
+
+    /**
+     * Handles a byte of regular content or of a tag.
+     */
+    private void content(byte b, long pos) {
+        if (b == '"' && recording) {
+            inQuote = !inQuote;
+        }
+        if (b == '>' && !inQuote) {
+            final long stopPos = pos + 1;
+            if (startTag) { // end of start tag
+                if (skipDepth > 0) { // within a skipped subtree, only the depth is tracked
+                    if (prev != '/') {
+                        skipDepth++;
+                    }
+                } else {
+                    final int nameStart = nameStart();
+                    final int nameEnd = nameEnd(nameStart);
+                    if (prev == '/') { // self closing start tag
+                        handler.emptyTag(name, nameStart, nameEnd - nameStart, startPos, stopPos, lineNumber);
+                    } else if (!handler.startTag(name, nameStart, nameEnd - nameStart, startPos, lineNumber)) {
+                        skipDepth = 1; // end of regular start tag, the handler is not interested in the content
+                    }
+                }
+                recording = false;
+                startTag = false;
+                clearName();
+            } else if (closingTag) { // end of regular closing tag
+                recording = false;
+                closingTag = false;
+                if (skipDepth > 1) {
+                    skipDepth--;
+                    clearName();
+                } else {
+                    skipDepth = 0;
+                    final int nameStart = nameStart();
+                    final int nameEnd = nameEnd(nameStart);
+                    clearName();
+                    handler.endTag(name, nameStart, nameEnd - nameStart, stopPos);
+                }
+            }
+        }
+        if (recording) {
+            appendToName(b);
+        }
+        prev = b;
+    }
+
+    ////////////////////
+    // Tag name utilities
+
+    /**
+     * Collects the bytes of the tag name. The tag name is considered to end at any of the
+     * characters ' ', '\t', '\n' or '\r'. If namespace prefixes are ignored, all the bytes
+     * up to (and including) a ':' are discarded.
+     */
+    private void appendToName(byte b) {
+        if (nameComplete) {
+            return;
+        }
+        if (b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+            nameComplete = true;
+            return;
+        }
+        if (ignoreNSPrefix && b == ':') {
+            nameLength = 0;
+            return;
+        }
+        if (nameLength == name.length) {
+            byte[] tmp = new byte[name.length * 2];
+            System.arraycopy(name, 0, tmp, 0, nameLength);
+            name = tmp;
+        }
+        name[nameLength++] = b;
+    }
+
+    /**
+     * @return the start of the tag name, without the leading '/' of closing tags.
+     */
+    private int nameStart() {
+        if (nameLength == 0) {
+            throw new IllegalStateException("Found tag without name at position " + startPos + " in line " + lineNumber);
+        }
+        return name[0] == '/' ? 1 : 0;
+    }
+
+    /**
+     * @return the end of the tag name, without the trailing '/' of self closing tags.
+     */
+    private int nameEnd(int nameStart) {
+        if (nameLength == nameStart) {
+            throw new IllegalStateException("Found tag without name at position " + startPos + " in line " + lineNumber);
+        }
+        return name[nameLength - 1] == '/' ? nameLength - 1 : nameLength;
+    }
+
+    private void clearName() {
+        nameLength = 0;
+        nameComplete = false;
+    }
+
+    ////////////////////
+    // Inner classes
+
+    /**
+     * A snapshot of the state of a XmlScanner.
+     */
+    static final class State implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        long position;
+        long lineNumber;
+        int state;
+        byte prev;
+        boolean recording;
+        boolean startTag;
+        boolean closingTag;
+        boolean inQuote;
+        long startPos;
+        int skipDepth;
+        byte specialChar;
+        byte spOld;
+        byte spRead;
+        boolean possibleCDATA;
+        boolean cDATA;
+        boolean possibleComment;
+        boolean comment;
+        byte[] name;
+        boolean nameComplete;
+
+        /**
+         * Creates the state of a scanner that is outside of any tag, quote or special section.
+         *
+         * @param position   the position of the next byte to scan.
+         * @param lineNumber the line number at this position.
+         * @param prev       the last (non zero) byte before this position.
+         * @return the new State.
+         */
+        static State outsideOfTags(long position, long lineNumber, byte prev) {
+            State s = new State();
+            s.position = position;
+            s.lineNumber = lineNumber;
+            s.state = CONTENT;
+            s.prev = prev;
+            s.name = new byte[0];
+            return s;
+        }
+
+        /**
+         * @return true if the scanner is outside of any tag, quote or special section.
+         */
+        boolean isOutsideOfTags() {
+            return state == CONTENT && !recording && !startTag && !closingTag;
+        }
+
+        /**
+         * @return a copy of this State.
+         */
+        State copy() {
+            State s = new State();
+            s.position = position;
+            s.lineNumber = lineNumber;
+            s.state = state;
+            s.prev = prev;
+            s.recording = recording;
+            s.startTag = startTag;
+            s.closingTag = closingTag;
+            s.inQuote = inQuote;
+            s.startPos = startPos;
+            s.skipDepth = skipDepth;
+            s.specialChar = specialChar;
+            s.spOld = spOld;
+            s.spRead = spRead;
+            s.possibleCDATA = possibleCDATA;
+            s.cDATA = cDATA;
+            s.possibleComment = possibleComment;
+            s.comment = comment;
+            s.name = name.clone();
+            s.nameComplete = nameComplete;
+            return s;
+        }
+
+        /**
+         * Checks whether a scanner in this state will find exactly the same tags in the
+         * same bytes as a scanner in the other state. The position and line number are not
+         * compared. The last byte read only matters if it is a '\r' (line break depends on
+         * the next byte) or a '/' (self closing tag), everything else only matters in the
+         * state it is used in.
+         *
+         * @param o the State to compare with.
+         * @return true if both states lead to the same results.
+         */
+        boolean isEquivalent(State o) {
+            if (state != o.state || recording != o.recording || startTag != o.startTag
+                    || closingTag != o.closingTag || inQuote != o.inQuote || skipDepth != o.skipDepth) {
+                return false;
+            }
+            if ((prev == '\r') != (o.prev == '\r') || (prev == '/') != (o.prev == '/')) {
+                return false;
+            }
+            if (startTag && startPos != o.startPos) {
+                return false;
+            }
+            if (state == SPECIAL && (specialChar != o.specialChar || spOld != o.spOld || spRead != o.spRead
+                    || possibleCDATA != o.possibleCDATA || cDATA != o.cDATA
+                    || possibleComment != o.possibleComment || comment != o.comment)) {
+                return false;
+            }
+            return !recording || (nameComplete == o.nameComplete && Arrays.equals(name, o.name));
+        }
+    }
+
+    ////////////////////
+    // Callback
+
+    /**
+     * Receives the tags found by the XmlScanner. The name is only valid for the
+     * duration of the call, the array will be reused by the scanner.
+     */
+    interface TagHandler {
+
+        /**
+         * A start tag has been read completely.
+         *
+         * @param name       buffer containing the tag name.
+         * @param offset     offset of the tag name in the buffer.
+         * @param length     length of the tag name.
+         * @param start      the position of the '&lt;' of the start tag.
+         * @param lineNumber the line in which the start tag ended.
+         * @return true to receive the tags within the element, false to skip its content: the
+         *         scanner then only tracks the depth and reports the matching closing tag.
+         */
+        boolean startTag(byte[] name, int offset, int length, long start, long lineNumber);
+
+        /**
+         * A closing tag has been read completely.
+         *
+         * @param name   buffer containing the tag name.
+         * @param offset offset of the tag name in the buffer.
+         * @param length length of the tag name.
+         * @param stop   the position following the '&gt;' of the closing tag.
+         */
+        void endTag(byte[] name, int offset, int length, long stop);
+
+        /**
+         * A self closing start tag has been read completely.
+         *
+         * @param name       buffer containing the tag name.
+         * @param offset     offset of the tag name in the buffer.
+         * @param length     length of the tag name.
+         * @param start      the position of the '&lt;' of the tag.
+         * @param stop       the position following the '&gt;' of the tag.
+         * @param lineNumber the line in which the tag ended.
+         */
+        void emptyTag(byte[] name, int offset, int length, long start, long stop, long lineNumber);
+    }
+
+}
@@ -1,18 +1,29 @@
 package psidev.psi.tools.xxindex.index;
 
-import org.apache.commons.io.input.CountingInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
-import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.Stack;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Indexes XML data so we know the begin and end position of specific elements. 
@@ -27,7 +38,436 @@ public class XmlXpathIndexer {
 
     private static Logger log = LoggerFactory.getLogger(XmlXpathIndexer.class);
 
-    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+    /**
+     * The size of the regions of a file that are memory mapped at once.
+     * A single mapping can not be bigger than 2 GB.
+     */
+    static final long MAP_WINDOW_SIZE = 1L << 28;
+
+    private static final AtomicInteger backgroundCount = new AtomicInteger();
+
+    private Set<String> xpathInclusionSet = null;
+    private boolean subtreePruning = false;
+    private boolean recordLineNumber = true;
+    private boolean lazyLineNumber = false;
+    private boolean ignoreNSPrefix = true;
+    private int blockSize = XmlScanner.DEFAULT_BLOCK_SIZE;
+    private boolean vectorSearch = false;
+    private int parallelism = 1;
+    private long mapWindowSize = MAP_WINDOW_SIZE;
+    private ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.MD5;
+    private boolean backgroundChecksum = false;
+    private int pipelineDepth = 0;
+    private StopCondition stopCondition = null;
+    private boolean blockFingerprints = false;
+    private boolean embeddedIndex = false;
+    private boolean elementFingerprints = false;
+    private final Map<String, Integer> samplingIntervals = new LinkedHashMap<>();
+    private ElementStorage elementStorage = ElementStorage.OBJECTS;
+    private final List<XpathIndexListener> listeners = new ArrayList<>();
+    private final Map<String, List<XpathContentListener>> contentListeners = new LinkedHashMap<>();
+
+    ////////////////////
+    // Constructor
+
+    /**
+     * Creates an indexer with the default settings: all xpaths are included
+     * in the index, line numbers are recorded and namespace prefixes are ignored.
+     * The static buildIndex methods can be used instead, if none of the
+     * additional settings are needed.
+     */
+    public XmlXpathIndexer() {
+    }
+
+    ////////////////////
+    // Getter + Setter
+
+    public Set<String> getXpathInclusionSet() {
+        return xpathInclusionSet;
+    }
+
+    /**
+     * @param xpathInclusionSet Set with the String representation of the xpaths to include
+     *                          in the index. Can be 'null' to ensure inclusion of all xpaths.
+     * @see this#buildIndex(java.io.InputStream, java.util.Set)
+     */
+    public void setXpathInclusionSet(Set<String> xpathInclusionSet) {
+        this.xpathInclusionSet = xpathInclusionSet;
+    }
+
+    public boolean isSubtreePruning() {
+        return subtreePruning;
+    }
+
+    /**
+     * Switches on subtree pruning (only if a xpath inclusion set has been set): the content of
+     * elements that can not contain any of the included xpaths, like the binary data arrays of
+     * a mzML spectrum, is skipped. Only the depth is tracked to find the matching closing tag,
+     * so the tags within are not checked. The listeners of this indexer do not receive the
+     * elements within skipped subtrees either.
+     *
+     * @param subtreePruning flag to switch subtree pruning on or off (default off).
+     * @see this#setXpathInclusionSet(java.util.Set)
+     */
+    public void setSubtreePruning(boolean subtreePruning) {
+        this.subtreePruning = subtreePruning;
+    }
+
+    public boolean isRecordLineNumber() {
+        return recordLineNumber;
+    }
+
+    /**
+     * @param recordLineNumber flag to switch line number recording on or off.
+     *                         If switched off, the created index will need less memory.
+     */
+    public void setRecordLineNumber(boolean recordLineNumber) {
+        this.recordLineNumber = recordLineNumber;
+    }
+
+    public boolean isLazyLineNumber() {
+        return lazyLineNumber;
+    }
+
+    /**
+     * Switches on lazy line numbers (only if line numbers are recorded at all): instead of a line
+     * number per element the index only records a sparse LineTable, and the line number of an element
+     * is looked up in the file when it is needed. This needs less memory, but the look up of a line
+     * number reads some KiB of the file. The LineTable also allows to find the byte offset of a line.
+     *
+     * @param lazyLineNumber flag to switch lazy line numbers on or off (default off).
+     * @see StandardXpathIndex#getLineTable()
+     */
+    public void setLazyLineNumber(boolean lazyLineNumber) {
+        this.lazyLineNumber = lazyLineNumber;
+    }
+
+    public boolean isIgnoreNSPrefix() {
+        return ignoreNSPrefix;
+    }
+
+    /**
+     * @param ignoreNSPrefix if set to true (default) namespace prefixes (ending in ':')
+     *                       will be ignored when reading tag names for the XML elements.
+     */
+    public void setIgnoreNSPrefix(boolean ignoreNSPrefix) {
+        this.ignoreNSPrefix = ignoreNSPrefix;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @param blockSize the number of bytes read and scanned at once (default 64 KiB).
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("The block size has to be positive: " + blockSize);
+        }
+        this.blockSize = blockSize;
+    }
+
+    public boolean isVectorSearch() {
+        return vectorSearch;
+    }
+
+    /**
+     * Switches on the search for the XML structure characters with the JDK Vector API,
+     * which checks 32 or 64 bytes at once (depending on the hardware). This is much faster
+     * for files with long text content, like the base64 encoded binary data of mzML files.
+     * The Vector API needs Java 17+ and the 'jdk.incubator.vector' module has to be added
+     * to the JVM ('--add-modules jdk.incubator.vector'). If it is not available the
+     * indexer silently falls back to the scalar search.
+     *
+     * @param vectorSearch whether to use the Vector API if it is available.
+     * @see this#isVectorSearchAvailable()
+     */
+    public void setVectorSearch(boolean vectorSearch) {
+        this.vectorSearch = vectorSearch;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads used to index uncompressed files (see this#index(java.io.File)).
+     * With more than one thread the file is split into chunks which are scanned in parallel.
+     * The resulting index is exactly the same as the one created by a single thread.
+     * Note: streams (e.g. of gz compressed files) are always indexed by a single thread, and so are files
+     * while content listeners are registered (see this#addContentListener(String, XpathContentListener)),
+     * a stop condition is set or block or element fingerprints are recorded.
+     *
+     * @param parallelism the number of threads to use (default 1).
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism has to be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    /**
+     * @param checksumAlgorithm the algorithm of the checksum of the indexed content (default MD5).
+     *                          NONE saves the time of the checksum calculation, if it is not needed.
+     * @see XpathIndex#getChecksum()
+     */
+    public void setChecksumAlgorithm(ChecksumAlgorithm checksumAlgorithm) {
+        if (checksumAlgorithm == null) {
+            throw new IllegalArgumentException("The checksum algorithm must not be null, use NONE instead.");
+        }
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+
+    public boolean isBackgroundChecksum() {
+        return backgroundChecksum;
+    }
+
+    /**
+     * @param backgroundChecksum if true, the checksum is calculated on its own thread, at the same
+     *                           time as the content is scanned (default false). The thread works
+     *                           on the same blocks as the scanner, the content is not copied.
+     */
+    public void setBackgroundChecksum(boolean backgroundChecksum) {
+        this.backgroundChecksum = backgroundChecksum;
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * Switches on the pipelined indexing, if the depth is positive: the content is read
+     * (and decompressed, for gz streams) on its own thread into a ring of blocks of the
+     * block size, while the indexing thread scans the blocks already read. This helps
+     * if reading is slow, e.g. on network file systems or for gz compressed files.
+     * The checksum is then calculated by the reading thread, see this#setBackgroundChecksum(boolean).
+     * Note: this is not used if the file is indexed in parallel, nor with a stop condition
+     * (see this#setStopCondition(StopCondition)).
+     *
+     * @param pipelineDepth the number of blocks that can be read ahead, 0 (default) to read and
+     *                      scan on the same thread.
+     * @see this#setBlockSize(int)
+     */
+    public void setPipelineDepth(int pipelineDepth) {
+        if (pipelineDepth < 0) {
+            throw new IllegalArgumentException("The pipeline depth must not be negative: " + pipelineDepth);
+        }
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    public StopCondition getStopCondition() {
+        return stopCondition;
+    }
+
+    /**
+     * Sets conditions to stop the indexing before the end of the content. The index records
+     * how far it got (see StandardXpathIndex#getIndexState()), so it can be extended later.
+     * Note: with a stop condition files are not indexed in parallel and the content is not
+     * read on a separate thread (see this#setPipelineDepth(int)).
+     *
+     * @param stopCondition the conditions to stop at, null to index all the content (default).
+     * @see this#resume(StandardXpathIndex, java.io.File)
+     */
+    public void setStopCondition(StopCondition stopCondition) {
+        this.stopCondition = stopCondition;
+    }
+
+    public boolean isBlockFingerprints() {
+        return blockFingerprints;
+    }
+
+    /**
+     * Switches on the recording of block fingerprints: the content is split into blocks of about 64 KiB
+     * at content defined positions, and the hash of each block is recorded in the index, together with the
+     * open elements at its start. If the file is modified, this#reindex(StandardXpathIndex, java.io.File)
+     * only scans the blocks that have changed.
+     * Note: files are indexed by a single thread while the blocks are recorded (see this#setParallelism(int)),
+     * and the blocks are not recorded with a stop condition.
+     *
+     * @param blockFingerprints flag to switch the recording on or off (default off).
+     * @see StandardXpathIndex#getBlockFingerprints()
+     */
+    public void setBlockFingerprints(boolean blockFingerprints) {
+        this.blockFingerprints = blockFingerprints;
+    }
+
+    public boolean isEmbeddedIndex() {
+        return embeddedIndex;
+    }
+
+    /**
+     * Switches on the use of the offset index at the end of indexedmzML and mzXML files, when a file is
+     * indexed with this#index(java.io.File): the spectra, chromatograms or scans listed in the offset index are
+     * added to the index without scanning their content, only the content between them is scanned. The index then
+     * does not contain the elements within the listed ones (e.g. the cvParams of the spectra), and has no checksum.
+     * A sample of the offsets is verified, if they do not match the content (or the file has no offset index) the
+     * whole file is indexed. The line numbers are looked up in the file when they are needed (see LineTable), and
+     * the listeners of this indexer are not called.
+     * Note: the offset index is not used if there are content listeners, a stop condition, block or element fingerprints.
+     *
+     * @param embeddedIndex flag to switch the use of the offset index on or off (default off).
+     */
+    public void setEmbeddedIndex(boolean embeddedIndex) {
+        this.embeddedIndex = embeddedIndex;
+    }
+
+    public boolean isElementFingerprints() {
+        return elementFingerprints;
+    }
+
+    /**
+     * Switches on the recording of a 64 bit fingerprint of the bytes of every element, while the content is
+     * scanned (see IndexElement#getFingerprint()). Elements with the same bytes have the same fingerprint,
+     * wherever they are, so duplicates or changed elements can be found without reading the elements again.
+     * Every byte is hashed once, whatever the depth of the elements. The elements with a fingerprint also
+     * store their line number, even if lazy line numbers are switched on.
+     * Note: while the fingerprints are recorded, files are indexed by a single thread (see this#setParallelism(int))
+     * and without the offset index of the file (see this#setEmbeddedIndex(boolean)). this#merge(java.util.List, java.io.File)
+     * does not record them.
+     * A resumed index only gets fingerprints if the earlier indexing recorded them.
+     *
+     * @param elementFingerprints flag to switch the recording on or off (default off).
+     * @see XpathIndexListener#element(String, long, long, long, int, long)
+     */
+    public void setElementFingerprints(boolean elementFingerprints) {
+        this.elementFingerprints = elementFingerprints;
+    }
+
+    public ElementStorage getElementStorage() {
+        return elementStorage;
+    }
+
+    /**
+     * Sets how the elements are stored in the index: as an IndexElement object per element, or in
+     * primitive arrays (COLUMNAR) or Elias-Fano compressed (ELIAS_FANO), which take much less memory,
+     * or in direct buffers outside of the heap (OFF_HEAP), which are released when the index is closed.
+     * The lists of elements (see XpathIndex#getElements(String)) of the compact storages create the
+     * IndexElements when they are accessed, so changing the returned elements does not change the index.
+     *
+     * @param elementStorage the storage of the elements (default OBJECTS).
+     * @see StandardXpathIndex#setElementStorage(ElementStorage)
+     */
+    public void setElementStorage(ElementStorage elementStorage) {
+        if (elementStorage == null) {
+            throw new IllegalArgumentException("The element storage must not be null.");
+        }
+        this.elementStorage = elementStorage;
+    }
+
+    public Map<String, Integer> getSamplingIntervals() {
+        return Collections.unmodifiableMap(samplingIntervals);
+    }
+
+    /**
+     * Samples the elements of a xpath, for files with so many elements that the index would not fit
+     * in memory: only the position (and line number) of every n-th element of the xpath is stored in
+     * the index, the other elements are found by scanning the file from there when they are needed.
+     * The number of elements is exact, and the list of elements (see XpathIndex#getElements(String))
+     * can be used as usual, it scans the file once if the elements are iterated in order.
+     * Note: the indexed file has to be set to find the elements, see StandardXpathIndex#setFile(java.io.File).
+     * An index with sampled xpaths can not be used by this#reindex(StandardXpathIndex, java.io.File).
+     *
+     * @param xpath    the xpath of the elements to sample.
+     * @param interval the number of elements per stored element, 1 to store all of them (default).
+     */
+    public void setSamplingInterval(String xpath, int interval) {
+        if (xpath == null || interval < 1) {
+            throw new IllegalArgumentException("The xpath must not be null and the interval has to be positive: " + interval);
+        }
+        if (xpath.endsWith("/")) {
+            xpath = xpath.substring(0, xpath.length() - 1);
+        }
+        if (interval == 1) {
+            samplingIntervals.remove(xpath);
+        } else {
+            samplingIntervals.put(xpath, interval);
+        }
+    }
+
+    /**
+     * Adds a listener, which receives all the elements found by the indexer, while
+     * the content is indexed. The elements are reported regardless of the xpath inclusion set.
+     *
+     * @param listener the listener to add.
+     * @see this#stream(java.io.InputStream)
+     */
+    public void addIndexListener(XpathIndexListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("The listener must not be null!");
+        }
+        listeners.add(listener);
+    }
+
+    public void removeIndexListener(XpathIndexListener listener) {
+        listeners.remove(listener);
+    }
+
+    public List<XpathIndexListener> getIndexListeners() {
+        return Collections.unmodifiableList(listeners);
+    }
+
+    /**
+     * Adds a listener, which receives the bytes of all the elements of the xpath, as soon as they
+     * are closed. So the elements can be extracted while the content is indexed (or streamed),
+     * without reading the file again. The bytes are taken from the blocks the indexer reads, they
+     * are only copied for elements that span several blocks.
+     * Note: files are not indexed in parallel if there are content listeners. If an index is resumed,
+     * the elements that started before the resumed content are not reported.
+     *
+     * @param xpath    the xpath of the elements of interest.
+     * @param listener the listener to add.
+     * @see this#stream(java.io.InputStream)
+     */
+    public void addContentListener(String xpath, XpathContentListener listener) {
+        if (xpath == null || listener == null) {
+            throw new IllegalArgumentException("The xpath and the listener must not be null!");
+        }
+        if (xpath.endsWith("/")) {
+            xpath = xpath.substring(0, xpath.length() - 1);
+        }
+        List<XpathContentListener> forXpath = contentListeners.get(xpath);
+        if (forXpath == null) {
+            forXpath = new ArrayList<>();
+            contentListeners.put(xpath, forXpath);
+        }
+        forXpath.add(listener);
+    }
+
+    public void removeContentListener(String xpath, XpathContentListener listener) {
+        if (xpath != null && xpath.endsWith("/")) {
+            xpath = xpath.substring(0, xpath.length() - 1);
+        }
+        List<XpathContentListener> forXpath = contentListeners.get(xpath);
+        if (forXpath != null) {
+            forXpath.remove(listener);
+            if (forXpath.isEmpty()) {
+                contentListeners.remove(xpath);
+            }
+        }
+    }
+
+    /**
+     * Only for testing, to map small files in several windows.
+     *
+     * @param mapWindowSize the number of bytes mapped at once.
+     */
+    void setMapWindowSize(long mapWindowSize) {
+        this.mapWindowSize = mapWindowSize;
+    }
+
+    /**
+     * @return true if the vector search is available in this JVM.
+     * @see this#setVectorSearch(boolean)
+     */
+    public static boolean isVectorSearchAvailable() {
+        return ByteSkipper.isVectorSearchAvailable();
+    }
 
     ////////////////////
     // Index methods
@@ -119,325 +559,1318 @@ public class XmlXpathIndexer {
      * @see this#buildIndex(java.io.InputStream)
      */
     public static StandardXpathIndex buildIndex(InputStream is, Set<String> aXpathInclusionSet, boolean recordLineNumber, boolean ignoreNSPrefix) throws IOException {
-        BufferedInputStream bufStream = new BufferedInputStream(is);
-
-        InputStream tmpStream;
-        DigestInputStream digestStream;
-        try {
-            digestStream = new DigestInputStream(bufStream, MessageDigest.getInstance("MD5"));
-            tmpStream = digestStream;
-        } catch (NoSuchAlgorithmException e) {
-            log.error("Failed to calculate checksum!", e);
-            digestStream = null;
-            tmpStream = bufStream;
-        }
-
-        CountingInputStream countStream = new CountingInputStream( tmpStream );
-
-        StandardXpathIndex index = new StandardXpathIndex(aXpathInclusionSet);
-
-        // create a index that will or will not record the line number according to the specification
-        if ( log.isDebugEnabled()) {
-            log.debug( "Indexing " + (recordLineNumber ? "and" : "without") + " keeping track of line numbers." );
-        }
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setXpathInclusionSet(aXpathInclusionSet);
+        indexer.setRecordLineNumber(recordLineNumber);
+        indexer.setIgnoreNSPrefix(ignoreNSPrefix);
+        return indexer.index(is);
+    }
 
-        index.setRecordLineNumber(recordLineNumber);
+    /**
+     * Indexes the XML file accessible via the specified inputstream
+     * according to the settings of this indexer.
+     *
+     * @param is    inputstream to the XML file to index.
+     * @return the LineXpathIndex for the XML file.
+     * @throws IOException when a IOException occurs during XML file access.
+     * @see this#buildIndex(java.io.InputStream, java.util.Set, boolean, boolean)
+     */
+    public StandardXpathIndex index(InputStream is) throws IOException {
+        StandardXpathIndex index = index(BlockSource.of(is));
+        is.close();
+        return index;
+    }
 
-        Stack<TmpIndexElement> stack = new Stack<>();
-        byte[] buf = new byte[1];
-        byte read = ' ';
-        byte oldRead;
-        long startPos = 0;
-        long stopPos;
-        boolean recording = false;
-        boolean closingTag = false;
-        boolean startTag = false;
-        boolean inQuote = false;
-        ByteBuffer bb = new ByteBuffer();
-
-        long lineNum = 1; // initial line number (we start in the first line)
-
-        while ( (nextByte(countStream, buf)) != -1 ) {
-            oldRead = read; // save previous byte
-            read = buf[0];
-            // first keep track of all the line breaks, so we can count the line numbers
-            if (read == '\n') { // normal 'new line'
-                lineNum++;
-            }
-            if (oldRead == '\r' && read != '\n') { // carriage return that is not covered by the previous 'new line'
-                lineNum++;
-            }
-            // now check for XML tags
-            if ( read == '<' && !inQuote ) { // possible start tag
-                startPos = countStream.getByteCount() -1; // we want the '<' included
-                oldRead = read; // save previous byte
-                nextByte(countStream, buf);
-                read = buf[0];
-                if ( read == '!' || read == '?' ) {
-                    // we don't bother with header and comments
-                    // read util the next '<' WITHOUT recording
-                    int skippedLines = skipSpecialSection(countStream, buf);
-                    lineNum += skippedLines;
-                    startPos = -1; // reset position
-                } else if ( read == '/' ) { // we have the start of a closing tag -> begin recording
-                    closingTag = true;
-                    recording = true;
-                } else { // we have the start of a start tag -> begin recording
-                    startTag = true;
-                    recording = true;
-                }
-            }
-            if (read == '"' && recording) {
-                inQuote = !inQuote;
-            }
-            if ( read == '>' && !inQuote ) {
-                stopPos = countStream.getByteCount();
-                if ( startTag ) { // end of start tag
-                    if ( oldRead == '/' ) { // self closing start tag
-                        String tagName = getTagName(bb, ignoreNSPrefix);
-                        bb.clear();
-                        // since it is a self closing start tag, we can set the stop position already
-                        TmpIndexElement element = new TmpIndexElement(tagName, startPos, stopPos, lineNum);
-                        stack.push(element);
-                        String xpath = createPathFromStack(stack);
-                        stack.pop();
-                        index.put(xpath, element.getStart(), element.getStop(), element.getLineNumber());
-                    } else { // end of regular start tag
-                        String tagName = getTagName(bb, ignoreNSPrefix);
-                        bb.clear();
-                        // only set start, since we don't know yet where this element ends
-                        TmpIndexElement element = new TmpIndexElement(tagName, startPos, -1L, lineNum);
-                        stack.push(element);
-                    }
-                    recording = false;
-                    startTag = false;
-                    // reset startPos ?
-                    bb.clear();
-                } else if ( closingTag ) { // end of regular closing tag
-                    String tagName = getTagName(bb, ignoreNSPrefix);
-                    bb.clear();
-                    recording = false;
-                    closingTag = false;
-                    String xpath = createPathFromStack(stack);
-                    TmpIndexElement element = stack.pop();
-                    // check if found name is the last on stack
-                    if ( !element.getName().equalsIgnoreCase(tagName) ) {
-                        //ToDo: change to throw Exception, if this goes wrong, the index will be incorrect !!
-                        StringBuilder sb = new StringBuilder( 256 );
-                        sb.append("Tag name mismatch! Found '").append(tagName);
-                        sb.append("' but '").append(element.getName()).append("' on stack.");
-                        sb.append( "\n State of the Stack:\n" );
-                        for (TmpIndexElement tmpIndexElement : stack) {
-                            sb.append("[");
-                            sb.append(tmpIndexElement.getName());
-                            sb.append(" at line ");
-                            sb.append(tmpIndexElement.getLineNumber());
-                            sb.append("]\n");
-                        }
-                        log.error( sb.toString() );
-                        System.out.println(sb.toString());
-                        System.out.println("line number" + lineNum);
-                        throw new IllegalStateException("Internal stack of XML tags was corrupted!");
-                    }
-                    element.setStop(stopPos);
-                    index.put(xpath, element.getStart(), element.getStop(), element.getLineNumber());
-                    // reset stopPos ?
+    /**
+     * Indexes the specified (uncompressed) XML file according to the settings of this indexer.
+     * The file is memory mapped, which avoids copying its content through several streams.
+     * If a parallelism of more than one thread has been set, the file is indexed in parallel.
+     *
+     * @param file the XML file to index.
+     * @return the LineXpathIndex for the XML file.
+     * @throws IOException when a IOException occurs during XML file access.
+     * @see this#setParallelism(int)
+     * @see this#setEmbeddedIndex(boolean)
+     */
+    public StandardXpathIndex index(File file) throws IOException {
+        if (embeddedIndex) {
+            String option = embeddedIndexOption();
+            if (option == null) {
+                StandardXpathIndex index = indexEmbedded(file);
+                if (index != null) {
+                    return index;
                 }
+            } else {
+                log.info("Indexing the whole file " + file.getName() + ", as the offset index is not used with " + option + ".");
             }
-            if ( recording ) {
-                bb.append(read);
-            }
-        } // end of reading
-
-        if (digestStream != null) {
-            byte[] checksum = digestStream.getMessageDigest().digest();
-            String checksumHexString = asHex(checksum);
-            index.setChecksum(checksumHexString);
         }
-
-        countStream.close();
-        is.close();
+        StandardXpathIndex index = createIndex();
+        setState(index, scan(file, withListeners(index), index.getLineTable(), index.getBlockFingerprints()));
+        setFile(index, file);
         return index;
     }
 
     /**
-     * This method will skip a special XML section. A section is regarded 'special' if
-     * the start tag starts with '<!' or '<![CD' (the start of a CDATA section). The end
-     * of the section is expected to be a simple '>' or in case of a CDATA section a ']]>'.
-     * NOTE: this method assumes that the two previous characters read are '<' and '!'.
-     *
-     * @param cis the counting input stream we are operating on.
-     * @param buf the buffer to read (one byte at a time).
-     * @return the number of new lines we have skipped.
-     * @throws IOException in case of reading errors.
-     */
-    private static int skipSpecialSection(CountingInputStream cis, byte[] buf) throws IOException {
-        // we know we are in a special section (starting with '<!'), now we have to find its end
-        // this special section could be a xml header or even a CDATA section
-        int skippedLines = 0;
-
-        boolean possibleCDATA = false;
-        boolean cDATA = false;
-        boolean possibleComment = false;
-        boolean comment = false;
-        // we know we have read first '<' and then '!', otherwise we would not have entered this method.
-        byte read = '!';
-        byte oldRead = '<';
-        byte veryOldRead;
-
-        while ( (nextByte(cis, buf)) != -1 ) {
-            veryOldRead = oldRead;
-            oldRead = read;
-            read = buf[0];
-            // check for line breaks that we pass
-            if (read == '\n') { // normal 'new line'
-                skippedLines++;
-            }
-            if (oldRead == '\r' && read != '\n') { // carriage return that is not covered by the previous 'new line'
-                skippedLines++;
-            }
-
-            // check if we have a CDATA section
-            if (read == '[' && oldRead == '!' && veryOldRead == '<') {
-                possibleCDATA = true;
-            }
-            if (read == 'D' && oldRead == 'C' && veryOldRead == '[' && possibleCDATA) {
-                cDATA = true;
-            }
-            if (read == '-' && oldRead == '!' && veryOldRead == '<') {
-                possibleComment = true;
-            }
-            if (read == '-' && oldRead == '-' && possibleComment) {
-                comment = true;
-            }
-            // find the appropriate end of tag signal ('normal' = '>'; CDATA = ']]>'
-            // so, if we are in a CDATA section we can not stop at at single '>', but
-            // have to continue until we find ']]>'
-            if (cDATA) {
-                if (read == '>' && oldRead == ']' && veryOldRead == ']') {
-                    break;
-                } // else it is not a proper CDATA end.
-            } else if (comment) {
-                if (read == '>' && oldRead == '-' && veryOldRead == '-') {
-                    break;
-                }
-            } else if (read == '>') {
-                break;
-            }
-            // if we have not found a end signal, we continue skipping
+     * Indexes the specified (uncompressed) XML file according to the settings of this indexer.
+     * The file is memory mapped and always indexed by a single thread.
+     *
+     * @param path the XML file to index.
+     * @return the LineXpathIndex for the XML file.
+     * @throws IOException when a IOException occurs during XML file access.
+     * @see this#index(java.nio.channels.FileChannel)
+     */
+    public StandardXpathIndex index(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return setFile(index(channel), path.toFile());
         }
-        // finally, when we are at the end of the skipped section, we return the number of lines we have skipped
-        return skippedLines;
     }
 
-    ////////////////////
-    // Utilities
+    /**
+     * Indexes the XML data of the specified channel, from its start to its current size,
+     * according to the settings of this indexer. The file is memory mapped in windows
+     * (so files bigger than 2 GB can be indexed) and always indexed by a single thread.
+     * Note: the channel is not closed by this method.
+     *
+     * @param channel the channel of the XML file to index.
+     * @return the LineXpathIndex for the XML file.
+     * @throws IOException when a IOException occurs during XML file access.
+     */
+    public StandardXpathIndex index(FileChannel channel) throws IOException {
+        return index(BlockSource.of(channel, mapWindowSize, 0));
+    }
 
     /**
-     * Convenients method to skip filling bytes. Returns the next useful byte.
-     * @param cis the CountingInputStream of the file to index.
-     * @param buf byte array to use as read buffer.
-     * @return the total number of bytes read into the buffer, -1 if end of stream.
-     * @throws IOException if an I/O error occurs.
+     * Indexes a byte range of the specified (uncompressed) XML file, e.g. to index a huge file on several
+     * machines. The range is moved to start and end at the start of a tag (or the start and end of the file),
+     * so the partial indexes of adjacent ranges, like [0, 100) and [100, 200), are adjacent as well.
+     * The partial indexes of all the ranges are combined with this#merge(java.util.List, java.io.File).
+     *
+     * @param file the XML file to index.
+     * @param from the start of the range.
+     * @param to   the end of the range (exclusive).
+     * @return the partial index of the range.
+     * @throws IOException when a IOException occurs during XML file access.
      */
-    private static int nextByte(CountingInputStream cis, byte[] buf) throws IOException {
-        int result = cis.read(buf);
-        while (result != -1 && buf[0] == 0 ){
-            result = cis.read(buf);
+    public PartialXpathIndex index(File file, long from, long to) throws IOException {
+        if (from > to) {
+            throw new IllegalArgumentException("The start of the range is after its end: " + from + " > " + to);
         }
-        return result;
+        ParallelIndexer indexer = new ParallelIndexer(file, 1, blockSize, ignoreNSPrefix, vectorSearch);
+        // the table only tells the indexer to record the line numbers of the range
+        indexer.setLineTable(recordLineNumber && lazyLineNumber ? new LineTable() : null);
+        return indexer.index(from, to);
     }
 
     /**
-     * Method to extract the tag name out of the ByteBuffer containing all the bytes of the tag
-     * (including attributes). The tag name is considered to start after '<' and end at any of the
-     * characters ' ', '\t', '\n' or '\r'.
+     * Combines the partial indexes of all the ranges of a file into the index of the whole file,
+     * which is the same as the one created by this#index(java.io.File). Only the checksum is missing,
+     * as it can not be calculated from the parts (the index can be resumed nevertheless).
+     * The settings of this indexer should be the same as the ones used to create the partial indexes.
      *
-     * @param bb ByteBuffer of all the bytes between '<' and '>'
-     * @param ignoreNSPrefix  if set to true and the buffer contains a ':' before the name end is detected,
-     *                        then all characters upto this position are regarded as prefix and ignored.        
-     * @return String of the tag name.
+     * @param parts the partial indexes, in file order, adjacent and covering the whole file.
+     * @param file  the XML file, to index ranges again which did not start outside of a tag (e.g. which
+     *              started within a comment). Can be null, in which case such ranges can not be merged.
+     * @return the index of the file.
+     * @throws IOException when a IOException occurs during XML file access.
+     * @throws IllegalArgumentException if the parts do not cover the file or can not be merged without the file.
+     * @see this#index(java.io.File, long, long)
      */
-    protected static String getTagName(ByteBuffer bb, boolean ignoreNSPrefix) {
-        ByteBuffer bbTmp = new ByteBuffer();
-        // get name (every byte till first blank)
-        for (Byte aByte : bb) {
-            // append till name-attribute separating character (#x20 | #x9 | #xD | #xA) found
-            if ( aByte == ' ' || aByte == '\t' || aByte == '\n' || aByte == '\r' ) {
-                break;
+    public StandardXpathIndex merge(List<PartialXpathIndex> parts, File file) throws IOException {
+        if (parts.isEmpty()) {
+            throw new IllegalArgumentException("At least one partial index is needed!");
+        }
+        StandardXpathIndex index = createIndex();
+        // the parts have been scanned without recording the blocks
+        index.setBlockFingerprints(null);
+        IndexBuilder builder = createBuilder(withListeners(index));
+        try (FileChannel channel = file == null ? null : FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ParallelIndexer indexer = new ParallelIndexer(file, 1, blockSize, ignoreNSPrefix, vectorSearch);
+            indexer.setLineTable(index.getLineTable());
+            ParallelIndexer.Merger merger = indexer.new Merger(builder, channel);
+            for (PartialXpathIndex part : parts) {
+                merger.add(part);
             }
-            bbTmp.append(aByte);
-
-            if (ignoreNSPrefix && aByte == ':') {
-                // if we encounter a ':' we have a namespace prefix
-                // since we do not handle this, we just get rid of it: all the characters
-                // in the byte buffer (including the current ':') are prefix and have to be removed
-                bbTmp.clear();
+            XmlScanner.State end = merger.getState();
+            if (channel != null && channel.size() != end.position) {
+                throw new IllegalArgumentException("The partial indexes end at " + end.position + ", before the end of the file: " + file.getAbsolutePath());
             }
+            ContentChecksum none = ContentChecksum.create(ChecksumAlgorithm.NONE, blockSize, false);
+            setState(index, builder.saveState(end, none, merger.getTail(), false));
         }
-        // might still contain a leading or trailing '/' from self closing start tags or regular closing tags
-        // get rid of leading '/' if closing tag
-        if ( bbTmp.get(0) == '/' ) {
-            bbTmp.remove(0);
-        }
-        // get rid of trailing '/' if slef closing start tag
-        if ( bbTmp.get(bbTmp.size()-1) == '/' ) {
-            bbTmp.remove( bbTmp.size()-1 );
+        if (file != null) {
+            setFile(index, file);
         }
-        // forget about the rest in the buffer (e.g. attributes)
-        return bbTmp.toString();
+        return index;
     }
 
     /**
-     * Creates a xpath of the element names on the stack.
-     * @param stack the stack of XmlElements to create the xpath from.
-     * @return a xpath expression representing the elements in the stack.
+     * Starts to index the specified (uncompressed) XML file on a background thread and returns at once.
+     * The returned index can be queried while it is filled, the queries wait until the index covers them.
+     * Note: the settings of this indexer must not be changed until the index is complete.
+     *
+     * @param file the XML file to index.
+     * @return the index, which is filled in the background.
+     * @throws IOException when the line numbers of the file can not be looked up.
+     * @see ProgressiveXpathIndex#getCompletion()
+     * @see this#index(java.io.File)
      */
-    private static String createPathFromStack(Stack<TmpIndexElement> stack) {
-        StringBuilder path = new StringBuilder(100);
-        path.append("/");
-        for (TmpIndexElement element : stack) {
-            path.append(element.getName()).append("/");
-        }
-        // Get rid of the trailing '/'.
-        return path.substring(0, path.length()-1);
+    public ProgressiveXpathIndex indexInBackground(final File file) throws IOException {
+        final ProgressiveXpathIndex index = createIndex(new ProgressiveXpathIndex(xpathInclusionSet));
+        // the line numbers can be looked up while the file is indexed
+        setFile(index, file);
+        final XpathIndexListener listener = withListeners(index);
+        inBackground(index, new Callable<IndexState>() {
+            public IndexState call() throws IOException {
+                return scan(file, listener, index.getLineTable(), index.getBlockFingerprints());
+            }
+        });
+        return index;
     }
 
     /**
-     * Specialised convenience class only used within this indexer.
-     * Extends the IndexElement class with a String containing the
-     * name of the XML element (used to generate the xpath for the index)).
+     * Starts to index the XML content of the inputstream on a background thread and returns at once.
+     * The inputstream is closed by the background thread.
+     *
+     * @param is inputstream to the XML file to index.
+     * @return the index, which is filled in the background.
+     * @see this#indexInBackground(java.io.File)
      */
-    private static class TmpIndexElement extends LineNumberedByteRange {
-
-        private String name;
-
-        public TmpIndexElement(String name, long start, long stop, long lineNumber) {
-            this.setValues(start, stop, lineNumber);
-            this.name = name;
-        }
-
-        public String getName() {
-            return name;
-        }
+    public ProgressiveXpathIndex indexInBackground(final InputStream is) {
+        final ProgressiveXpathIndex index = createIndex(new ProgressiveXpathIndex(xpathInclusionSet));
+        final XpathIndexListener listener = withListeners(index);
+        inBackground(index, new Callable<IndexState>() {
+            public IndexState call() throws IOException {
+                try (InputStream in = is) {
+                    return scan(BlockSource.of(in), listener, null, index.getLineTable(), index.getBlockFingerprints());
+                }
+            }
+        });
+        return index;
     }
 
-
     /**
-     * Creates a hexadecimal String from a byte array of a File hash.
+     * Scans the XML file accessible via the specified inputstream according to the settings
+     * of this indexer, without creating an index: the elements are only reported to the
+     * listeners of this indexer.
      *
-     * @param buf the byte[] to turn into a hex string.
-     * @return the hex encoded String representation of the byte array.
-     * @see java.security.MessageDigest#digest()
+     * @param is inputstream to the XML file to scan.
+     * @return the checksum of the content, null if no checksum algorithm has been set.
+     * @throws IOException when a IOException occurs during XML file access.
+     * @see this#addIndexListener(XpathIndexListener)
      */
-    private static String asHex(byte[] buf) {
-        // from: http://forums.xkcd.com/viewtopic.php?f=11&t=16666&p=553936
-        char[] chars = new char[2 * buf.length];
-        for (int i = 0; i < buf.length; ++i) {
-            chars[2 * i] = HEX_CHARS[(buf[i] & 0xF0) >>> 4];
-            chars[2 * i + 1] = HEX_CHARS[buf[i] & 0x0F];
-        }
-        return new String(chars);
+    public String stream(InputStream is) throws IOException {
+        IndexState state = scan(BlockSource.of(is), listeners(), null, null, null);
+        is.close();
+        return state.getChecksum();
     }
 
+    /**
+     * Scans the specified (uncompressed) XML file like this#index(java.io.File), without creating
+     * an index: the elements are only reported to the listeners of this indexer.
+     *
+     * @param file the XML file to scan.
+     * @return the checksum of the content, null if no checksum algorithm has been set.
+     * @throws IOException when a IOException occurs during XML file access.
+     * @see this#addIndexListener(XpathIndexListener)
+     */
+    public String stream(File file) throws IOException {
+        return scan(file, listeners(), null, null).getChecksum();
+    }
+
+    /**
+     * Extends the index of a file, to which content has been appended since it has been indexed.
+     * Only the appended content is scanned, starting with the state at the end of the earlier indexing
+     * (which may have ended within a tag, a comment, etc.). The checksum of the index covers the whole
+     * file afterwards. The settings of this indexer should be the same as for the earlier indexing.
+     *
+     * @param index the index created by this indexer (or an earlier resume) for the file.
+     * @param file  the (uncompressed) XML file.
+     * @return the given, now extended index.
+     * @throws IOException when a IOException occurs during XML file access.
+     * @throws IllegalArgumentException if the index can not be resumed, e.g. if the indexed part of the file has been modified.
+     * @see this#isResumable(StandardXpathIndex, java.io.File)
+     */
+    public StandardXpathIndex resume(StandardXpathIndex index, File file) throws IOException {
+        IndexState state = getState(index);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (!isResumable(state, channel)) {
+                throw new IllegalArgumentException("The indexed part of the file has been modified: " + file.getAbsolutePath());
+            }
+            setState(index, scan(BlockSource.of(channel, mapWindowSize, state.getPosition()), withListeners(index), state,
+                    index.getLineTable(), index.getBlockFingerprints()));
+        }
+        return setFile(index, file);
+    }
+
+    /**
+     * Extends an index with content that has been appended to the indexed content.
+     *
+     * @param index    the index created by this indexer (or an earlier resume).
+     * @param appended inputstream to the appended content only.
+     * @return the given, now extended index.
+     * @throws IOException when a IOException occurs during XML file access.
+     * @see this#resume(StandardXpathIndex, java.io.File)
+     */
+    public StandardXpathIndex resume(StandardXpathIndex index, InputStream appended) throws IOException {
+        IndexState state = getState(index);
+        setState(index, scan(BlockSource.of(appended), withListeners(index), state, index.getLineTable(), index.getBlockFingerprints()));
+        appended.close();
+        return index;
+    }
+
+    /**
+     * Indexes a modified file again, taking over the elements of the unchanged parts from its earlier index.
+     * The file is read once to find its blocks (see this#setBlockFingerprints(boolean)), and only the blocks
+     * whose hash is not found in the earlier index are scanned. A run of unchanged blocks is taken over if the
+     * same elements are open at its start as in the earlier index, and if it ends outside of the tags. The new index
+     * (with new block fingerprints) is the same as the one created by this#index(java.io.File).
+     * The settings of this indexer should be the same as for the earlier indexing.
+     * Note: the listeners of this indexer only receive the elements of the taken over blocks, which are in
+     * the index, and without line number if the index does not store the line numbers of its elements. If the earlier index
+     * has no block fingerprints or sampled xpaths, or there are content listeners or element fingerprints, the whole file is indexed again.
+     *
+     * @param index the earlier index of the file, which is not changed.
+     * @param file  the (uncompressed) XML file.
+     * @return the new index of the file.
+     * @throws IOException when a IOException occurs during XML file access.
+     * @see this#resume(StandardXpathIndex, java.io.File)
+     */
+    public StandardXpathIndex reindex(StandardXpathIndex index, File file) throws IOException {
+        BlockFingerprints old = index.getBlockFingerprints();
+        if (stopCondition != null) {
+            return index(file);
+        }
+        StandardXpathIndex reindexed = createIndex();
+        BlockFingerprints recorder = new BlockFingerprints();
+        reindexed.setBlockFingerprints(recorder);
+        if (old == null || !contentListeners.isEmpty() || elementFingerprints || index.hasSampledXpaths()) {
+            setState(reindexed, scan(file, withListeners(reindexed), reindexed.getLineTable(), recorder));
+            return setFile(reindexed, file);
+        }
+
+        XpathIndexListener listener = withListeners(reindexed);
+        IndexBuilder builder = createBuilder(listener);
+        XmlScanner scanner = new XmlScanner(builder, ByteSkipper.create(vectorSearch), ignoreNSPrefix);
+        LineTable lines = reindexed.getLineTable();
+        ContentChecksum checksum = createChecksum(null, backgroundChecksum);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the blocks of the file (and its checksum)
+            BlockFingerprints blocks = new BlockFingerprints();
+            BlockSource source = BlockSource.of(channel, mapWindowSize, 0);
+            byte[] block = checksum.nextBlock();
+            int read;
+            while ( (read = source.read(block)) != -1 ) {
+                blocks.hash(block, read);
+                checksum.update(block, read);
+                block = checksum.nextBlock();
+            }
+
+            // the blocks of the earlier index, which start outside of the tags
+            Map<Long, Integer> oldBlocks = new HashMap<>();
+            for (int i = old.getBlockCount() - 1; i >= 0; i--) {
+                if (old.getBoundary(i) != null) {
+                    oldBlocks.put(old.getBlockHash(i), i);
+                }
+            }
+
+            byte[] buffer = new byte[blockSize];
+            int count = blocks.getBlockCount();
+            int next = 0;
+            while (next < count) {
+                long position = blocks.getBlockStart(next);
+                if (recorder.getBlockStart(recorder.getBlockCount()) < position) {
+                    // the recorder has not seen the start of this block yet
+                    recorder.boundary(scanner, builder);
+                }
+                BlockFingerprints.Boundary current = recorder.getBoundary(recorder.getBlockCount());
+                Integer match = current == null ? null : oldBlocks.get(blocks.getBlockHash(next));
+                int reused = match == null ? 0 : unchangedBlocks(old, match, blocks, next, current);
+                if (reused > 0) {
+                    reuse(index, old, match, match + reused, position, current, builder, scanner, recorder, listener, lines);
+                    next += reused;
+                } else {
+                    scan(channel, position, blocks.getBlockStart(next + 1), buffer, scanner, builder, recorder, lines);
+                    next++;
+                }
+            }
+            scan(channel, blocks.getBlockStart(count), channel.size(), buffer, scanner, builder, recorder, lines);
+            setState(reindexed, builder.saveState(scanner.saveState(), checksum, readTail(channel, scanner.getPosition()), false));
+        } finally {
+            checksum.cancel();
+        }
+        return setFile(reindexed, file);
+    }
+
+    /**
+     * Checks whether an index, e.g. one read from an XpathIndexFile, has the content of an index created by this
+     * indexer: it has been created with the same xpath inclusion set, line number setting, handling of namespace
+     * prefixes, subtree pruning, sampled xpaths, element storage and checksum algorithm. An index without checksum is
+     * accepted if the offset index of the files is used (see this#setEmbeddedIndex(boolean)), which does not calculate it.
+     *
+     * @param index the index to check.
+     * @return true if the index has been created with the settings of this indexer.
+     */
+    public boolean isCompatible(StandardXpathIndex index) {
+        Map<String, Integer> intervals = index.getSamplingIntervals();
+        return Objects.equals(xpathInclusionSet, index.getXpathInclusionSet())
+                && recordLineNumber == index.isRecordLineNumber()
+                && ignoreNSPrefix == index.isIgnoreNSPrefix()
+                && (subtreePruning && xpathInclusionSet != null) == index.isSubtreePruning()
+                && samplingIntervals.equals(intervals == null ? Collections.<String, Integer>emptyMap() : intervals)
+                && elementStorage == index.getElementStorage()
+                && (checksumAlgorithm == index.getChecksumAlgorithm()
+                    || embeddedIndex && index.getChecksumAlgorithm() == ChecksumAlgorithm.NONE);
+    }
+
+    /**
+     * @param index the index created by this indexer for the file.
+     * @param file  the (uncompressed) XML file.
+     * @return true if the file can be indexed further with this#resume(StandardXpathIndex, java.io.File):
+     *         it is not shorter than the indexed content and the last indexed bytes have not changed.
+     * @throws IOException when a IOException occurs during XML file access.
+     */
+    public boolean isResumable(StandardXpathIndex index, File file) throws IOException {
+        if (index.getIndexState() == null) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return isResumable(index.getIndexState(), channel);
+        }
+    }
+
+    private static boolean isResumable(IndexState state, FileChannel channel) throws IOException {
+        return channel.size() >= state.getPosition() && state.matchesTail(readTail(channel, state.getPosition()));
+    }
+
+    private static IndexState getState(StandardXpathIndex index) {
+        IndexState state = index.getIndexState();
+        if (state == null) {
+            throw new IllegalArgumentException("The index has not been created by a XmlXpathIndexer and can not be resumed.");
+        }
+        return state;
+    }
+
+    /**
+     * @return the number of blocks from the given ones on, which are the same in both recordings and can be taken
+     *         over: they start with the same open elements and the last one ends outside of the tags.
+     */
+    private static int unchangedBlocks(BlockFingerprints old, int from, BlockFingerprints blocks, int start,
+                                       BlockFingerprints.Boundary current) {
+        if (!old.getBoundary(from).xpath.equals(current.xpath)) {
+            return 0;
+        }
+        int unchanged = 0;
+        for (int i = 0; from + i < old.getBlockCount() && start + i < blocks.getBlockCount(); i++) {
+            long oldLength = old.getBlockStart(from + i + 1) - old.getBlockStart(from + i);
+            long length = blocks.getBlockStart(start + i + 1) - blocks.getBlockStart(start + i);
+            if (old.getBlockHash(from + i) != blocks.getBlockHash(start + i) || oldLength != length) {
+                break;
+            }
+            if (old.getBoundary(from + i + 1) != null) {
+                unchanged = i + 1;
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * Reports the elements of unchanged blocks from the earlier index with their new positions,
+     * and sets up the builder, the scanner and the recorder to continue after the blocks.
+     */
+    private static void reuse(StandardXpathIndex index, BlockFingerprints old, int from, int to, long position,
+                              BlockFingerprints.Boundary current, IndexBuilder builder, XmlScanner scanner,
+                              BlockFingerprints recorder, XpathIndexListener listener, LineTable lines) {
+        BlockFingerprints.Boundary oldStart = old.getBoundary(from);
+        long start = old.getBlockStart(from);
+        long end = old.getBlockStart(to);
+        long delta = position - start;
+        long lineDelta = current.getCompletedLineNumber() - oldStart.getCompletedLineNumber();
+        // the elements open at the start, which are still open at the end
+        int outer = current.getDepth();
+        for (int i = from; i < to; i++) {
+            outer = Math.min(outer, old.getMinDepth(i));
+        }
+
+        // the elements within the blocks, in the order they have been closed (no two elements end at the same position)
+        boolean lineNumbers = index.isRecordLineNumber() && index.getLineTable() == null;
+        TreeMap<Long, Reused> elements = new TreeMap<>();
+        for (String xpath : index.getKeys()) {
+            List<IndexElement> list = index.getElements(xpath);
+            for (int i = firstEndingFrom(list, start); i < list.size() && list.get(i).getStop() <= end; i++) {
+                IndexElement element = list.get(i);
+                if (element.getStart() >= start) {
+                    long lineNumber = lineNumbers ? element.getLineNumber() + lineDelta : IndexElement.NO_LINE_NUMBER;
+                    elements.put(element.getStop() + delta, new Reused(xpath, element.getStart() + delta, lineNumber, depth(xpath)));
+                }
+            }
+        }
+        // the elements open at the start and closed within the blocks, with their current start
+        String xpath = current.xpath;
+        for (int level = current.getDepth() - 1; level >= outer; level--) {
+            List<IndexElement> list = index.getElements(xpath);
+            for (int i = firstEndingFrom(list, start); i < list.size() && list.get(i).getStop() <= end; i++) {
+                if (list.get(i).getStart() == oldStart.starts[level]) {
+                    long lineNumber = lineNumbers ? current.lineNumbers[level] : IndexElement.NO_LINE_NUMBER;
+                    elements.put(list.get(i).getStop() + delta, new Reused(xpath, current.starts[level], lineNumber, level + 1));
+                }
+            }
+            xpath = xpath.substring(0, xpath.lastIndexOf('/'));
+        }
+        for (Map.Entry<Long, Reused> entry : elements.entrySet()) {
+            Reused element = entry.getValue();
+            listener.element(element.xpath, element.start, entry.getKey(), element.lineNumber, element.depth);
+        }
+
+        BlockFingerprints.Boundary boundary = old.getBoundary(to).shift(delta, lineDelta, current, outer);
+        if (lines != null && index.getLineTable() != null) {
+            lines.append(index.getLineTable(), start, end, delta, lineDelta);
+        }
+        recorder.copy(old, from, to, delta, lineDelta, current);
+        builder.restore(boundary, outer);
+        scanner.restoreState(XmlScanner.State.outsideOfTags(end + delta, boundary.lineNumber, boundary.prev));
+        if (lines != null) {
+            lines.checkpoint(end + delta, boundary.getCompletedLineNumber());
+        }
+    }
+
+    /**
+     * @return the depth of the elements of the xpath, 1 for the root element.
+     */
+    private static int depth(String xpath) {
+        int depth = 0;
+        for (int i = xpath.indexOf('/'); i >= 0; i = xpath.indexOf('/', i + 1)) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * @return the index of the first element (of elements ordered by their stop position) ending at or after the position.
+     */
+    private static int firstEndingFrom(List<IndexElement> elements, long position) {
+        int low = 0;
+        int high = elements.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (elements.get(mid).getStop() < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Scans a byte range of the file.
+     *
+     * @param recorder the recorder of the blocks, can be null.
+     * @param lines    the table to record the line numbers in, can be null.
+     */
+    static void scan(FileChannel channel, long from, long to, byte[] buffer, XmlScanner scanner, IndexBuilder builder,
+                             BlockFingerprints recorder, LineTable lines) throws IOException {
+        long position = from;
+        while (position < to) {
+            java.nio.ByteBuffer bytes = java.nio.ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, to - position));
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, position + bytes.position()) == -1) {
+                    throw new IOException("The file has been truncated while it was indexed.");
+                }
+            }
+            if (recorder != null) {
+                recorder.scan(scanner, builder, buffer, bytes.position());
+            } else {
+                scanner.scan(buffer, 0, bytes.position());
+            }
+            if (lines != null) {
+                lines.checkpoint(scanner.getPosition(), scanner.getCompletedLineNumber());
+            }
+            position += bytes.position();
+        }
+    }
+
+    /**
+     * @return the option that keeps the offset index of a file from being used, null if there is none.
+     */
+    private String embeddedIndexOption() {
+        if (!contentListeners.isEmpty()) {
+            return "content listeners";
+        }
+        if (stopCondition != null) {
+            return "a stop condition";
+        }
+        if (blockFingerprints) {
+            return "block fingerprints";
+        }
+        if (elementFingerprints) {
+            return "element fingerprints";
+        }
+        return null;
+    }
+
+    /**
+     * @return the index built with the offset index at the end of the file, null if the file has no offset index
+     *         or it does not match the content.
+     */
+    private StandardXpathIndex indexEmbedded(File file) throws IOException {
+        StandardXpathIndex index = createIndex();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            EmbeddedIndex embedded = EmbeddedIndex.read(channel);
+            if (embedded == null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("No offset index found, indexing the whole file: " + file.getAbsolutePath());
+                }
+                return null;
+            }
+            if (recordLineNumber && index.getLineTable() == null) {
+                // the line numbers after the first listed element are not known
+                index.setLineTable(new LineTable());
+            }
+            IndexBuilder builder = createBuilder(index);
+            XmlScanner scanner = new XmlScanner(builder, ByteSkipper.create(vectorSearch), ignoreNSPrefix);
+            XmlScanner.State end;
+            try {
+                end = embedded.index(channel, scanner, builder, index.getLineTable(), new byte[blockSize], ignoreNSPrefix);
+            } catch (IllegalStateException e) {
+                log.info("The offset index does not match the content (" + e.getMessage() + "), indexing the whole file: " + file.getAbsolutePath());
+                return null;
+            }
+            ContentChecksum none = ContentChecksum.create(ChecksumAlgorithm.NONE, blockSize, false);
+            setState(index, builder.saveState(end, none, readTail(channel, end.position), false));
+            if (log.isDebugEnabled()) {
+                log.debug("Indexed the " + embedded.size() + " elements of the offset index of " + file.getAbsolutePath());
+            }
+        }
+        return setFile(index, file);
+    }
+
+    private StandardXpathIndex index(BlockSource source) throws IOException {
+        StandardXpathIndex index = createIndex();
+        setState(index, scan(source, withListeners(index), null, index.getLineTable(), index.getBlockFingerprints()));
+        return index;
+    }
+
+    private static void inBackground(final ProgressiveXpathIndex index, final Callable<IndexState> scan) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    setState(index, scan.call());
+                    index.complete(null);
+                } catch (Throwable t) {
+                    // reported to the queries and the future of the index
+                    index.complete(t);
+                }
+            }
+        }, "xxindex-background-" + backgroundCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static StandardXpathIndex setFile(StandardXpathIndex index, File file) throws IOException {
+        index.setFile(file);
+        if (index.getLineTable() != null) {
+            index.getLineTable().setFile(file);
+        }
+        return index;
+    }
+
+    private static void setState(StandardXpathIndex index, IndexState state) {
+        index.trimToSize();
+        index.setIndexState(state);
+        index.setChecksum(state.getChecksumAlgorithm(), state.getChecksum());
+    }
+
+    private IndexState scan(File file, XpathIndexListener listener, LineTable lines, BlockFingerprints fingerprints) throws IOException {
+        boolean parallel = parallelism > 1 && file.length() >= 2 * ParallelIndexer.MIN_CHUNK_SIZE;
+        String sequential = sequentialOption(fingerprints);
+        if (parallel && sequential != null) {
+            log.info("Indexing " + file.getName() + " with a single thread, as files are not indexed in parallel with " + sequential + ".");
+            parallel = false;
+        }
+        if (!parallel) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return scan(BlockSource.of(channel, mapWindowSize, 0), listener, null, lines, fingerprints);
+            }
+        }
+        // the checksum is always calculated on its own thread, which reads the file in sequence
+        ContentChecksum checksum = ContentChecksum.create(checksumAlgorithm, blockSize, false);
+        IndexBuilder builder = createBuilder(listener);
+        ParallelIndexer indexer = new ParallelIndexer(file, parallelism, blockSize, ignoreNSPrefix, vectorSearch);
+        indexer.setLineTable(lines);
+        XmlScanner.State end = indexer.index(builder, checksum);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return builder.saveState(end, checksum, readTail(channel, end.position), false);
+        }
+    }
+
+    /**
+     * @param fingerprints the block fingerprints to record, can be null.
+     * @return the option that keeps files from being indexed in parallel, null if there is none.
+     */
+    private String sequentialOption(BlockFingerprints fingerprints) {
+        if (!contentListeners.isEmpty()) {
+            return "content listeners";
+        }
+        if (stopCondition != null) {
+            return "a stop condition";
+        }
+        if (fingerprints != null) {
+            return "block fingerprints";
+        }
+        if (elementFingerprints) {
+            return "element fingerprints";
+        }
+        return null;
+    }
+
+    /**
+     * Scans the content and reports the elements to the listener.
+     *
+     * @param source the content to scan.
+     * @param listener the listener to report the elements to.
+     * @param from   the state to continue with, null to start at the beginning of a document.
+     * @param lines  the table to record the line numbers in, can be null.
+     * @param fingerprints the blocks to record the content in, can be null (only used without stop condition).
+     * @return the state at the end of the content.
+     */
+    private IndexState scan(BlockSource source, XpathIndexListener listener, IndexState from, LineTable lines,
+                            BlockFingerprints fingerprints) throws IOException {
+        ElementCapture capture = null;
+        if (!contentListeners.isEmpty()) {
+            capture = new ElementCapture(contentListeners);
+            listener = new Listeners(Arrays.asList(listener, capture));
+        }
+        Stop stop = null;
+        if (stopCondition != null) {
+            stop = new Stop(stopCondition);
+            listener = new Listeners(Arrays.asList(listener, stop));
+        }
+        IndexBuilder builder = createBuilder(listener);
+        XmlScanner scanner = new XmlScanner(builder, ByteSkipper.create(vectorSearch), ignoreNSPrefix);
+        if (stop != null) {
+            stop.scanner = scanner;
+        }
+        ElementHasher hasher = null;
+        if (elementFingerprints && (from == null || from.hasher != null)) {
+            hasher = from == null ? new ElementHasher() : from.hasher.copy();
+            builder.setHasher(hasher);
+        }
+        Tail tail;
+        if (from == null) {
+            tail = new Tail(new byte[0]);
+        } else {
+            builder.restore(from);
+            scanner.restoreState(from.scanner.copy());
+            tail = new Tail(from.tail);
+        }
+
+        if (pipelineDepth > 0 && stop != null) {
+            log.info("Reading the content on the indexing thread, as it is not read ahead with a stop condition.");
+        }
+        if (pipelineDepth > 0 && stop == null) {
+            // the reading thread also calculates the checksum (of all the content, so it can not be stopped)
+            ContentChecksum checksum = createChecksum(from, false);
+            try (PipelinedReader reader = new PipelinedReader(source, checksum, pipelineDepth, blockSize)) {
+                PipelinedReader.Block block;
+                while ( (block = reader.take()) != null ) {
+                    if (capture != null) {
+                        capture.block(block.data, block.length, scanner.getPosition());
+                    }
+                    if (hasher != null) {
+                        hasher.block(block.data, 0, block.length, scanner.getPosition());
+                    }
+                    if (fingerprints != null) {
+                        fingerprints.scan(scanner, builder, block.data, block.length);
+                    } else {
+                        scanner.scan(block.data, 0, block.length);
+                    }
+                    if (capture != null) {
+                        capture.endOfBlock(keepFrom(builder, scanner));
+                    }
+                    if (hasher != null) {
+                        hasher.endOfBlock(scanner.getPosition(), scanner.getTagStart());
+                    }
+                    if (lines != null) {
+                        lines.checkpoint(scanner.getPosition(), scanner.getCompletedLineNumber());
+                    }
+                    tail.update(block.data, block.length);
+                    reader.release(block);
+                }
+            }
+            return builder.saveState(scanner.saveState(), checksum, tail.getBytes(), false);
+        }
+
+        ContentChecksum checksum = createChecksum(from, backgroundChecksum);
+        long maxPosition = stop == null ? Long.MAX_VALUE : stopCondition.getMaxPosition();
+        try {
+            byte[] block = checksum.nextBlock();
+            int read;
+            while ( scanner.getPosition() < maxPosition && !scanner.isStopped() && (read = source.read(block)) != -1 ) {
+                if (capture != null) {
+                    capture.block(block, read, scanner.getPosition());
+                }
+                if (hasher != null) {
+                    hasher.block(block, 0, read, scanner.getPosition());
+                }
+                // only the scanned bytes are part of the index (and its checksum)
+                int scanned;
+                if (fingerprints != null && stop == null) {
+                    fingerprints.scan(scanner, builder, block, read);
+                    scanned = read;
+                } else {
+                    scanned = scanner.scan(block, 0, (int) Math.min(read, maxPosition - scanner.getPosition()));
+                }
+                if (capture != null) {
+                    capture.endOfBlock(keepFrom(builder, scanner));
+                }
+                if (hasher != null) {
+                    hasher.endOfBlock(scanner.getPosition(), scanner.getTagStart());
+                }
+                if (lines != null) {
+                    lines.checkpoint(scanner.getPosition(), scanner.getCompletedLineNumber());
+                }
+                tail.update(block, scanned);
+                checksum.update(block, scanned);
+                block = checksum.nextBlock();
+            } // end of reading
+            boolean stopped = scanner.isStopped() || scanner.getPosition() >= maxPosition;
+            return builder.saveState(scanner.saveState(), checksum, tail.getBytes(), stopped);
+        } finally {
+            checksum.cancel();
+        }
+    }
+
+    private IndexBuilder createBuilder(XpathIndexListener listener) {
+        Set<String> kept = null;
+        if (subtreePruning && xpathInclusionSet != null) {
+            // the captured and counted elements must not be skipped either
+            kept = new HashSet<>(xpathInclusionSet);
+            kept.addAll(contentListeners.keySet());
+            if (stopCondition != null) {
+                kept.addAll(stopCondition.getMaxElementCounts().keySet());
+            }
+        }
+        IndexBuilder builder = new IndexBuilder(listener, kept);
+        if (!contentListeners.isEmpty()) {
+            builder.setCapturedXpaths(contentListeners.keySet());
+        }
+        return builder;
+    }
+
+    /**
+     * @return the position of the first byte that may be part of a captured element, -1 if there is none.
+     */
+    private static long keepFrom(IndexBuilder builder, XmlScanner scanner) {
+        long captureStart = builder.getCaptureStart();
+        long tagStart = scanner.getTagStart();
+        if (captureStart < 0) {
+            return tagStart;
+        }
+        return tagStart < 0 ? captureStart : Math.min(captureStart, tagStart);
+    }
+
+    private StandardXpathIndex createIndex() {
+        return createIndex(new StandardXpathIndex(xpathInclusionSet));
+    }
+
+    private <T extends StandardXpathIndex> T createIndex(T index) {
+
+        // create a index that will or will not record the line number according to the specification
+        if ( log.isDebugEnabled()) {
+            log.debug( "Indexing " + (recordLineNumber ? "and" : "without") + " keeping track of line numbers." );
+        }
+
+        index.setRecordLineNumber(recordLineNumber);
+        index.setElementStorage(elementStorage);
+        index.setIgnoreNSPrefix(ignoreNSPrefix);
+        index.setSubtreePruning(subtreePruning && xpathInclusionSet != null);
+        if (recordLineNumber && lazyLineNumber) {
+            index.setLineTable(new LineTable());
+        }
+        if (blockFingerprints && stopCondition == null) {
+            index.setBlockFingerprints(new BlockFingerprints());
+        }
+        if (!samplingIntervals.isEmpty()) {
+            index.setSamplingIntervals(new HashMap<>(samplingIntervals));
+        }
+        return index;
+    }
+
+    private ContentChecksum createChecksum(IndexState from, boolean background) {
+        if (from != null) {
+            return ContentChecksum.resume(from, blockSize, background);
+        }
+        return ContentChecksum.create(checksumAlgorithm, blockSize, background);
+    }
+
+    /**
+     * @return the bytes before the given position, at most IndexState#TAIL_LENGTH.
+     */
+    static byte[] readTail(FileChannel channel, long position) throws IOException {
+        int length = (int) Math.min(IndexState.TAIL_LENGTH, position);
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position - length + buffer.position()) == -1) {
+                break;
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * @return the listener reporting the elements to the index and to the listeners of this indexer.
+     */
+    private XpathIndexListener withListeners(StandardXpathIndex index) {
+        if (listeners.isEmpty()) {
+            return index;
+        }
+        List<XpathIndexListener> all = new ArrayList<>(listeners.size() + 1);
+        all.add(index);
+        all.addAll(listeners);
+        return new Listeners(all);
+    }
+
+    /**
+     * @return the listener reporting the elements to the listeners of this indexer.
+     */
+    private XpathIndexListener listeners() {
+        return listeners.size() == 1 ? listeners.get(0) : new Listeners(listeners);
+    }
+
+    ////////////////////
+    // Utilities
+
+    /**
+     * Method to extract the tag name out of the ByteBuffer containing all the bytes of the tag
+     * (including attributes). The tag name is considered to start after '<' and end at any of the
+     * characters ' ', '\t', '\n' or '\r'.
+     *
+     * @param bb ByteBuffer of all the bytes between '<' and '>'
+     * @param ignoreNSPrefix  if set to true and the buffer contains a ':' before the name end is detected,
+     *                        then all characters upto this position are regarded as prefix and ignored.        
+     * @return String of the tag name.
+     */
+    protected static String getTagName(ByteBuffer bb, boolean ignoreNSPrefix) {
+        // get name (every byte till first blank)
+        int start = 0;
+        int end = 0;
+        while (end < bb.size()) {
+            byte aByte = bb.getByte(end);
+            // stop at name-attribute separating character (#x20 | #x9 | #xD | #xA)
+            if ( aByte == ' ' || aByte == '\t' || aByte == '\n' || aByte == '\r' ) {
+                break;
+            }
+            end++;
+
+            if (ignoreNSPrefix && aByte == ':') {
+                // if we encounter a ':' we have a namespace prefix
+                // since we do not handle this, we just get rid of it: all the characters
+                // up to (including) the current ':' are prefix and are skipped
+                start = end;
+            }
+        }
+        // might still contain a leading or trailing '/' from self closing start tags or regular closing tags
+        // get rid of leading '/' if closing tag
+        if ( start < end && bb.getByte(start) == '/' ) {
+            start++;
+        }
+        // get rid of trailing '/' if self closing start tag
+        if ( start < end && bb.getByte(end - 1) == '/' ) {
+            end--;
+        }
+        // forget about the rest in the buffer (e.g. attributes)
+        return bb.toString(start, end - start, null);
+    }
+
+    /**
+     * Reports the elements to several listeners.
+     */
+    private static class Listeners implements XpathIndexListener {
+
+        private final XpathIndexListener[] listeners;
+
+        Listeners(List<XpathIndexListener> listeners) {
+            this.listeners = listeners.toArray(new XpathIndexListener[listeners.size()]);
+        }
+
+        public void element(String xpath, long start, long stop, long lineNumber, int depth) {
+            for (XpathIndexListener listener : listeners) {
+                listener.element(xpath, start, stop, lineNumber, depth);
+            }
+        }
+
+        public void element(String xpath, long start, long stop, long lineNumber, int depth, long fingerprint) {
+            for (XpathIndexListener listener : listeners) {
+                listener.element(xpath, start, stop, lineNumber, depth, fingerprint);
+            }
+        }
+    }
+
+    /**
+     * Stops the scanner when one of the element counts of a StopCondition is reached.
+     */
+    private static class Stop implements XpathIndexListener {
+
+        // the number of elements left per xpath
+        private final Map<String, int[]> remaining = new HashMap<>();
+        private XmlScanner scanner;
+
+        Stop(StopCondition condition) {
+            for (Map.Entry<String, Integer> entry : condition.getMaxElementCounts().entrySet()) {
+                remaining.put(entry.getKey(), new int[]{entry.getValue()});
+            }
+        }
+
+        public void element(String xpath, long start, long stop, long lineNumber, int depth) {
+            int[] left = remaining.get(xpath);
+            if (left != null && --left[0] == 0) {
+                scanner.stop();
+            }
+        }
+    }
+
+    /**
+     * Receives the tags found by the XmlScanner and keeps the stack of open elements,
+     * so that the xpath of each element is known when it is closed. The xpaths are
+     * interned in a trie, the stack only holds the id of the xpath, the start position
+     * and the line number of each element in primitive arrays. Apart from what the
+     * listener (e.g. the index) stores, nothing is allocated per tag.
+     * If a set of xpaths to keep is given, the content of all other elements, which can not contain
+     * any of these xpaths, is skipped.
+     */
+    static class IndexBuilder implements XmlScanner.TagHandler {
+
+        // whether the xpath of a trie node is in a set
+        private static final byte UNKNOWN = 0;
+        private static final byte IN = 1;
+        private static final byte OUT = 2;
+
+        private final XpathIndexListener listener;
+        private final XpathTrie xpaths = new XpathTrie();
+
+        // the stack of open elements
+        private int[] stackXpaths = new int[32];
+        private long[] stackStarts = new long[32];
+        private long[] stackLineNumbers = new long[32];
+        // the prefix hashes at the starts of the open elements, only used with a hasher
+        private long[] stackPrefixes = new long[32];
+        private int depth = 0;
+        // the smallest depth since the last call of resetMinDepth()
+        private int minDepth = 0;
+
+        // the xpaths (and their ancestors) whose content is not skipped, null to keep all
+        private final Set<String> kept;
+        // whether the xpath with the id is kept
+        private byte[] pruned = new byte[64];
+        // the depth within a skipped subtree, whose root is on top of the stack
+        private int prunedDepth = 0;
+
+        // the xpaths whose content is captured, null if none
+        private Set<String> capturedXpaths = null;
+        private byte[] captured = new byte[64];
+        // the index in the stack of the outermost open element that is captured, -1 if none
+        private int captureDepth = -1;
+
+        // calculates the fingerprints of the elements, null if they are not recorded
+        private ElementHasher hasher = null;
+
+        IndexBuilder(XpathIndexListener listener) {
+            this(listener, null);
+        }
+
+        /**
+         * @param listener the listener to report the elements to.
+         * @param xpaths   the xpaths of interest, the content of all the elements that can not
+         *                 contain any of them is skipped. Can be null to keep all the elements.
+         */
+        IndexBuilder(XpathIndexListener listener, Set<String> xpaths) {
+            this.listener = listener;
+            if (xpaths == null) {
+                this.kept = null;
+            } else {
+                this.kept = new HashSet<>();
+                for (String xpath : xpaths) {
+                    if (xpath == null) {
+                        continue;
+                    }
+                    // the xpath and all its ancestors are kept
+                    if (xpath.endsWith("/")) {
+                        xpath = xpath.substring(0, xpath.length() - 1);
+                    }
+                    for (int i = xpath.length(); i > 0; i = xpath.lastIndexOf('/', i - 1)) {
+                        kept.add(xpath.substring(0, i));
+                    }
+                }
+            }
+        }
+
+        public boolean startTag(byte[] name, int offset, int length, long start, long lineNumber) {
+            if (prunedDepth > 0) {
+                prunedDepth++;
+                return false;
+            }
+            push(name, offset, length, start, lineNumber);
+            if (hasher != null) {
+                stackPrefixes[depth - 1] = hasher.prefix(start);
+            }
+            if (kept != null && isPruned(stackXpaths[depth - 1])) {
+                prunedDepth = 1;
+                return false;
+            }
+            if (capturedXpaths != null && captureDepth < 0 && isCaptured(stackXpaths[depth - 1])) {
+                captureDepth = depth - 1;
+            }
+            return true;
+        }
+
+        private void push(byte[] name, int offset, int length, long start, long lineNumber) {
+            if (depth == stackXpaths.length) {
+                int capacity = depth * 2;
+                stackXpaths = Arrays.copyOf(stackXpaths, capacity);
+                stackStarts = Arrays.copyOf(stackStarts, capacity);
+                stackLineNumbers = Arrays.copyOf(stackLineNumbers, capacity);
+                stackPrefixes = Arrays.copyOf(stackPrefixes, capacity);
+            }
+            // only keep the start, since we don't know yet where this element ends
+            stackXpaths[depth] = child(name, offset, length);
+            stackStarts[depth] = start;
+            stackLineNumbers[depth] = lineNumber;
+            depth++;
+        }
+
+        public void emptyTag(byte[] name, int offset, int length, long start, long stop, long lineNumber) {
+            if (prunedDepth > 0) {
+                return;
+            }
+            // since it is a self closing start tag, we know the stop position already
+            int xpath = child(name, offset, length);
+            if (hasher != null) {
+                long fingerprint = hasher.fingerprint(hasher.prefix(start), start, stop);
+                listener.element(xpaths.getXpath(xpath), start, stop, lineNumber, depth + 1, fingerprint);
+                return;
+            }
+            listener.element(xpaths.getXpath(xpath), start, stop, lineNumber, depth + 1);
+        }
+
+        public void endTag(byte[] name, int offset, int length, long stop) {
+            if (depth == 0) {
+                log.error("Found closing tag '" + new String(name, offset, length) + "' without any open element.");
+                throw new IllegalStateException("Internal stack of XML tags was corrupted!");
+            }
+            if (prunedDepth > 1) {
+                prunedDepth--;
+                return;
+            }
+            // the end of the root of a skipped subtree is reported like any other element
+            prunedDepth = 0;
+            depth--;
+            if (depth < minDepth) {
+                minDepth = depth;
+            }
+            if (depth == captureDepth) {
+                captureDepth = -1;
+            }
+            int xpath = stackXpaths[depth];
+            // check if found name is the last on stack
+            if ( !TagEvents.equals(xpaths.getNameBytes(xpath), name, offset, length)
+                    && !xpaths.getName(xpath).equalsIgnoreCase(new String(name, offset, length)) ) {
+                StringBuilder sb = new StringBuilder( 256 );
+                sb.append("Tag name mismatch! Found '").append(new String(name, offset, length));
+                sb.append("' but '").append(xpaths.getName(xpath)).append("' on stack.");
+                sb.append( "\n State of the Stack:\n" );
+                for (int i = 0; i < depth; i++) {
+                    sb.append("[");
+                    sb.append(xpaths.getName(stackXpaths[i]));
+                    sb.append(" at line ");
+                    sb.append(stackLineNumbers[i]);
+                    sb.append("]\n");
+                }
+                log.error( sb.toString() );
+                throw new IllegalStateException("Internal stack of XML tags was corrupted!");
+            }
+            if (hasher != null) {
+                long fingerprint = hasher.fingerprint(stackPrefixes[depth], stackStarts[depth], stop);
+                listener.element(xpaths.getXpath(xpath), stackStarts[depth], stop, stackLineNumbers[depth], depth + 1, fingerprint);
+                return;
+            }
+            listener.element(xpaths.getXpath(xpath), stackStarts[depth], stop, stackLineNumbers[depth], depth + 1);
+        }
+
+        private int child(byte[] name, int offset, int length) {
+            int parent = depth == 0 ? XpathTrie.ROOT : stackXpaths[depth - 1];
+            return xpaths.child(parent, name, offset, length);
+        }
+
+        private boolean isPruned(int xpath) {
+            pruned = lookup(pruned, xpath, kept);
+            return pruned[xpath] == OUT;
+        }
+
+        private boolean isCaptured(int xpath) {
+            captured = lookup(captured, xpath, capturedXpaths);
+            return captured[xpath] == IN;
+        }
+
+        /**
+         * @return the flags, with the flag of the xpath set.
+         */
+        private byte[] lookup(byte[] flags, int xpath, Set<String> set) {
+            if (xpath >= flags.length) {
+                flags = Arrays.copyOf(flags, Math.max(xpath + 1, flags.length * 2));
+            }
+            if (flags[xpath] == UNKNOWN) {
+                flags[xpath] = set.contains(xpaths.getXpath(xpath)) ? IN : OUT;
+            }
+            return flags;
+        }
+
+        /**
+         * @param capturedXpaths the xpaths of the elements whose content is captured.
+         * @see this#getCaptureStart()
+         */
+        void setCapturedXpaths(Set<String> capturedXpaths) {
+            this.capturedXpaths = capturedXpaths;
+        }
+
+        /**
+         * @param hasher the hasher to calculate the fingerprints of the elements with, which follows the scanner.
+         */
+        void setHasher(ElementHasher hasher) {
+            this.hasher = hasher;
+        }
+
+        /**
+         * @return the start of the outermost open element whose content is captured, -1 if there is none.
+         */
+        long getCaptureStart() {
+            return captureDepth < 0 ? -1 : stackStarts[captureDepth];
+        }
+
+        /**
+         * Opens the elements that were open at the end of an earlier indexing.
+         *
+         * @param state the state at the end of the earlier indexing.
+         */
+        void restore(IndexState state) {
+            for (int i = 0; i < state.names.length; i++) {
+                push(state.names[i], 0, state.names[i].length, state.starts[i], state.lineNumbers[i]);
+            }
+            if (state.startPrefixes != null) {
+                System.arraycopy(state.startPrefixes, 0, stackPrefixes, 0, state.startPrefixes.length);
+            }
+            prunedDepth = state.prunedDepth;
+            minDepth = depth;
+        }
+
+        int getPrunedDepth() {
+            return prunedDepth;
+        }
+
+        /**
+         * @return the smallest number of open elements since the last call, which starts the next interval at the current depth.
+         */
+        int resetMinDepth() {
+            int min = minDepth;
+            minDepth = depth;
+            return min;
+        }
+
+        /**
+         * @return the currently open elements, at a block boundary outside of the tags.
+         * @see BlockFingerprints#boundary(XmlScanner, IndexBuilder)
+         */
+        BlockFingerprints.Boundary getBoundary(long lineNumber, byte prev) {
+            byte[][] names = new byte[depth][];
+            for (int i = 0; i < depth; i++) {
+                names[i] = xpaths.getNameBytes(stackXpaths[i]);
+            }
+            String xpath = depth == 0 ? "" : xpaths.getXpath(stackXpaths[depth - 1]);
+            return new BlockFingerprints.Boundary(lineNumber, prev, xpath, names,
+                    Arrays.copyOf(stackStarts, depth), Arrays.copyOf(stackLineNumbers, depth));
+        }
+
+        /**
+         * Replaces the open elements with the ones of a block boundary.
+         *
+         * @param boundary the block boundary, which has the same outer elements.
+         * @param outer    the number of outer elements, which are kept.
+         */
+        void restore(BlockFingerprints.Boundary boundary, int outer) {
+            depth = outer;
+            for (int i = depth; i < boundary.getDepth(); i++) {
+                push(boundary.names[i], 0, boundary.names[i].length, boundary.starts[i], boundary.lineNumbers[i]);
+            }
+            minDepth = depth;
+        }
+
+        /**
+         * @return the state of the indexing, with the currently open elements.
+         */
+        IndexState saveState(XmlScanner.State scanner, ContentChecksum checksum, byte[] tail, boolean stopped) throws IOException {
+            byte[][] names = new byte[depth][];
+            for (int i = 0; i < depth; i++) {
+                names[i] = xpaths.getNameBytes(stackXpaths[i]).clone();
+            }
+            // the hash has to be copied before its value is calculated
+            ContentChecksum.Hash hash = checksum.copyHash();
+            ElementHasher hasherState = null;
+            long[] startPrefixes = null;
+            if (hasher != null) {
+                hasherState = hasher.copy();
+                startPrefixes = Arrays.copyOf(stackPrefixes, depth);
+            }
+            return new IndexState(scanner, names, Arrays.copyOf(stackStarts, depth), Arrays.copyOf(stackLineNumbers, depth),
+                    prunedDepth, checksum.getAlgorithm(), checksum.getValue(), hash, tail, stopped, hasherState, startPrefixes);
+        }
+    }
+
+    /**
+     * An element taken over from an earlier index, with its new start and line number.
+     */
+    private static class Reused {
+
+        final String xpath;
+        final long start;
+        final long lineNumber;
+        final int depth;
+
+        Reused(String xpath, long start, long lineNumber, int depth) {
+            this.xpath = xpath;
+            this.start = start;
+            this.lineNumber = lineNumber;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Keeps the last bytes of the scanned content.
+     */
+    private static class Tail {
+
+        private final byte[] bytes = new byte[IndexState.TAIL_LENGTH];
+        private int length;
+
+        Tail(byte[] start) {
+            System.arraycopy(start, 0, bytes, 0, start.length);
+            length = start.length;
+        }
+
+        void update(byte[] block, int blockLength) {
+            if (blockLength >= bytes.length) {
+                System.arraycopy(block, blockLength - bytes.length, bytes, 0, bytes.length);
+                length = bytes.length;
+            } else {
+                int keep = Math.min(length, bytes.length - blockLength);
+                System.arraycopy(bytes, length - keep, bytes, 0, keep);
+                System.arraycopy(block, 0, bytes, keep, blockLength);
+                length = keep + blockLength;
+            }
+        }
+
+        byte[] getBytes() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+
 }
@@ -0,0 +1,26 @@
+package psidev.psi.tools.xxindex.index;
+
+/**
+ * Receives the raw bytes of the XML elements of chosen xpaths, while the content is indexed.
+ * This allows to extract the elements in the same pass over the file as the indexing, which
+ * avoids reading (and decompressing) the file again.
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#addContentListener(String, XpathContentListener)
+ */
+public interface XpathContentListener {
+
+    /**
+     * Called for every element of the xpath, when it is closed. The bytes are only valid for
+     * the duration of the call, the buffer will be reused by the indexer.
+     *
+     * @param xpath      the xpath of the element (without trailing '/').
+     * @param content    the buffer holding the bytes of the element, from the '&lt;' of the start tag
+     *                   to the '&gt;' of the end tag.
+     * @param offset     the offset of the element in the buffer.
+     * @param length     the number of bytes of the element.
+     * @param start      the position of the element in the file.
+     * @param lineNumber the line number of the end of the start tag.
+     */
+    void element(String xpath, byte[] content, int offset, int length, long start, long lineNumber);
+}
@@ -25,4 +25,13 @@ public interface XpathIndex {
     String print();
 
     String getChecksum();
+
+    /**
+     * @return the algorithm of the checksum of the indexed content, NONE if there is no checksum.
+     *         Indexes that do not know the algorithm have a MD5 checksum, as it was the only one used.
+     * @see XmlXpathIndexer#setChecksumAlgorithm(ChecksumAlgorithm)
+     */
+    default ChecksumAlgorithm getChecksumAlgorithm() {
+        return getChecksum() == null ? ChecksumAlgorithm.NONE : ChecksumAlgorithm.MD5;
+    }
 }
@@ -0,0 +1,460 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores a StandardXpathIndex in a versioned binary file, so a file does not have to be indexed again by every JVM.
+ * The index file records the size and the modification time of the indexed file, and a hash of some samples of
+ * its content, which allow to check cheaply whether the index is still valid. The xpaths are written once, the
+ * positions of the elements are delta encoded as variable length numbers. The line numbers, the LineTable, the
+ * checksum, the sampled xpaths, the fingerprints of the elements and the IndexState (to resume the index) are
+ * stored as well. The block fingerprints (see XmlXpathIndexer#setBlockFingerprints(boolean)) are not stored, and
+ * the checksum of a loaded index can not be continued by XmlXpathIndexer#resume(StandardXpathIndex, java.io.File).
+ *
+ * @since 0.25
+ * @see psidev.psi.tools.xxindex.StandardXpathAccess#withIndexFile(java.io.File, XmlXpathIndexer, java.io.File)
+ */
+public final class XpathIndexFile {
+
+    private static Logger log = LoggerFactory.getLogger(XpathIndexFile.class);
+
+    /**
+     * The version of the format, files of other versions are not read.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The extension of the index file next to the indexed file.
+     */
+    public static final String SIDECAR_EXTENSION = ".xxindex";
+
+    // "XXIX"
+    private static final int MAGIC = 0x58584958;
+
+    // the number and the size of the samples of the content that are hashed
+    private static final int SAMPLE_COUNT = 16;
+    private static final int SAMPLE_SIZE = 4096;
+
+    // the flags of the index
+    private static final int RECORD_LINE_NUMBER = 1;
+    private static final int IGNORE_NS_PREFIX = 2;
+    private static final int LINE_TABLE = 4;
+    private static final int INDEX_STATE = 8;
+    private static final int SUBTREE_PRUNING = 16;
+
+    // the kinds of element lists
+    private static final int LIST = 0;
+    private static final int SAMPLED = 1;
+
+    // the fields of the elements of a list
+    static final int LINE_NUMBERS = 1;
+    static final int FINGERPRINTS = 2;
+
+    private XpathIndexFile() {
+    }
+
+    /**
+     * @param source the indexed file.
+     * @return the index file next to the indexed file, e.g. 'data.mzML.xxindex' for 'data.mzML'.
+     */
+    public static File getSidecar(File source) {
+        return new File(source.getPath() + SIDECAR_EXTENSION);
+    }
+
+    ////////////////////
+    // Writing
+
+    /**
+     * Writes an index of a file. The index file is written next to it first and then renamed, so readers
+     * never see a partial index.
+     *
+     * @param index     the complete index of the file.
+     * @param source    the indexed file.
+     * @param indexFile the file to write the index to.
+     * @throws IOException when a file can not be read or written.
+     */
+    public static void write(StandardXpathIndex index, File source, File indexFile) throws IOException {
+        File temporary = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+            writeHeader(out, MAGIC, VERSION, source);
+            write(out, index);
+            out.writeInt(MAGIC);
+        }
+        replace(temporary, indexFile);
+    }
+
+    /**
+     * Writes the magic number, the version and the size, the modification time and the sampled content of the indexed file.
+     */
+    static void writeHeader(DataOutputStream out, int magic, int version, File source) throws IOException {
+        out.writeInt(magic);
+        out.writeInt(version);
+        out.writeLong(source.length());
+        out.writeLong(source.lastModified());
+        out.writeLong(sampleContent(source));
+    }
+
+    /**
+     * Renames a completely written index file, atomically if the file system supports it.
+     */
+    static void replace(File temporary, File indexFile) throws IOException {
+        try {
+            Files.move(temporary.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void write(DataOutputStream out, StandardXpathIndex index) throws IOException {
+        IndexState state = index.getIndexState();
+        // only the state of a scanner outside of the tags is stored
+        boolean resumable = state != null && state.scanner.isOutsideOfTags() && state.scanner.skipDepth == 0;
+        LineTable lineTable = index.getLineTable();
+        out.writeByte((index.isRecordLineNumber() ? RECORD_LINE_NUMBER : 0) | (index.isIgnoreNSPrefix() ? IGNORE_NS_PREFIX : 0)
+                | (lineTable != null ? LINE_TABLE : 0) | (resumable ? INDEX_STATE : 0) | (index.isSubtreePruning() ? SUBTREE_PRUNING : 0));
+        out.writeUTF(index.getChecksumAlgorithm().name());
+        out.writeUTF(index.getElementStorage().name());
+        writeString(out, index.getChecksum());
+        writeStrings(out, index.getXpathInclusionSet());
+        Map<String, Integer> intervals = index.getSamplingIntervals();
+        writeVarLong(out, intervals == null ? 0 : intervals.size() + 1);
+        if (intervals != null) {
+            for (Map.Entry<String, Integer> entry : intervals.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeVarLong(out, entry.getValue());
+            }
+        }
+        if (lineTable != null) {
+            lineTable.write(out);
+        }
+
+        Set<String> xpaths = index.getKeys();
+        writeVarLong(out, xpaths.size());
+        for (String xpath : xpaths) {
+            out.writeUTF(xpath);
+            List<IndexElement> elements = index.getElements(xpath);
+            if (elements instanceof SampledElementList) {
+                out.writeByte(SAMPLED);
+                ((SampledElementList) elements).write(out);
+            } else {
+                out.writeByte(LIST);
+                writeElements(out, elements, index.isRecordLineNumber() && lineTable == null);
+            }
+        }
+        if (resumable) {
+            writeState(out, state);
+        }
+    }
+
+    private static void writeElements(DataOutputStream out, List<IndexElement> elements, boolean lineNumbers) throws IOException {
+        boolean fingerprints = !elements.isEmpty() && elements.get(0).hasFingerprint();
+        // the elements with fingerprints store their line numbers, also with a LineTable
+        lineNumbers |= fingerprints && elements.get(0).getLineNumber() != IndexElement.NO_LINE_NUMBER;
+        out.writeByte((lineNumbers ? LINE_NUMBERS : 0) | (fingerprints ? FINGERPRINTS : 0));
+        writeVarLong(out, elements.size());
+        long start = 0;
+        long lineNumber = 0;
+        for (IndexElement element : elements) {
+            writeSignedVarLong(out, element.getStart() - start);
+            writeVarLong(out, element.getStop() - element.getStart());
+            start = element.getStart();
+            if (lineNumbers) {
+                writeSignedVarLong(out, element.getLineNumber() - lineNumber);
+                lineNumber = element.getLineNumber();
+            }
+            if (fingerprints) {
+                out.writeLong(element.getFingerprint());
+            }
+        }
+    }
+
+    private static void writeState(DataOutputStream out, IndexState state) throws IOException {
+        writeVarLong(out, state.scanner.position);
+        writeVarLong(out, state.scanner.lineNumber);
+        out.writeByte(state.scanner.prev);
+        writeVarLong(out, state.names.length);
+        long start = 0;
+        for (int i = 0; i < state.names.length; i++) {
+            writeVarLong(out, state.names[i].length);
+            out.write(state.names[i]);
+            writeVarLong(out, state.starts[i] - start);
+            start = state.starts[i];
+            writeSignedVarLong(out, state.lineNumbers[i]);
+        }
+        writeVarLong(out, state.prunedDepth);
+        out.writeBoolean(state.stopped);
+        writeVarLong(out, state.tail.length);
+        out.write(state.tail);
+    }
+
+    ////////////////////
+    // Reading
+
+    /**
+     * Checks whether an index file belongs to the current content of a file, without reading the index.
+     *
+     * @param indexFile     the index file.
+     * @param source        the indexed file.
+     * @param verifyContent whether to compare a hash of some samples of the content as well (which reads
+     *                      64 KiB of the file), in addition to the size and the modification time.
+     * @return true if the index file can be read and its index is valid for the file.
+     * @throws IOException when the files can not be read.
+     */
+    public static boolean isValid(File indexFile, File source, boolean verifyContent) throws IOException {
+        if (!indexFile.isFile() || !source.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 64))) {
+            return readHeader(in, MAGIC, VERSION, indexFile, source, verifyContent);
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the index of a file.
+     *
+     * @param indexFile     the index file.
+     * @param source        the indexed file.
+     * @param verifyContent whether to compare a hash of some samples of the content.
+     * @return the index, null if the index file does not exist or it does not belong to the current content
+     *         of the file (see this#isValid(java.io.File, java.io.File, boolean)).
+     * @throws IOException when the files can not be read, or the index file is not a valid index file.
+     */
+    public static StandardXpathIndex read(File indexFile, File source, boolean verifyContent) throws IOException {
+        if (!indexFile.isFile() || !source.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16))) {
+            if (!readHeader(in, MAGIC, VERSION, indexFile, source, verifyContent)) {
+                return null;
+            }
+            StandardXpathIndex index = read(in);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("The index file is corrupted: " + indexFile.getAbsolutePath());
+            }
+            index.setFile(source);
+            if (index.getLineTable() != null) {
+                index.getLineTable().setFile(source);
+            }
+            return index;
+        } catch (EOFException e) {
+            throw new IOException("The index file is truncated: " + indexFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * @return true if the header matches the file, false if the index is outdated.
+     */
+    static boolean readHeader(DataInput in, int magic, int expectedVersion, File indexFile, File source, boolean verifyContent) throws IOException {
+        if (in.readInt() != magic) {
+            throw new IOException("Not an index file: " + indexFile.getAbsolutePath());
+        }
+        int version = in.readInt();
+        if (version != expectedVersion) {
+            log.info("The index file has version " + version + " instead of " + expectedVersion + ": " + indexFile.getAbsolutePath());
+            return false;
+        }
+        long size = in.readLong();
+        long modified = in.readLong();
+        long sample = in.readLong();
+        return size == source.length() && modified == source.lastModified() && (!verifyContent || sample == sampleContent(source));
+    }
+
+    private static StandardXpathIndex read(DataInputStream in) throws IOException {
+        int flags = in.readByte();
+        ChecksumAlgorithm algorithm = ChecksumAlgorithm.valueOf(in.readUTF());
+        ElementStorage storage = ElementStorage.valueOf(in.readUTF());
+        String checksum = readString(in);
+        StandardXpathIndex index = new StandardXpathIndex(readStrings(in));
+        index.setChecksum(algorithm, checksum);
+        index.setRecordLineNumber((flags & RECORD_LINE_NUMBER) != 0);
+        index.setElementStorage(storage);
+        index.setIgnoreNSPrefix((flags & IGNORE_NS_PREFIX) != 0);
+        index.setSubtreePruning((flags & SUBTREE_PRUNING) != 0);
+        int intervalCount = (int) readVarLong(in) - 1;
+        if (intervalCount >= 0) {
+            Map<String, Integer> intervals = new HashMap<>();
+            for (int i = 0; i < intervalCount; i++) {
+                intervals.put(in.readUTF(), (int) readVarLong(in));
+            }
+            index.setSamplingIntervals(intervals);
+        }
+        if ((flags & LINE_TABLE) != 0) {
+            index.setLineTable(LineTable.read(in));
+        }
+
+        long xpathCount = readVarLong(in);
+        for (long i = 0; i < xpathCount; i++) {
+            String xpath = in.readUTF();
+            int kind = in.readByte();
+            if (kind == SAMPLED) {
+                // the list is created for the sampled xpath
+                ((SampledElementList) index.elementList(xpath)).read(in);
+            } else if (kind == LIST) {
+                readElements(in, index, xpath);
+            } else {
+                throw new IOException("Unknown kind of element list: " + kind);
+            }
+        }
+        if ((flags & INDEX_STATE) != 0) {
+            index.setIndexState(readState(in, index));
+        }
+        return index;
+    }
+
+    private static void readElements(DataInputStream in, StandardXpathIndex index, String xpath) throws IOException {
+        int fields = in.readByte();
+        int count = (int) readVarLong(in);
+        List<IndexElement> elements = index.elementList(xpath);
+        if (elements instanceof ArrayList) {
+            ((ArrayList<IndexElement>) elements).ensureCapacity(count);
+        } else if (elements instanceof ColumnarElementList) {
+            ((ColumnarElementList) elements).ensureCapacity(count);
+        }
+        long start = 0;
+        long lineNumber = (fields & LINE_NUMBERS) != 0 ? 0 : IndexElement.NO_LINE_NUMBER;
+        for (int i = 0; i < count; i++) {
+            start += readSignedVarLong(in);
+            long stop = start + readVarLong(in);
+            if ((fields & LINE_NUMBERS) != 0) {
+                lineNumber += readSignedVarLong(in);
+            }
+            if ((fields & FINGERPRINTS) != 0) {
+                index.put(xpath, start, stop, lineNumber, in.readLong());
+            } else {
+                index.put(xpath, start, stop, lineNumber);
+            }
+        }
+    }
+
+    private static IndexState readState(DataInputStream in, StandardXpathIndex index) throws IOException {
+        long position = readVarLong(in);
+        long lineNumber = readVarLong(in);
+        byte prev = in.readByte();
+        int depth = (int) readVarLong(in);
+        byte[][] names = new byte[depth][];
+        long[] starts = new long[depth];
+        long[] lineNumbers = new long[depth];
+        long start = 0;
+        for (int i = 0; i < depth; i++) {
+            names[i] = new byte[(int) readVarLong(in)];
+            in.readFully(names[i]);
+            start += readVarLong(in);
+            starts[i] = start;
+            lineNumbers[i] = readSignedVarLong(in);
+        }
+        int prunedDepth = (int) readVarLong(in);
+        boolean stopped = in.readBoolean();
+        byte[] tail = new byte[(int) readVarLong(in)];
+        in.readFully(tail);
+        // the state of the checksum calculation is not stored, so it can not be continued
+        return new IndexState(XmlScanner.State.outsideOfTags(position, lineNumber, prev), names, starts, lineNumbers, prunedDepth,
+                index.getChecksumAlgorithm(), index.getChecksum(), null, tail, stopped, null, null);
+    }
+
+    ////////////////////
+    // Utilities
+
+    /**
+     * @return the xxHash of some evenly spread samples of the content of the file, including its start and its end.
+     */
+    static long sampleContent(File file) throws IOException {
+        ContentChecksum.XXHash64 hash = new ContentChecksum.XXHash64();
+        byte[] buffer = new byte[SAMPLE_SIZE];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            for (int i = 0; i < SAMPLE_COUNT; i++) {
+                long position = Math.max(0, (length - SAMPLE_SIZE) * i / (SAMPLE_COUNT - 1));
+                int size = (int) Math.min(SAMPLE_SIZE, length - position);
+                raf.seek(position);
+                raf.readFully(buffer, 0, size);
+                hash.update(buffer, 0, size);
+            }
+        }
+        return hash.digest();
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length number.");
+    }
+
+    static void writeSignedVarLong(DataOutputStream out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long readSignedVarLong(DataInputStream in) throws IOException {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeStrings(DataOutputStream out, Set<String> values) throws IOException {
+        writeVarLong(out, values == null ? 0 : values.size() + 1);
+        if (values != null) {
+            for (String value : values) {
+                out.writeUTF(value);
+            }
+        }
+    }
+
+    private static Set<String> readStrings(DataInputStream in) throws IOException {
+        int count = (int) readVarLong(in) - 1;
+        if (count < 0) {
+            return null;
+        }
+        Set<String> values = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            values.add(in.readUTF());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,37 @@
+package psidev.psi.tools.xxindex.index;
+
+/**
+ * Receives the XML elements found by the XmlXpathIndexer, while the content is indexed.
+ * This allows to build custom indexes or to forward the elements, without a second pass
+ * over an index. The StandardXpathIndex is one implementation of this interface.
+ *
+ * @since 0.25
+ * @see XmlXpathIndexer#addIndexListener(XpathIndexListener)
+ * @see XmlXpathIndexer#stream(java.io.InputStream)
+ */
+public interface XpathIndexListener {
+
+    /**
+     * Called for every element, when it is closed. Therefore a child element is reported
+     * before its parent. The xpath Strings are interned by the indexer: all elements of
+     * the same xpath are reported with the same String instance.
+     *
+     * @param xpath      the xpath of the element (without trailing '/'), e.g. "/mzML/run".
+     * @param start      the position of the '&lt;' of the start tag.
+     * @param stop       the position after the '&gt;' of the end tag.
+     * @param lineNumber the line number of the end of the start tag.
+     * @param depth      the number of elements (including this one) on the xpath, 1 for the root element.
+     */
+    void element(String xpath, long start, long stop, long lineNumber, int depth);
+
+    /**
+     * Called instead of this#element(String, long, long, long, int) if the fingerprints of the elements
+     * are recorded. By default the fingerprint is ignored.
+     *
+     * @param fingerprint the 64 bit hash of the bytes of the element, from start to stop.
+     * @see XmlXpathIndexer#setElementFingerprints(boolean)
+     */
+    default void element(String xpath, long start, long stop, long lineNumber, int depth, long fingerprint) {
+        element(xpath, start, stop, lineNumber, depth);
+    }
+}
@@ -0,0 +1,128 @@
+package psidev.psi.tools.xxindex.index;
+
+import java.util.Arrays;
+
+/**
+ * Interns the xpaths found in a XML file. Each xpath is a node of the trie,
+ * identified by an int id, whose children are looked up by the bytes of their
+ * tag name. Since a file contains only a few distinct xpaths, but usually a lot
+ * of elements, the String of an xpath is only created once for each node.
+ *
+ * @since 0.25
+ */
+class XpathTrie {
+
+    /**
+     * The id of the root node, the parent of the document element.
+     */
+    static final int ROOT = 0;
+
+    private int[] parents = new int[64];
+    private byte[][] names = new byte[64][];
+    private String[] xpaths = new String[64];
+    private int size = 1; // the root node
+
+    // open addressing hash table of the node ids, keyed by parent and name
+    private int[] table = newTable(128);
+
+    ////////////////////
+    // Methods
+
+    /**
+     * Returns the node for the element with the given name within the given parent node,
+     * which is created if this xpath has not been seen before.
+     *
+     * @param parent the id of the parent node.
+     * @param name   the buffer with the tag name.
+     * @param offset the offset of the tag name in the buffer.
+     * @param length the length of the tag name.
+     * @return the id of the child node.
+     */
+    int child(int parent, byte[] name, int offset, int length) {
+        int mask = table.length - 1;
+        int slot = hash(parent, name, offset, length) & mask;
+        int id;
+        while ((id = table[slot]) != -1) {
+            if (parents[id] == parent && TagEvents.equals(names[id], name, offset, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // new xpath
+        if (size == parents.length) {
+            int capacity = size * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            names = Arrays.copyOf(names, capacity);
+            xpaths = Arrays.copyOf(xpaths, capacity);
+        }
+        id = size++;
+        parents[id] = parent;
+        names[id] = Arrays.copyOfRange(name, offset, offset + length);
+        table[slot] = id;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * @return the number of nodes, including the root node. All node ids are smaller than this.
+     */
+    int size() {
+        return size;
+    }
+
+    int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * @return the bytes of the tag name of the given node, must not be modified.
+     */
+    byte[] getNameBytes(int node) {
+        return names[node];
+    }
+
+    /**
+     * @return the tag name of the given node, decoded with the default charset.
+     */
+    String getName(int node) {
+        return new String(names[node]);
+    }
+
+    /**
+     * @return the xpath of the given node, e.g. "/mzML/run".
+     */
+    String getXpath(int node) {
+        String xpath = xpaths[node];
+        if (xpath == null) {
+            String name = getName(node);
+            int parent = parents[node];
+            xpath = parent == ROOT ? "/" + name : getXpath(parent) + "/" + name;
+            xpaths[node] = xpath;
+        }
+        return xpath;
+    }
+
+    private void rehash() {
+        table = newTable(table.length * 2);
+        int mask = table.length - 1;
+        for (int id = 1; id < size; id++) {
+            int slot = hash(parents[id], names[id], 0, names[id].length) & mask;
+            while (table[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+        }
+    }
+
+    private static int hash(int parent, byte[] name, int offset, int length) {
+        return TagEvents.hash(name, offset, length) * 31 + parent * 0x9E3779B9;
+    }
+
+    private static int[] newTable(int size) {
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        return table;
+    }
+}
@@ -0,0 +1,149 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+
+/**
+ * Checks that a modified file indexed again with its block fingerprints gets the same index
+ * as if it was indexed from scratch, and that most of its blocks are taken over.
+ *
+ * @since 0.25
+ */
+public class BlockFingerprintsTest {
+
+    private static final String SPECTRUM = "/mzML/run/spectrumList/spectrum";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReindex() throws Exception {
+        String document = document();
+        String[][] edits = {
+                // a changed attribute in the middle
+                {"<spectrum id=\"2000\">", "<spectrum id=\"2000\" changed=\"true\">"},
+                // new spectra at the start, which moves all the others
+                {"<spectrumList>\n", "<spectrumList>\n" + spectrum(-1) + spectrum(-2)},
+                // a removed spectrum
+                {spectrum(3000), ""},
+                // a changed CDATA section, with a line break
+                {"<![CDATA[1500]]>", "<![CDATA[1500\r\n<spectrum>]]>"},
+                // a changed outer element, which is open in all blocks
+                {"<run id=\"run\">", "<run id=\"modified\">"},
+                // the end of the file
+                {"</mzML>\n", "</mzML>\n<!-- indexed -->\n"},
+        };
+        for (boolean lazy : new boolean[]{false, true}) {
+            File file = folder.newFile();
+            Files.write(file.toPath(), document.getBytes("ASCII"));
+            XmlXpathIndexer indexer = new XmlXpathIndexer();
+            indexer.setBlockFingerprints(true);
+            indexer.setLazyLineNumber(lazy);
+            StandardXpathIndex index = indexer.index(file);
+            Assert.assertTrue(index.getBlockFingerprints().getBlockCount() > 10);
+
+            for (String[] edit : edits) {
+                String message = edit[0].trim() + ", lazy " + lazy;
+                Assert.assertTrue(message, document.contains(edit[0]));
+                String modified = document.replace(edit[0], edit[1]);
+                File modifiedFile = folder.newFile();
+                Files.write(modifiedFile.toPath(), modified.getBytes("ASCII"));
+                StandardXpathIndex expected = indexer.index(modifiedFile);
+
+                // the cvParams are only reported for the scanned blocks, they are not in the index
+                XmlXpathIndexer reindexer = new XmlXpathIndexer();
+                reindexer.setBlockFingerprints(true);
+                reindexer.setLazyLineNumber(lazy);
+                reindexer.setXpathInclusionSet(Collections.singleton(SPECTRUM));
+                StandardXpathIndex spectra = reindexer.index(file);
+                Counter counter = new Counter();
+                reindexer.addIndexListener(counter);
+                StandardXpathIndex reindexed = reindexer.reindex(spectra, modifiedFile);
+                reindexer.removeIndexListener(counter);
+                XmlScannerTest.assertSameIndex(message, reindexer.index(modifiedFile), reindexed);
+                Assert.assertTrue(message + ": " + counter.count, counter.count * 4 < expected.getElementCount(SPECTRUM + "/cvParam"));
+
+                reindexed = indexer.reindex(index, modifiedFile);
+                XmlScannerTest.assertSameIndex(message, expected, reindexed);
+                assertSameBlocks(message, expected.getBlockFingerprints(), reindexed.getBlockFingerprints());
+                Assert.assertTrue(message, indexer.isResumable(reindexed, modifiedFile));
+
+                // the new index can be used to index the file again
+                File original = folder.newFile();
+                Files.write(original.toPath(), document.getBytes("ASCII"));
+                XmlScannerTest.assertSameIndex(message + ", back", index, indexer.reindex(reindexed, original));
+            }
+        }
+    }
+
+    @Test
+    public void testWithoutFingerprints() throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), "<a>\n<b/>\n</a>\n".getBytes("ASCII"));
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        StandardXpathIndex index = indexer.index(file);
+        Assert.assertNull(index.getBlockFingerprints());
+
+        // the whole file is indexed again
+        Files.write(file.toPath(), "<a>\n<b/>\n<c/>\n</a>\n".getBytes("ASCII"));
+        StandardXpathIndex reindexed = indexer.reindex(index, file);
+        XmlScannerTest.assertSameIndex("without fingerprints", indexer.index(file), reindexed);
+        Assert.assertNotNull(reindexed.getBlockFingerprints());
+    }
+
+    ////////////////////
+    // Utilities
+
+    private static void assertSameBlocks(String message, BlockFingerprints expected, BlockFingerprints actual) {
+        Assert.assertEquals(message + ": blocks", expected.getBlockCount(), actual.getBlockCount());
+        for (int i = 0; i < expected.getBlockCount(); i++) {
+            Assert.assertEquals(message + ": start of block " + i, expected.getBlockStart(i), actual.getBlockStart(i));
+            Assert.assertEquals(message + ": hash of block " + i, expected.getBlockHash(i), actual.getBlockHash(i));
+            Assert.assertEquals(message + ": boundary of block " + i, expected.getBoundary(i) == null, actual.getBoundary(i) == null);
+        }
+    }
+
+    /**
+     * Counts the reported cvParam elements.
+     */
+    private static class Counter implements XpathIndexListener {
+
+        int count;
+
+        public void element(String xpath, long start, long stop, long lineNumber, int depth) {
+            if (xpath.endsWith("/cvParam")) {
+                count++;
+            }
+        }
+    }
+
+    private static String spectrum(int i) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<spectrum id=\"").append(i).append("\">\r\n<cvParam name=\"scan\" value=\"").append(i * 7).append("\"/>\n");
+        if (i % 50 == 0) {
+            sb.append("<!-- <spectrum>\n -->\n<binary><![CDATA[").append(i).append("]]></binary>\n");
+        } else {
+            sb.append("<binary>");
+            // like the encoded data arrays, which do not repeat
+            for (int j = 0; j < i % 7; j++) {
+                sb.append(Long.toHexString((i * 31L + j) * 0x9E3779B97F4A7C15L)).append("\n");
+            }
+            sb.append("</binary>\n");
+        }
+        return sb.append("</spectrum>\n").toString();
+    }
+
+    private static String document() {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\r\n<mzML>\n<run id=\"run\">\n<spectrumList>\n");
+        for (int i = 0; i < 10000; i++) {
+            sb.append(spectrum(i));
+        }
+        return sb.append("</spectrumList>\n</run>\n</mzML>\n").toString();
+    }
+}
@@ -0,0 +1,96 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+/**
+ * @since 0.25
+ */
+public class ContentChecksumTest {
+
+    @Test
+    public void testKnownValues() throws Exception {
+        Assert.assertEquals("ef46db3751d8e999", checksum(ChecksumAlgorithm.XXHASH64, ""));
+        Assert.assertEquals("d24ec4f1a98c6e5b", checksum(ChecksumAlgorithm.XXHASH64, "a"));
+        Assert.assertEquals("44bc2cf5ad770999", checksum(ChecksumAlgorithm.XXHASH64, "abc"));
+        Assert.assertEquals("fbcea83c8a378bf1", checksum(ChecksumAlgorithm.XXHASH64, "Nobody inspects the spammish repetition"));
+        Assert.assertEquals("e3069283", checksum(ChecksumAlgorithm.CRC32C, "123456789"));
+        Assert.assertEquals("00000000", checksum(ChecksumAlgorithm.CRC32C, ""));
+        Assert.assertEquals("900150983cd24fb0d6963f7d28e17f72", checksum(ChecksumAlgorithm.MD5, "abc"));
+        Assert.assertNull(checksum(ChecksumAlgorithm.NONE, "abc"));
+    }
+
+    @Test
+    public void testTableCRC32C() {
+        Random random = new Random(7);
+        byte[] data = new byte[1000];
+        random.nextBytes(data);
+        Checksum table = new ContentChecksum.TableCRC32C();
+        Checksum jdk = ContentChecksum.createCRC32C();
+        for (int i = 0; i < data.length; i += 37) {
+            table.update(data, i, Math.min(37, data.length - i));
+            jdk.update(data, i, Math.min(37, data.length - i));
+            Assert.assertEquals(jdk.getValue(), table.getValue());
+        }
+    }
+
+    @Test
+    public void testBlocks() throws Exception {
+        // the checksum must not depend on the block size, with or without the background thread
+        Random random = new Random(42);
+        byte[] data = new byte[3000];
+        random.nextBytes(data);
+        for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+            String expected = checksum(algorithm, data, data.length, false);
+            for (int blockSize : new int[]{1, 3, 31, 32, 33, 100, 4096}) {
+                Assert.assertEquals(algorithm + " " + blockSize, expected, checksum(algorithm, data, blockSize, false));
+                Assert.assertEquals(algorithm + " " + blockSize, expected, checksum(algorithm, data, blockSize, true));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexerChecksum() throws Exception {
+        byte[] data = XmlScannerTest.readResource("/test-mzIdentML-CDATA.mzid");
+        StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+        Assert.assertEquals(ContentChecksum.asHex(MessageDigest.getInstance("MD5").digest(data)), expected.getChecksum());
+        for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+            for (boolean background : new boolean[]{false, true}) {
+                XmlXpathIndexer indexer = new XmlXpathIndexer();
+                indexer.setChecksumAlgorithm(algorithm);
+                indexer.setBackgroundChecksum(background);
+                indexer.setBlockSize(1000);
+                StandardXpathIndex index = indexer.index(new ByteArrayInputStream(data));
+                Assert.assertEquals(algorithm, index.getChecksumAlgorithm());
+                Assert.assertEquals(checksum(algorithm, data, data.length, false), index.getChecksum());
+                expected.setChecksum(algorithm, index.getChecksum());
+                XmlScannerTest.assertSameIndex(algorithm + (background ? " (background)" : ""), expected, index);
+            }
+        }
+    }
+
+    ////////////////////
+    // Utilities
+
+    private static String checksum(ChecksumAlgorithm algorithm, String data) throws Exception {
+        byte[] bytes = data.getBytes("ASCII");
+        return checksum(algorithm, bytes, Math.max(1, bytes.length), false);
+    }
+
+    private static String checksum(ChecksumAlgorithm algorithm, byte[] data, int blockSize, boolean background) throws Exception {
+        ContentChecksum checksum = ContentChecksum.create(algorithm, blockSize, background);
+        Assert.assertEquals(algorithm, checksum.getAlgorithm());
+        for (int i = 0; i < data.length; i += blockSize) {
+            byte[] block = checksum.nextBlock();
+            int length = Math.min(blockSize, data.length - i);
+            System.arraycopy(data, i, block, 0, length);
+            checksum.update(block, length);
+        }
+        return checksum.getValue();
+    }
+}
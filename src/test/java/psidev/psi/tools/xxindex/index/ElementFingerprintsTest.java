@@ -0,0 +1,153 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that the fingerprints recorded while indexing only depend on the bytes of the elements.
+ *
+ * @since 0.25
+ */
+public class ElementFingerprintsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFingerprints() throws Exception {
+        List<byte[]> documents = new ArrayList<>();
+        documents.add(XmlScannerTest.TRICKY.getBytes("ASCII"));
+        documents.add(("<a>\n<b x=\"1\"><c/></b>\n<b x=\"1\"><c/></b>\n<b x=\"2\"><c/></b>\n<b x=\"1\"><c/></b>\n</a>\n").getBytes("ASCII"));
+        for (String resource : XmlScannerTest.RESOURCES) {
+            documents.add(XmlScannerTest.readResource(resource));
+        }
+        for (byte[] data : documents) {
+            for (int blockSize : new int[]{1, 7, XmlScanner.DEFAULT_BLOCK_SIZE}) {
+                for (int pipelineDepth : new int[]{0, 2}) {
+                    String message = "block size " + blockSize + ", pipeline depth " + pipelineDepth;
+                    XmlXpathIndexer indexer = new XmlXpathIndexer();
+                    indexer.setElementFingerprints(true);
+                    indexer.setBlockSize(blockSize);
+                    indexer.setPipelineDepth(pipelineDepth);
+                    StandardXpathIndex index = indexer.index(new ByteArrayInputStream(data));
+                    XmlScannerTest.assertSameIndex(message, ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true), index);
+                    assertFingerprints(message, data, index);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPosition() throws Exception {
+        // the same element in different documents, at different positions
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setElementFingerprints(true);
+        String element = "<spectrum id=\"1\">\n<cvParam value=\"<\"/>\n</spectrum>";
+        IndexElement alone = single(indexer.index(new ByteArrayInputStream(element.getBytes("ASCII"))), "/spectrum");
+        IndexElement within = single(indexer.index(new ByteArrayInputStream(("<?xml version=\"1.0\"?>\n<mzML>\n" + element + "\n</mzML>").getBytes("ASCII"))), "/mzML/spectrum");
+        Assert.assertTrue(alone.hasFingerprint());
+        Assert.assertEquals(alone.getFingerprint(), within.getFingerprint());
+        Assert.assertEquals(3, within.getLineNumber());
+
+        // without fingerprints
+        indexer.setElementFingerprints(false);
+        IndexElement without = single(indexer.index(new ByteArrayInputStream(element.getBytes("ASCII"))), "/spectrum");
+        Assert.assertFalse(without.hasFingerprint());
+        Assert.assertEquals(IndexElement.NO_FINGERPRINT, without.getFingerprint());
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        byte[] data = XmlScannerTest.readResource("/DIP-sample.xml");
+        File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setElementFingerprints(true);
+        indexer.setLazyLineNumber(true);
+        indexer.setParallelism(4);
+        StandardXpathIndex expected = indexer.index(file);
+        assertFingerprints("file", data, expected);
+
+        for (long position = 1; position < data.length; position += data.length / 7) {
+            StopCondition condition = new StopCondition();
+            condition.setMaxPosition(position);
+            indexer.setStopCondition(condition);
+            StandardXpathIndex index = indexer.index(file);
+            indexer.setStopCondition(null);
+            indexer.resume(index, file);
+            assertFingerprints("resumed at " + position, data, index);
+            for (String xpath : expected.getKeys()) {
+                Assert.assertEquals(xpath, fingerprints(expected, xpath), fingerprints(index, xpath));
+            }
+        }
+    }
+
+    @Test
+    public void testListener() throws Exception {
+        byte[] data = XmlScannerTest.TRICKY.getBytes("ASCII");
+        final Map<Long, Long> fingerprints = new HashMap<>();
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setElementFingerprints(true);
+        indexer.addIndexListener(new XpathIndexListener() {
+            public void element(String xpath, long start, long stop, long lineNumber, int depth) {
+                Assert.fail("The fingerprint is not reported");
+            }
+
+            public void element(String xpath, long start, long stop, long lineNumber, int depth, long fingerprint) {
+                fingerprints.put(start, fingerprint);
+            }
+        });
+        StandardXpathIndex index = indexer.index(new ByteArrayInputStream(data));
+        for (String xpath : index.getKeys()) {
+            for (IndexElement element : index.getElements(xpath)) {
+                Assert.assertEquals(xpath, (Long) element.getFingerprint(), fingerprints.get(element.getStart()));
+            }
+        }
+    }
+
+    ////////////////////
+    // Utilities
+
+    /**
+     * Checks that the elements with the same bytes, and only those, have the same fingerprint.
+     */
+    private static void assertFingerprints(String message, byte[] data, StandardXpathIndex index) {
+        Map<String, Long> byContent = new HashMap<>();
+        Map<Long, String> byFingerprint = new HashMap<>();
+        for (String xpath : index.getKeys()) {
+            for (IndexElement element : index.getElements(xpath)) {
+                Assert.assertTrue(message, element.hasFingerprint());
+                String content = new String(Arrays.copyOfRange(data, (int) element.getStart(), (int) element.getStop()), StandardCharsets.ISO_8859_1);
+                Long fingerprint = byContent.put(content, element.getFingerprint());
+                Assert.assertTrue(message + ": " + content, fingerprint == null || fingerprint == element.getFingerprint());
+                String other = byFingerprint.put(element.getFingerprint(), content);
+                Assert.assertTrue(message + ": " + content, other == null || other.equals(content));
+            }
+        }
+    }
+
+    private static List<Long> fingerprints(StandardXpathIndex index, String xpath) {
+        List<Long> fingerprints = new ArrayList<>();
+        for (IndexElement element : index.getElements(xpath)) {
+            fingerprints.add(element.getFingerprint());
+        }
+        return fingerprints;
+    }
+
+    private static IndexElement single(StandardXpathIndex index, String xpath) {
+        Assert.assertEquals(1, index.getElementCount(xpath));
+        return index.getElements(xpath).get(0);
+    }
+}
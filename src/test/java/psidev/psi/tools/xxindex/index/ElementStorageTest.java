@@ -0,0 +1,262 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that an index with a compact element storage has the same elements as one with an object per element,
+ * and compares the memory taken by the storages.
+ *
+ * @since 0.25
+ */
+public class ElementStorageTest {
+
+    private static final ElementStorage[] COMPACT = {ElementStorage.COLUMNAR, ElementStorage.ELIAS_FANO, ElementStorage.OFF_HEAP};
+
+    // an element of an ArrayList of LineNumberedByteRanges: a compressed reference, and an object of
+    // a 12 byte header and three longs
+    private static final long OBJECT_BYTES = 4 + 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testElementStorage() throws Exception {
+        List<byte[]> documents = new ArrayList<>();
+        for (String resource : XmlScannerTest.RESOURCES) {
+            documents.add(XmlScannerTest.readResource(resource));
+        }
+        documents.add(createDocument(1000));
+        for (byte[] data : documents) {
+            File file = write(data);
+            for (int variant = 0; variant < 5; variant++) {
+                XmlXpathIndexer indexer = new XmlXpathIndexer();
+                indexer.setLazyLineNumber(variant == 1);
+                indexer.setRecordLineNumber(variant != 2);
+                indexer.setElementFingerprints(variant == 3);
+                indexer.setParallelism(variant == 4 ? 4 : 1);
+                StandardXpathIndex expected = indexer.index(file);
+
+                for (ElementStorage storage : COMPACT) {
+                    String message = data.length + " bytes, variant " + variant + ", " + storage;
+                    indexer.setElementStorage(storage);
+                    StandardXpathIndex index = indexer.index(file);
+                    Assert.assertEquals(storage, index.getElementStorage());
+                    XmlScannerTest.assertSameIndex(message, expected, index);
+                    assertSameElements(message, expected, index);
+                    for (String xpath : index.getKeys()) {
+                        Assert.assertFalse(message, index.getElements(xpath) instanceof ArrayList);
+                    }
+
+                    // the storage is kept in the index file
+                    File indexFile = XpathIndexFile.getSidecar(file);
+                    XpathIndexFile.write(index, file, indexFile);
+                    StandardXpathIndex loaded = XpathIndexFile.read(indexFile, file, true);
+                    Assert.assertEquals(storage, loaded.getElementStorage());
+                    assertSameElements(message, expected, loaded);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        byte[] data = createDocument(1000);
+        Random random = new Random(42);
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        StandardXpathIndex expected = indexer.index(new ByteArrayInputStream(data));
+        for (ElementStorage storage : ElementStorage.values()) {
+            indexer.setElementStorage(storage);
+            StandardXpathIndex index = indexer.index(new ByteArrayInputStream(data));
+            for (int i = 0; i < 200; i++) {
+                long start = i == 0 ? 0 : random.nextInt(data.length + 10);
+                long stop = i == 0 ? Long.MAX_VALUE : start + random.nextInt(data.length / 10);
+                for (String xpath : new String[]{"/root/entry", "/root/entry/value", "/root", "/missing"}) {
+                    List<IndexElement> range = new ArrayList<>();
+                    for (IndexElement element : expected.containsXpath(xpath) ? expected.getElements(xpath) : new ArrayList<IndexElement>()) {
+                        if (element.getStart() >= start && element.getStop() <= stop) {
+                            range.add(element);
+                        }
+                    }
+                    List<IndexElement> actual = index.getElements(xpath, start, stop);
+                    Assert.assertEquals(storage + " " + start + "-" + stop, range.size(), actual.size());
+                    for (int j = 0; j < range.size(); j++) {
+                        Assert.assertEquals(storage.name(), range.get(j).getStart(), actual.get(j).getStart());
+                        Assert.assertEquals(storage.name(), range.get(j).getStop(), actual.get(j).getStop());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        byte[] data = XmlScannerTest.readResource("/DIP-sample.xml");
+        for (ElementStorage storage : COMPACT) {
+            File file = folder.newFile();
+            XmlXpathIndexer indexer = new XmlXpathIndexer();
+            indexer.setElementStorage(storage);
+            Files.write(file.toPath(), Arrays.copyOf(data, data.length / 3));
+            StandardXpathIndex index = indexer.index(file);
+            Files.write(file.toPath(), data);
+            indexer.resume(index, file);
+            assertSameElements("resumed " + storage, new XmlXpathIndexer().index(file), index);
+
+            // in the background
+            ProgressiveXpathIndex progressive = indexer.indexInBackground(file);
+            progressive.awaitCompletion();
+            assertSameElements("background " + storage, index, progressive);
+        }
+    }
+
+    @Test
+    public void testLongValues() throws Exception {
+        long big = 3L * Integer.MAX_VALUE;
+        for (ElementStorage storage : COMPACT) {
+            StandardXpathIndex index = new StandardXpathIndex();
+            index.setElementStorage(storage);
+            for (int i = 0; i < 300; i++) {
+                // an element longer than 2 GiB and line numbers that do not fit an int on the way
+                long length = i == 50 ? big : 10 + i;
+                index.put("/a", i * big, i * big + length, i < 70 ? i + 1 : big + i);
+            }
+            List<IndexElement> elements = index.getElements("/a");
+            Assert.assertEquals(300, elements.size());
+            for (int i = 0; i < 300; i++) {
+                Assert.assertEquals(storage.name(), i * big, elements.get(i).getStart());
+                Assert.assertEquals(storage.name(), i * big + (i == 50 ? big : 10 + i), elements.get(i).getStop());
+                Assert.assertEquals(storage.name(), i < 70 ? i + 1 : big + i, elements.get(i).getLineNumber());
+            }
+            index.trimToSize();
+            index.put("/a", 300 * big, 300 * big + 1, big + 300);
+            Assert.assertEquals(301, elements.size());
+            Assert.assertEquals(300 * big + 1, elements.get(300).getStop());
+        }
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        StandardXpathIndex index = new StandardXpathIndex();
+        index.setElementStorage(ElementStorage.ELIAS_FANO);
+        index.put("/a", 100, 200, 2);
+        try {
+            index.put("/a", 150, 300, 3);
+            Assert.fail("The elements overlap");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Assert.assertEquals(1, index.getElementCount("/a"));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setElementStorage(ElementStorage.OFF_HEAP);
+        StandardXpathIndex index = indexer.index(new ByteArrayInputStream(createDocument(100000)));
+        OffHeapElementList elements = (OffHeapElementList) index.getElements("/root/entry/value");
+        Assert.assertEquals(200000, elements.size());
+        // 200000 records of a start, a stop and a line number
+        Assert.assertTrue(elements.getAllocatedMemory() >= 200000 * 24);
+        Assert.assertTrue(elements.get(199999).getStart() > elements.get(0).getStart());
+
+        index.close();
+        Assert.assertEquals(0, elements.getAllocatedMemory());
+        try {
+            elements.get(0);
+            Assert.fail("The index has been closed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // closing again does no harm
+        index.close();
+    }
+
+    /**
+     * Compares the memory taken by the elements of an index with each storage.
+     */
+    @Test
+    public void testComparison() throws Exception {
+        byte[] data = createDocument(50000);
+        long[] retained = new long[ElementStorage.values().length];
+        for (ElementStorage storage : ElementStorage.values()) {
+            XmlXpathIndexer indexer = new XmlXpathIndexer();
+            indexer.setElementStorage(storage);
+            StandardXpathIndex index = indexer.index(new ByteArrayInputStream(data));
+            int count = 0;
+            for (String xpath : index.getKeys()) {
+                retained[storage.ordinal()] += retainedBytes(index.getElements(xpath));
+                count += index.getElementCount(xpath);
+            }
+            Assert.assertEquals(1 + 3 * 50000, count);
+        }
+        Assert.assertEquals((1 + 3 * 50000) * OBJECT_BYTES, retained[ElementStorage.OBJECTS.ordinal()]);
+        // a long start, an int length and an int line number per element
+        Assert.assertEquals((1 + 3 * 50000) * 16, retained[ElementStorage.COLUMNAR.ordinal()]);
+        Assert.assertTrue(Arrays.toString(retained), retained[ElementStorage.ELIAS_FANO.ordinal()] < retained[ElementStorage.COLUMNAR.ordinal()]);
+        // only the buffer objects are on the heap
+        Assert.assertTrue(Arrays.toString(retained), retained[ElementStorage.OFF_HEAP.ordinal()] < retained[ElementStorage.ELIAS_FANO.ordinal()]);
+    }
+
+    ////////////////////
+    // Utilities
+
+    /**
+     * @return an estimate of the heap memory taken by the elements of the list.
+     */
+    private static long retainedBytes(List<IndexElement> elements) {
+        if (elements instanceof ColumnarElementList) {
+            return ((ColumnarElementList) elements).retainedBytes();
+        }
+        if (elements instanceof EliasFanoElementList) {
+            return ((EliasFanoElementList) elements).retainedBytes();
+        }
+        if (elements instanceof OffHeapElementList) {
+            return ((OffHeapElementList) elements).retainedBytes();
+        }
+        Assert.assertTrue(elements instanceof ArrayList);
+        return elements.size() * OBJECT_BYTES;
+    }
+
+    private static void assertSameElements(String message, StandardXpathIndex expected, StandardXpathIndex actual) {
+        Assert.assertEquals(message, expected.getKeys(), actual.getKeys());
+        for (String xpath : expected.getKeys()) {
+            List<IndexElement> elements = actual.getElements(xpath);
+            Assert.assertEquals(message, expected.getElementCount(xpath), elements.size());
+            for (int i = 0; i < elements.size(); i++) {
+                IndexElement element = expected.getElements(xpath).get(i);
+                Assert.assertEquals(message, element.getStart(), elements.get(i).getStart());
+                Assert.assertEquals(message, element.getStop(), elements.get(i).getStop());
+                Assert.assertEquals(message, element.getLineNumber(), elements.get(i).getLineNumber());
+                Assert.assertEquals(message, element.hasFingerprint(), elements.get(i).hasFingerprint());
+                Assert.assertEquals(message, element.getFingerprint(), elements.get(i).getFingerprint());
+            }
+        }
+    }
+
+    private File write(byte[] content) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private static byte[] createDocument(int count) throws Exception {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\n<root>\n");
+        for (int i = 0; i < count; i++) {
+            sb.append("<entry id=\"").append(i).append("\">\n");
+            sb.append("  <value>").append(i * 7919 % 10007).append("</value><value/>").append(i % 3 == 0 ? "\n" : "").append("\n");
+            sb.append("</entry>\n");
+        }
+        sb.append("</root>\n");
+        return sb.toString().getBytes("ASCII");
+    }
+}
@@ -0,0 +1,154 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks that the index built with the offset index of indexedmzML and mzXML files
+ * is the same as the one built by scanning the whole file.
+ *
+ * @since 0.25
+ */
+public class EmbeddedIndexTest {
+
+    private static final String SPECTRUM = "/indexedmzML/mzML/run/spectrumList/spectrum";
+    private static final String CHROMATOGRAM = "/indexedmzML/mzML/run/chromatogramList/chromatogram";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testIndexedMzML() throws Exception {
+        File file = write(indexedMzML(0));
+        for (boolean lazy : new boolean[]{false, true}) {
+            XmlXpathIndexer indexer = new XmlXpathIndexer();
+            indexer.setLazyLineNumber(lazy);
+            StandardXpathIndex expected = indexer.index(file);
+            expected.setChecksum(null);
+            indexer.setEmbeddedIndex(true);
+            StandardXpathIndex index = indexer.index(file);
+
+            // the content of the listed elements is not indexed
+            Assert.assertFalse(index.containsXpath(SPECTRUM + "/cvParam"));
+            Assert.assertTrue(expected.containsXpath(SPECTRUM + "/cvParam"));
+            for (String xpath : expected.getKeys()) {
+                if (!xpath.startsWith(SPECTRUM + "/") && !xpath.startsWith(CHROMATOGRAM + "/")) {
+                    XmlScannerTest.assertSameIndex(xpath, only(expected, xpath), only(index, xpath));
+                }
+            }
+            Assert.assertEquals(200, index.getElementCount(SPECTRUM));
+            Assert.assertEquals(ChecksumAlgorithm.NONE, index.getChecksumAlgorithm());
+            Assert.assertTrue(indexer.isResumable(index, file));
+
+            // with the listed xpaths only
+            indexer.setXpathInclusionSet(new HashSet<>(Arrays.asList(SPECTRUM, CHROMATOGRAM)));
+            indexer.setEmbeddedIndex(false);
+            expected = indexer.index(file);
+            expected.setChecksum(null);
+            indexer.setEmbeddedIndex(true);
+            XmlScannerTest.assertSameIndex("listed xpaths, lazy " + lazy, expected, indexer.index(file));
+        }
+    }
+
+    @Test
+    public void testMzXML() throws Exception {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\n<mzXML xmlns=\"http://sashimi.sourceforge.net/schema_revision/mzXML_3.2\">\n");
+        sb.append("<msRun scanCount=\"50\">\n<parentFile fileName=\"a.raw\"/>\n");
+        long[] offsets = new long[50];
+        for (int i = 0; i < 50; i++) {
+            offsets[i] = sb.length();
+            sb.append("<scan num=\"").append(i + 1).append("\" msLevel=\"1\">\n<peaks precision=\"32\">QUJDREVG").append(i).append("</peaks>\n</scan>\n");
+        }
+        sb.append("</msRun>\n");
+        long indexOffset = sb.length();
+        sb.append("<index name=\"scan\">\n");
+        for (int i = 0; i < 50; i++) {
+            sb.append("<offset id=\"").append(i + 1).append("\">").append(offsets[i]).append("</offset>\n");
+        }
+        sb.append("</index>\n<indexOffset>").append(indexOffset).append("</indexOffset>\n<sha1>0</sha1>\n</mzXML>\n");
+        File file = write(sb.toString());
+
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        StandardXpathIndex expected = indexer.index(file);
+        indexer.setEmbeddedIndex(true);
+        StandardXpathIndex index = indexer.index(file);
+        XmlScannerTest.assertSameIndex("scan", only(expected, "/mzXML/msRun/scan"), only(index, "/mzXML/msRun/scan"));
+        Assert.assertFalse(index.containsXpath("/mzXML/msRun/scan/peaks"));
+    }
+
+    @Test
+    public void testMismatch() throws Exception {
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setEmbeddedIndex(true);
+        // offsets that are not at the start of the spectra, or end within a spectrum
+        for (int shift : new int[]{1, -1, 40}) {
+            File file = write(indexedMzML(shift));
+            StandardXpathIndex index = indexer.index(file);
+            // the whole file has been indexed
+            Assert.assertTrue(index.containsXpath(SPECTRUM + "/cvParam"));
+            Assert.assertEquals(ChecksumAlgorithm.MD5, index.getChecksumAlgorithm());
+        }
+        // no offset index at all
+        File file = write("<mzML>\n<run/>\n</mzML>\n");
+        Assert.assertEquals(ChecksumAlgorithm.MD5, indexer.index(file).getChecksumAlgorithm());
+    }
+
+    ////////////////////
+    // Utilities
+
+    private File write(String content) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes("ASCII"));
+        return file;
+    }
+
+    /**
+     * @return an index with the elements of a single xpath of the given index.
+     */
+    private static StandardXpathIndex only(StandardXpathIndex index, String xpath) {
+        Set<String> xpaths = new HashSet<>(Arrays.asList(xpath));
+        StandardXpathIndex only = new StandardXpathIndex(xpaths);
+        for (IndexElement element : index.getElements(xpath)) {
+            only.put(xpath, element.getStart(), element.getStop(), element.getLineNumber());
+        }
+        return only;
+    }
+
+    /**
+     * @param shift the number to add to the offset of the 100th spectrum.
+     */
+    private static String indexedMzML(int shift) {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\r\n");
+        sb.append("<indexedmzML xmlns=\"http://psi.hupo.org/ms/mzml\">\n<mzML version=\"1.1.0\">\n");
+        sb.append("<cvList count=\"1\">\n<cv id=\"MS\"/>\n</cvList>\n<run id=\"run\">\n<spectrumList count=\"200\">\n");
+        long[] spectra = new long[200];
+        for (int i = 0; i < spectra.length; i++) {
+            spectra[i] = sb.length() + (i == 100 ? shift : 0);
+            sb.append("<spectrum index=\"").append(i).append("\" id=\"scan=").append(i).append("\">\r\n");
+            sb.append("<cvParam name=\"ms level\" value=\"1\"/>\n<binaryDataArrayList count=\"1\">\n<binaryDataArray>\n");
+            sb.append("<!-- </spectrum> -->\n<binary>QUJDREVGR0hJSktMTU5PUA").append(i).append("</binary>\n</binaryDataArray>\n");
+            sb.append("</binaryDataArrayList>\n</spectrum   >\n");
+        }
+        sb.append("</spectrumList>\n<chromatogramList count=\"1\">\n");
+        long chromatogram = sb.length();
+        sb.append("<chromatogram index=\"0\" id=\"TIC\">\n<binary>QUJD</binary>\n</chromatogram>\n");
+        sb.append("</chromatogramList>\n</run>\n</mzML>\n");
+        long indexList = sb.length();
+        sb.append("<indexList count=\"2\">\n<index name=\"spectrum\">\n");
+        for (int i = 0; i < spectra.length; i++) {
+            sb.append("<offset idRef=\"scan=").append(i).append("\">").append(spectra[i]).append("</offset>\n");
+        }
+        sb.append("</index>\n<index name=\"chromatogram\">\n<offset idRef=\"TIC\">").append(chromatogram).append("</offset>\n");
+        sb.append("</index>\n</indexList>\n<indexListOffset>").append(indexList).append("</indexListOffset>\n");
+        sb.append("<fileChecksum>0</fileChecksum>\n</indexedmzML>\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+
+/**
+ * Checks that the indexer does not allocate memory per byte or per tag,
+ * apart from the elements that are stored in the index.
+ * Needs a JVM that can measure the allocated memory of a thread (e.g. HotSpot).
+ *
+ * @since 0.25
+ */
+public class IndexerAllocationTest {
+
+    private static final int ELEMENTS = 100000;
+
+    @Test
+    public void testNoAllocationPerTag() throws Exception {
+        byte[] data = createDocument();
+        // no xpath is included, so no element is stored in the index
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setXpathInclusionSet(Collections.singleton("/none"));
+
+        long allocated = measure(indexer, data);
+        // the buffers of the indexer are independent of the size of the document
+        Assert.assertTrue("Allocated " + allocated + " bytes", allocated < 256 * 1024);
+    }
+
+    @Test
+    public void testAllocationPerStoredElement() throws Exception {
+        byte[] data = createDocument();
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+
+        long allocated = measure(indexer, data);
+        // the stored element and its share of the growing element list
+        Assert.assertTrue("Allocated " + allocated + " bytes", allocated < 256 * 1024 + 100L * ELEMENTS);
+    }
+
+    ////////////////////
+    // Utilities
+
+    private static long measure(XmlXpathIndexer indexer, byte[] data) throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        long id = Thread.currentThread().getId();
+        long min = Long.MAX_VALUE;
+        // the first runs include the allocations of class loading and initialisation
+        for (int i = 0; i < 5; i++) {
+            long before = threadBean.getThreadAllocatedBytes(id);
+            indexer.index(new ByteArrayInputStream(data));
+            min = Math.min(min, threadBean.getThreadAllocatedBytes(id) - before);
+        }
+        return min;
+    }
+
+    private static byte[] createDocument() throws Exception {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\n<ns:root xmlns:ns=\"urn:test\">\n");
+        for (int i = 0; i < ELEMENTS / 4; i++) {
+            sb.append("<ns:entry id=\"").append(i).append("\">\n");
+            sb.append("  <!-- comment --><name><![CDATA[<x>]]></name>\n");
+            sb.append("  <value unit=\"m\">").append(i).append("</value><flag/>\n");
+            sb.append("</ns:entry>\n");
+        }
+        sb.append("</ns:root>\n");
+        return sb.toString().getBytes("ASCII");
+    }
+}
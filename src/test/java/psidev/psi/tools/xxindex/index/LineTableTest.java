@@ -0,0 +1,126 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import psidev.psi.tools.xxindex.StandardXpathAccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks that the lazy line numbers are the same as the ones recorded per element.
+ *
+ * @since 0.25
+ */
+public class LineTableTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLazyLineNumbers() throws Exception {
+        for (byte[] data : documents()) {
+            File file = folder.newFile();
+            Files.write(file.toPath(), data);
+            StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+            for (int parallelism : new int[]{1, 3}) {
+                XmlXpathIndexer indexer = new XmlXpathIndexer();
+                indexer.setLazyLineNumber(true);
+                indexer.setParallelism(parallelism);
+                StandardXpathIndex index = indexer.index(file);
+                Assert.assertNotNull(index.getLineTable());
+                Assert.assertTrue(index.getLineTable().getCheckpointCount() > data.length / (2 * LineTable.CHECKPOINT_INTERVAL));
+                XmlScannerTest.assertSameIndex("parallelism " + parallelism, expected, index);
+                Assert.assertTrue(index.getElements(index.getKeys().iterator().next()).get(0) instanceof LazyLineByteRange);
+            }
+        }
+    }
+
+    @Test
+    public void testLineOffsets() throws Exception {
+        for (byte[] data : documents()) {
+            File file = folder.newFile();
+            Files.write(file.toPath(), data);
+            XmlXpathIndexer indexer = new XmlXpathIndexer();
+            indexer.setLazyLineNumber(true);
+            LineTable lines = indexer.index(file).getLineTable();
+
+            List<Long> offsets = lineOffsets(data);
+            for (int line = 1; line <= offsets.size(); line += 1 + line / 10) {
+                Assert.assertEquals("line " + line, (long) offsets.get(line - 1), lines.getLineOffset(line));
+                Assert.assertEquals("line " + line, line, lines.getLineNumber(offsets.get(line - 1)));
+            }
+            Assert.assertEquals(-1, lines.getLineOffset(offsets.size() + 1));
+            Assert.assertEquals(-1, lines.getLineOffset(0));
+        }
+    }
+
+    @Test
+    public void testStreamAndResume() throws Exception {
+        byte[] data = documents().get(0);
+        File file = folder.newFile("lazy.xml.gz");
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(file))) {
+            os.write(data);
+        }
+        StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setLazyLineNumber(true);
+        // the file is needed to resolve the line numbers
+        StandardXpathIndex index = indexer.index(new ByteArrayInputStream(data, 0, data.length / 2));
+        indexer.resume(index, new ByteArrayInputStream(data, data.length / 2, data.length - data.length / 2));
+        IndexElement element = index.getElements(index.getKeys().iterator().next()).get(0);
+        Assert.assertFalse(element.hasLineNumber());
+        Assert.assertEquals(IndexElement.NO_LINE_NUMBER, element.getLineNumber());
+        index.getLineTable().setFile(file);
+        Assert.assertTrue(element.hasLineNumber());
+        XmlScannerTest.assertSameIndex("resumed gz", expected, index);
+
+        XmlScannerTest.assertSameIndex("access", expected, StandardXpathAccess.withIndexer(file, indexer).getIndex());
+    }
+
+    ////////////////////
+    // Utilities
+
+    /**
+     * @return documents with '\n', '\r\n' and '\r' line breaks, big enough for several checkpoints.
+     */
+    private static List<byte[]> documents() throws Exception {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\n<mzML>\r\n<run>\r<spectrumList>\n");
+        for (int i = 0; sb.length() < 3 * ParallelIndexer.MIN_CHUNK_SIZE; i++) {
+            sb.append("<spectrum id=\"").append(i).append("\"\r\n\tindex=\">\n\">\r<cvParam name=\"<>\"\r/>\n");
+            sb.append("<!-- <spectrum>\r\r\n -->\n<binary><![CDATA[\r<binary>\n]]>");
+            for (int j = 0; j < i % 100; j++) {
+                sb.append("QUJDREVGR0hJSktMTU5PUA==");
+            }
+            sb.append("</binary>\n\n</spectrum\r>\r\n");
+        }
+        sb.append("</spectrumList>\n</run>\n</mzML>\n");
+
+        List<byte[]> documents = new ArrayList<>();
+        documents.add(sb.toString().getBytes("ASCII"));
+        documents.add(XmlScannerTest.TRICKY.getBytes("ASCII"));
+        documents.add(XmlScannerTest.TRICKY.replace("\n", "\r").getBytes("ASCII"));
+        documents.add(XmlScannerTest.readResource(XmlScannerTest.RESOURCES[0]));
+        return documents;
+    }
+
+    private static List<Long> lineOffsets(byte[] data) {
+        List<Long> offsets = new ArrayList<>(Arrays.asList(0L));
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == '\n' || (data[i] == '\r' && (i + 1 == data.length || data[i + 1] != '\n'))) {
+                offsets.add(i + 1L);
+            }
+        }
+        return offsets;
+    }
+}
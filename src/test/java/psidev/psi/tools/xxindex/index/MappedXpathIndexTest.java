@@ -0,0 +1,128 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import psidev.psi.tools.xxindex.StandardXpathAccess;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that the elements read from a mapped index file are the same as the ones of the written index.
+ *
+ * @since 0.25
+ */
+public class MappedXpathIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (String resource : XmlScannerTest.RESOURCES) {
+            File file = write(XmlScannerTest.readResource(resource));
+            for (int variant = 0; variant < 5; variant++) {
+                String message = resource + ", variant " + variant;
+                XmlXpathIndexer indexer = new XmlXpathIndexer();
+                indexer.setLazyLineNumber(variant == 1);
+                indexer.setRecordLineNumber(variant != 2);
+                indexer.setElementFingerprints(variant == 3);
+                StandardXpathIndex expected = indexer.index(file);
+                if (variant == 4) {
+                    for (String xpath : expected.getKeys()) {
+                        indexer.setSamplingInterval(xpath, 3);
+                    }
+                    expected = indexer.index(file);
+                }
+
+                File indexFile = folder.newFile();
+                MappedXpathIndex.write(expected, file, indexFile);
+                MappedXpathIndex index = MappedXpathIndex.open(indexFile, file, true);
+                Assert.assertNotNull(message, index);
+                Assert.assertEquals(message, expected.getKeys(), index.getKeys());
+                Assert.assertEquals(message, expected.isRecordLineNumber(), index.isRecordLineNumber());
+                Assert.assertEquals(message, expected.getChecksum(), index.getChecksum());
+                Assert.assertEquals(message, expected.getChecksumAlgorithm(), index.getChecksumAlgorithm());
+                for (String xpath : expected.getKeys()) {
+                    Assert.assertEquals(message, expected.getElementCount(xpath), index.getElementCount(xpath));
+                    List<IndexElement> elements = index.getElements(xpath);
+                    for (int i = 0; i < expected.getElementCount(xpath); i++) {
+                        IndexElement element = expected.getElements(xpath).get(i);
+                        Assert.assertEquals(message, element.getStart(), elements.get(i).getStart());
+                        Assert.assertEquals(message, element.getStop(), elements.get(i).getStop());
+                        Assert.assertEquals(message, element.getLineNumber(), elements.get(i).getLineNumber());
+                        Assert.assertEquals(message, element.hasFingerprint(), elements.get(i).hasFingerprint());
+                        Assert.assertEquals(message, element.getFingerprint(), elements.get(i).getFingerprint());
+                    }
+                }
+                Assert.assertFalse(index.containsXpath("/missing"));
+                Assert.assertEquals(0, index.getElementCount("/missing"));
+                Assert.assertTrue(index.getElements("/missing").isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void testAccess() throws Exception {
+        File file = write(XmlScannerTest.readResource("/DIP-sample.xml"));
+        String xpath = "/entrySet/entry/interactionList/interaction";
+        StandardXpathAccess expected = new StandardXpathAccess(file);
+        File indexFile = folder.newFile();
+        MappedXpathIndex.write(expected.getIndex(), file, indexFile);
+
+        StandardXpathAccess access = StandardXpathAccess.withIndex(file, MappedXpathIndex.open(indexFile, file, false));
+        Assert.assertEquals(expected.getXmlSnippets(xpath), access.getXmlSnippets(xpath));
+        Assert.assertEquals(expected.getXmlElementCount(xpath), access.getXmlElementCount(xpath));
+        try {
+            access.update();
+            Assert.fail("The index can not be updated");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            access.getIndex().put(xpath, 0, 1, 1);
+            Assert.fail("The index can not be modified");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testValidation() throws Exception {
+        byte[] data = XmlScannerTest.readResource("/DIP-sample.xml");
+        File file = write(data);
+        File indexFile = folder.newFile();
+        MappedXpathIndex.write(new XmlXpathIndexer().index(file), file, indexFile);
+
+        // an outdated index file
+        Files.write(file.toPath(), Arrays.copyOf(data, data.length - 1));
+        Assert.assertNull(MappedXpathIndex.open(indexFile, file, false));
+        Files.write(file.toPath(), data);
+        MappedXpathIndex.write(new XmlXpathIndexer().index(file), file, indexFile);
+        Assert.assertNotNull(MappedXpathIndex.open(indexFile, file, true));
+
+        // a corrupted index file
+        byte[] bytes = Files.readAllBytes(indexFile.toPath());
+        Files.write(indexFile.toPath(), Arrays.copyOf(bytes, bytes.length - 5));
+        try {
+            MappedXpathIndex.open(indexFile, file, true);
+            Assert.fail("The index file is corrupted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    ////////////////////
+    // Utilities
+
+    private File write(byte[] content) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+}
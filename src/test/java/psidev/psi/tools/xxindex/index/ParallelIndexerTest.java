@@ -0,0 +1,86 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+/**
+ * Checks that the parallel indexing creates exactly the same index as the
+ * original byte by byte implementation of the XmlXpathIndexer.
+ *
+ * @since 0.25
+ */
+public class ParallelIndexerTest {
+
+    @Test
+    public void testSmallChunks() throws Exception {
+        for (String resource : XmlScannerTest.RESOURCES) {
+            checkChunks(resource, XmlScannerTest.readResource(resource));
+        }
+        // chunks will start within comments, CDATA sections and attribute values
+        checkChunks("tricky", XmlScannerTest.TRICKY.getBytes("ASCII"));
+        checkChunks("tricky (CRLF)", XmlScannerTest.TRICKY.replace("\n", "\r\n").getBytes("ASCII"));
+    }
+
+    @Test
+    public void testLessThanAtChunkStart() throws Exception {
+        // a chunk starting at a '<' followed by a space fails, it has to be scanned again up to its end
+        checkChunks("comment", "<a><b>x</b><!-- if 1 < 2 then --><c>y</c></a>".getBytes("ASCII"));
+        checkChunks("CDATA", "<a><b>x</b><![CDATA[ 1 < 2 ]]><c>y</c><d/></a>".getBytes("ASCII"));
+    }
+
+    @Test
+    public void testParallelIndexer() throws Exception {
+        // create a file big enough to be indexed in parallel
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\n<mzML>\n<run>\n<spectrumList>\n");
+        for (int i = 0; sb.length() < 3 * ParallelIndexer.MIN_CHUNK_SIZE; i++) {
+            sb.append("<spectrum id=\"").append(i).append("\">\r\n<cvParam name=\"<>\"/>\n");
+            sb.append("<!-- <spectrum> -->\n<binary><![CDATA[<binary>]]>");
+            for (int j = 0; j < i % 100; j++) {
+                sb.append("QUJDREVGR0hJSktMTU5PUA==");
+            }
+            sb.append("</binary>\n</spectrum>\n");
+        }
+        sb.append("</spectrumList>\n</run>\n</mzML>\n");
+        byte[] data = sb.toString().getBytes("ASCII");
+        File file = File.createTempFile("xxindex-parallel", ".xml");
+        file.deleteOnExit();
+        FileUtils.writeByteArrayToFile(file, data);
+
+        StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+        for (int parallelism = 1; parallelism <= 4; parallelism++) {
+            XmlXpathIndexer indexer = new XmlXpathIndexer();
+            indexer.setParallelism(parallelism);
+            XmlScannerTest.assertSameIndex("parallelism " + parallelism, expected, indexer.index(file));
+        }
+        Assert.assertTrue(file.delete());
+    }
+
+    ////////////////////
+    // Utilities
+
+    private void checkChunks(String name, byte[] data) throws Exception {
+        File file = File.createTempFile("xxindex-parallel", ".xml");
+        file.deleteOnExit();
+        FileUtils.writeByteArrayToFile(file, data);
+
+        StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+        for (int parallelism = 1; parallelism <= 3; parallelism++) {
+            // every chunk is mapped on its own, so bigger files are split into fewer chunks
+            long[] chunkSizes = data.length < 10000 ? new long[]{1, 17, 100, 4096} : new long[]{data.length / 100, 4096};
+            for (long chunkSize : chunkSizes) {
+                StandardXpathIndex actual = new StandardXpathIndex();
+                ContentChecksum checksum = ContentChecksum.create(ChecksumAlgorithm.MD5, 7, false);
+                ParallelIndexer parallelIndexer = new ParallelIndexer(file, parallelism, 7, true, false);
+                parallelIndexer.setMinChunkSize(chunkSize);
+                parallelIndexer.index(new XmlXpathIndexer.IndexBuilder(actual), checksum);
+                actual.setChecksum(checksum.getValue());
+                XmlScannerTest.assertSameIndex(name + " (parallelism " + parallelism + ", chunk size " + chunkSize + ")", expected, actual);
+            }
+        }
+        Assert.assertTrue(file.delete());
+    }
+}
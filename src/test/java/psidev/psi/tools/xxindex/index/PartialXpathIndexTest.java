@@ -0,0 +1,170 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that the merged partial indexes of a file are the same as its index.
+ *
+ * @since 0.25
+ */
+public class PartialXpathIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMerge() throws Exception {
+        int rescans = 0;
+        for (byte[] data : documents()) {
+            File file = folder.newFile();
+            Files.write(file.toPath(), data);
+            StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+            expected.setChecksum(null);
+            for (int count : new int[]{1, 2, 7, 31}) {
+                for (boolean lazy : new boolean[]{false, true}) {
+                    String message = count + " parts, lazy " + lazy;
+                    XmlXpathIndexer indexer = new XmlXpathIndexer();
+                    indexer.setLazyLineNumber(lazy);
+                    List<PartialXpathIndex> parts = new ArrayList<>();
+                    for (int i = 0; i < count; i++) {
+                        // the parts may be created elsewhere
+                        parts.add(copy(indexer.index(file, (long) data.length * i / count, (long) data.length * (i + 1) / count)));
+                    }
+                    StandardXpathIndex index = indexer.merge(parts, file);
+                    XmlScannerTest.assertSameIndex(message, expected, index);
+                    Assert.assertTrue(message, index.getIndexState().isComplete());
+                    Assert.assertEquals(ChecksumAlgorithm.NONE, index.getChecksumAlgorithm());
+                    Assert.assertTrue(message, indexer.isResumable(index, file));
+                    if (lazy) {
+                        Assert.assertTrue(index.getLineTable().getCheckpointCount() > data.length / (2 * LineTable.CHECKPOINT_INTERVAL));
+                    }
+
+                    // without the file, only parts which really start outside of a tag can be merged
+                    try {
+                        StandardXpathIndex merged = indexer.merge(parts, null);
+                        if (lazy) {
+                            // the file is needed to look up the line numbers
+                            merged.getLineTable().setFile(file);
+                        }
+                        XmlScannerTest.assertSameIndex(message + " without file", expected, merged);
+                    } catch (IllegalArgumentException e) {
+                        Assert.assertTrue(message, e.getMessage().contains("does not start outside of a tag"));
+                        rescans++;
+                    }
+                }
+            }
+        }
+        // some parts started within a comment, CDATA section or attribute value
+        Assert.assertTrue(rescans > 0);
+    }
+
+    @Test
+    public void testEdges() throws Exception {
+        byte[] data = "<a>\n<b>\n<c/>\n</b>\n<d>\n</d>\n</a>\n".getBytes("ASCII");
+        File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+
+        // the range is moved to the start of the tags
+        PartialXpathIndex first = indexer.index(file, 0, 6);
+        PartialXpathIndex second = indexer.index(file, 6, 22);
+        PartialXpathIndex third = indexer.index(file, 22, data.length);
+        Assert.assertEquals(0, first.getFrom());
+        Assert.assertEquals(8, first.getTo());
+        Assert.assertEquals(Arrays.asList("a", "b"), first.getUnresolvedStartTags());
+        Assert.assertEquals(Arrays.<String>asList(), first.getUnresolvedEndTags());
+        Assert.assertEquals(2, first.getLineCount());
+
+        Assert.assertEquals(8, second.getFrom());
+        Assert.assertEquals(22, second.getTo());
+        Assert.assertEquals(Arrays.asList("b"), second.getUnresolvedEndTags());
+        Assert.assertEquals(Arrays.asList("d"), second.getUnresolvedStartTags());
+        Assert.assertEquals(3, second.getTagCount());
+
+        Assert.assertEquals(data.length, third.getTo());
+        Assert.assertEquals(Arrays.asList("d", "a"), third.getUnresolvedEndTags());
+
+        XmlScannerTest.assertSameIndex("edges", indexer.merge(Arrays.asList(first, second, third), null),
+                indexer.merge(Arrays.asList(indexer.index(file, 0, data.length)), file));
+        try {
+            indexer.merge(Arrays.asList(first, third), file);
+            Assert.fail("The parts are not adjacent");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            indexer.merge(Arrays.asList(first, second), file);
+            Assert.fail("The parts do not cover the file");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLessThanAtEdge() throws Exception {
+        for (String xml : new String[]{"<a><b>x</b><!-- if 1 < 2 then --><c>y</c></a>", "<a><b>x</b><![CDATA[ 1 < 2 ]]><c>y</c></a>"}) {
+            byte[] data = xml.getBytes("ASCII");
+            File file = folder.newFile();
+            Files.write(file.toPath(), data);
+            XmlXpathIndexer indexer = new XmlXpathIndexer();
+            StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+            expected.setChecksum(null);
+            for (int k = 1; k < data.length; k++) {
+                PartialXpathIndex first = indexer.index(file, 0, k);
+                PartialXpathIndex second = indexer.index(file, k, data.length);
+                // a failed part still ends where the next one starts
+                Assert.assertEquals(xml + " at " + k, second.getFrom(), first.getTo());
+                Assert.assertEquals(xml + " at " + k, data.length, second.getTo());
+                XmlScannerTest.assertSameIndex(xml + " at " + k, expected, indexer.merge(Arrays.asList(first, second), file));
+            }
+        }
+    }
+
+    ////////////////////
+    // Utilities
+
+    private static PartialXpathIndex copy(PartialXpathIndex part) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(part);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (PartialXpathIndex) in.readObject();
+        }
+    }
+
+    private static List<byte[]> documents() throws Exception {
+        // comments and CDATA sections with tags, which do not start outside of a tag
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\r\n<mzML>\n<run>\n<spectrumList>\n");
+        for (int i = 0; sb.length() < 3 * LineTable.CHECKPOINT_INTERVAL; i++) {
+            sb.append("<spectrum id=\"").append(i).append("\">\r\n<cvParam name=\"<binary>\"/>\n");
+            sb.append("<!-- <spectrum>\n<spectrum> -->\n<binary><![CDATA[<binary>\r<a>]]>");
+            for (int j = 0; j < i % 10; j++) {
+                sb.append("QUJDREVGR0hJSktMTU5PUA==\n");
+            }
+            sb.append("</binary>\n</spectrum>\n");
+        }
+        sb.append("</spectrumList>\n</run>\n</mzML>\n");
+
+        List<byte[]> documents = new ArrayList<>();
+        documents.add(sb.toString().getBytes("ASCII"));
+        documents.add(XmlScannerTest.TRICKY.getBytes("ASCII"));
+        for (String resource : XmlScannerTest.RESOURCES) {
+            documents.add(XmlScannerTest.readResource(resource));
+        }
+        return documents;
+    }
+}
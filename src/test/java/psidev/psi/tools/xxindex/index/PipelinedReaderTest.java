@@ -0,0 +1,98 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks that the pipelined indexing creates exactly the same index as the
+ * original byte by byte implementation of the XmlXpathIndexer.
+ *
+ * @since 0.25
+ */
+public class PipelinedReaderTest {
+
+    @Test
+    public void testStreams() throws Exception {
+        for (String resource : XmlScannerTest.RESOURCES) {
+            byte[] data = XmlScannerTest.readResource(resource);
+            StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+            byte[] gz = gzip(data);
+            for (int depth = 1; depth <= 4; depth++) {
+                for (int blockSize : new int[]{7, 64, XmlScanner.DEFAULT_BLOCK_SIZE}) {
+                    XmlXpathIndexer indexer = createIndexer(depth, blockSize);
+                    assertSameIndex(resource, depth, blockSize, expected, indexer.index(new ByteArrayInputStream(data)));
+                    assertSameIndex(resource + " (gz)", depth, blockSize, expected, indexer.index(new GZIPInputStream(new ByteArrayInputStream(gz))));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMappedFile() throws Exception {
+        File file = File.createTempFile("xxindex-pipelined", ".xml");
+        file.deleteOnExit();
+        for (String resource : XmlScannerTest.RESOURCES) {
+            byte[] data = XmlScannerTest.readResource(resource);
+            FileUtils.writeByteArrayToFile(file, data);
+            StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+            for (int depth = 1; depth <= 3; depth++) {
+                XmlXpathIndexer indexer = createIndexer(depth, 100);
+                indexer.setMapWindowSize(1000);
+                assertSameIndex(resource + " (mapped)", depth, 100, expected, indexer.index(file));
+            }
+        }
+        Assert.assertTrue(file.delete());
+    }
+
+    @Test
+    public void testReadFailure() throws Exception {
+        final byte[] data = XmlScannerTest.readResource("/DIP-sample.xml");
+        InputStream failing = new InputStream() {
+            private int count = 0;
+
+            public int read() throws IOException {
+                if (count == data.length / 2) {
+                    throw new IOException("Read failure");
+                }
+                return data[count++] & 0xFF;
+            }
+        };
+        try {
+            createIndexer(2, 16).index(failing);
+            Assert.fail("The read failure has not been reported!");
+        } catch (IOException e) {
+            Assert.assertEquals("Read failure", e.getCause().getMessage());
+        }
+    }
+
+    ////////////////////
+    // Utilities
+
+    private static XmlXpathIndexer createIndexer(int depth, int blockSize) {
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setPipelineDepth(depth);
+        indexer.setBlockSize(blockSize);
+        return indexer;
+    }
+
+    private static void assertSameIndex(String name, int depth, int blockSize, XpathIndex expected, XpathIndex actual) {
+        XmlScannerTest.assertSameIndex(name + " (depth " + depth + ", block size " + blockSize + ")", expected, actual);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(bos)) {
+            gz.write(data);
+        }
+        return bos.toByteArray();
+    }
+}
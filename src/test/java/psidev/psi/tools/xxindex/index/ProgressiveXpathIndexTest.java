@@ -0,0 +1,159 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import psidev.psi.tools.xxindex.StandardXpathAccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that an index filled in the background can be queried while it is filled.
+ *
+ * @since 0.25
+ */
+public class ProgressiveXpathIndexTest {
+
+    private static final String XPATH = "/mzML/run/spectrumList/spectrum";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testProgress() throws Exception {
+        byte[] data = document();
+        File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+        List<IndexElement> spectra = expected.getElements(XPATH);
+
+        // the indexing thread waits after the 10th spectrum
+        Gate gate = new Gate(10);
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.addIndexListener(gate);
+        ProgressiveXpathIndex index = indexer.indexInBackground(file);
+        Assert.assertTrue(gate.reached.await(10, TimeUnit.SECONDS));
+        Assert.assertFalse(index.isComplete());
+        Assert.assertFalse(index.getCompletion().isDone());
+        Assert.assertEquals(spectra.get(9).getStop(), index.getIndexedPosition());
+
+        // the indexed range and elements can be used already
+        Assert.assertEquals(9, index.getElements(XPATH, spectra.get(1).getStart(), spectra.get(9).getStop()).size());
+        Iterator<IndexElement> iterator = index.getElementIterator(XPATH);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(spectra.get(i).getStart(), iterator.next().getStart());
+        }
+
+        gate.open.countDown();
+        Assert.assertSame(index, index.getCompletion().get(10, TimeUnit.SECONDS));
+        for (int i = 10; i < spectra.size(); i++) {
+            Assert.assertEquals(spectra.get(i).getStart(), iterator.next().getStart());
+        }
+        Assert.assertFalse(iterator.hasNext());
+        XmlScannerTest.assertSameIndex("background", expected, index);
+        Assert.assertTrue(index.getIndexState().isComplete());
+    }
+
+    @Test
+    public void testAccess() throws Exception {
+        byte[] data = document();
+        for (String name : new String[]{"background.xml", "background.xml.gz"}) {
+            File file = folder.newFile(name);
+            if (name.endsWith(".gz")) {
+                try (java.io.OutputStream os = new java.util.zip.GZIPOutputStream(new java.io.FileOutputStream(file))) {
+                    os.write(data);
+                }
+            } else {
+                Files.write(file.toPath(), data);
+            }
+            StandardXpathAccess expected = new StandardXpathAccess(file);
+            XmlXpathIndexer indexer = new XmlXpathIndexer();
+            indexer.setLazyLineNumber(true);
+            StandardXpathAccess access = StandardXpathAccess.inBackground(file, indexer);
+
+            IndexElement third = expected.getIndex().getElements(XPATH).get(2);
+            Assert.assertEquals(name, expected.getXmlSnippets(XPATH + "/cvParam", third.getStart(), third.getStop()),
+                    access.getXmlSnippets(XPATH + "/cvParam", third.getStart(), third.getStop()));
+            Assert.assertEquals(name, expected.getXmlSnippets(XPATH, null, third.getStop()),
+                    toList(access.getXmlSnippetIterator(XPATH, null, third.getStop())));
+            Assert.assertEquals(name, expected.getXmlElements(XPATH).get(5).getStartPos(),
+                    access.getXmlElements(XPATH).get(5).getStartPos());
+            Assert.assertEquals(name, expected.getXmlSnippets(XPATH), toList(access.getXmlSnippetIterator(XPATH)));
+            XmlScannerTest.assertSameIndex(name, expected.getIndex(), access.getCompletion().get());
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        ProgressiveXpathIndex index = indexer.indexInBackground(new ByteArrayInputStream("<a><b></b></c>".getBytes("ASCII")));
+        try {
+            index.getCompletion().get(10, TimeUnit.SECONDS);
+            Assert.fail("The mismatching closing tag has to be reported");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(1, index.elements("/a/b").size());
+        try {
+            index.getElementIterator("/a/b").hasNext();
+            Assert.fail("The failure has to be reported to the queries");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    ////////////////////
+    // Utilities
+
+    /**
+     * Blocks the indexing thread after a number of spectra, until it is opened.
+     */
+    private static class Gate implements XpathIndexListener {
+
+        final CountDownLatch reached = new CountDownLatch(1);
+        final CountDownLatch open = new CountDownLatch(1);
+        private int count;
+
+        Gate(int count) {
+            this.count = count;
+        }
+
+        public void element(String xpath, long start, long stop, long lineNumber, int depth) {
+            if (XPATH.equals(xpath) && --count == 0) {
+                reached.countDown();
+                try {
+                    open.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static List<String> toList(Iterator<String> iterator) {
+        List<String> list = new ArrayList<>();
+        while (iterator.hasNext()) {
+            list.add(iterator.next());
+        }
+        return list;
+    }
+
+    private static byte[] document() throws Exception {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\n<mzML>\n<run>\n<spectrumList>\n");
+        for (int i = 0; i < 100; i++) {
+            sb.append("<spectrum id=\"").append(i).append("\">\n<cvParam name=\"").append(i).append("\"/>\n");
+            sb.append("<binary>QUJDREVGR0hJSktMTU5PUA==</binary>\n</spectrum>\n");
+        }
+        sb.append("</spectrumList>\n</run>\n</mzML>\n");
+        return sb.toString().getBytes("ASCII");
+    }
+}
@@ -0,0 +1,125 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @since 0.25
+ */
+public class ResumeIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResumeFile() throws Exception {
+        for (byte[] data : documents()) {
+            StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+            File file = folder.newFile();
+            // split within tags, quotes, comments, CDATA sections, line breaks, ...
+            int step = Math.max(1, data.length / 97);
+            for (int split = 0; split <= data.length; split += step) {
+                XmlXpathIndexer indexer = new XmlXpathIndexer();
+                Files.write(file.toPath(), Arrays.copyOf(data, split));
+                StandardXpathIndex index = indexer.index(file);
+                Assert.assertEquals(split, index.getIndexState().getPosition());
+
+                Files.write(file.toPath(), data);
+                Assert.assertTrue(indexer.isResumable(index, file));
+                indexer.resume(index, file);
+                XmlScannerTest.assertSameIndex("split " + split, expected, index);
+                Assert.assertEquals(expected.getChecksum(), index.getChecksum());
+                Assert.assertTrue(index.getIndexState().isComplete());
+            }
+        }
+    }
+
+    @Test
+    public void testResumeStream() throws Exception {
+        byte[] data = XmlScannerTest.TRICKY.getBytes("ASCII");
+        for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+            XmlXpathIndexer indexer = new XmlXpathIndexer();
+            indexer.setChecksumAlgorithm(algorithm);
+            StandardXpathIndex expected = indexer.index(new ByteArrayInputStream(data));
+            for (int split = 0; split <= data.length; split += 3) {
+                // resume several times, with the background thread for the checksum
+                indexer.setBackgroundChecksum(split % 2 == 0);
+                StandardXpathIndex index = indexer.index(new ByteArrayInputStream(data, 0, split / 2));
+                indexer.resume(index, new ByteArrayInputStream(data, split / 2, split - split / 2));
+                indexer.resume(index, new ByteArrayInputStream(data, split, data.length - split));
+                XmlScannerTest.assertSameIndex(algorithm + " split " + split, expected, index);
+                Assert.assertEquals(algorithm + " split " + split, expected.getChecksum(), index.getChecksum());
+                Assert.assertEquals(algorithm, index.getChecksumAlgorithm());
+            }
+        }
+    }
+
+    @Test
+    public void testModifiedFile() throws Exception {
+        byte[] data = XmlScannerTest.TRICKY.getBytes("ASCII");
+        File file = folder.newFile();
+        int split = data.length / 2;
+        Files.write(file.toPath(), Arrays.copyOf(data, split));
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        StandardXpathIndex index = indexer.index(file);
+        IndexState state = index.getIndexState();
+        Assert.assertFalse(state.isComplete());
+
+        // truncated
+        Files.write(file.toPath(), Arrays.copyOf(data, split - 1));
+        Assert.assertFalse(indexer.isResumable(index, file));
+
+        // modified before the end of the indexed content
+        byte[] modified = data.clone();
+        modified[split - 1] = (byte) (modified[split - 1] + 1);
+        Files.write(file.toPath(), modified);
+        Assert.assertFalse(indexer.isResumable(index, file));
+        try {
+            indexer.resume(index, file);
+            Assert.fail("A modified file must not be resumed");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Assert.assertSame(state, index.getIndexState());
+
+        Assert.assertFalse(indexer.isResumable(new StandardXpathIndex(), file));
+    }
+
+    @Test
+    public void testUpdateAccess() throws Exception {
+        byte[] data = XmlScannerTest.readResource(XmlScannerTest.RESOURCES[0]);
+        File file = folder.newFile("growing.xml");
+        Files.write(file.toPath(), Arrays.copyOf(data, data.length / 3));
+        psidev.psi.tools.xxindex.StandardXpathAccess access = new psidev.psi.tools.xxindex.StandardXpathAccess(file);
+        Assert.assertFalse(access.update());
+
+        try (FileOutputStream fos = new FileOutputStream(file, true)) {
+            fos.write(data, data.length / 3, data.length - data.length / 3);
+        }
+        Assert.assertTrue(access.update());
+        StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+        XmlScannerTest.assertSameIndex("update", expected, access.getIndex());
+        Assert.assertEquals(expected.getChecksum(), access.getIndex().getChecksum());
+    }
+
+    private static List<byte[]> documents() throws IOException {
+        List<byte[]> documents = new ArrayList<>();
+        for (String resource : XmlScannerTest.RESOURCES) {
+            documents.add(XmlScannerTest.readResource(resource));
+        }
+        documents.add(XmlScannerTest.TRICKY.getBytes("ASCII"));
+        documents.add(XmlScannerTest.TRICKY.replace("\n", "\r\n").getBytes("ASCII"));
+        return documents;
+    }
+}
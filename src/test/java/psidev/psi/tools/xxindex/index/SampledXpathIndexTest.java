@@ -0,0 +1,147 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import psidev.psi.tools.xxindex.StandardXpathAccess;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks that the elements of sampled xpaths, which are found by scanning the file,
+ * are the same as the ones of a complete index.
+ *
+ * @since 0.25
+ */
+public class SampledXpathIndexTest {
+
+    private static final String SPECTRUM = "/mzML/run/spectrumList/spectrum";
+    private static final String CV_PARAM = SPECTRUM + "/cvParam";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSampling() throws Exception {
+        File file = write(document(1000));
+        for (int interval : new int[]{2, 7, 64, 5000}) {
+            for (int variant = 0; variant < 4; variant++) {
+                String message = "interval " + interval + ", variant " + variant;
+                XmlXpathIndexer indexer = new XmlXpathIndexer();
+                indexer.setLazyLineNumber(variant == 1);
+                indexer.setRecordLineNumber(variant != 2);
+                indexer.setElementFingerprints(variant == 3);
+                StandardXpathIndex expected = indexer.index(file);
+
+                indexer.setSamplingInterval(SPECTRUM + "/", interval);
+                indexer.setSamplingInterval(CV_PARAM, interval);
+                StandardXpathIndex index = indexer.index(file);
+                Assert.assertEquals(interval, index.getSamplingInterval(SPECTRUM));
+                Assert.assertEquals(1, index.getSamplingInterval("/mzML/run"));
+                Assert.assertEquals(1000, index.getElementCount(SPECTRUM));
+                Assert.assertEquals(2000, index.getElementCount(CV_PARAM));
+                XmlScannerTest.assertSameIndex(message, expected, index);
+                assertSameFingerprints(message, expected.getElements(CV_PARAM), index.getElements(CV_PARAM));
+
+                // random access
+                List<IndexElement> spectra = index.getElements(SPECTRUM);
+                for (int i = 999; i >= 0; i -= 37) {
+                    Assert.assertEquals(message, expected.getElements(SPECTRUM).get(i).getStart(), spectra.get(i).getStart());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAccess() throws Exception {
+        String document = document(300);
+        File file = write(document);
+        File gz = folder.newFile("sampled.xml.gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gz))) {
+            out.write(document.getBytes("ASCII"));
+        }
+        for (File f : new File[]{file, gz}) {
+            for (boolean background : new boolean[]{false, true}) {
+                String message = f.getName() + ", background " + background;
+                StandardXpathAccess expected = new StandardXpathAccess(f);
+                XmlXpathIndexer indexer = new XmlXpathIndexer();
+                indexer.setSamplingInterval(SPECTRUM, 16);
+                StandardXpathAccess access = background ? StandardXpathAccess.inBackground(f, indexer) : StandardXpathAccess.withIndexer(f, indexer);
+
+                Assert.assertEquals(message, 300, access.getXmlElementCount(SPECTRUM));
+                Assert.assertEquals(message, toList(expected.getXmlSnippetIterator(SPECTRUM)), toList(access.getXmlSnippetIterator(SPECTRUM)));
+                long start = expected.getIndex().getElements(SPECTRUM).get(100).getStart();
+                long stop = expected.getIndex().getElements(SPECTRUM).get(200).getStop();
+                Assert.assertEquals(message, expected.getXmlSnippets(SPECTRUM, start, stop), access.getXmlSnippets(SPECTRUM, start, stop));
+            }
+        }
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        String document = document(200);
+        int half = document.indexOf("<spectrum id=\"100\"");
+        File file = write(document.substring(0, half));
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setSamplingInterval(SPECTRUM, 3);
+        StandardXpathIndex index = indexer.index(file);
+        Assert.assertEquals(100, index.getElementCount(SPECTRUM));
+        Assert.assertEquals(100, index.getElements(SPECTRUM).size());
+
+        Files.write(file.toPath(), document.getBytes("ASCII"));
+        indexer.resume(index, file);
+        indexer.setSamplingInterval(SPECTRUM, 1);
+        XmlScannerTest.assertSameIndex("resumed", indexer.index(file), index);
+
+        // the file is needed to find the elements
+        index.setFile(null);
+        try {
+            index.getElements(SPECTRUM).get(1);
+            Assert.fail("The file has not been set");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    ////////////////////
+    // Utilities
+
+    private static void assertSameFingerprints(String message, List<IndexElement> expected, List<IndexElement> actual) {
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(message, expected.get(i).hasFingerprint(), actual.get(i).hasFingerprint());
+            Assert.assertEquals(message, expected.get(i).getFingerprint(), actual.get(i).getFingerprint());
+        }
+    }
+
+    private static List<String> toList(Iterator<String> iterator) {
+        List<String> list = new ArrayList<>();
+        while (iterator.hasNext()) {
+            list.add(iterator.next());
+        }
+        return list;
+    }
+
+    private File write(String content) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes("ASCII"));
+        return file;
+    }
+
+    private static String document(int count) {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\r\n<mzML xmlns=\"http://psi.hupo.org/ms/mzml\">\n<run>\n<spectrumList>\n");
+        for (int i = 0; i < count; i++) {
+            sb.append("<spectrum id=\"").append(i).append("\"\r\n  index=\"").append(i).append("\">\r\n");
+            sb.append("<cvParam name=\"<spectrum>\"/>\n<!-- <spectrum>\n<cvParam/> -->\n<cvParam\nvalue=\"").append(i).append("\"/>\n");
+            sb.append("<binary><![CDATA[<spectrum>\r]]>QUJDREVGR0hJSktMTU5PUA==").append(i % 10).append("</binary>\n</spectrum>\n");
+        }
+        return sb.append("</spectrumList>\n</run>\n</mzML>\n").toString();
+    }
+}
@@ -0,0 +1,137 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks that a stopped index contains the elements closed before the stop,
+ * and that it can be completed by resuming it.
+ *
+ * @since 0.25
+ */
+public class StopConditionTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMaxElementCount() throws Exception {
+        for (byte[] data : documents()) {
+            StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+            File file = folder.newFile();
+            Files.write(file.toPath(), data);
+            List<String> xpaths = new ArrayList<>(expected.getKeys());
+            Collections.sort(xpaths);
+            for (String xpath : xpaths) {
+                List<IndexElement> elements = expected.getElements(xpath);
+                int count = (elements.size() + 1) / 2;
+                for (int blockSize : new int[]{7, XmlScanner.DEFAULT_BLOCK_SIZE}) {
+                    String message = xpath + " " + count + ", block size " + blockSize;
+                    StopCondition condition = new StopCondition();
+                    condition.setMaxElementCount(xpath + "/", count);
+                    XmlXpathIndexer indexer = new XmlXpathIndexer();
+                    indexer.setBlockSize(blockSize);
+                    indexer.setStopCondition(condition);
+                    StandardXpathIndex index = indexer.index(file);
+
+                    long stop = elements.get(count - 1).getStop();
+                    Assert.assertTrue(message, index.getIndexState().isStopped());
+                    Assert.assertEquals(message, stop, index.getIndexState().getPosition());
+                    XmlScannerTest.assertSameIndex(message, prefix(expected, data, stop), index);
+
+                    indexer.setStopCondition(null);
+                    indexer.resume(index, file);
+                    XmlScannerTest.assertSameIndex(message + ", resumed", expected, index);
+                    Assert.assertEquals(message, expected.getChecksum(), index.getChecksum());
+                    Assert.assertFalse(index.getIndexState().isStopped());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMaxPosition() throws Exception {
+        for (byte[] data : documents()) {
+            StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+            int step = Math.max(1, data.length / 31);
+            for (int position = 0; position < data.length; position += step) {
+                String message = "position " + position;
+                StopCondition condition = new StopCondition();
+                condition.setMaxPosition(position);
+                XmlXpathIndexer indexer = new XmlXpathIndexer();
+                indexer.setBlockSize(position % 2 == 0 ? 5 : XmlScanner.DEFAULT_BLOCK_SIZE);
+                // the pipelining is not used with a stop condition
+                indexer.setPipelineDepth(2);
+                indexer.setStopCondition(condition);
+                StandardXpathIndex index = indexer.index(new ByteArrayInputStream(data));
+
+                Assert.assertTrue(message, index.getIndexState().isStopped());
+                Assert.assertEquals(message, position, index.getIndexState().getPosition());
+                XmlScannerTest.assertSameIndex(message, prefix(expected, data, position), index);
+
+                // the checksum covers the indexed content only, so it is still valid after resuming
+                indexer.setStopCondition(null);
+                indexer.resume(index, new ByteArrayInputStream(data, position, data.length - position));
+                XmlScannerTest.assertSameIndex(message + ", resumed", expected, index);
+                Assert.assertEquals(message, expected.getChecksum(), index.getChecksum());
+            }
+        }
+    }
+
+    @Test
+    public void testNotReached() throws Exception {
+        byte[] data = XmlScannerTest.TRICKY.getBytes("ASCII");
+        StopCondition condition = new StopCondition();
+        condition.setMaxElementCount("/unknown", 1);
+        condition.setMaxPosition(data.length);
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setStopCondition(condition);
+        indexer.setXpathInclusionSet(Collections.singleton("/ns:root"));
+        indexer.setSubtreePruning(true);
+        StandardXpathIndex index = indexer.index(new ByteArrayInputStream(data));
+        Assert.assertEquals(data.length, index.getIndexState().getPosition());
+        Assert.assertTrue(index.getIndexState().isComplete());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCount() {
+        new StopCondition().setMaxElementCount("/root", 0);
+    }
+
+    ////////////////////
+    // Utilities
+
+    /**
+     * @return the index of the elements closed before the position, with the checksum of the content up to it.
+     */
+    private static StandardXpathIndex prefix(StandardXpathIndex index, byte[] data, long position) throws Exception {
+        StandardXpathIndex prefix = new StandardXpathIndex();
+        prefix.setChecksum(ContentChecksum.asHex(MessageDigest.getInstance("MD5").digest(Arrays.copyOf(data, (int) position))));
+        for (String xpath : index.getKeys()) {
+            for (IndexElement element : index.getElements(xpath)) {
+                if (element.getStop() <= position) {
+                    prefix.put(xpath, element.getStart(), element.getStop(), element.getLineNumber());
+                }
+            }
+        }
+        return prefix;
+    }
+
+    private static List<byte[]> documents() throws Exception {
+        List<byte[]> documents = new ArrayList<>();
+        documents.add(XmlScannerTest.TRICKY.getBytes("ASCII"));
+        documents.add(XmlScannerTest.readResource(XmlScannerTest.RESOURCES[0]));
+        return documents;
+    }
+}
@@ -0,0 +1,146 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that pruning the subtrees that can not contain any included xpath
+ * does not change the index.
+ *
+ * @since 0.25
+ */
+public class SubtreePruningTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPruning() throws Exception {
+        for (byte[] data : documents()) {
+            StandardXpathIndex all = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+            for (Set<String> inclusionSet : inclusionSets(all)) {
+                StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), inclusionSet, true, true);
+                for (int blockSize : new int[]{7, XmlScanner.DEFAULT_BLOCK_SIZE}) {
+                    XmlXpathIndexer indexer = new XmlXpathIndexer();
+                    indexer.setXpathInclusionSet(inclusionSet);
+                    indexer.setSubtreePruning(true);
+                    indexer.setBlockSize(blockSize);
+                    XmlScannerTest.assertSameIndex(inclusionSet + " " + blockSize, expected,
+                            indexer.index(new ByteArrayInputStream(data)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelAndResume() throws Exception {
+        byte[] data = documents().get(0);
+        File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        Set<String> inclusionSet = Collections.singleton("/mzML/run/spectrumList/spectrum/cvParam");
+        StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), inclusionSet, true, true);
+
+        // the chunks are not pruned, but the replayed tags within skipped subtrees are ignored
+        StandardXpathIndex actual = new StandardXpathIndex(inclusionSet);
+        ContentChecksum checksum = ContentChecksum.create(ChecksumAlgorithm.MD5, 7, false);
+        ParallelIndexer parallelIndexer = new ParallelIndexer(file, 3, 7, true, false);
+        parallelIndexer.setMinChunkSize(data.length / 17);
+        parallelIndexer.index(new XmlXpathIndexer.IndexBuilder(actual, inclusionSet), checksum);
+        actual.setChecksum(checksum.getValue());
+        XmlScannerTest.assertSameIndex("parallel", expected, actual);
+
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setXpathInclusionSet(inclusionSet);
+        indexer.setSubtreePruning(true);
+
+        // resume within skipped subtrees, e.g. within the binary elements
+        for (int split = 1; split < data.length; split += data.length / 29) {
+            StandardXpathIndex index = indexer.index(new ByteArrayInputStream(data, 0, split));
+            indexer.resume(index, new ByteArrayInputStream(data, split, data.length - split));
+            XmlScannerTest.assertSameIndex("split " + split, expected, index);
+        }
+    }
+
+    @Test
+    public void testListener() throws Exception {
+        byte[] data = documents().get(0);
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setXpathInclusionSet(Collections.singleton("/mzML/run/spectrumList/spectrum/cvParam/"));
+        indexer.setSubtreePruning(true);
+        final Set<String> reported = new HashSet<>();
+        indexer.addIndexListener(new XpathIndexListener() {
+            public void element(String xpath, long start, long stop, long lineNumber, int depth) {
+                reported.add(xpath);
+            }
+        });
+        indexer.stream(new ByteArrayInputStream(data));
+        // the roots of the skipped subtrees are reported, but not their content
+        Assert.assertTrue(reported.contains("/mzML/run/spectrumList/spectrum/binary"));
+        Assert.assertFalse(reported.contains("/mzML/run/spectrumList/spectrum/binary/data"));
+        Assert.assertTrue(reported.contains("/mzML/run/spectrumList/spectrum/cvParam"));
+    }
+
+    @Test
+    public void testMismatchAtEndOfSubtree() throws Exception {
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setXpathInclusionSet(Collections.singleton("/a/b"));
+        indexer.setSubtreePruning(true);
+        // tags within a skipped subtree are not checked, but its closing tag is
+        indexer.index(new ByteArrayInputStream("<a><c><x></y></c><b/></a>".getBytes("ASCII")));
+        try {
+            indexer.index(new ByteArrayInputStream("<a><c><x></x></d><b/></a>".getBytes("ASCII")));
+            Assert.fail("The mismatching closing tag has to be detected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    ////////////////////
+    // Utilities
+
+    private static List<Set<String>> inclusionSets(StandardXpathIndex index) {
+        List<String> xpaths = new ArrayList<>(index.getKeys());
+        Collections.sort(xpaths);
+        List<Set<String>> sets = new ArrayList<>();
+        for (String xpath : xpaths) {
+            sets.add(Collections.singleton(xpath));
+        }
+        sets.add(new HashSet<>(xpaths.subList(0, xpaths.size() / 2)));
+        sets.add(new HashSet<>(Arrays.asList("/unknown", xpaths.get(xpaths.size() - 1) + "/")));
+        sets.add(Collections.<String>emptySet());
+        return sets;
+    }
+
+    private static List<byte[]> documents() throws Exception {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\n<mzML>\n<run>\n<spectrumList>\n");
+        for (int i = 0; i < 200; i++) {
+            sb.append("<spectrum id=\"").append(i).append("\">\r\n<cvParam name=\"<binary>\"/>\n");
+            sb.append("<!-- </spectrum> -->\n<binary><data a=\"</binary>\"><![CDATA[</binary>]]>");
+            for (int j = 0; j < i % 10; j++) {
+                sb.append("QUJDREVGR0hJSktMTU5PUA==<data/><data></data>");
+            }
+            sb.append("</data></binary>\n<cvParam/></spectrum>\n");
+        }
+        sb.append("</spectrumList>\n</run>\n</mzML>\n");
+
+        List<byte[]> documents = new ArrayList<>();
+        documents.add(sb.toString().getBytes("ASCII"));
+        documents.add(XmlScannerTest.TRICKY.getBytes("ASCII"));
+        for (String resource : XmlScannerTest.RESOURCES) {
+            documents.add(XmlScannerTest.readResource(resource));
+        }
+        return documents;
+    }
+}
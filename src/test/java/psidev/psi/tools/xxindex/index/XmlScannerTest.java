@@ -0,0 +1,226 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks that the block driven XmlScanner (with scalar and vector search) creates
+ * exactly the same index as the original byte by byte implementation of the XmlXpathIndexer.
+ *
+ * @since 0.25
+ */
+public class XmlScannerTest {
+
+    private static final int[] BLOCK_SIZES = {1, 2, 3, 7, 64, XmlScanner.DEFAULT_BLOCK_SIZE};
+
+    static final String[] RESOURCES = {
+            "/DIP-sample.xml",
+            "/10068665.xml",
+            "/test-cdata.xml",
+            "/test-comments.xml",
+            "/test-utf8-header.xml",
+            "/test-utf8-wo-header-flat.xml",
+            "/test-win1252-header.xml",
+            "/test-mzIdentML-CDATA.mzid"
+    };
+
+    static final String TRICKY =
+            "<?xml version=\"1.0\"?>\n" +
+            "<!DOCTYPE root>\n" +
+            "<ns:root xmlns:ns=\"urn:test\">\n" +
+            "  <!-- a comment with <fake> tags\n and a line break -->\n" +
+            "  <a attr=\"x > y\" other=\"<b>\">text</a>\n" +
+            "  <a\n   attr=\"multi\n line\"\n  >more</a >\n" +
+            "  <b/><b /><b\n/>\n" +
+            "  <c><![CDATA[ <c> ]] > ]]></c>\n" +
+            "  <ns:d><ns:e>1</ns:e></ns:d>\n" +
+            "  <f>\r\n</f>\r<g/>\r\r\n<h>\n\r</h>\n" +
+            "  <!---->\n<!-- -- -->\n" +
+            "</ns:root>\n";
+
+    ////////////////////
+    // Tests
+
+    @Test
+    public void testResourceFiles() throws Exception {
+        for (String resource : RESOURCES) {
+            byte[] data = readResource(resource);
+            checkAllVariants(resource, data, false);
+        }
+    }
+
+    @Test
+    public void testTrickyDocument() throws Exception {
+        checkAllVariants("tricky", TRICKY.getBytes("ASCII"), false);
+    }
+
+    @Test
+    public void testVectorSearch() throws Exception {
+        // needs the Vector API, see the vector-api profile
+        Assume.assumeTrue(XmlXpathIndexer.isVectorSearchAvailable());
+        for (String resource : RESOURCES) {
+            byte[] data = readResource(resource);
+            checkAllVariants(resource, data, true);
+        }
+        checkAllVariants("tricky", TRICKY.getBytes("ASCII"), true);
+    }
+
+    @Test
+    public void testVectorSkip() {
+        Assume.assumeTrue(XmlXpathIndexer.isVectorSearchAvailable());
+        // compare the vector search with the table lookups on random data, at all offsets
+        ByteSkipper table = new ByteSkipper.TableByteSkipper();
+        ByteSkipper vector = ByteSkipper.create(true);
+        Random random = new Random(42);
+        byte[] alphabet = {'a', 'b', '\n', '\r', '<', '>', '"', '[', 'D', '-', 0};
+        byte[] buf = new byte[300];
+        for (int round = 0; round < 200; round++) {
+            for (int i = 0; i < buf.length; i++) {
+                // mostly plain bytes, with a few bytes of interest
+                buf[i] = random.nextInt(20) == 0 ? alphabet[random.nextInt(alphabet.length)] : (byte) ('a' + random.nextInt(26));
+            }
+            for (int mode = ByteSkipper.TEXT; mode <= ByteSkipper.SPECIAL; mode++) {
+                for (int from = 0; from < buf.length; from += 13) {
+                    int to = buf.length - random.nextInt(20);
+                    Assert.assertEquals(table.skip(buf, from, to, mode), vector.skip(buf, from, to, mode));
+                    Assert.assertEquals(table.newlines, vector.newlines);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLineBreakAtBlockBoundary() throws Exception {
+        // place a "\r\n" pair at every possible offset relative to the block boundary
+        for (int padding = 0; padding < 8; padding++) {
+            StringBuilder sb = new StringBuilder("<root>");
+            for (int i = 0; i < padding; i++) {
+                sb.append(' ');
+            }
+            sb.append("\r\n<a>\r\n</a>\r<a/>\r\n</root>");
+            byte[] data = sb.toString().getBytes("ASCII");
+            for (int blockSize = 1; blockSize < 10; blockSize++) {
+                StandardXpathIndex index = index(data, null, true, true, blockSize, false);
+                List<IndexElement> elements = index.getElements("/root/a");
+                Assert.assertEquals(2, elements.size());
+                Assert.assertEquals(2, elements.get(0).getLineNumber());
+                Assert.assertEquals(4, elements.get(1).getLineNumber());
+            }
+        }
+    }
+
+    @Test
+    public void testMappedFile() throws Exception {
+        List<byte[]> documents = new ArrayList<>();
+        for (String resource : RESOURCES) {
+            documents.add(readResource(resource));
+        }
+        documents.add(TRICKY.getBytes("ASCII"));
+        documents.add(TRICKY.replace("\n", "\r\n").getBytes("ASCII"));
+        documents.add(new byte[0]);
+
+        File file = File.createTempFile("xxindex-mapped", ".xml");
+        file.deleteOnExit();
+        for (byte[] document : documents) {
+            FileUtils.writeByteArrayToFile(file, document);
+            StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(document), null, true, true);
+            // small windows to check the scanning across the mapped regions
+            for (long windowSize : new long[]{1 + document.length / 100, 4096, XmlXpathIndexer.MAP_WINDOW_SIZE}) {
+                XmlXpathIndexer indexer = new XmlXpathIndexer();
+                indexer.setBlockSize(3);
+                indexer.setMapWindowSize(windowSize);
+                assertSameIndex("mapped (window size " + windowSize + ")", expected, indexer.index(file));
+            }
+        }
+        Assert.assertTrue(file.delete());
+    }
+
+    ////////////////////
+    // Utilities
+
+    private void checkAllVariants(String name, byte[] data, boolean vectorSearch) throws IOException {
+        List<byte[]> variants = new ArrayList<>();
+        variants.add(data);
+        variants.add(replace(data, "\n", "\r\n"));
+        variants.add(replace(data, "\n", "\r"));
+        variants.add(replace(data, "<", "\0<\0"));
+
+        Set<String> inclusionSet = new HashSet<>();
+        for (int v = 0; v < variants.size(); v++) {
+            byte[] variant = variants.get(v);
+            StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(variant), null, true, true);
+            for (int blockSize : BLOCK_SIZES) {
+                StandardXpathIndex actual = index(variant, null, true, true, blockSize, vectorSearch);
+                assertSameIndex(name + " (variant " + v + ", block size " + blockSize + ")", expected, actual);
+            }
+            // also check the other indexing options
+            StandardXpathIndex expectedNS = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(variant), null, false, false);
+            StandardXpathIndex actualNS = index(variant, null, false, false, 5, vectorSearch);
+            assertSameIndex(name + " (variant " + v + ", with NS prefix)", expectedNS, actualNS);
+
+            if (inclusionSet.isEmpty()) {
+                for (String key : expected.getKeys()) {
+                    if (inclusionSet.size() < 3) {
+                        inclusionSet.add(key);
+                    }
+                }
+            }
+            StandardXpathIndex expectedSubset = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(variant), inclusionSet, true, true);
+            StandardXpathIndex actualSubset = index(variant, inclusionSet, true, true, 11, vectorSearch);
+            assertSameIndex(name + " (variant " + v + ", inclusion set)", expectedSubset, actualSubset);
+        }
+    }
+
+    private static StandardXpathIndex index(byte[] data, Set<String> inclusionSet, boolean recordLineNumber,
+                                            boolean ignoreNSPrefix, int blockSize, boolean vectorSearch) throws IOException {
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setXpathInclusionSet(inclusionSet);
+        indexer.setRecordLineNumber(recordLineNumber);
+        indexer.setIgnoreNSPrefix(ignoreNSPrefix);
+        indexer.setBlockSize(blockSize);
+        indexer.setVectorSearch(vectorSearch);
+        return indexer.index(new ByteArrayInputStream(data));
+    }
+
+    static void assertSameIndex(String message, XpathIndex expected, XpathIndex actual) {
+        Assert.assertEquals(message + ": xpaths", expected.getKeys(), actual.getKeys());
+        for (String xpath : expected.getKeys()) {
+            List<IndexElement> expectedElements = expected.getElements(xpath);
+            List<IndexElement> actualElements = actual.getElements(xpath);
+            Assert.assertEquals(message + ": number of elements for " + xpath, expectedElements.size(), actualElements.size());
+            for (int i = 0; i < expectedElements.size(); i++) {
+                IndexElement e = expectedElements.get(i);
+                IndexElement a = actualElements.get(i);
+                String element = message + ": element " + i + " of " + xpath;
+                Assert.assertEquals(element + " start", e.getStart(), a.getStart());
+                Assert.assertEquals(element + " stop", e.getStop(), a.getStop());
+                Assert.assertEquals(element + " line number", e.getLineNumber(), a.getLineNumber());
+            }
+        }
+        Assert.assertEquals(message + ": checksum", expected.getChecksum(), actual.getChecksum());
+    }
+
+    static byte[] readResource(String resource) throws IOException {
+        try (InputStream is = XmlScannerTest.class.getResourceAsStream(resource)) {
+            Assert.assertNotNull("Test resource not found: " + resource, is);
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+    private static byte[] replace(byte[] data, String target, String replacement) throws IOException {
+        return new String(data, "ISO-8859-1").replace(target, replacement).getBytes("ISO-8859-1");
+    }
+}
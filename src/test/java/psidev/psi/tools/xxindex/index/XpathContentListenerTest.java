@@ -0,0 +1,93 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks that the content listeners receive exactly the bytes of the elements,
+ * whichever way the elements are split over the blocks.
+ *
+ * @since 0.25
+ */
+public class XpathContentListenerTest {
+
+    @Test
+    public void testContent() throws Exception {
+        List<byte[]> documents = new ArrayList<>();
+        for (String resource : XmlScannerTest.RESOURCES) {
+            documents.add(XmlScannerTest.readResource(resource));
+        }
+        documents.add(XmlScannerTest.TRICKY.getBytes("ASCII"));
+
+        for (byte[] data : documents) {
+            StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+            List<String> xpaths = new ArrayList<>(expected.getKeys());
+            Collections.sort(xpaths);
+            for (int blockSize : new int[]{1, 7, 100, XmlScanner.DEFAULT_BLOCK_SIZE}) {
+                XmlXpathIndexer indexer = new XmlXpathIndexer();
+                indexer.setBlockSize(blockSize);
+                indexer.setPipelineDepth(blockSize == 100 ? 2 : 0);
+                // nested xpaths are captured as well
+                List<Recorder> recorders = new ArrayList<>();
+                for (String xpath : xpaths) {
+                    Recorder recorder = new Recorder();
+                    indexer.addContentListener(xpath + "/", recorder);
+                    recorders.add(recorder);
+                }
+                StandardXpathIndex index = indexer.index(new ByteArrayInputStream(data));
+                XmlScannerTest.assertSameIndex("block size " + blockSize, expected, index);
+                for (int i = 0; i < xpaths.size(); i++) {
+                    recorders.get(i).check(xpaths.get(i) + ", block size " + blockSize, data, expected.getElements(xpaths.get(i)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPrunedStream() throws Exception {
+        byte[] data = XmlScannerTest.TRICKY.getBytes("ASCII");
+        StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+        String xpath = expected.getKeys().iterator().next();
+        for (String included : expected.getKeys()) {
+            XmlXpathIndexer indexer = new XmlXpathIndexer();
+            indexer.setBlockSize(3);
+            // the captured xpath is not pruned, even if it is not included in the index
+            indexer.setXpathInclusionSet(Collections.singleton(included));
+            indexer.setSubtreePruning(true);
+            Recorder recorder = new Recorder();
+            indexer.addContentListener(xpath, recorder);
+            indexer.stream(new ByteArrayInputStream(data));
+            recorder.check(xpath + ", " + included, data, expected.getElements(xpath));
+        }
+    }
+
+    ////////////////////
+    // Utilities
+
+    private static class Recorder implements XpathContentListener {
+
+        private final List<byte[]> contents = new ArrayList<>();
+        private final List<Long> starts = new ArrayList<>();
+
+        public void element(String xpath, byte[] content, int offset, int length, long start, long lineNumber) {
+            contents.add(Arrays.copyOfRange(content, offset, offset + length));
+            starts.add(start);
+        }
+
+        void check(String message, byte[] data, List<IndexElement> elements) {
+            Assert.assertEquals(message, elements.size(), contents.size());
+            // the elements are reported in the same order as they are put in the index
+            for (int i = 0; i < elements.size(); i++) {
+                IndexElement element = elements.get(i);
+                Assert.assertEquals(message, element.getStart(), (long) starts.get(i));
+                Assert.assertArrayEquals(message, Arrays.copyOfRange(data, (int) element.getStart(), (int) element.getStop()), contents.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import psidev.psi.tools.xxindex.StandardXpathAccess;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Checks that an index read from an index file is the same as the written one,
+ * and that outdated or corrupted index files are detected.
+ *
+ * @since 0.25
+ */
+public class XpathIndexFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (String resource : XmlScannerTest.RESOURCES) {
+            File file = write(XmlScannerTest.readResource(resource));
+            for (int variant = 0; variant < 5; variant++) {
+                String message = resource + ", variant " + variant;
+                XmlXpathIndexer indexer = new XmlXpathIndexer();
+                indexer.setLazyLineNumber(variant == 1);
+                indexer.setRecordLineNumber(variant != 2);
+                indexer.setElementFingerprints(variant == 3);
+                indexer.setChecksumAlgorithm(ChecksumAlgorithm.XXHASH64);
+                StandardXpathIndex expected = indexer.index(file);
+                if (variant == 4) {
+                    for (String xpath : expected.getKeys()) {
+                        indexer.setSamplingInterval(xpath, 3);
+                    }
+                    expected = indexer.index(file);
+                }
+
+                File indexFile = XpathIndexFile.getSidecar(file);
+                XpathIndexFile.write(expected, file, indexFile);
+                Assert.assertTrue(message, XpathIndexFile.isValid(indexFile, file, true));
+                StandardXpathIndex index = XpathIndexFile.read(indexFile, file, true);
+                Assert.assertNotNull(message, index);
+                XmlScannerTest.assertSameIndex(message, expected, index);
+                Assert.assertEquals(message, expected.getChecksum(), index.getChecksum());
+                Assert.assertEquals(message, expected.getChecksumAlgorithm(), index.getChecksumAlgorithm());
+                for (String xpath : expected.getKeys()) {
+                    Assert.assertEquals(message, expected.getSamplingInterval(xpath), index.getSamplingInterval(xpath));
+                    for (int i = 0; i < expected.getElementCount(xpath); i++) {
+                        IndexElement element = index.getElements(xpath).get(i);
+                        Assert.assertEquals(message, expected.getElements(xpath).get(i).getLineNumber(), element.getLineNumber());
+                        Assert.assertEquals(message, expected.getElements(xpath).get(i).getFingerprint(), element.getFingerprint());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testManyXpaths() throws Exception {
+        // 13 xpaths leave the map of the index just over its threshold, reading it must not grow it
+        StringBuilder sb = new StringBuilder("<root>\n");
+        for (int i = 0; i < 12; i++) {
+            sb.append("<e").append(i).append(">").append(i).append("</e").append(i).append(">\n");
+        }
+        File file = write(sb.append("</root>\n").toString().getBytes("ASCII"));
+        StandardXpathIndex expected = new XmlXpathIndexer().index(file);
+        Assert.assertEquals(13, expected.getKeys().size());
+
+        File indexFile = XpathIndexFile.getSidecar(file);
+        XpathIndexFile.write(expected, file, indexFile);
+        StandardXpathIndex index = XpathIndexFile.read(indexFile, file, true);
+        Assert.assertNotNull(index);
+        XmlScannerTest.assertSameIndex("13 xpaths", expected, index);
+    }
+
+    @Test
+    public void testValidation() throws Exception {
+        byte[] data = XmlScannerTest.readResource("/DIP-sample.xml");
+        File file = write(data);
+        File indexFile = folder.newFile("index.xxindex");
+        XpathIndexFile.write(new XmlXpathIndexer().index(file), file, indexFile);
+        Assert.assertTrue(XpathIndexFile.isValid(indexFile, file, true));
+
+        // a missing index file
+        Assert.assertFalse(XpathIndexFile.isValid(new File(folder.getRoot(), "missing"), file, true));
+        Assert.assertNull(XpathIndexFile.read(new File(folder.getRoot(), "missing"), file, true));
+
+        // the same size and modification time, but other content
+        long modified = file.lastModified();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(data.length / 2);
+            raf.write(data[data.length / 2] == 'x' ? 'y' : 'x');
+        }
+        Assert.assertTrue(file.setLastModified(modified));
+        Assert.assertTrue(XpathIndexFile.isValid(indexFile, file, false));
+        Assert.assertFalse(XpathIndexFile.isValid(indexFile, file, true));
+        Assert.assertNull(XpathIndexFile.read(indexFile, file, true));
+
+        // another modification time
+        Files.write(file.toPath(), data);
+        Assert.assertTrue(file.setLastModified(modified + 2000));
+        Assert.assertFalse(XpathIndexFile.isValid(indexFile, file, false));
+    }
+
+    @Test
+    public void testCorrupted() throws Exception {
+        File file = write(XmlScannerTest.readResource("/DIP-sample.xml"));
+        File indexFile = folder.newFile("index.xxindex");
+        XpathIndexFile.write(new XmlXpathIndexer().index(file), file, indexFile);
+        byte[] bytes = Files.readAllBytes(indexFile.toPath());
+
+        // truncated
+        Files.write(indexFile.toPath(), Arrays.copyOf(bytes, bytes.length - 5));
+        assertCorrupted(indexFile, file);
+
+        // not an index file
+        Files.write(indexFile.toPath(), "<xml/>".getBytes("ASCII"));
+        assertCorrupted(indexFile, file);
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        byte[] data = XmlScannerTest.readResource("/DIP-sample.xml");
+        File file = folder.newFile();
+        // the indexed part ends outside of the tags
+        int half = new String(data, "ISO-8859-1").lastIndexOf("<interaction ");
+        Files.write(file.toPath(), Arrays.copyOf(data, half));
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        // the checksum of a loaded index can not be continued
+        indexer.setChecksumAlgorithm(ChecksumAlgorithm.NONE);
+        StandardXpathIndex index = indexer.index(file);
+        File indexFile = XpathIndexFile.getSidecar(file);
+        XpathIndexFile.write(index, file, indexFile);
+
+        StandardXpathIndex loaded = XpathIndexFile.read(indexFile, file, true);
+        Assert.assertNotNull(loaded.getIndexState());
+        Assert.assertEquals(index.getIndexState().getPosition(), loaded.getIndexState().getPosition());
+        Files.write(file.toPath(), data);
+        Assert.assertTrue(indexer.isResumable(loaded, file));
+        indexer.resume(loaded, file);
+        XmlScannerTest.assertSameIndex("resumed", indexer.index(file), loaded);
+    }
+
+    @Test
+    public void testAccess() throws Exception {
+        byte[] data = XmlScannerTest.readResource("/DIP-sample.xml");
+        File file = write(data);
+        File indexFile = XpathIndexFile.getSidecar(file);
+        String xpath = "/entrySet/entry/interactionList/interaction";
+        StandardXpathAccess expected = new StandardXpathAccess(file);
+
+        // the first access writes the index file, the second one reads it
+        StandardXpathAccess access = StandardXpathAccess.withIndexFile(file, new XmlXpathIndexer(), indexFile);
+        Assert.assertTrue(XpathIndexFile.isValid(indexFile, file, true));
+        long written = indexFile.lastModified();
+        access = StandardXpathAccess.withIndexFile(file, new XmlXpathIndexer(), indexFile);
+        Assert.assertEquals(written, indexFile.lastModified());
+        Assert.assertEquals(expected.getXmlSnippets(xpath), access.getXmlSnippets(xpath));
+
+        // an index file with other xpaths is not used
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.setXpathInclusionSet(Collections.singleton(xpath));
+        access = StandardXpathAccess.withIndexFile(file, indexer, indexFile);
+        Assert.assertEquals(Collections.singleton(xpath), access.getIndex().getKeys());
+        Assert.assertEquals(expected.getXmlSnippets(xpath), access.getXmlSnippets(xpath));
+
+        // a corrupted index file is replaced
+        Files.write(indexFile.toPath(), "<xml/>".getBytes("ASCII"));
+        access = StandardXpathAccess.withIndexFile(file, indexer, indexFile);
+        Assert.assertEquals(expected.getXmlSnippets(xpath), access.getXmlSnippets(xpath));
+        Assert.assertTrue(XpathIndexFile.isValid(indexFile, file, true));
+    }
+
+    @Test
+    public void testSettings() throws Exception {
+        File file = write(XmlScannerTest.readResource("/DIP-sample.xml"));
+        File indexFile = XpathIndexFile.getSidecar(file);
+        String xpath = "/entrySet/entry/interactionList/interaction";
+        XmlXpathIndexer[] indexers = new XmlXpathIndexer[10];
+        for (int i = 0; i < indexers.length; i++) {
+            indexers[i] = new XmlXpathIndexer();
+        }
+        indexers[1].setIgnoreNSPrefix(false);
+        indexers[2].setRecordLineNumber(false);
+        indexers[3].setXpathInclusionSet(Collections.singleton(xpath));
+        indexers[4].setXpathInclusionSet(Collections.singleton(xpath));
+        indexers[4].setSubtreePruning(true);
+        indexers[5].setSamplingInterval(xpath, 3);
+        indexers[6].setChecksumAlgorithm(ChecksumAlgorithm.XXHASH64);
+        indexers[7].setElementStorage(ElementStorage.COLUMNAR);
+        indexers[8].setElementStorage(ElementStorage.ELIAS_FANO);
+        indexers[9].setElementStorage(ElementStorage.OFF_HEAP);
+
+        for (int written = 0; written < indexers.length; written++) {
+            XpathIndexFile.write(indexers[written].index(file), file, indexFile);
+            StandardXpathIndex loaded = XpathIndexFile.read(indexFile, file, true);
+            for (int loading = 0; loading < indexers.length; loading++) {
+                Assert.assertEquals("written by " + written + ", loaded by " + loading, written == loading, indexers[loading].isCompatible(loaded));
+            }
+        }
+
+        // an index written with other settings is replaced
+        XpathIndexFile.write(indexers[1].index(file), file, indexFile);
+        StandardXpathAccess access = StandardXpathAccess.withIndexFile(file, indexers[0], indexFile);
+        Assert.assertTrue(((StandardXpathIndex) access.getIndex()).isIgnoreNSPrefix());
+        Assert.assertTrue(XpathIndexFile.read(indexFile, file, true).isIgnoreNSPrefix());
+
+        // the offset index of a file does not calculate a checksum
+        XmlXpathIndexer embedded = new XmlXpathIndexer();
+        embedded.setEmbeddedIndex(true);
+        XmlXpathIndexer none = new XmlXpathIndexer();
+        none.setChecksumAlgorithm(ChecksumAlgorithm.NONE);
+        XpathIndexFile.write(none.index(file), file, indexFile);
+        Assert.assertTrue(embedded.isCompatible(XpathIndexFile.read(indexFile, file, true)));
+        Assert.assertFalse(indexers[0].isCompatible(XpathIndexFile.read(indexFile, file, true)));
+    }
+
+    ////////////////////
+    // Utilities
+
+    private static void assertCorrupted(File indexFile, File file) throws Exception {
+        try {
+            XpathIndexFile.read(indexFile, file, true);
+            Assert.fail("The index file is corrupted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private File write(byte[] content) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+}
@@ -0,0 +1,103 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @since 0.25
+ */
+public class XpathIndexListenerTest {
+
+    @Test
+    public void testListener() throws Exception {
+        for (String resource : XmlScannerTest.RESOURCES) {
+            byte[] data = XmlScannerTest.readResource(resource);
+            StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+
+            RecordingListener recorder = new RecordingListener();
+            XmlXpathIndexer indexer = new XmlXpathIndexer();
+            indexer.addIndexListener(recorder);
+            // the listener receives all the elements, regardless of the inclusion set
+            indexer.setXpathInclusionSet(Collections.singleton("/none"));
+            StandardXpathIndex index = indexer.index(new ByteArrayInputStream(data));
+            Assert.assertTrue(index.getKeys().isEmpty());
+            Assert.assertEquals(expected.getChecksum(), index.getChecksum());
+            recorder.index.setChecksum(index.getChecksum());
+            XmlScannerTest.assertSameIndex(resource, expected, recorder.index);
+            checkDepths(recorder);
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        File file = File.createTempFile("xxindex-stream", ".xml");
+        file.deleteOnExit();
+        for (String resource : XmlScannerTest.RESOURCES) {
+            byte[] data = XmlScannerTest.readResource(resource);
+            FileUtils.writeByteArrayToFile(file, data);
+            StandardXpathIndex expected = ReferenceXmlXpathIndexer.buildIndex(new ByteArrayInputStream(data), null, true, true);
+
+            for (int pipelineDepth = 0; pipelineDepth < 2; pipelineDepth++) {
+                RecordingListener recorder = new RecordingListener();
+                XmlXpathIndexer indexer = new XmlXpathIndexer();
+                indexer.setPipelineDepth(pipelineDepth);
+                indexer.addIndexListener(recorder);
+                recorder.index.setChecksum(indexer.stream(new ByteArrayInputStream(data)));
+                XmlScannerTest.assertSameIndex(resource + " (stream)", expected, recorder.index);
+
+                recorder = new RecordingListener();
+                indexer.removeIndexListener(indexer.getIndexListeners().get(0));
+                indexer.addIndexListener(recorder);
+                recorder.index.setChecksum(indexer.stream(file));
+                XmlScannerTest.assertSameIndex(resource + " (file)", expected, recorder.index);
+                checkDepths(recorder);
+            }
+        }
+        Assert.assertTrue(file.delete());
+    }
+
+    @Test
+    public void testSeveralListeners() throws Exception {
+        byte[] data = XmlScannerTest.readResource("/DIP-sample.xml");
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        XmlXpathIndexer indexer = new XmlXpathIndexer();
+        indexer.addIndexListener(first);
+        indexer.addIndexListener(second);
+        indexer.setChecksumAlgorithm(ChecksumAlgorithm.NONE);
+        Assert.assertNull(indexer.stream(new ByteArrayInputStream(data)));
+        Assert.assertEquals(first.xpaths, second.xpaths);
+        Assert.assertFalse(first.xpaths.isEmpty());
+    }
+
+    ////////////////////
+    // Utilities
+
+    private static void checkDepths(RecordingListener recorder) {
+        for (int i = 0; i < recorder.xpaths.size(); i++) {
+            String xpath = recorder.xpaths.get(i);
+            Assert.assertEquals(xpath, xpath.split("/").length - 1, (int) recorder.depths.get(i));
+        }
+        // the root element is closed last
+        Assert.assertEquals(1, (int) recorder.depths.get(recorder.depths.size() - 1));
+    }
+
+    private static class RecordingListener implements XpathIndexListener {
+        private final StandardXpathIndex index = new StandardXpathIndex();
+        private final List<String> xpaths = new ArrayList<>();
+        private final List<Integer> depths = new ArrayList<>();
+
+        public void element(String xpath, long start, long stop, long lineNumber, int depth) {
+            index.put(xpath, start, stop, lineNumber);
+            xpaths.add(xpath);
+            depths.add(depth);
+        }
+    }
+}
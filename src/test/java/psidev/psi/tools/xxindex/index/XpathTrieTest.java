@@ -0,0 +1,59 @@
+package psidev.psi.tools.xxindex.index;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * @since 0.25
+ */
+public class XpathTrieTest {
+
+    @Test
+    public void testInterning() throws Exception {
+        XpathTrie trie = new XpathTrie();
+        byte[] buf = "xxmzMLrunspectrum".getBytes("ASCII");
+        int mzML = trie.child(XpathTrie.ROOT, buf, 2, 4);
+        int run = trie.child(mzML, buf, 6, 3);
+        int spectrum = trie.child(run, buf, 9, 8);
+
+        Assert.assertEquals(mzML, trie.child(XpathTrie.ROOT, "mzML".getBytes("ASCII"), 0, 4));
+        Assert.assertEquals(spectrum, trie.child(run, "spectrum".getBytes("ASCII"), 0, 8));
+        Assert.assertEquals(run, trie.getParent(spectrum));
+        Assert.assertEquals(XpathTrie.ROOT, trie.getParent(mzML));
+        Assert.assertEquals("/mzML", trie.getXpath(mzML));
+        Assert.assertEquals("/mzML/run/spectrum", trie.getXpath(spectrum));
+        Assert.assertEquals("run", trie.getName(run));
+
+        // the same name at another level is another xpath
+        int nested = trie.child(spectrum, buf, 9, 8);
+        Assert.assertNotEquals(spectrum, nested);
+        Assert.assertEquals("/mzML/run/spectrum/spectrum", trie.getXpath(nested));
+        Assert.assertEquals(5, trie.size());
+    }
+
+    @Test
+    public void testGrowth() throws Exception {
+        XpathTrie trie = new XpathTrie();
+        Set<Integer> ids = new HashSet<>();
+        int parent = XpathTrie.ROOT;
+        for (int i = 0; i < 1000; i++) {
+            byte[] name = ("e" + (i % 10)).getBytes("ASCII");
+            int node = trie.child(parent, name, 0, name.length);
+            Assert.assertTrue(ids.add(node));
+            parent = i % 10 == 9 ? node : parent;
+        }
+        Assert.assertEquals(1001, trie.size());
+        // all nodes can still be found after the table has grown
+        parent = XpathTrie.ROOT;
+        for (int i = 0; i < 1000; i++) {
+            byte[] name = ("e" + (i % 10)).getBytes("ASCII");
+            int node = trie.child(parent, name, 0, name.length);
+            Assert.assertTrue(ids.remove(node));
+            parent = i % 10 == 9 ? node : parent;
+        }
+        Assert.assertTrue(ids.isEmpty());
+    }
+}